@@ -0,0 +1,212 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.collections;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hash based implementation of {@link Interner}, that holds at most a given number of elements. Identity is determined
+ * like in {@link HashInterner}. When the maximum size is exceeded, elements are evicted with the CLOCK algorithm: Each
+ * element has a referenced bit that is set on a hit, and the clock hand evicts the next element without the bit, clearing
+ * the bit of all elements it passes. The clock hand walks in the iteration order of the underlying Map.
+ * <p>
+ * Like {@link HashInterner}, this implementation can return different object references in the case of two concurrent
+ * {@link #get(Object)} calls. Additionally, an evicted value is not returned anymore, so later calls with an equal value
+ * will intern a new instance.
+ * <p>
+ * The {@link #get(Object)} method is lock-free. Only the eviction is done under a lock, and a thread that cannot acquire
+ * it skips the eviction, so the size can temporarily exceed the maximum size.
+ * 
+ * @author cesken
+ *
+ * @param <T> The type to intern
+ */
+public class BoundedHashInterner<T> implements Interner<T>
+{
+	private final ConcurrentMap<T, Node<T>> interningMap;
+	private final int maxSize;
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	// The clock hand. Guarded by evictionLock
+	private Iterator<Node<T>> clockHand = null;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Creates an Interner that holds at most maxSize elements.
+	 * 
+	 * @param maxSize The maximum number of elements
+	 * @throws IllegalArgumentException if maxSize is not positive
+	 */
+	public BoundedHashInterner(int maxSize)
+	{
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Invalid maxSize: " + maxSize);
+		this.maxSize = maxSize;
+		interningMap = new ConcurrentHashMap<>(Math.min(maxSize, 1 << 16));
+	}
+
+	@Override
+	public T get(T value)
+	{
+		if (value == null)
+		{
+			// Special code path: Return immediately for null value, as they are not allowed in ConcurrentHashMap.
+			return null;
+		}
+
+		Node<T> node = interningMap.get(value);
+		if (node == null)
+		{
+			node = interningMap.putIfAbsent(value, new Node<T>(value));
+			if (node == null)
+			{
+				missCount.increment();
+				if (interningMap.size() > maxSize)
+					evict();
+				return value;
+			}
+		}
+
+		node.markReferenced();
+		hitCount.increment();
+		return node.value;
+	}
+
+	/**
+	 * Evicts elements until the size is not above the maximum size. Nothing is done, if another thread is
+	 * currently evicting.
+	 */
+	private void evict()
+	{
+		if (!evictionLock.tryLock())
+			return;
+
+		try
+		{
+			// Limit the steps, so a concurrently filled Map cannot keep the clock hand running forever.
+			// Two rounds are enough to find an element with a cleared referenced bit.
+			int maxSteps = 2 * interningMap.size();
+			for (int steps = 0; steps < maxSteps && interningMap.size() > maxSize; steps++)
+			{
+				if (clockHand == null || !clockHand.hasNext())
+				{
+					clockHand = interningMap.values().iterator();
+					if (!clockHand.hasNext())
+						return;
+				}
+
+				Node<T> node = clockHand.next();
+				if (node.referenced)
+				{
+					node.referenced = false;
+				}
+				else if (interningMap.remove(node.value, node))
+				{
+					evictionCount.increment();
+				}
+			}
+		}
+		finally
+		{
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Returns the number of elements this instance has interned.
+	 */
+	public int size()
+	{
+		return interningMap.size();
+	}
+
+	/**
+	 * @return The maximum number of elements
+	 */
+	public int maxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return The number of calls to {@link #get(Object)} that returned an already interned instance
+	 */
+	public long hitCount()
+	{
+		return hitCount.sum();
+	}
+
+	/**
+	 * @return The number of calls to {@link #get(Object)} that interned a new instance
+	 */
+	public long missCount()
+	{
+		return missCount.sum();
+	}
+
+	/**
+	 * Returns the ratio of calls to {@link #get(Object)} that returned an already interned instance.
+	 * 
+	 * @return The hit rate from 0 to 1, or 0 if {@link #get(Object)} was not called yet
+	 */
+	public float hitRate()
+	{
+		long hits = hitCount();
+		long total = hits + missCount();
+		return total == 0 ? 0 : (float)hits / total;
+	}
+
+	/**
+	 * @return The number of evicted elements
+	 */
+	public long evictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BoundedInterner " + this.hashCode() + " [" + size() + " elements, maxSize=" + maxSize + ", hits=" + hitCount()
+				+ ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+	}
+
+	private static final class Node<T>
+	{
+		final T value;
+		volatile boolean referenced = false;
+
+		Node(T value)
+		{
+			this.value = value;
+		}
+
+		void markReferenced()
+		{
+			// Only write if required, to avoid contention on popular values
+			if (!referenced)
+				referenced = true;
+		}
+	}
+}
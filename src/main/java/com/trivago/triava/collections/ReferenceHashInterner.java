@@ -0,0 +1,424 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.collections;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hash based implementation of {@link Interner}, that holds the interned values via weak or soft references.
+ * Identity is determined like in {@link HashInterner}. Interned values that are not referenced anymore by the
+ * application are released by the garbage collector, so this Interner can be used for high-cardinality data without
+ * leaking memory. Use {@link ReferenceType#WEAK} to release values as soon as they are unused, and
+ * {@link ReferenceType#SOFT} to keep them until the heap runs low.
+ * <p>
+ * Optionally the number of elements can be limited. When the maximum size is exceeded, elements are evicted with the
+ * CLOCK algorithm like in {@link BoundedHashInterner}.
+ * <p>
+ * Like {@link HashInterner}, this implementation can return different object references in the case of two concurrent
+ * {@link #get(Object)} calls. Additionally, a released or evicted value is not returned anymore.
+ * <p>
+ * The fast path of {@link #get(Object)} for interned values is lock-free. Released values are removed on the slow path
+ * for values that are not yet interned, and in {@link #size()}.
+ * 
+ * @author cesken
+ *
+ * @param <T> The type to intern
+ */
+public class ReferenceHashInterner<T> implements Interner<T>
+{
+	/**
+	 * The type of reference to the interned values
+	 */
+	public enum ReferenceType
+	{
+		WEAK, SOFT
+	}
+
+	// Holds each entry as key and value. Lookups use a LookupKey, that is equal to an entry with an equal referent.
+	private final ConcurrentMap<Object, Entry<T>> interningMap;
+	private final ReferenceQueue<T> referenceQueue = new ReferenceQueue<>();
+	private final ReferenceType referenceType;
+	private final int maxSize;
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	// The clock hand. Guarded by evictionLock
+	private Iterator<Entry<T>> clockHand = null;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+	private final LongAdder releaseCount = new LongAdder();
+
+	/**
+	 * Creates an unbounded Interner, that holds the interned values via weak references.
+	 */
+	public ReferenceHashInterner()
+	{
+		this(ReferenceType.WEAK, 0);
+	}
+
+	/**
+	 * Creates an Interner, that holds the interned values via the given reference type, and holds at most maxSize
+	 * elements.
+	 * 
+	 * @param referenceType The reference type
+	 * @param maxSize The maximum number of elements, or 0 for no limit
+	 * @throws IllegalArgumentException if maxSize is negative
+	 */
+	public ReferenceHashInterner(ReferenceType referenceType, int maxSize)
+	{
+		if (maxSize < 0)
+			throw new IllegalArgumentException("Invalid maxSize: " + maxSize);
+		if (referenceType == null)
+			throw new NullPointerException("referenceType must not be null");
+		this.referenceType = referenceType;
+		this.maxSize = maxSize;
+		interningMap = new ConcurrentHashMap<>(maxSize == 0 ? 100 : Math.min(maxSize, 1 << 16));
+	}
+
+	@Override
+	public T get(T value)
+	{
+		if (value == null)
+		{
+			// Special code path: Return immediately for null value, as they are not allowed in ConcurrentHashMap.
+			return null;
+		}
+
+		T shared = sharedValue(interningMap.get(new LookupKey(value)));
+		if (shared != null)
+			return shared;
+
+		// Slow path: Not yet interned, or already released
+		expungeReleasedEntries();
+		Entry<T> entry = referenceType == ReferenceType.SOFT ? new SoftEntry<T>(value, referenceQueue) : new WeakEntry<T>(value, referenceQueue);
+		while (true)
+		{
+			Entry<T> existing = interningMap.putIfAbsent(entry, entry);
+			if (existing == null)
+			{
+				missCount.increment();
+				if (maxSize > 0 && interningMap.size() > maxSize)
+					evict();
+				return value;
+			}
+
+			shared = sharedValue(existing);
+			if (shared != null)
+				return shared;
+
+			// Released after the putIfAbsent() compared it. Remove and try again.
+			interningMap.remove(existing, existing);
+		}
+	}
+
+	/**
+	 * Returns the value of the given entry and counts a hit, if the value has not been released.
+	 * 
+	 * @param entry The entry, or null
+	 * @return The value, or null
+	 */
+	private T sharedValue(Entry<T> entry)
+	{
+		if (entry == null)
+			return null;
+		T shared = entry.get();
+		if (shared != null)
+		{
+			entry.markReferenced();
+			hitCount.increment();
+		}
+		return shared;
+	}
+
+	/**
+	 * Removes the entries whose values were released by the garbage collector.
+	 */
+	@SuppressWarnings("unchecked")
+	private void expungeReleasedEntries()
+	{
+		Reference<? extends T> released;
+		while ((released = referenceQueue.poll()) != null)
+		{
+			Entry<T> entry = (Entry<T>) released;
+			if (interningMap.remove(entry, entry))
+				releaseCount.increment();
+		}
+	}
+
+	/**
+	 * Evicts elements until the size is not above the maximum size. Nothing is done, if another thread is
+	 * currently evicting.
+	 */
+	private void evict()
+	{
+		if (!evictionLock.tryLock())
+			return;
+
+		try
+		{
+			// Limit the steps, so a concurrently filled Map cannot keep the clock hand running forever.
+			// Two rounds are enough to find an element with a cleared referenced bit.
+			int maxSteps = 2 * interningMap.size();
+			for (int steps = 0; steps < maxSteps && interningMap.size() > maxSize; steps++)
+			{
+				if (clockHand == null || !clockHand.hasNext())
+				{
+					clockHand = interningMap.values().iterator();
+					if (!clockHand.hasNext())
+						return;
+				}
+
+				Entry<T> entry = clockHand.next();
+				if (entry.get() != null && entry.isReferenced())
+				{
+					entry.clearReferenced();
+				}
+				else if (interningMap.remove(entry, entry))
+				{
+					evictionCount.increment();
+				}
+			}
+		}
+		finally
+		{
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Returns the number of elements this instance has interned, and that are not yet released.
+	 */
+	public int size()
+	{
+		expungeReleasedEntries();
+		return interningMap.size();
+	}
+
+	/**
+	 * @return The maximum number of elements, or 0 for no limit
+	 */
+	public int maxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * @return The reference type to the interned values
+	 */
+	public ReferenceType referenceType()
+	{
+		return referenceType;
+	}
+
+	/**
+	 * @return The number of calls to {@link #get(Object)} that returned an already interned instance
+	 */
+	public long hitCount()
+	{
+		return hitCount.sum();
+	}
+
+	/**
+	 * @return The number of calls to {@link #get(Object)} that interned a new instance
+	 */
+	public long missCount()
+	{
+		return missCount.sum();
+	}
+
+	/**
+	 * Returns the ratio of calls to {@link #get(Object)} that returned an already interned instance.
+	 * 
+	 * @return The hit rate from 0 to 1, or 0 if {@link #get(Object)} was not called yet
+	 */
+	public float hitRate()
+	{
+		long hits = hitCount();
+		long total = hits + missCount();
+		return total == 0 ? 0 : (float)hits / total;
+	}
+
+	/**
+	 * @return The number of elements evicted due to the maximum size
+	 */
+	public long evictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	/**
+	 * @return The number of elements removed, after their value was released by the garbage collector
+	 */
+	public long releaseCount()
+	{
+		return releaseCount.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "ReferenceInterner " + this.hashCode() + " [" + size() + " elements, referenceType=" + referenceType + ", maxSize="
+				+ maxSize + ", hitRate=" + hitRate() + ", evictions=" + evictionCount() + ", released=" + releaseCount() + "]";
+	}
+
+	/**
+	 * An interned value. Entries are only equal to themselves, to a {@link LookupKey} of an equal value, or to another
+	 * Entry with an equal value. Released entries are thus only equal to themselves, and can be removed via their
+	 * reference.
+	 */
+	private interface Entry<T>
+	{
+		T get();
+		boolean isReferenced();
+		void markReferenced();
+		void clearReferenced();
+	}
+
+	private static final class WeakEntry<T> extends WeakReference<T> implements Entry<T>
+	{
+		final int hashCode;
+		volatile boolean referenced = false;
+
+		WeakEntry(T value, ReferenceQueue<T> queue)
+		{
+			super(value, queue);
+			this.hashCode = value.hashCode();
+		}
+
+		@Override
+		public boolean isReferenced()
+		{
+			return referenced;
+		}
+
+		@Override
+		public void markReferenced()
+		{
+			// Only write if required, to avoid contention on popular values
+			if (!referenced)
+				referenced = true;
+		}
+
+		@Override
+		public void clearReferenced()
+		{
+			referenced = false;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return entryEquals(this, obj);
+		}
+	}
+
+	private static final class SoftEntry<T> extends SoftReference<T> implements Entry<T>
+	{
+		final int hashCode;
+		volatile boolean referenced = false;
+
+		SoftEntry(T value, ReferenceQueue<T> queue)
+		{
+			super(value, queue);
+			this.hashCode = value.hashCode();
+		}
+
+		@Override
+		public boolean isReferenced()
+		{
+			return referenced;
+		}
+
+		@Override
+		public void markReferenced()
+		{
+			// Only write if required, to avoid contention on popular values
+			if (!referenced)
+				referenced = true;
+		}
+
+		@Override
+		public void clearReferenced()
+		{
+			referenced = false;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return entryEquals(this, obj);
+		}
+	}
+
+	private static boolean entryEquals(Entry<?> entry, Object obj)
+	{
+		if (entry == obj)
+			return true;
+		if (obj instanceof LookupKey)
+			return obj.equals(entry);
+		if (!(obj instanceof Entry))
+			return false;
+		Object value = entry.get();
+		return value != null && value.equals(((Entry<?>) obj).get());
+	}
+
+	/**
+	 * A key for looking up an Entry with an equal value, without creating a reference.
+	 */
+	private static final class LookupKey
+	{
+		final Object value;
+
+		LookupKey(Object value)
+		{
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return value.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof Entry && value.equals(((Entry<?>) obj).get());
+		}
+	}
+}
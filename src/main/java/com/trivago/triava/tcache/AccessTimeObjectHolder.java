@@ -16,63 +16,62 @@
 
 package com.trivago.triava.tcache;
 
+import java.io.IOException;
+import java.io.NotSerializableException;
 import java.io.Serializable;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import javax.cache.CacheException;
 
+import com.trivago.triava.tcache.core.Serializer;
 import com.trivago.triava.tcache.expiry.Constants;
 import com.trivago.triava.tcache.expiry.TCacheExpiryPolicy;
-import com.trivago.triava.tcache.util.SecondsOrMillis;
+import com.trivago.triava.tcache.storage.OffHeapValue;
+import com.trivago.triava.tcache.storage.SlabStore;
 import com.trivago.triava.tcache.util.Serializing;
 
 /**
  * Represents a Cache entry with associated metadata.
  * This cache entry is valid as long as data != null
+ * <p>
+ * This class holds the value and implements the expiration logic. The metadata (timestamps, expiration durations, use count
+ * and flags) is stored by the subclasses, which define the memory layout: {@link StandardObjectHolder} stores
+ * the times with millisecond precision, {@link CompactObjectHolder} packs them into 16 bytes with second precision.
+ * All times passed to and from the subclasses are in milliseconds. Points in time are relative to
+ * {@link Cache#baseTimeMillis}, durations are relative to the input date. 
+ * <p>
+ * Holders are created with the {@link #create(Object, CacheWriteMode)} factory methods, which use the standard layout.
+ * The constructors are package-private, as the layout is an implementation detail of the Cache.
  * 
  * @param <V> The value type
  */
-public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
+public abstract class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 {
 	private static final long serialVersionUID = 1774522368637513622L;
 
-	@SuppressWarnings("rawtypes") // AccessTimeObjectHolder<V> would be incompatible with AccessTimeObjectHolder.class
-	transient static AtomicIntegerFieldUpdater<AccessTimeObjectHolder> useCountAFU = AtomicIntegerFieldUpdater.newUpdater(AccessTimeObjectHolder.class, "useCount");
-
 	final static int SERIALIZATION_MASK = 0b0000_0011;
 	final static int SERIALIZATION_NONE = 0b0000_0000;
 	final static int SERIALIZATION_SERIALIZABLE = 0b0000_0001;
-	final static int SERIALIZATION_EXTERNALIZABLE = 0b0000_0010;
+	final static int SERIALIZATION_EXTERNALIZABLE = 0b0000_0010; // Serialized by a custom Serializer, on-heap or off-heap. See ExternalizedData
+	final static int SERIALIZATION_OFFHEAP = 0b0000_0011; // Serializable, and stored in an OffHeapValue
 
 	final static int STATE_MASK = 0b0110_0000;
 	final static int STATE_INCOMPLETE = 0b0000_0000;
 	final static int STATE_COMPLETE = 0b0010_0000;
 	final static int STATE_RELEASED = 0b0100_0000;
 
+	/**
+	 * The maximum decay epoch, see {@link #decayUseCount(int, int)}. Epochs wrap around after this value.
+	 */
+	public final static int DECAY_EPOCH_MAX = (1 << 12) - 1;
+
 	// offset #field-size
 	// 0 #12
 	// Object header
 	// 12 #4 
 	private volatile Object data; // Holds either a V instance, or serialized data, e.g. byte[]
-	// 16 #4
-	private int inputDate; // in milliseconds or seconds relative to baseTimeMillis
-	// 20 #4
-	private int lastAccess = 0; // in milliseconds or seconds relative to baseTimeMillis
-	// 24 #4
-	private int maxIdleTime = 0;  // in milliseconds or seconds relative to inputDate
-	// 28 #4
-	private int maxCacheTime = 0; // in milliseconds or seconds relative to inputDate
-	// 32 #4
-	private volatile int useCount = 0;
-	// 36
-	/**
-	 * Bit 0,1: Serialization mode. 00=Not serialized, 01=Serializable, 10=Externizable
-     *
-	 */
-	private volatile byte flags = STATE_INCOMPLETE;
-	// 37
+	// 16 Fields of the subclass
 	
 	/**
 	 * Construct a holder. The holder will be incomplete and not accessible by cache users, until you call {@link #complete(long, long)}
@@ -81,7 +80,22 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 	 * @param writeMode The CacheWriteMode that defines how to serialize the data
 	 * @throws CacheException when there is a problem serializing the value
 	 */
-	public AccessTimeObjectHolder(V value, CacheWriteMode writeMode) throws CacheException
+	AccessTimeObjectHolder(V value, CacheWriteMode writeMode) throws CacheException
+	{
+		this(value, writeMode, null);
+	}
+
+	/**
+	 * Construct a holder, that serializes the value with the given serializer in store-by-value mode. Values
+	 * serialized by the built-in serialization must be Serializable, while a custom serializer decides itself which
+	 * values it supports. 
+	 * 
+	 * @param value The value to store in this holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	AccessTimeObjectHolder(V value, CacheWriteMode writeMode, Serializer serializer) throws CacheException
 	{
 		try
 		{
@@ -90,20 +104,29 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 			switch (writeMode)
 			{
 				case Identity:
-					flags = SERIALIZATION_NONE;
+					setFlags(SERIALIZATION_NONE);
 					this.data = value;
 					break;
 				case Serialize:
+					if (serializer != null)
+					{
+						setFlags(SERIALIZATION_EXTERNALIZABLE);
+						this.data = new ExternalizedData(serializer.serialize(value), serializer);
+						break;
+					}
 					if (value instanceof Serializable)
 					{
-						flags = SERIALIZATION_SERIALIZABLE;
+						setFlags(SERIALIZATION_SERIALIZABLE);
 						byte[] valueAsBytearray = Serializing.toBytearray(value);
 						this.data = valueAsBytearray;
 						break;
 					}
+					throw new NotSerializableException(value.getClass().getName());
 				case Intern:
-					flags = SERIALIZATION_NONE;
-					//this.data = interner.get(value);
+					// The value was already interned by the Cache, see Cache#newHolder(Object)
+					setFlags(SERIALIZATION_NONE);
+					this.data = value;
+					break;
 				default:
 					throw new UnsupportedOperationException("CacheWriteMode not supported: " + writeMode);
 			}
@@ -121,21 +144,106 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 
 	}
 
-	public AccessTimeObjectHolder(V value, long maxIdleTimeMillis, long maxCacheTimeSecs, CacheWriteMode writeMode) throws CacheException
+	AccessTimeObjectHolder(V value, long maxIdleTimeMillis, long maxCacheTimeSecs, CacheWriteMode writeMode) throws CacheException
 	{
 		this(value, writeMode);
 		complete(maxIdleTimeMillis, maxCacheTimeSecs);
 	}
 
+	/**
+	 * Creates a holder with the standard layout. It replaces the former public constructor with the same parameters.
+	 * The holder will be incomplete and not accessible by cache users, until you call {@link #complete(long, long)}
+	 * 
+	 * @param value The value to store in the holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param <V> The value type
+	 * @return The holder
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public static <V> AccessTimeObjectHolder<V> create(V value, CacheWriteMode writeMode) throws CacheException
+	{
+		return new StandardObjectHolder<>(value, writeMode);
+	}
+
+	/**
+	 * Creates a holder with the standard layout, that serializes the value with the given serializer in store-by-value mode.
+	 * 
+	 * @param value The value to store in the holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @param <V> The value type
+	 * @return The holder
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public static <V> AccessTimeObjectHolder<V> create(V value, CacheWriteMode writeMode, Serializer serializer) throws CacheException
+	{
+		return new StandardObjectHolder<>(value, writeMode, serializer);
+	}
+
+	/**
+	 * Creates a complete holder with the standard layout. It replaces the former public constructor with the same parameters.
+	 * 
+	 * @param value The value to store in the holder
+	 * @param maxIdleTimeMillis The maximum idle time in milliseconds
+	 * @param maxCacheTimeMillis The maximum cache time in milliseconds
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param <V> The value type
+	 * @return The holder
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public static <V> AccessTimeObjectHolder<V> create(V value, long maxIdleTimeMillis, long maxCacheTimeMillis, CacheWriteMode writeMode) throws CacheException
+	{
+		return new StandardObjectHolder<>(value, maxIdleTimeMillis, maxCacheTimeMillis, writeMode);
+	}
+
 	void complete(long maxIdleTimeMillis, long maxCacheTimeMillis)
 	{
-		this.maxIdleTime = SecondsOrMillis.fromMillisToInternal(maxIdleTimeMillis);
-		this.maxCacheTime = SecondsOrMillis.fromMillisToInternal(maxCacheTimeMillis);
-		flags |= STATE_COMPLETE;
+		setMaxIdleTimeMillis(maxIdleTimeMillis);
+		setMaxCacheTimeMillis(maxCacheTimeMillis);
+		setFlags(flags() | STATE_COMPLETE);
 		setInputDate();
 		setLastAccessTime();
 	}
 
+	/**
+	 * @return The flags. Bit 0,1: Serialization mode. 00=Not serialized, 01=Serializable, 10=Externizable. Bit 5,6: State, see STATE_MASK.
+	 */
+	abstract int flags();
+
+	/**
+	 * Sets the flags. The caller is responsible for synchronization, e.g. see {@link #release()}.
+	 * @param flags The new flags
+	 */
+	abstract void setFlags(int flags);
+
+	/**
+	 * @return The input date in milliseconds relative to {@link Cache#baseTimeMillis}
+	 */
+	abstract long inputDateMillis();
+
+	abstract void setInputDateMillis(long millis);
+
+	/**
+	 * @return The last access time in milliseconds relative to {@link Cache#baseTimeMillis}
+	 */
+	abstract long lastAccessMillis();
+
+	abstract void setLastAccessMillis(long millis);
+
+	/**
+	 * @return The maximum idle time in milliseconds. 0 means expired, Long.MAX_VALUE means no limit.
+	 */
+	abstract long maxIdleTimeMillis();
+
+	abstract void setMaxIdleTimeMillis(long millis);
+
+	/**
+	 * @return The maximum cache time in milliseconds. 0 means no limit. 
+	 */
+	abstract long maxCacheTimeMillis();
+
+	abstract void setMaxCacheTimeMillis(long millis);
+
 	/**
 	 * Returns whether the holder is valid. It must be non-null and not expired.
 	 * @param holder The holder to check
@@ -159,20 +267,128 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 	{
 		synchronized (this)
 		{
+			int flags = flags();
 			boolean alreadyReleased = (flags & STATE_MASK) == STATE_RELEASED;
 			// SAE-150 Inform the caller whether he has released the holder. Hint: Other threads may
 			//         have called this concurrently, e.g. two deletes, expiration and/or eviciton.
 			if (alreadyReleased)
 				return false;
 			
-			flags = (byte)((flags & ~STATE_MASK) | STATE_RELEASED);
-			return true;
+			setFlags((flags & ~STATE_MASK) | STATE_RELEASED);
+		}
+		retireOffHeap();
+		return true;
+	}
+
+	/**
+	 * Moves the serialized value of this holder to the given off-heap store. This must only be called as long as
+	 * the holder is not visible to other Threads, e.g. before putting it in the Cache map. 
+	 * 
+	 * @param store The off-heap store
+	 * @return true, if the value was moved. false, if the value is not serialized or does not fit in the store.
+	 */
+	public boolean moveOffHeap(SlabStore store)
+	{
+		int flags = flags();
+		switch (flags & SERIALIZATION_MASK)
+		{
+			case SERIALIZATION_SERIALIZABLE:
+				OffHeapValue offHeapValue = store.store((byte[])data);
+				if (offHeapValue == null)
+					return false;
+				data = offHeapValue;
+				setFlags((flags & ~SERIALIZATION_MASK) | SERIALIZATION_OFFHEAP);
+				return true;
+			case SERIALIZATION_EXTERNALIZABLE:
+				ExternalizedData externalized = (ExternalizedData)data;
+				if (externalized.offHeapBytes != null)
+					return false; // Already off-heap
+				OffHeapValue offHeapBytes = store.store(externalized.bytes);
+				if (offHeapBytes == null)
+					return false;
+				data = new ExternalizedData(offHeapBytes, externalized.serializer);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Moves the value of this holder back on-heap, and frees its off-heap block. This reverts
+	 * {@link #moveOffHeap(SlabStore)}, and has the same restrictions.
+	 */
+	public void moveOnHeap()
+	{
+		int flags = flags();
+		switch (flags & SERIALIZATION_MASK)
+		{
+			case SERIALIZATION_OFFHEAP:
+				OffHeapValue offHeapValue = (OffHeapValue)data;
+				data = offHeapValue.read();
+				setFlags((flags & ~SERIALIZATION_MASK) | SERIALIZATION_SERIALIZABLE);
+				offHeapValue.free();
+				break;
+			case SERIALIZATION_EXTERNALIZABLE:
+				ExternalizedData externalized = (ExternalizedData)data;
+				if (externalized.offHeapBytes == null)
+					return;
+				data = new ExternalizedData(externalized.offHeapBytes.read(), externalized.serializer);
+				externalized.offHeapBytes.free();
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Retires the off-heap block of this holder, if it has one. The value stays readable for the grace period of
+	 * the store. This is called when the holder is released, or when it was removed from the Cache map.
+	 */
+	public void retireOffHeap()
+	{
+		Object dataRef = data;
+		if (dataRef instanceof OffHeapValue)
+			((OffHeapValue)dataRef).retire();
+		else if (dataRef instanceof ExternalizedData && ((ExternalizedData)dataRef).offHeapBytes != null)
+			((ExternalizedData)dataRef).offHeapBytes.retire();
+	}
+
+	/**
+	 * Returns the value in serialized form, for example to persist it. The format is that of the given serializer,
+	 * or the built-in serialization if it is null. A value that is already stored in that format is returned without
+	 * serializing it again.
+	 * 
+	 * @param serializer The serializer of the Cache, or null for the built-in serialization
+	 * @return The serialized value, or null if the value is not available any longer
+	 * @throws IOException If the value cannot be serialized
+	 */
+	byte[] serializedValue(Serializer serializer) throws IOException
+	{
+		Object dataRef = data;
+		switch (flags() & SERIALIZATION_MASK)
+		{
+			case SERIALIZATION_SERIALIZABLE:
+				return serializer == null ? (byte[])dataRef : serializer.serialize(peek());
+			case SERIALIZATION_OFFHEAP:
+				return serializer == null ? ((OffHeapValue)dataRef).read() : serializer.serialize(peek());
+			case SERIALIZATION_EXTERNALIZABLE:
+				ExternalizedData externalized = (ExternalizedData)dataRef;
+				if (externalized.serializer == serializer)
+					return externalized.bytes();
+				V value = peek();
+				if (value == null)
+					return null;
+				return serializer == null ? Serializing.toBytearray(value) : serializer.serialize(value);
+			default:
+				if (dataRef == null)
+					return null;
+				return serializer == null ? Serializing.toBytearray(dataRef) : serializer.serialize(dataRef);
 		}
 	}
 	
 	public void setMaxIdleTime(int idleTime, TimeUnit timeUnit)
 	{
-		maxIdleTime = SecondsOrMillis.fromMillisToInternal(timeUnit.toMillis(idleTime));
+		setMaxIdleTimeMillis(timeUnit.toMillis(idleTime));
 	}
 
 	/**
@@ -187,7 +403,7 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 		long tmpIdleTimeMillis = updated ? expiryPolicy.getExpiryForUpdate() : expiryPolicy.getExpiryForCreation();
 		if (tmpIdleTimeMillis == Constants.EXPIRY_NOCHANGE)
 		{
-			return SecondsOrMillis.fromInternalToMillis(oldHolder.maxIdleTime);
+			return oldHolder.maxIdleTimeMillis();
 		}
 		else
 		{
@@ -199,18 +415,21 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 	/**
 	 * Prolongs the maxIdleTime by the given idleTime. 0 means immediate expiration, -1 means to not change anything, any positive value is the prolongation in seconds.
 	 * @param idleTimeMillis The time for prolong in milliseconds. See description for the special values 0 and -1.
+	 * @return true, if the maxIdleTime was shortened. In that case the holder may expire earlier than before.
 	 */
-	public void updateMaxIdleTime(long idleTimeMillis)
+	public boolean updateMaxIdleTime(long idleTimeMillis)
 	{
+		long previousMaxIdleTimeMillis = maxIdleTimeMillis();
 		if (idleTimeMillis == 0)
 		{
-			this.maxIdleTime = 0; // invalidate immediately
+			setMaxIdleTimeMillis(0); // invalidate immediately
 		}
 		if (idleTimeMillis > 0)
 		{
 			// Prolong time: 
 			// 1) Find out how long we currently live in the Cache
-			long cacheDurationMillis = currentTimeMillisEstimate() - getCreationTime();
+			// The creation time may be rounded up by the holder layout, so the duration can be slightly negative
+			long cacheDurationMillis = Math.max(0, currentTimeMillisEstimate() - getCreationTime());
 			// 2) Prolong by idleTimeSecs.
 			try
 			{
@@ -219,7 +438,7 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 				{
 					newIdleTimeMillis = Constants.EXPIRY_MAX; // overrun
 				}
-				this.maxIdleTime = SecondsOrMillis.fromMillisToInternal(newIdleTimeMillis);				
+				setMaxIdleTimeMillis(newIdleTimeMillis);
 			}
 			catch (Exception exc)
 			{
@@ -229,19 +448,84 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 //			this.maxIdleTime = newMaxIdleTarget;
 		}
 		// -1 => No change
+
+		return maxIdleTimeMillis() < previousMaxIdleTimeMillis;
 	}
 
 
 	@Override
 	public long getExpirationTime()
 	{
-		long idleDurationMillis = SecondsOrMillis.fromInternalToMillis(maxIdleTime);
-		long expirationDurationMillis = SecondsOrMillis.fromInternalToMillis(maxCacheTime);
+		long idleDurationMillis = maxIdleTimeMillis();
+		long expirationDurationMillis = maxCacheTimeMillis();
 		// durationMillis: The smaller of expiration-time and idle-time wins
 		long durationMillis = Math.min(expirationDurationMillis, idleDurationMillis);
 		return getCreationTime() + durationMillis;
 	}
 
+	/**
+	 * Returns the time from which on this holder is invalid, as checked by {@link #isInvalid()}. In contrast to
+	 * {@link #getExpirationTime()} this respects the last access time, and a maxCacheTime of 0 (no expiration).
+	 * A later access can only make the holder expire later. 
+	 * 
+	 * @return The expiration time in milliseconds since EPOCH. Long.MAX_VALUE means never.
+	 */
+	public long getExpirationDueTime()
+	{
+		long idleDurationMillis = maxIdleTimeMillis();
+		if (idleDurationMillis == 0)
+			return 0; // Due immediately
+		return Math.min(getIdleDueTime(), getCacheDueTime());
+	}
+
+	/**
+	 * @return The time when this holder expires due to idling, in milliseconds since EPOCH. Long.MAX_VALUE means never.
+	 */
+	long getIdleDueTime()
+	{
+		return idleDueTime(getLastAccessTime(), maxIdleTimeMillis());
+	}
+
+	/**
+	 * @return The time when this holder expires due to its cache time, in milliseconds since EPOCH. Long.MAX_VALUE means never.
+	 */
+	long getCacheDueTime()
+	{
+		return cacheDueTime(getCreationTime(), maxCacheTimeMillis());
+	}
+
+	/**
+	 * Returns the time when an entry expires due to idling.
+	 * 
+	 * @param lastAccessTime The last access time in milliseconds since EPOCH
+	 * @param maxIdleTimeMillis The maximum idle time in milliseconds. {@link Constants#EXPIRY_MAX} means no limit.
+	 * @return The due time in milliseconds since EPOCH. Long.MAX_VALUE means never.
+	 */
+	public static long idleDueTime(long lastAccessTime, long maxIdleTimeMillis)
+	{
+		return maxIdleTimeMillis == Constants.EXPIRY_MAX ? Long.MAX_VALUE : dueTime(lastAccessTime, maxIdleTimeMillis);
+	}
+
+	/**
+	 * Returns the time when an entry expires due to its cache time.
+	 * 
+	 * @param creationTime The creation time in milliseconds since EPOCH
+	 * @param maxCacheTimeMillis The maximum cache time in milliseconds. 0 means no limit.
+	 * @return The due time in milliseconds since EPOCH. Long.MAX_VALUE means never.
+	 */
+	public static long cacheDueTime(long creationTime, long maxCacheTimeMillis)
+	{
+		return maxCacheTimeMillis > 0 ? dueTime(creationTime, maxCacheTimeMillis) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns start + duration, limited to Long.MAX_VALUE
+	 */
+	static long dueTime(long startMillis, long durationMillis)
+	{
+		return durationMillis > Long.MAX_VALUE - startMillis ? Long.MAX_VALUE : startMillis + durationMillis;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 	<p>TODO The use count is not yet updated here. This makes behavior inconsistent, e.g. in the iterator 
@@ -257,7 +541,7 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 	@SuppressWarnings("unchecked") 
 	public V peek()
 	{
-		int serializationMode = flags & SERIALIZATION_MASK;
+		int serializationMode = flags() & SERIALIZATION_MASK;
 		try
 		{
 			switch (serializationMode)
@@ -267,7 +551,13 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 				case SERIALIZATION_SERIALIZABLE:
 					Object dataRef = data; // defensive copy
 					return dataRef != null ? (V)Serializing.fromBytearray((byte[])(dataRef)) : null;
+				case SERIALIZATION_OFFHEAP:
+					byte[] bytes = ((OffHeapValue)data).read();
+					return bytes != null ? (V)Serializing.fromBytearray(bytes) : null;
 				case SERIALIZATION_EXTERNALIZABLE:
+					ExternalizedData externalized = (ExternalizedData)data;
+					byte[] externalizedBytes = externalized.bytes();
+					return externalizedBytes != null ? (V)externalized.serializer.deserialize(externalizedBytes) : null;
 				default:
 					throw new UnsupportedOperationException("Serialization type is not supported: " + serializationMode);
 
@@ -281,7 +571,7 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 
 	private void setLastAccessTime()
 	{
-		lastAccess = SecondsOrMillis.fromMillisToInternal(currentTimeMillisEstimate() - Cache.baseTimeMillis);
+		setLastAccessMillis(currentTimeMillisEstimate() - Cache.baseTimeMillis);
 	}
 	
 	private long currentTimeMillisEstimate()
@@ -292,29 +582,56 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 	@Override
 	public long getLastAccessTime()
 	{
-		return Cache.baseTimeMillis + SecondsOrMillis.fromInternalToMillis(lastAccess);
+		return Cache.baseTimeMillis + lastAccessMillis();
 	}
 	
-	@Override
-	public int getUseCount()
-	{
-		return useCount;
-	}
+	public abstract void incrementUseCount();
 
-	public void incrementUseCount()
-	{
-		useCountAFU.incrementAndGet(this);
-	}
+	/**
+	 * Decays the use count, by shifting it right by the given number of bits. This does not need to be atomic,
+	 * so increments that happen concurrently may get lost. This is acceptable for eviction purposes.
+	 * 
+	 * @param shift The number of bits to shift, in the range [0, 31]
+	 * @return The decayed use count
+	 */
+	public abstract int decayUseCount(int shift);
+
+	/**
+	 * Decays the use count like {@link #decayUseCount(int)}, and remembers the given decay epoch. This allows an
+	 * eviction policy to decay the use count at most once per epoch, and to catch up on the epochs in which the
+	 * holder was not inspected. 
+	 * 
+	 * @param shift The number of bits to shift, in the range [0, 31]
+	 * @param epoch The decay epoch, in the range [1, {@value #DECAY_EPOCH_MAX}]
+	 * @return The decayed use count
+	 */
+	public abstract int decayUseCount(int shift, int epoch);
+
+	/**
+	 * @return The decay epoch as set by {@link #decayUseCount(int, int)}. 0 if it was never set.
+	 */
+	public abstract int decayEpoch();
 
 	private void setInputDate()
 	{
-		inputDate = SecondsOrMillis.fromMillisToInternal(currentTimeMillisEstimate() - Cache.baseTimeMillis);
+		setInputDateMillis(currentTimeMillisEstimate() - Cache.baseTimeMillis);
 	}
 
 	@Override
 	public long getCreationTime()
 	{
-		return Cache.baseTimeMillis + SecondsOrMillis.fromInternalToMillis(inputDate);
+		return Cache.baseTimeMillis + inputDateMillis();
+	}
+
+	/**
+	 * Returns whether this holder is expired. In contrast to {@link #isInvalid()} this is false for holders that are
+	 * not complete yet, as they may still be written by a different Thread, and for released holders.
+	 * 
+	 * @return true, if this holder is complete and expired
+	 */
+	boolean isExpired()
+	{
+		return (flags() & STATE_MASK) == STATE_COMPLETE && isInvalid();
 	}
 
 	@Override
@@ -331,31 +648,31 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 		}
 
 		// -1- Check completeness
-		boolean incomplete = (flags & STATE_MASK) != STATE_COMPLETE;
+		boolean incomplete = (flags() & STATE_MASK) != STATE_COMPLETE;
 		if (incomplete)
 		{
-			if (debug) System.out.println("Dropped because holder is not complete: flags=" + flags + ": " + data);
+			if (debug) System.out.println("Dropped because holder is not complete: flags=" + flags() + ": " + data);
 			return true;
 		}
 		
 		// -2- Check cache time
 		long millisNow = currentTimeMillisEstimate();
-		long expDurationMillis = SecondsOrMillis.fromInternalToMillis(maxCacheTime);
+		long expDurationMillis = maxCacheTimeMillis();
 		if (expDurationMillis > 0L)
 		{
 			long cacheDurationMillis = millisNow - getCreationTime();
 			if (cacheDurationMillis > expDurationMillis) 
 			{
-				if (debug) System.out.println("Dropped because expired: millisNow=" + millisNow + ", maxCacheTime" + maxCacheTime + ", expDurationMillis" + expDurationMillis + "< cacheDurationMillis" + cacheDurationMillis);
+				if (debug) System.out.println("Dropped because expired: millisNow=" + millisNow + ", expDurationMillis" + expDurationMillis + "< cacheDurationMillis" + cacheDurationMillis);
 				return true;
 			}
 		}
 		
 		// -3- Check idle time
-		long idleDurationMillis = SecondsOrMillis.fromInternalToMillis(maxIdleTime);
+		long idleDurationMillis = maxIdleTimeMillis();
 		if (idleDurationMillis == 0)
 		{
-			if (debug) System.out.println("Dropped because idle0: millisNow=" + millisNow + ", maxCacheTime" + maxCacheTime + ", expDurationMillis" + expDurationMillis + "< cacheDurationMillis" + idleDurationMillis);
+			if (debug) System.out.println("Dropped because idle0: millisNow=" + millisNow + ", expDurationMillis" + expDurationMillis + "< cacheDurationMillis" + idleDurationMillis);
 			return true;
 		}
 
@@ -364,7 +681,7 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 
 		if (idleSince > idleDurationMillis)
 		{
-			if (debug) System.out.println("Dropped because idle: millisNow=" + millisNow + ", maxCacheTime" + maxCacheTime + ", idleDurationMillis" + idleDurationMillis + "< idleSince" + idleSince + ", lastAccess=" + lastAccess);
+			if (debug) System.out.println("Dropped because idle: millisNow=" + millisNow + ", expDurationMillis" + expDurationMillis + ", idleDurationMillis" + idleDurationMillis + "< idleSince" + idleSince + ", lastAccess=" + lastAccess);
 			return true;
 		}
 		return false;
@@ -410,7 +727,7 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 		}
 
 		// -2- Calculate current expiration from cache time and the one from the newly planned expireUntil  
-		long maxCacheTimeMillis = SecondsOrMillis.fromInternalToMillis(maxCacheTime);
+		long maxCacheTimeMillis = maxCacheTimeMillis();
 		long creationTime = getCreationTime();
 		long expirationOnCacheTime = maxCacheTimeMillis + creationTime;
 		long expirationOnNewExpireUntil = currentTimeMillisEstimate() + delayMillis;
@@ -418,8 +735,9 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 		if (maxCacheTimeMillis == 0 || expirationOnNewExpireUntil < expirationOnCacheTime)
 		{
 			// holder.maxCacheTime was not set (never expires), or new value is smaller => use it
-			long newMaxCacheTimeMillis = expirationOnNewExpireUntil - creationTime;
-			maxCacheTime = SecondsOrMillis.fromMillisToInternal(newMaxCacheTimeMillis);
+			// At least 1ms, as 0 means no limit. The creation time may be rounded up by the holder layout.
+			long newMaxCacheTimeMillis = Math.max(1, expirationOnNewExpireUntil - creationTime);
+			setMaxCacheTimeMillis(newMaxCacheTimeMillis);
 		}
 		// else: Keep delay, as holder will already expire sooner than delaySecs.
 	}
@@ -428,8 +746,41 @@ public final class AccessTimeObjectHolder<V> implements TCacheHolder<V>
 	@Override
 	public String toString()
 	{
-		return "AccessTimeObjectHolder [dataPresent=" + (data != null) + ", inputDate=" + SecondsOrMillis.fromInternalToMillis(inputDate) + ", lastAccess=" + SecondsOrMillis.fromInternalToMillis(lastAccess)
-				+ ", maxIdleTime=" + maxIdleTime + ", maxCacheTime=" + maxCacheTime + ", useCount=" + useCount
-				+ ", flags=" + flags + "]";
+		return getClass().getSimpleName() + " [dataPresent=" + (data != null) + ", inputDate=" + inputDateMillis() + ", lastAccess=" + lastAccessMillis()
+				+ ", maxIdleTime=" + maxIdleTimeMillis() + ", maxCacheTime=" + maxCacheTimeMillis() + ", useCount=" + getUseCount()
+				+ ", flags=" + flags() + "]";
+	}
+
+	/**
+	 * The data of a holder whose value was serialized by a custom {@link Serializer}. The bytes are either on-heap
+	 * or off-heap.
+	 */
+	private static final class ExternalizedData
+	{
+		final byte[] bytes;
+		final OffHeapValue offHeapBytes;
+		final Serializer serializer;
+
+		ExternalizedData(byte[] bytes, Serializer serializer)
+		{
+			this.bytes = bytes;
+			this.offHeapBytes = null;
+			this.serializer = serializer;
+		}
+
+		ExternalizedData(OffHeapValue offHeapBytes, Serializer serializer)
+		{
+			this.bytes = null;
+			this.offHeapBytes = offHeapBytes;
+			this.serializer = serializer;
+		}
+
+		/**
+		 * @return The serialized bytes, or null if the off-heap block was already freed
+		 */
+		byte[] bytes()
+		{
+			return offHeapBytes != null ? offHeapBytes.read() : bytes;
+		}
 	}
 }
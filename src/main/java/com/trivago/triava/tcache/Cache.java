@@ -16,17 +16,24 @@
 
 package com.trivago.triava.tcache;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.cache.CacheException;
 import javax.cache.configuration.Factory;
 import javax.cache.event.EventType;
 import javax.cache.expiry.Duration;
@@ -35,19 +42,24 @@ import javax.cache.integration.CacheLoader;
 import javax.cache.integration.CacheLoaderException;
 import javax.cache.integration.CacheWriter;
 
+import com.trivago.triava.collections.BoundedHashInterner;
 import com.trivago.triava.logging.TriavaLogger;
 import com.trivago.triava.logging.TriavaNullLogger;
 import com.trivago.triava.tcache.action.ActionContext;
 import com.trivago.triava.tcache.core.Builder;
 import com.trivago.triava.tcache.core.CacheWriterWrapper;
+import com.trivago.triava.tcache.core.LoadCoalescer;
 import com.trivago.triava.tcache.core.Holders;
 import com.trivago.triava.tcache.core.NopCacheWriter;
+import com.trivago.triava.tcache.core.WriteBehindCacheWriter;
+import com.trivago.triava.tcache.core.Serializer;
 import com.trivago.triava.tcache.core.StorageBackend;
 import com.trivago.triava.tcache.core.TCacheHolderIterator;
 import com.trivago.triava.tcache.core.TriavaCacheConfiguration;
 import com.trivago.triava.tcache.event.ListenerCollection;
 import com.trivago.triava.tcache.expiry.Constants;
 import com.trivago.triava.tcache.expiry.TCacheExpiryPolicy;
+import com.trivago.triava.tcache.expiry.TimingWheel;
 import com.trivago.triava.tcache.expiry.TouchedExpiryPolicy;
 import com.trivago.triava.tcache.expiry.UntouchedExpiryPolicy;
 import com.trivago.triava.tcache.statistics.HitAndMissDifference;
@@ -57,12 +69,16 @@ import com.trivago.triava.tcache.statistics.StatisticsCalculator;
 import com.trivago.triava.tcache.statistics.TCacheStatistics;
 import com.trivago.triava.tcache.statistics.TCacheStatisticsInterface;
 import com.trivago.triava.tcache.statistics.TCacheStatisticsMBean;
-import com.trivago.triava.tcache.storage.ByteArray;
 import com.trivago.triava.tcache.storage.ConcurrentKeyDeserMap;
+import com.trivago.triava.tcache.storage.ConcurrentLongKeyMap;
+import com.trivago.triava.tcache.storage.MappedFileTier;
+import com.trivago.triava.tcache.storage.OffHeapTier;
+import com.trivago.triava.tcache.storage.SlabStore;
 import com.trivago.triava.tcache.util.CacheSizeInfo;
 import com.trivago.triava.tcache.util.ChangeStatus;
 import com.trivago.triava.tcache.util.KeyValueUtil;
 import com.trivago.triava.tcache.util.ObjectSizeCalculatorInterface;
+import com.trivago.triava.tcache.util.Serializing;
 import com.trivago.triava.tcache.util.TCacheConfigurationMBean;
 import com.trivago.triava.time.EstimatorTimeSource;
 import com.trivago.triava.time.SystemTimeSource;
@@ -130,8 +146,23 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 	private volatile transient CleanupThread cleaner = null;
 	// The expiration queue is for the cleaner, but it is independent from the cleaner instance
 	private volatile long cleanUpIntervalMillis;
-
-	//final HashInterner<V> interner = new HashInterner<>(100);
+	// Index of the expiration times. null, if the cleaner checks all entries
+	private final TimingWheel<K> timingWheel;
+	// Position of the cleaner in the map, if it only checks a part of the entries per interval
+	private Iterator<Entry<K, AccessTimeObjectHolder<V>>> sweepIterator = null;
+	private long sweepBatchSize;
+	// Persistent disk tier for warm restarts. null, if disabled
+	private final MappedFileTier diskTier;
+	// Off-heap second tier for evicted entries. null, if disabled
+	final OffHeapTier<K> secondTier;
+
+	// Runs concurrent read-through loads of the same key only once
+	final LoadCoalescer<K, AccessTimeObjectHolder<V>> loadCoalescer = new LoadCoalescer<>();
+	// Keys with a running refresh-ahead
+	private final Set<K> refreshingKeys = ConcurrentHashMap.newKeySet();
+	private final LongAdder refreshCount = new LongAdder();
+	// Interner for the values in CacheWriteMode.Intern. null, if not interning
+	final BoundedHashInterner<V> interner;
 
 	/**
 	 * Cache hit counter.
@@ -230,6 +261,10 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		{
 			throw new IllegalArgumentException("Builder has isReadThrough, but has no loader for cache: " + id);
 		}
+		if (this.loader == null && builder.getRefreshAheadPercentage() > 0)
+		{
+			throw new IllegalArgumentException("Builder has refreshAhead, but has no loader for cache: " + id);
+		}
 
 		Factory<CacheWriter<? super K, ? super V>> cwFactory = builder.getCacheWriterFactory();
 		if (cwFactory == null)
@@ -239,19 +274,36 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		else
 		{
 			CacheWriter<? super K, ? super V> cw = cwFactory.create();
-			CacheWriterWrapper<K, V> cwWrapper = new CacheWriterWrapper<K, V>(cw, false);
-			this.cacheWriter = cwWrapper;
+			if (builder.isWriteBehind())
+			{
+				this.cacheWriter = new WriteBehindCacheWriter<K, V>(cw, id, builder.getWriteBehindBatchSize(),
+						builder.getWriteBehindMaxDelayMillis(), builder.getWriteBehindQueueSize(),
+						builder.getWriteBehindRetries(), builder.getWriteBehindRetryBackoffMillis(), logger);
+			}
+			else
+			{
+				CacheWriterWrapper<K, V> cwWrapper = new CacheWriterWrapper<K, V>(cw, false);
+				this.cacheWriter = cwWrapper;
+			}
 		}
 
 		objects = createBackingMap(builder);
+		secondTier = builder.getSecondTierCapacity() > 0 ? new OffHeapTier<K>(new SlabStore(builder.getSecondTierCapacity())) : null;
+		interner = builder.getCacheWriteMode() == CacheWriteMode.Intern ? new BoundedHashInterner<V>(builder.getInternerMaxSize()) : null;
 
 		enableStatistics(builder.getStatistics());
 		enableManagement(builder.isManagementEnabled());
 
 		activateTimeSource();
+		this.timingWheel = builder.isTimingWheelExpiration() ? new TimingWheel<K>(cleanUpIntervalMillis, millisEstimator.millis()) : null;
 
 		listeners = new ListenerCollection<>(this, builder);
 
+		File persistenceFile = builder.getPersistenceFile();
+		this.diskTier = persistenceFile != null ? new MappedFileTier(persistenceFile) : null;
+		if (diskTier != null)
+			loadFromDiskTier(diskTierLoadLimit(builder));
+
 		tCacheJSR107.refreshActionRunners();
 		// Hint: It sounds more natural to call registerCache() within TCacheFactory.createCache(). Doing it here has the advantage to be able
 		//       to be compatible with construction via Builder.build() which is the native Triava Cache construction code.
@@ -268,10 +320,12 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		ConcurrentMap<K, ? extends TCacheHolder<V>> map = storageFactory.createMap(builder, evictionExtraSpace(builder));
 
 		CacheWriteMode cacheWriteMode = builder.getCacheWriteMode();
-		if (cacheWriteMode.isStoreByValue())
+		// Long keys are immutable, so the LongKey storage never needs to serialize them
+		if (cacheWriteMode.isStoreByValue() && !(map instanceof ConcurrentLongKeyMap))
 		{
-			ConcurrentMap<ByteArray, AccessTimeObjectHolder<V>> castedMap = (ConcurrentMap<ByteArray, AccessTimeObjectHolder<V>>) map;
-			return new ConcurrentKeyDeserMap<K, AccessTimeObjectHolder<V>>(castedMap, cacheWriteMode);
+			ConcurrentMap<Object, AccessTimeObjectHolder<V>> castedMap = (ConcurrentMap<Object, AccessTimeObjectHolder<V>>) map;
+			return new ConcurrentKeyDeserMap<K, AccessTimeObjectHolder<V>>(castedMap, cacheWriteMode, builder.getSerializer(),
+					builder.isKeysByReference(), builder.getKeyHashing());
 
 		}
 		else
@@ -294,6 +348,18 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		return 0;
 	}
 
+	/**
+	 * Returns the maximum number of entries to load from the disk tier. The default implementation
+	 * has no limit.
+	 *
+	 * @param builder The builder containing the configuration
+	 * @return The maximum number of entries to load
+	 */
+	protected int diskTierLoadLimit(Builder<K, V> builder)
+	{
+		return Integer.MAX_VALUE;
+	}
+
 	public String id()
 	{
 		return id;
@@ -310,7 +376,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 	 */
 	public final void close()
 	{
-		close0(true);
+		close0(true, false);
 	}
 	
 	/**
@@ -320,13 +386,28 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 	 * It looks unclean, but we cannot move the close0() code easily, as shutdownCustomImpl() must be called and
 	 * calling that from CacheManager.destroyCache() also looks unclean.
 	 * In the future this would be a good point to refactor.
+	 * <p>
+	 * A closed Cache persists its entries to the disk tier, if it has one. A destroyed Cache deletes the disk tier
+	 * file instead, so that its entries do not come back when a Cache with the same persistence file is created.
 	 * 
 	 * @param destroyCache true means to call destroyCache()
+	 * @param destroyData true means to delete the persisted entries instead of persisting them
 	 */
-	final void close0(boolean destroyCache)
+	final void close0(boolean destroyCache, boolean destroyData)
 	{
+		boolean alreadyClosed = shuttingDown;
 		shuttingDown = true;
 		shutdownCustomImpl();
+		if (cacheWriter instanceof WriteBehindCacheWriter)
+			((WriteBehindCacheWriter<K, V>) cacheWriter).close(); // Flush pending writes
+		if (diskTier != null && !alreadyClosed)
+		{
+			// Only on the first call. close() calls destroyCache(), which calls this again with the Cache already cleared.
+			if (destroyData)
+				diskTier.delete();
+			else
+				persistToDiskTier();
+		}
 		shutdownPrivate();
 		if (destroyCache)
 			getFactory().destroyCache(id);
@@ -370,7 +451,247 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 
 	}
 
-	
+
+	/**
+	 * Writes all valid entries to the disk tier. Entries whose key or value cannot be serialized are skipped.
+	 */
+	private void persistToDiskTier()
+	{
+		int skipped = 0;
+		try (MappedFileTier.Writer writer = diskTier.openWriter())
+		{
+			for (Entry<K, AccessTimeObjectHolder<V>> entry : objects.entrySet())
+			{
+				AccessTimeObjectHolder<V> holder = entry.getValue();
+				if (holder.isInvalid())
+					continue;
+				byte[] key;
+				byte[] value;
+				try
+				{
+					value = holder.serializedValue(builder.getSerializer());
+					if (value == null)
+						continue; // Released concurrently
+					key = toBytes(entry.getKey());
+				}
+				catch (IOException exc)
+				{
+					// Not serializable, either by the built-in serialization or by the custom Serializer
+					skipped++;
+					continue;
+				}
+				writer.write(new MappedFileTier.Record(key, value, holder.getCreationTime(), holder.getLastAccessTime(),
+						holder.maxIdleTimeMillis(), holder.maxCacheTimeMillis()));
+			}
+			writer.commit();
+			logger.info("Persisted " + writer.count() + " entries of Cache " + id + " to " + diskTier.file() + ", skipped=" + skipped);
+		}
+		catch (IOException exc)
+		{
+			logger.error("Persisting Cache " + id + " to " + diskTier.file() + " FAILED", exc);
+		}
+	}
+
+	/**
+	 * Loads the entries from the disk tier, and deletes the file afterwards. Entries that expired while the Cache was
+	 * closed are dropped. No listeners are notified, and the entries are not counted as puts.
+	 * 
+	 * @param limit The maximum number of entries to load
+	 */
+	private void loadFromDiskTier(int limit)
+	{
+		int loaded = 0;
+		int expired = 0;
+		int skipped = 0;
+		try (MappedFileTier.Reader reader = diskTier.openReader())
+		{
+			if (reader == null)
+				return;
+
+			MappedFileTier.Record record;
+			while ((record = reader.next()) != null && loaded < limit)
+			{
+				long now = millisEstimator.millis();
+				if (now >= AccessTimeObjectHolder.idleDueTime(record.lastAccessTime, record.maxIdleTimeMillis)
+						|| now >= AccessTimeObjectHolder.cacheDueTime(record.creationTime, record.maxCacheTimeMillis))
+				{
+					expired++;
+					continue;
+				}
+
+				try
+				{
+					@SuppressWarnings("unchecked")
+					K key = (K)fromBytes(record.key);
+					@SuppressWarnings("unchecked")
+					V value = (V)fromBytes(record.value);
+					AccessTimeObjectHolder<V> holder = restoredHolder(value, record.creationTime, record.lastAccessTime,
+							record.maxIdleTimeMillis, record.maxCacheTimeMillis);
+					if (restoreEntry(key, holder) != null)
+						loaded++;
+				}
+				catch (IOException | ClassNotFoundException | ClassCastException | CacheException exc)
+				{
+					skipped++;
+				}
+			}
+		}
+		catch (IOException exc)
+		{
+			logger.error("Loading Cache " + id + " from " + diskTier.file() + " FAILED", exc);
+		}
+
+		diskTier.delete();
+		if (loaded > 0)
+			ensureCleanerIsRunning();
+		logger.info("Loaded " + loaded + " entries of Cache " + id + " from " + diskTier.file() + ", expired=" + expired + ", skipped=" + skipped);
+	}
+
+	/**
+	 * Puts an entry into the map, that is restored from a different tier, e.g. the disk tier. No listeners are
+	 * notified, and the entry is not counted as put.
+	 * 
+	 * @param key The key
+	 * @param holder The holder, as created by {@link #restoredHolder(Object, long, long, long, long)}. May be null.
+	 * @return The holder, or null if it is null or the key is already present
+	 */
+	private AccessTimeObjectHolder<V> restoreEntry(K key, AccessTimeObjectHolder<V> holder)
+	{
+		if (holder == null || objects.putIfAbsent(key, holder) != null)
+			return null;
+		scheduleExpiration(key, holder);
+		return holder;
+	}
+
+	/**
+	 * Creates a holder for an entry that is restored from a different tier. The holder gets the original durations
+	 * and times of the entry, so it expires as if it had never left the heap tier.
+	 * <p>
+	 * Times before {@link #baseTimeMillis} cannot be stored in a holder, and are moved forward to it. For the
+	 * creation time the cache time is shortened accordingly, so the entry expires at the same time. A last access
+	 * time that is moved forward lets the current idle period start with the Cache class, at the latest.
+	 * 
+	 * @param value The value
+	 * @param creationTime The creation time in milliseconds since EPOCH
+	 * @param lastAccessTime The last access time in milliseconds since EPOCH
+	 * @param maxIdleTimeMillis The maximum idle time in milliseconds
+	 * @param maxCacheTimeMillis The maximum cache time in milliseconds. 0 means no limit.
+	 * @return The new holder, or null if the entry is expired
+	 */
+	private AccessTimeObjectHolder<V> restoredHolder(V value, long creationTime, long lastAccessTime, long maxIdleTimeMillis, long maxCacheTimeMillis)
+	{
+		long now = millisEstimator.millis();
+		if (now >= AccessTimeObjectHolder.idleDueTime(lastAccessTime, maxIdleTimeMillis)
+				|| now >= AccessTimeObjectHolder.cacheDueTime(creationTime, maxCacheTimeMillis))
+			return null;
+
+		long inputDateMillis = creationTime - baseTimeMillis;
+		if (inputDateMillis < 0)
+		{
+			if (maxCacheTimeMillis > 0)
+				maxCacheTimeMillis += inputDateMillis; // Still positive, as the entry is not expired
+			inputDateMillis = 0;
+		}
+		AccessTimeObjectHolder<V> holder = newHolder(value, maxIdleTimeMillis, maxCacheTimeMillis);
+		holder.setInputDateMillis(inputDateMillis);
+		holder.setLastAccessMillis(Math.max(0, lastAccessTime - baseTimeMillis));
+		return holder;
+	}
+
+	/**
+	 * Demotes an entry that was evicted from the heap to the second tier. Nothing is done, if this Cache has no
+	 * second tier, or if the value cannot be serialized. 
+	 * 
+	 * @param key The key
+	 * @param value The value
+	 * @param holder The evicted holder. Only its metadata is used.
+	 */
+	protected void demote(K key, V value, AccessTimeObjectHolder<V> holder)
+	{
+		if (secondTier == null)
+			return;
+
+		try
+		{
+			secondTier.demote(key, toBytes(value), holder.getCreationTime(), holder.getLastAccessTime(), holder.maxIdleTimeMillis(),
+					holder.maxCacheTimeMillis());
+			if (objects.containsKey(key))
+			{
+				// Put concurrently. The newer value in the heap tier wins. See putToMapI().
+				secondTier.invalidate(key);
+			}
+		}
+		catch (IOException exc)
+		{
+			// Not serializable. Drop it like without a second tier. 
+		}
+	}
+
+	/**
+	 * Serializes the given object for the disk tier or the second tier. This uses the custom Serializer of this Cache
+	 * if there is one, so that values that are not Serializable can be stored.
+	 * 
+	 * @param obj The object
+	 * @return The serialized object
+	 * @throws IOException If the object cannot be serialized
+	 */
+	private byte[] toBytes(Object obj) throws IOException
+	{
+		Serializer serializer = builder.getSerializer();
+		return serializer != null ? serializer.serialize(obj) : Serializing.toBytearray(obj);
+	}
+
+	/**
+	 * Deserializes an object, that was serialized by {@link #toBytes(Object)}.
+	 * 
+	 * @param bytes The serialized object
+	 * @return The object
+	 * @throws IOException If the data is corrupt
+	 * @throws ClassNotFoundException If the class of the object cannot be found
+	 */
+	private Object fromBytes(byte[] bytes) throws IOException, ClassNotFoundException
+	{
+		Serializer serializer = builder.getSerializer();
+		return serializer != null ? serializer.deserialize(bytes) : Serializing.fromBytearray(bytes);
+	}
+
+	/**
+	 * Promotes the entry for the given key from the second tier to the heap tier. This never waits for eviction:
+	 * If the heap tier has no room, the value is returned in a holder that is not put in the heap tier, and the
+	 * entry stays in the second tier.
+	 * 
+	 * @param key The key
+	 * @return The holder for the value, or null if the key was not in the second tier
+	 */
+	private AccessTimeObjectHolder<V> promote(K key)
+	{
+		OffHeapTier.Promotion promotion = secondTier.promote(key, millisEstimator.millis());
+		if (promotion == null)
+			return null;
+
+		try
+		{
+			@SuppressWarnings("unchecked")
+			V value = (V)fromBytes(promotion.value);
+			AccessTimeObjectHolder<V> restored = restoredHolder(value, promotion.creationTime, promotion.lastAccessTime,
+					promotion.maxIdleTimeMillis, promotion.maxCacheTimeMillis);
+			if (!hasFreeCapacity())
+			{
+				return restored;
+			}
+			AccessTimeObjectHolder<V> holder = restoreEntry(key, restored);
+			if (holder == null)
+				return objects.get(key); // Put concurrently
+			secondTier.completePromotion(key, promotion);
+			return holder;
+		}
+		catch (IOException | ClassNotFoundException exc)
+		{
+			logger.error("Promoting key " + key + " from second tier of Cache " + id + " FAILED", exc);
+			return null;
+		}
+	}
+
 	/**
 	 * Waits at most millis milliseconds plus nanos nanoseconds for the given thread to die. 
 	 *  
@@ -566,7 +887,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		if (holders == null)
 			return null;
 		if (holders.effectiveHolder != null)
-			holders.effectiveHolder.updateMaxIdleTime(idleTime);
+			updateMaxIdleTime(key, holders.effectiveHolder, idleTime);
 		AccessTimeObjectHolder<V> holderToReturn = returnEffectiveHolder ? holders.effectiveHolder : holders.oldHolder;
 		return gatedHolder(holderToReturn);
 	}
@@ -579,6 +900,38 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		return holder.isInvalid() ? null : holder;
 	}
 
+	/**
+	 * Creates an incomplete holder for the given value, in the layout configured by the Builder.
+	 * 
+	 * @param value The value
+	 * @return The new holder
+	 */
+	private AccessTimeObjectHolder<V> newHolder(V value)
+	{
+		if (interner != null)
+			value = interner.get(value);
+		if (builder.getHashImplementation() == HashImplementation.InlineHolder)
+			return new InlineObjectHolder<V>(value, builder.getCacheWriteMode(), builder.getSerializer());
+		if (builder.isCompactHolders())
+			return new CompactObjectHolder<V>(value, builder.getCacheWriteMode(), builder.getSerializer());
+		return new StandardObjectHolder<V>(value, builder.getCacheWriteMode(), builder.getSerializer());
+	}
+
+	/**
+	 * Creates a complete holder for the given value, in the layout configured by the Builder.
+	 * 
+	 * @param value The value
+	 * @param maxIdleTimeMillis The maximum idle time in milliseconds
+	 * @param maxCacheTimeMillis The maximum cache time in milliseconds
+	 * @return The new holder
+	 */
+	private AccessTimeObjectHolder<V> newHolder(V value, long maxIdleTimeMillis, long maxCacheTimeMillis)
+	{
+		AccessTimeObjectHolder<V> holder = newHolder(value);
+		holder.complete(maxIdleTimeMillis, maxCacheTimeMillis);
+		return holder;
+	}
+
 	Holders<V> putToMapI(K key, V data, long cacheTime, boolean putIfAbsent)
 	{
 		if (isClosed())
@@ -591,6 +944,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		}
 
 		kvUtil.verifyKeyAndValueNotNull(key, data);
+		recordAccess(key);
 		
 //		if (idleTime == AccessTimeObjectHolder.EXPIRY_ZERO)
 //		{
@@ -622,7 +976,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		if (putIfAbsent)
 		{
 			// Always use expiryForCreation. Either it is correct, or we do not care(wrong but not added to cache) 
-			newHolder = new AccessTimeObjectHolder<V>(data, builder.getCacheWriteMode());
+			newHolder = newHolder(data);
 			oldHolder = this.objects.putIfAbsent(key, newHolder);
 			if (oldHolder != null && oldHolder.isInvalid())
 			{
@@ -667,7 +1021,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		else
 		{
 			// Add entry initially with unlimited expiration, then update the idle from the existing holder
-			newHolder = new AccessTimeObjectHolder<>(data, builder.getCacheWriteMode());
+			newHolder = newHolder(data);
 			oldHolder = this.objects.put(key, newHolder);
 			if (oldHolder != null && oldHolder.isInvalid())
 			{
@@ -691,6 +1045,18 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 				statisticsCalculator.incrementPutCount();
 		}
 
+		if (secondTier != null)
+		{
+			// Invalidate after the put. If the key is demoted concurrently, either this invalidates it, or demote() sees the new holder.
+			secondTier.invalidate(key);
+		}
+
+		if (hasPut)
+		{
+			// Always schedule, so the wheel tracks the current holder. This also moves the key away from the slot of a replaced holder.
+			scheduleExpiration(key, newHolder);
+		}
+
 		ensureCleanerIsRunning();
 		return new Holders<V>(gatedHolder(newHolder), gatedHolder(oldHolder), gatedEffectiveHolder);
 	}
@@ -725,7 +1091,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		kvUtil.verifyKeyAndValueNotNull(key, value);
 
 		AccessTimeObjectHolder<V> newHolder; // holder that was created via new.
-		newHolder = new AccessTimeObjectHolder<V>(value, Constants.EXPIRY_MAX, cacheTimeSpread(), builder.getCacheWriteMode());
+		newHolder = newHolder(value, Constants.EXPIRY_MAX, cacheTimeSpread());
 		AccessTimeObjectHolder<V> oldHolder = gatedHolder(this.objects.replace(key, newHolder));
 
 		if (oldHolder != null)
@@ -736,6 +1102,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 			{
 				newHolder.updateMaxIdleTime(expiryPolicy.getExpiryForUpdate()); // OK
 			}
+			scheduleExpiration(key, newHolder);
 			return oldValue;
 
 		}
@@ -755,16 +1122,19 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 
 		if (! oldValue.equals(oldHolder.peek()))
 		{
-			oldHolder.updateMaxIdleTime(expiryPolicy.getExpiryForAccess());
+			updateMaxIdleTime(key, oldHolder, expiryPolicy.getExpiryForAccess());
 			return ChangeStatus.CAS_FAILED_EQUALS; // oldValue does not match => do not replace
 		}
 		
-		newHolder = new AccessTimeObjectHolder<V>(newValue, Constants.EXPIRY_MAX, cacheTimeSpread(), builder.getCacheWriteMode());
+		newHolder = newHolder(newValue, Constants.EXPIRY_MAX, cacheTimeSpread());
 		boolean replaced = this.objects.replace(key, oldHolder, newHolder);
 		if (replaced)
+		{
 			newHolder.updateMaxIdleTime(expiryPolicy.getExpiryForUpdate());
+			scheduleExpiration(key, newHolder);
+		}
 		else
-			oldHolder.updateMaxIdleTime(expiryPolicy.getExpiryForAccess());
+			updateMaxIdleTime(key, oldHolder, expiryPolicy.getExpiryForAccess());
 
 		return replaced ? ChangeStatus.CHANGED : ChangeStatus.UNCHANGED;
 		
@@ -782,6 +1152,28 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		return true;
 	}
 
+	/**
+	 * Returns whether there is capacity for at least one more element, like {@link #ensureFreeCapacity()}, but
+	 * never waits for eviction. This is used on the read path. The default implementation always returns true.
+	 * 
+	 * @return true, if there is capacity left
+	 */
+	protected boolean hasFreeCapacity()
+	{
+		return true;
+	}
+
+	/**
+	 * Called on each read and write of the given key, including reads of keys that are not in the Cache.
+	 * The default implementation does nothing. Derived classes can override it to track access patterns,
+	 * for example for frequency based eviction.
+	 * 
+	 * @param key The key, never null
+	 */
+	protected void recordAccess(K key)
+	{
+	}
+
 	/**
 	 * Checks whether the cleaner is running. If not, the cleaner gets started.
 	 * @return The CleanupThread
@@ -816,39 +1208,61 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 	}
 
 	AccessTimeObjectHolder<V> getFromMap(K key, boolean touch) throws RuntimeException
+	{
+		return getFromMap(key, touch, builder.isReadThrough());
+	}
+
+	/**
+	 * Gets the holder for the given key, and updates the statistics and the idle time.
+	 * 
+	 * @param key The key
+	 * @param touch true, if the access updates the idle time
+	 * @param readThrough true, if a missing key is loaded via the loader. Only allowed if the Cache has a loader.
+	 * @return The holder, or null if the key is not present or could not be loaded
+	 * @throws RuntimeException if key is not present and the loader threw an Exception.
+	 */
+	AccessTimeObjectHolder<V> getFromMap(K key, boolean touch, boolean readThrough) throws RuntimeException
 	{
 		throwISEwhenClosed();
 		kvUtil.verifyKeyNotNull(key);
+		recordAccess(key);
 
 		AccessTimeObjectHolder<V> holder = this.objects.get(key);
+		if (secondTier != null && !AccessTimeObjectHolder.isValid(holder))
+		{
+			AccessTimeObjectHolder<V> promotedHolder = promote(key);
+			if (promotedHolder != null)
+				holder = promotedHolder;
+		}
 
 		boolean loaded = false;
 		boolean holderWasValidBeforeApplyingExpiryPolicy = AccessTimeObjectHolder.isValid(holder);
 		if (holderWasValidBeforeApplyingExpiryPolicy && touch)
 		{
-			holder.updateMaxIdleTime(expiryPolicy.getExpiryForAccess());
+			updateMaxIdleTime(key, holder, expiryPolicy.getExpiryForAccess());
 		}
 
-		if (!holderWasValidBeforeApplyingExpiryPolicy && builder.isReadThrough())
+		if (!holderWasValidBeforeApplyingExpiryPolicy && readThrough)
 		{
 			// Data not present, but can be loaded
 			try
 			{
-				// loader is never null here, as isReadThrough enforced that when the Cache was created
-				V loadedValue = loader.load(key);
-				if (loadedValue == null)
+				// Concurrent misses of the same key share one load. Only the first thread calls the loader and puts the value.
+				holder = loadCoalescer.load(key, this::loadToMap);
+				if (holder == null)
 				{
 					// JSR107 TCK requires that a loader will not fail with NPE, even though the value is null.
 					return null;
 				}
 
-				holder = putToMap(key, loadedValue, expiryPolicy.getExpiryForCreation(), cacheTimeSpread(), false, true);
 				loaded = true;
 				// ##LOADED_MISS_COUNT##
 				statisticsCalculator.incrementMissCount(); // needed to load => increment miss count
 			}
 			catch (Exception exc)
 			{
+				if (exc instanceof InterruptedException)
+					Thread.currentThread().interrupt(); // Keep the interrupt visible to the caller, as it is wrapped below
 				// Wrap loader Exceptions in CacheLoaderExcpeption. The TCK requires it, but it is possibly a TCK bug.
 				// For details, see https://github.com/jsr107/jsr107tck/issues/99
 				String message = "CacheLoader " + id + " failed to load key=" + key;
@@ -876,16 +1290,225 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 			// Holder was neither valid before we applied the ExpirationPolicy, nor after (after = Updated or New Holder)
 
 			// debugLogger.debug("1lCache GET key:"+pKey.hashCode()+"; CACHE:invalid");
-			// Hint: We do not remove the value here, as it will be done in the asynchronous thread anyways.
+			// Hint: By default we do not remove the value here, as it will be done in the asynchronous thread anyways.
+			if (builder.isExpireOnRead() && holder.isExpired() && this.objects.remove(key, holder))
+			{
+				unscheduleExpiration(key, holder);
+				expireEntry(key, holder);
+			}
 			statisticsCalculator.incrementMissCount();
 			return null;
 		}
 		// debugLogger.debug("1lCache GET key:"+pKey.hashCode()+"; CACHE:hit");
 		holder.incrementUseCount();
 		statisticsCalculator.incrementHitCount();
+		if (holderWasValidBeforeApplyingExpiryPolicy && builder.getRefreshAheadPercentage() > 0)
+			refreshAheadIfDue(key, holder);
 		return holder;
 	}
 
+	/**
+	 * Starts an asynchronous reload of the given entry, if it has lived for the refresh-ahead percentage of its
+	 * maximum cache time and no refresh of the key is running. See {@link Builder#setRefreshAhead(int)}.
+	 * 
+	 * @param key The key
+	 * @param holder The holder that was read
+	 */
+	private void refreshAheadIfDue(K key, AccessTimeObjectHolder<V> holder)
+	{
+		long maxCacheTimeMillis = holder.maxCacheTimeMillis();
+		if (maxCacheTimeMillis <= 0)
+			return; // Does not expire by cache time
+
+		long ageMillis = millisEstimator.millis() - holder.getCreationTime();
+		if (ageMillis * 100 < maxCacheTimeMillis * builder.getRefreshAheadPercentage())
+			return;
+
+		if (!refreshingKeys.add(key))
+			return; // Refresh already running
+
+		try
+		{
+			builder.getLoaderExecutor().execute(() -> refresh(key, holder));
+		}
+		catch (RuntimeException exc)
+		{
+			// For example a RejectedExecutionException. Keep the current value, and let a later read try again.
+			refreshingKeys.remove(key);
+		}
+	}
+
+	/**
+	 * Reloads the key and replaces the given holder with the loaded value. If the entry was changed or removed in the
+	 * meantime, the loaded value is discarded, as it could overwrite a newer value.
+	 * 
+	 * @param key The key
+	 * @param oldHolder The holder that triggered the refresh
+	 */
+	private void refresh(K key, AccessTimeObjectHolder<V> oldHolder)
+	{
+		try
+		{
+			if (isClosed())
+				return;
+			V value = loader.load(key);
+			if (value == null)
+				return; // Keep the current value until it expires
+
+			AccessTimeObjectHolder<V> newHolder = newHolder(value, Constants.EXPIRY_MAX, cacheTimeSpread());
+			if (this.objects.replace(key, oldHolder, newHolder))
+			{
+				newHolder.updateMaxIdleTime(expiryPolicy.getExpiryForUpdate());
+				scheduleExpiration(key, newHolder);
+				refreshCount.increment();
+			}
+		}
+		catch (Exception exc)
+		{
+			logger.error("Refreshing key " + key + " of Cache " + id + " FAILED", exc);
+		}
+		finally
+		{
+			refreshingKeys.remove(key);
+		}
+	}
+
+	/**
+	 * Gets the values for the given keys. Keys that are not present are omitted from the returned Map.
+	 * <p>
+	 * With read-through, the missing keys are collected first and loaded together via a single
+	 * {@link javax.cache.integration.CacheLoader#loadAll(Iterable)} call. Missing keys that are already being loaded by
+	 * a concurrent get() or getAll() are not loaded again, but their running load is awaited.
+	 * 
+	 * @param keys The keys
+	 * @return A Map with the values of all present or loaded keys
+	 * @throws RuntimeException if keys are not present and the loader threw an Exception.
+	 * @throws NullPointerException if keys or any key is null.
+	 */
+	public Map<K, V> getAll(Set<? extends K> keys) throws RuntimeException
+	{
+		boolean readThrough = builder.isReadThrough();
+		Map<K, V> result = new HashMap<>(keys.size() * 2);
+		List<K> missingKeys = null;
+		for (K key : keys)
+		{
+			// Misses are counted here, in the same way as Cache.get() counts loaded keys as miss
+			AccessTimeObjectHolder<V> holder = getFromMap(key, true, false);
+			if (holder != null)
+			{
+				V value = holder.get();
+				if (value != null)
+				{
+					result.put(key, value);
+					continue;
+				}
+			}
+
+			if (readThrough)
+			{
+				if (missingKeys == null)
+					missingKeys = new ArrayList<>();
+				missingKeys.add(key);
+			}
+		}
+
+		if (missingKeys != null)
+		{
+			Map<K, AccessTimeObjectHolder<V>> loadedHolders;
+			try
+			{
+				loadedHolders = loadCoalescer.loadAll(missingKeys, this::loadAllToMap);
+			}
+			catch (Exception exc)
+			{
+				if (exc instanceof InterruptedException)
+					Thread.currentThread().interrupt();
+				// Wrap loader Exceptions in CacheLoaderExcpeption, like getFromMap()
+				String message = "CacheLoader " + id + " failed to load keys";
+				throw new CacheLoaderException(message + " This is a wrapped exception. See https://github.com/jsr107/jsr107tck/issues/99", exc);
+			}
+
+			for (Map.Entry<K, AccessTimeObjectHolder<V>> entry : loadedHolders.entrySet())
+			{
+				AccessTimeObjectHolder<V> holder = entry.getValue();
+				V value = holder.get();
+				if (value == null)
+					continue;
+				// Same accounting as getFromMap() for a loaded key
+				holder.incrementUseCount();
+				statisticsCalculator.incrementHitCount();
+				result.put(entry.getKey(), value);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Loads the values for the keys via a single loadAll() call of the loader, and puts them in the Cache. This is
+	 * the bulk load function for {@link #loadCoalescer}, and thus not called concurrently with another load of the
+	 * same keys.
+	 * 
+	 * @param keys The keys to load
+	 * @return The holders of the loaded values. Keys that the loader did not load are absent.
+	 * @throws Exception The Exception thrown by the loader
+	 */
+	private Map<K, AccessTimeObjectHolder<V>> loadAllToMap(List<K> keys) throws Exception
+	{
+		Map<K, AccessTimeObjectHolder<V>> holders = new HashMap<>(keys.size() * 2);
+		List<K> keysToLoad = new ArrayList<>(keys.size());
+		for (K key : keys)
+		{
+			AccessTimeObjectHolder<V> holder = this.objects.get(key);
+			if (AccessTimeObjectHolder.isValid(holder))
+				holders.put(key, holder); // Loaded by a load that completed between our miss and the start of this load
+			else
+				keysToLoad.add(key);
+		}
+		if (keysToLoad.isEmpty())
+			return holders;
+
+		// loader is never null here, as isReadThrough enforced that when the Cache was created
+		Map<K, V> loadedValues = loader.loadAll(keysToLoad);
+		if (loadedValues == null)
+			return holders;
+
+		for (K key : keysToLoad)
+		{
+			V value = loadedValues.get(key);
+			if (value == null)
+				continue; // Not loaded. Like in get(), this is no error
+			AccessTimeObjectHolder<V> holder = putToMap(key, value, expiryPolicy.getExpiryForCreation(), cacheTimeSpread(), false, true);
+			if (holder != null)
+				holders.put(key, holder);
+		}
+		return holders;
+	}
+
+	/**
+	 * Loads the value for the key via the loader and puts it in the Cache. This is the load function for
+	 * {@link #loadCoalescer}, and thus not called concurrently for the same key.
+	 * 
+	 * @param key The key
+	 * @return The holder of the loaded value, or null if the loader returned null
+	 * @throws Exception The Exception thrown by the loader
+	 */
+	private AccessTimeObjectHolder<V> loadToMap(K key) throws Exception
+	{
+		AccessTimeObjectHolder<V> holder = this.objects.get(key);
+		if (AccessTimeObjectHolder.isValid(holder))
+		{
+			// A load that completed between our miss and the start of this load has already put the value 
+			return holder;
+		}
+
+		// loader is never null here, as isReadThrough enforced that when the Cache was created
+		V loadedValue = loader.load(key);
+		if (loadedValue == null)
+			return null;
+		return putToMap(key, loadedValue, expiryPolicy.getExpiryForCreation(), cacheTimeSpread(), false, true);
+	}
+
 	/**
 	 * Fills the given cache statistics object.
 	 * 
@@ -901,6 +1524,22 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		cacheStatistic.setPutCount(statisticsCalculator.getPutCount());
 		cacheStatistic.setRemoveCount(statisticsCalculator.getRemoveCount());
 		cacheStatistic.setDropCount(statisticsCalculator.getDropCount());
+		if (secondTier != null)
+		{
+			cacheStatistic.setSecondTierHitCount(secondTier.hitCount());
+			cacheStatistic.setSecondTierMissCount(secondTier.missCount());
+			cacheStatistic.setSecondTierElementCount(secondTier.size());
+			cacheStatistic.setDemotionCount(secondTier.demotionCount());
+		}
+		if (interner != null)
+		{
+			cacheStatistic.setInternHitCount(interner.hitCount());
+			cacheStatistic.setInternMissCount(interner.missCount());
+			cacheStatistic.setInternElementCount(interner.size());
+			cacheStatistic.setInternDedupRatio(interner.hitRate());
+		}
+		cacheStatistic.setCoalescedLoadCount(loadCoalescer.coalescedCount());
+		cacheStatistic.setRefreshCount(refreshCount.sum());
 		return cacheStatistic;
 	}
 
@@ -982,6 +1621,10 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 	{
 		String errorMsg = stopCleaner(millis);
 		this.objects.clear();
+		if (secondTier != null)
+			secondTier.clear();
+		if (timingWheel != null)
+			timingWheel.clear();
 		return errorMsg;
 	}
 
@@ -1081,7 +1724,18 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		// -1- Clean
 		int removedEntries = 0;
 
-		for (Iterator<Entry<K, AccessTimeObjectHolder<V>>> iter = this.objects.entrySet().iterator(); iter.hasNext();)
+		int sweepPercentage = builder.getCleanUpSweepPercentage();
+		Iterator<Entry<K, AccessTimeObjectHolder<V>>> iter = sweepIterator;
+		if (sweepPercentage == 100 || iter == null || !iter.hasNext())
+		{
+			iter = this.objects.entrySet().iterator();
+			// The batch size is fixed for the whole sweep, so a sweep takes at most 100/sweepPercentage intervals.
+			// Round up, so that every interval makes progress. 
+			sweepBatchSize = sweepPercentage == 100 ? Long.MAX_VALUE : ((long)objects.size() * sweepPercentage + 99) / 100;
+		}
+		long entriesToCheck = sweepBatchSize;
+
+		for (; entriesToCheck > 0 && iter.hasNext(); entriesToCheck--)
 		{
 			Entry<K, AccessTimeObjectHolder<V>> entry = iter.next();
 			AccessTimeObjectHolder<V> holder = entry.getValue();
@@ -1100,6 +1754,9 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 			}
 		}
 
+		// Continue with the next sweep in the next interval. Only the cleaner Thread uses the iterator.
+		sweepIterator = sweepPercentage == 100 ? null : iter;
+
 		// -2- Notify listeners
 		if (evictedElements != null)
 			listeners.dispatchEvents(evictedElements, EventType.EXPIRED, true);
@@ -1113,6 +1770,65 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		return removedEntries;
 	}
 
+	/**
+	 * Removes the expired entries, that are due according to the timing wheel. In contrast to {@link #cleanUp()} only
+	 * the due entries are checked. Due entries that are not expired, are scheduled again.
+	 * 
+	 * @return The number of removed entries
+	 */
+	private int cleanUpDue()
+	{
+		boolean expiryNotification = listeners.hasListenerFor(EventType.EXPIRED);
+		Map<K, V> evictedElements = expiryNotification ? new HashMap<K, V>() : null;
+
+		// -1- Clean
+		int[] removedEntries = { 0 };
+		timingWheel.advance(millisEstimator.millis(), key ->
+		{
+			AccessTimeObjectHolder<V> holder = this.objects.get(key);
+			if (holder == null)
+				return; // Already removed
+
+			if (!holder.isInvalid())
+			{
+				// Not yet expired, e.g. because it was accessed
+				timingWheel.schedule(key, holder.getExpirationDueTime(), holder);
+				return;
+			}
+
+			if (!this.objects.remove(key, holder))
+			{
+				// Replaced concurrently. Make sure the current holder stays scheduled.
+				AccessTimeObjectHolder<V> currentHolder = this.objects.get(key);
+				if (currentHolder != null)
+					timingWheel.schedule(key, currentHolder.getExpirationDueTime(), currentHolder);
+			}
+			else
+			{
+				V value = holder.peek();
+				boolean removed = holder.release();
+				if (removed) // SAE-150 Verify removal
+				{
+					++removedEntries[0];
+					if (evictedElements != null)
+						evictedElements.put(key, value);
+				}
+			}
+		});
+
+		// -2- Notify listeners
+		if (evictedElements != null)
+			listeners.dispatchEvents(evictedElements, EventType.EXPIRED, true);
+
+		// -3- Stop Thread if cache is empty
+		if (objects.isEmpty())
+		{
+			stopCleaner();
+		}
+
+		return removedEntries[0];
+	}
+
 	/**
 	 * @return count of cached objects
 	 */
@@ -1144,6 +1860,8 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		AccessTimeObjectHolder<V> gh = gatedHolder(holder);
 		boolean validBeforeInvalidate = gh != null;
 		boolean removed = this.objects.remove(key, holder);
+		if (removed)
+			unscheduleExpiration(key, holder);
 		releaseHolder(holder);
 		return validBeforeInvalidate ? removed : false;
 	}
@@ -1164,6 +1882,9 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 		kvUtil.verifyKeyNotNull(key);
 
 		AccessTimeObjectHolder<V> oldHolder = this.objects.remove(key);
+		unscheduleExpiration(key, oldHolder);
+		if (secondTier != null)
+			secondTier.invalidate(key);
 		AccessTimeObjectHolder<V> gh = gatedHolder(oldHolder);
 		boolean validBeforeInvalidate = gh != null;
 		V releasedValue = releaseHolder(oldHolder);
@@ -1187,8 +1908,27 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
 	protected V removeAndRelease(K key)
 	{
 		AccessTimeObjectHolder<V> oldHolder = this.objects.remove(key);
+		unscheduleExpiration(key, oldHolder);
 		return releaseHolder(oldHolder);
 	}
+
+	/**
+	 * Removes the mapping for the given key, if it is currently mapped to the given holder, and releases the holder.
+	 * This is similar to {@link #removeAndRelease(Object)}, but it will not remove a holder that was put
+	 * for the same key after the given holder was retrieved.
+	 * 
+	 * @param key The key
+	 * @param holder The holder that is expected to be mapped to the key
+	 * @return The value that was stored by the holder, if this call removed and released the holder. Otherwise null.
+	 */
+	protected V removeAndRelease(K key, AccessTimeObjectHolder<V> holder)
+	{
+		boolean removed = this.objects.remove(key, holder);
+		if (!removed)
+			return null;
+		unscheduleExpiration(key, holder);
+		return releaseHolder(holder);
+	}
 	
 	/**
 	 * Schedule the entry for the given key for expiration. The time will be chosen randomly
@@ -1219,6 +1959,48 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
         }
 
 		holder.setExpireUntil(maxDelay, timeUnit, random);
+		scheduleExpiration(key, holder);
+	}
+
+	/**
+	 * Updates the maxIdleTime of the given holder, see {@link AccessTimeObjectHolder#updateMaxIdleTime(long)}. If the
+	 * holder expires earlier than before, its expiration is scheduled again.
+	 * This method is for internal use of the Cache implementation.
+	 * 
+	 * @param key The key of the holder
+	 * @param holder The holder
+	 * @param idleTimeMillis The time for prolong in milliseconds, including the special values 0 and -1
+	 */
+	public void updateMaxIdleTime(K key, AccessTimeObjectHolder<V> holder, long idleTimeMillis)
+	{
+		boolean shortened = holder.updateMaxIdleTime(idleTimeMillis);
+		if (shortened)
+			scheduleExpiration(key, holder);
+	}
+
+	/**
+	 * Schedules the expiration of the given holder, if this Cache uses a timing wheel for expiration.
+	 * 
+	 * @param key The key of the holder
+	 * @param holder The holder
+	 */
+	private void scheduleExpiration(K key, AccessTimeObjectHolder<V> holder)
+	{
+		if (timingWheel != null)
+			timingWheel.schedule(key, holder.getExpirationDueTime(), holder);
+	}
+
+	/**
+	 * Removes the given holder from the timing wheel, if this Cache uses one. A newer holder for the same key
+	 * stays scheduled.
+	 * 
+	 * @param key The key of the holder
+	 * @param holder The removed holder. May be null.
+	 */
+	private void unscheduleExpiration(K key, AccessTimeObjectHolder<V> holder)
+	{
+		if (timingWheel != null && holder != null)
+			timingWheel.unschedule(key, holder);
 	}
 
 	/**
@@ -1523,7 +2305,7 @@ public class Cache<K, V> implements Thread.UncaughtExceptionHandler, ActionConte
                     // is stopped, the shutdown Thread will wait very long.
                     sleep(cleanUpIntervalMillis);
                     
-                    removedEntries += cleanUp();
+                    removedEntries += (timingWheel != null) ? cleanUpDue() : cleanUp();
                     if (removedEntries != 0)
                     {
                         long now = millisEstimator.millis();
@@ -19,10 +19,12 @@ package com.trivago.triava.tcache;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,8 +33,14 @@ import javax.cache.event.EventType;
 
 import com.trivago.triava.annotations.ObjectSizeCalculatorIgnore;
 import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.eviction.AccessTracking;
+import com.trivago.triava.tcache.eviction.EvictionCandidatePool;
 import com.trivago.triava.tcache.eviction.EvictionInterface;
+import com.trivago.triava.tcache.eviction.FreezingEvictor;
+import com.trivago.triava.tcache.eviction.FrozenValueBuffer;
 import com.trivago.triava.tcache.eviction.HolderFreezer;
+import com.trivago.triava.tcache.eviction.ParallelFreezeTask;
+import com.trivago.triava.tcache.eviction.VictimSelection;
 import com.trivago.triava.tcache.statistics.SlidingWindowCounter;
 import com.trivago.triava.tcache.statistics.TCacheStatisticsInterface;
 
@@ -48,13 +56,6 @@ import com.trivago.triava.tcache.statistics.TCacheStatisticsInterface;
 public class CacheLimit<K, V> extends Cache<K, V>
 {
     private static final boolean INTERMEDIATE_NOTFULL_NOTIFICATION = false;
-	/**
-	 * FREE_PERCENTAGE defines how much elements to free.
-	 * Percentage relates to evictionStartAt. 
-	 */
-	private static final int FREE_PERCENTAGE = 10; // Future directions: Move to instance. Add to Builder.
-	private static final float EVICTION_SPACE_PERCENT = 15; // Future directions: Move to instance. Add to Builder.
-	
 	// --- FEATURE_ExtraParEvictionSpace START ----------
 	private static final boolean FEATURE_ExtraParEvictionSpace = false;
 	private static final int EVICTION_SPACE_PER_WRITER = 2500;
@@ -65,12 +66,18 @@ public class CacheLimit<K, V> extends Cache<K, V>
 	private static final boolean LOG_INTERNAL_EXTENDED_DATA = false;
 
 	protected EvictionInterface<K, V> evictionClass = null;
+	protected final EvictionMode evictionMode;
+	private final int evictionSliceSize;
+	@ObjectSizeCalculatorIgnore(reason="Shared thread pool, which is not part of this Cache")
+	private final ForkJoinPool evictionPool;
+	private final AccessTracking<K> accessTracking;
 
 	@ObjectSizeCalculatorIgnore(reason="Thread contains a classloader, which would lead to measuring the whole Heap")
 	private volatile transient EvictionThread evictor = null;
 	
 	protected final AtomicLong evictionCount  = new AtomicLong();	
 	private int counterEvictionsRounds = 0;
+	int counterEvictionSlices = 0; // Equal to counterEvictionsRounds, unless incremental eviction is active
 	private AtomicInteger  counterEvictionsHalts = new AtomicInteger();
 	private SlidingWindowCounter evictionRateCounter = new SlidingWindowCounter(60, 1);
 	
@@ -80,6 +87,7 @@ public class CacheLimit<K, V> extends Cache<K, V>
 	private final BlockingQueue<Boolean> evictionNotifierQ = new LinkedBlockingQueue<>(2);
 
 
+	@SuppressWarnings("unchecked")
 	public CacheLimit(TCacheFactory factory, Builder<K, V> builder)
 	{
 		super(factory, builder);
@@ -88,6 +96,17 @@ public class CacheLimit<K, V> extends Cache<K, V>
 			throw new IllegalArgumentException("evictionClass must not be null in an evicting Cache");
 		}
 		this.evictionClass = builder.getEvictionClass();
+		this.evictionMode = builder.getEvictionMode();
+		this.evictionSliceSize = builder.getEvictionSliceSize();
+		this.evictionPool = builder.getEvictionPool();
+		this.accessTracking = (evictionClass instanceof AccessTracking) ? (AccessTracking<K>)evictionClass : null;
+	}
+
+	@Override
+	protected void recordAccess(K key)
+	{
+		if (accessTracking != null)
+			accessTracking.recordAccess(key);
 	}
 
 	// *** VALUES BELOW ARE FIXED AT CONSTRUCTION. See evictionExtraSpace(builder) ************************  
@@ -162,7 +181,7 @@ public class CacheLimit<K, V> extends Cache<K, V>
 	@Override
 	protected int evictionExtraSpace(Builder<K, V> builder)
 	{
-		double factor = EVICTION_SPACE_PERCENT / 100D; //  20/100d = 0.2
+		double factor = builder.getEvictionSpacePercentage() / 100D; //  20/100d = 0.2
 		userDataElements = builder.getMaxElements();
 		
 		final int parallelityEvictionSpace;
@@ -189,7 +208,7 @@ public class CacheLimit<K, V> extends Cache<K, V>
 		long plannedSizeLong = userDataElements + extraEvictionSpace;
 		blockStartAt = (int)Math.min(plannedSizeLong, Integer.MAX_VALUE); 
 		
-		evictNormallyElements = (int)((double)userDataElements * FREE_PERCENTAGE / 100D);
+		evictNormallyElements = (int)((double)userDataElements * builder.getEvictionFreePercentage() / 100D);
 		evictNormallyElements = Math.max(1, evictNormallyElements); // evict always 1 or more
 		evictUntilAtLeast = userDataElements - evictNormallyElements;
 		if (LOG_INTERNAL_DATA)
@@ -202,16 +221,39 @@ public class CacheLimit<K, V> extends Cache<K, V>
 		return blockStartAt - userDataElements;
 	}
 
+	/**
+	 * Returns the maximum number of entries to load from the disk tier. An evicting Cache loads at most its
+	 * configured size, so it does not start with an eviction.
+	 *
+	 * @param builder The builder containing the configuration
+	 * @return The maximum number of entries to load
+	 */
+	@Override
+	protected int diskTierLoadLimit(Builder<K, V> builder)
+	{
+		return builder.getMaxElements();
+	}
+
 	/**
 	 * Determine how many elements to remove. The goal is to reach the interval
 	 * [ {@link #evictUntilAtLeast}, {@link #userDataElements}]. Typically we would try to
 	 * evict {@link #evictNormallyElements} elements.
+	 * <p>
+	 * For incremental eviction, the number of elements required to reach {@link #evictUntilAtLeast} is returned,
+	 * but at most {@link #evictionSliceSize}. 
 	 *
 	 * @return The number of elements to remove
 	 */
 	protected int elementsToRemove()
 	{
 		int currentElements = objects.size();
+		if (evictionSliceSize > 0)
+		{
+			// Incremental eviction: Once started, evict until reaching the low watermark, one slice at a time
+			int removeCount = currentElements - evictUntilAtLeast;
+			return removeCount <= 0 ? 0 : Math.min(removeCount, evictionSliceSize);
+		}
+
 		if (currentElements < userDataElements)
 		{
 			// [0, userDataElements-1] means: Not full. Nothing to evict.
@@ -292,6 +334,17 @@ public class CacheLimit<K, V> extends Cache<K, V>
 		
 		Map<K,V> evictedElements = new HashMap<>();
 		boolean expiryNotification = false;
+
+		// --- EvictionMode.SELECT START ----------
+		// Reused over eviction rounds. Only used if the eviction class orders by frozen value, see evictWithFrozenValueBuffer()
+		private FrozenValueBuffer<K, V> frozenValueBuffer = null;
+		// --- EvictionMode.SELECT END ----------
+
+		// --- EvictionMode.SAMPLED START ----------
+		private EvictionCandidatePool<K, V> candidatePool = null;
+		// The sample cursor is kept over eviction rounds, so that each round continues sampling where the previous one stopped
+		private Iterator<Entry<K, AccessTimeObjectHolder<V>>> sampleCursor = null;
+		// --- EvictionMode.SAMPLED END ----------
 		
 		// Future directions: Pass a "Listener" down here, instead of the full tcache 
 		public EvictionThread(String name)
@@ -339,12 +392,7 @@ public class CacheLimit<K, V> extends Cache<K, V>
 						evictionNotifierDone.notifyAll();
 					}
 					
-					if (expiryNotification)
-					{
-						// Send "EXPIRED" notifications (this is EVICTION, but it is not documented in the JSR107 specs
-						// whether one should send "REMOVED" or "EXPIRED" for evictions.
-						listeners.dispatchEvents(evictedElements, EventType.EXPIRED, true);
-					}
+					dispatchEvictedElements();
 				}
 				catch (InterruptedException e)
 				{
@@ -377,43 +425,253 @@ public class CacheLimit<K, V> extends Cache<K, V>
 		}
 
 		/**
-		 * Evict overflow elements from this Cache. The number of elements is determined by elementsToRemove()
+		 * Sends notifications for the elements evicted since the last call, if there are listeners for it.
+		 */
+		private void dispatchEvictedElements()
+		{
+			if (expiryNotification)
+			{
+				// Send "EXPIRED" notifications (this is EVICTION, but it is not documented in the JSR107 specs
+				// whether one should send "REMOVED" or "EXPIRED" for evictions.
+				listeners.dispatchEvents(evictedElements, EventType.EXPIRED, true);
+				evictedElements.clear();
+			}
+		}
+
+		/**
+		 * Evict overflow elements from this Cache. The number of elements is determined by elementsToRemove().
+		 * With incremental eviction this evicts slice after slice, until the low watermark is reached. The eviction class
+		 * hooks are called once per eviction round, and not per slice.
 		 */
 		protected void evict()
 		{
 			counterEvictionsRounds++;
 			evictionClass.beforeEviction();
-			evictWithFreezer();
-			evictionClass.afterEviction();
+			try
+			{
+				evictSlice();
+				while (evictionSliceSize > 0 && running && elementsToRemove() > 0)
+				{
+					// Incremental eviction: Wake up blocked writers after each slice, and continue until the low watermark is reached
+					synchronized (evictionNotifierDone)
+					{
+						evictionNotifierDone.notifyAll();
+					}
+					dispatchEvictedElements();
+					evictSlice();
+				}
+			}
+			finally
+			{
+				evictionClass.afterEviction();
+			}
 		}
-		
+
 		/**
-		 * Evict optimally according to eviction policy by inspecting ALL Cache entries.
-		 * The values to be compared are frozen, so that comparisons
-		 * are consistent during the eviction.  
+		 * Evicts one slice, or everything that elementsToRemove() demands if incremental eviction is not active.
 		 */
-		protected void evictWithFreezer()
+		private void evictSlice()
+		{
+			counterEvictionSlices++;
+			switch (evictionMode)
+			{
+				case SAMPLED:
+					evictSampled();
+					break;
+				case SELECT:
+					if (canUseFrozenValueBuffer() && evictionPool == null)
+						evictWithFrozenValueBuffer();
+					else
+						evictWithFreezer();
+					break;
+				case FULL:
+				default:
+					evictWithFreezer();
+					break;
+			}
+		}
+
+		/**
+		 * Returns whether the eviction class orders by the frozen values only. In that case
+		 * {@link #evictWithFrozenValueBuffer()} can be used.
+		 * 
+		 * @return true, if the eviction order is defined by the frozen values
+		 */
+		private boolean canUseFrozenValueBuffer()
+		{
+			return evictionClass instanceof FreezingEvictor && ((FreezingEvictor<K, V>)evictionClass).ordersByFrozenValue();
+		}
+
+		/**
+		 * Evict optimally according to eviction policy by inspecting ALL Cache entries, like {@link #evictWithFreezer()}.
+		 * The frozen values are stored in a primitive {@link FrozenValueBuffer} that is reused over eviction rounds, so no
+		 * objects are created per Cache entry. This avoids a burst of garbage exactly at the time the Cache is under write pressure.
+		 */
+		protected void evictWithFrozenValueBuffer()
 		{
 			int elemsToRemovePreCheck = elementsToRemove();
 			if (elemsToRemovePreCheck <= 0)
 			{
-				/**
-				 * Check, if eviction makes sense. Rationale: In a concurrent situation, threads may enqueue
-				 * an additional "eviction request".
-				 * 
-				 * This thread: evictionNotifierQ.clear(); // get rid of further notifications (if any)
-				 * 
-				 * Other thread: evictionNotifierQ.offer(Boolean.TRUE);
-				 * 
-				 * This thread: evictionIsRunning = true;
-				 * 
-				 * For the case described above: If we wouldn't check at the beginning of this method, we would first go
-				 * through the entrySet() (which can be very expensive due to CHM locking) only to find out
-				 * shortly after that there is no work to do.
-				 */
+				// See evictWithFreezer() for the rationale of this check
 				return;
 			}
-			
+
+			if (frozenValueBuffer == null)
+			{
+				frozenValueBuffer = new FrozenValueBuffer<>(blockStartAt);
+			}
+			final FrozenValueBuffer<K, V> buffer = frozenValueBuffer;
+			try
+			{
+				// ConcurrentHashMap.forEach() does not create an Entry object per entry, in contrast to iterating the entrySet()
+				objects.forEach((key, holder) -> buffer.add(key, holder, evictionClass.getFreezeValue(key, holder)));
+
+				int candidates = buffer.size();
+				buffer.selectSmallest(selectionCount(elemsToRemovePreCheck, candidates));
+
+				// Call elementsToRemove() again. See evictWithFreezer() for the rationale.
+				int elemsToRemove = elementsToRemove();
+				int removedCount = 0;
+				for (int i = 0; i < candidates && removedCount < elemsToRemove; i++)
+				{
+					K key = buffer.key(i);
+					AccessTimeObjectHolder<V> holder = (AccessTimeObjectHolder<V>)buffer.holder(i);
+					V oldValue = removeAndRelease(key, holder);
+					if (oldValue != null)
+					{
+						++removedCount;
+						demote(key, oldValue, holder);
+						if (expiryNotification)
+							evictedElements.put(key, oldValue);
+					}
+					// else: Removed or replaced in the meantime by some other means: delete API call, put, expiration
+				}
+
+				evictionCount.addAndGet(removedCount);
+				statisticsCalculator.incrementRemoveCount(removedCount);
+				evictionRateCounter.registerEvents(millisEstimator.seconds(), removedCount);
+			}
+			finally
+			{
+				// Do not keep keys and values reachable until the next eviction round
+				buffer.clear();
+			}
+		}
+
+		/**
+		 * Returns the number of candidates to select in {@link EvictionMode#SELECT}. This is a bit more than the planned
+		 * number of evictions, as candidates can disappear concurrently (expiration, remove()), and the Cache can grow
+		 * while freezing. Should the selected candidates not suffice, the eviction continues with the unsorted remainder.
+		 * 
+		 * @param plannedEvictions The number of evictions, as planned before freezing
+		 * @param candidates The number of frozen candidates
+		 * @return The number of candidates to select
+		 */
+		private int selectionCount(int plannedEvictions, int candidates)
+		{
+			long count = plannedEvictions + Math.max(16, plannedEvictions / 10);
+			return (int)Math.min(count, candidates);
+		}
+
+		/**
+		 * Evict approximately according to eviction policy by inspecting only samples of the Cache entries. For each
+		 * entry to evict, {@link Builder#getEvictionSampleSize()} entries are frozen and offered to a
+		 * candidate pool, and the best candidate from the pool is evicted. The work done is proportional to the number
+		 * of evicted elements, and not to the Cache size.
+		 * <p>
+		 * The samples are taken from a cursor that walks the storage Map in its natural iteration order and wraps around at
+		 * the end. For hash based storage the iteration order is unrelated to the access pattern, so it serves as a
+		 * sampling source that avoids the cost of drawing random positions.
+		 */
+		protected void evictSampled()
+		{
+			int elemsToRemove = elementsToRemove();
+			if (elemsToRemove <= 0)
+			{
+				// See evictWithFreezer() for the rationale of this check
+				return;
+			}
+
+			if (candidatePool == null)
+			{
+				candidatePool = new EvictionCandidatePool<>(builder.getEvictionCandidatePoolSize(), evictionClass.evictionComparator());
+			}
+			else
+			{
+				// Frozen values from the previous round are not comparable with the current ones, e.g. for ClockEviction
+				candidatePool.clear();
+			}
+
+			final int sampleSize = builder.getEvictionSampleSize();
+			// Limit the work in case many entries disappear concurrently, e.g. due to expiration or remove() calls
+			final long maxSamples = 2L * sampleSize * elemsToRemove + objects.size();
+			long samples = 0;
+			int removedCount = 0;
+
+			while (removedCount < elemsToRemove && samples < maxSamples)
+			{
+				// -1- Sample
+				for (int i = 0; i < sampleSize; i++)
+				{
+					Entry<K, AccessTimeObjectHolder<V>> entry = nextSample();
+					if (entry == null)
+						break; // Cache is empty
+
+					samples++;
+					K key = entry.getKey();
+					AccessTimeObjectHolder<V> holder = entry.getValue();
+					long frozenValue = evictionClass.getFreezeValue(key, holder);
+					candidatePool.offer(new HolderFreezer<>(key, holder, frozenValue));
+				}
+
+				// -2- Evict best candidate
+				HolderFreezer<K, V> candidate = candidatePool.poll();
+				if (candidate == null)
+					break; // Cache is empty
+
+				K key = candidate.getKey();
+				AccessTimeObjectHolder<V> holder = (AccessTimeObjectHolder<V>)candidate.getHolder();
+				V oldValue = removeAndRelease(key, holder);
+				if (oldValue != null)
+				{
+					// Same rationale as in evictWithFreezer(): Only count what we removed ourselves
+					++removedCount;
+					demote(key, oldValue, holder);
+					if (expiryNotification)
+						evictedElements.put(key, oldValue);
+				}
+				// else: Removed or replaced in the meantime by some other means: delete API call, put, expiration
+			}
+
+			evictionCount.addAndGet(removedCount);
+			statisticsCalculator.incrementRemoveCount(removedCount);
+			evictionRateCounter.registerEvents(millisEstimator.seconds(), removedCount);
+		}
+
+		/**
+		 * Returns the next entry from the sample cursor. The cursor wraps around when reaching the end.
+		 * 
+		 * @return The next entry, or null if the Cache is empty
+		 */
+		private Entry<K, AccessTimeObjectHolder<V>> nextSample()
+		{
+			if (sampleCursor == null || !sampleCursor.hasNext())
+			{
+				sampleCursor = objects.entrySet().iterator();
+				if (!sampleCursor.hasNext())
+					return null;
+			}
+			return sampleCursor.next();
+		}
+		
+		/**
+		 * Freezes all entries, and orders them for eviction.
+		 * 
+		 * @param elemsToRemovePreCheck The planned number of elements to remove
+		 * @return The entries, with the victims at the start in eviction order
+		 */
+		private HolderFreezer<K, V>[] freezeAll(int elemsToRemovePreCheck)
+		{
 			int i=0;
 			Set<Entry<K, AccessTimeObjectHolder<V>>> entrySet = objects.entrySet();
 			// ###A###
@@ -441,7 +699,56 @@ public class CacheLimit<K, V> extends Cache<K, V>
 
 			@SuppressWarnings("unchecked")
 			HolderFreezer<K, V>[] toCheck = toCheckL.toArray(new HolderFreezer[toCheckL.size()]);
-			Arrays.sort(toCheck, evictionClass.evictionComparator());
+			if (evictionMode == EvictionMode.SELECT)
+				VictimSelection.selectSmallest(toCheck, selectionCount(elemsToRemovePreCheck, toCheck.length), evictionClass.evictionComparator());
+			else
+				Arrays.sort(toCheck, evictionClass.evictionComparator());
+			return toCheck;
+		}
+
+		/**
+		 * Freezes all entries in parallel, and selects the victims. The work is split in shards, and executed in the evictionPool.
+		 * 
+		 * @param elemsToRemovePreCheck The planned number of elements to remove
+		 * @return The victims in eviction order
+		 */
+		private HolderFreezer<K, V>[] freezeInParallel(int elemsToRemovePreCheck)
+		{
+			int victimCount = selectionCount(elemsToRemovePreCheck, objects.size());
+			return evictionPool.invoke(new ParallelFreezeTask<>(objects.entrySet().spliterator(), evictionClass, victimCount));
+		}
+
+		/**
+		 * Evict optimally according to eviction policy by inspecting ALL Cache entries.
+		 * The values to be compared are frozen, so that comparisons
+		 * are consistent during the eviction.  
+		 * <p>
+		 * In {@link EvictionMode#FULL} all frozen entries are sorted. In {@link EvictionMode#SELECT} only the
+		 * best candidates are selected and sorted, see {@link #selectionCount(int, int)}. 
+		 */
+		protected void evictWithFreezer()
+		{
+			int elemsToRemovePreCheck = elementsToRemove();
+			if (elemsToRemovePreCheck <= 0)
+			{
+				/**
+				 * Check, if eviction makes sense. Rationale: In a concurrent situation, threads may enqueue
+				 * an additional "eviction request".
+				 * 
+				 * This thread: evictionNotifierQ.clear(); // get rid of further notifications (if any)
+				 * 
+				 * Other thread: evictionNotifierQ.offer(Boolean.TRUE);
+				 * 
+				 * This thread: evictionIsRunning = true;
+				 * 
+				 * For the case described above: If we wouldn't check at the beginning of this method, we would first go
+				 * through the entrySet() (which can be very expensive due to CHM locking) only to find out
+				 * shortly after that there is no work to do.
+				 */
+				return;
+			}
+			
+			HolderFreezer<K, V>[] toCheck = (evictionPool != null) ? freezeInParallel(elemsToRemovePreCheck) : freezeAll(elemsToRemovePreCheck);
 
 			int removedCount = 0;
 			
@@ -465,6 +772,8 @@ public class CacheLimit<K, V> extends Cache<K, V>
 					 * the base class. Also if someone calls #remove(), the entry can disappear.
 					 */
 					++removedCount;
+					// The removed holder may be newer than the frozen one. Its metadata is close enough for the demotion.
+					demote(key, oldValue, (AccessTimeObjectHolder<V>)entryToRemove.getHolder());
 					if (INTERMEDIATE_NOTFULL_NOTIFICATION)
 					{
 					    /**
@@ -581,6 +890,21 @@ public class CacheLimit<K, V> extends Cache<K, V>
 	}
 
 
+	/**
+	 * Triggers eviction if the Cache is near full, but does not wait for it, regardless of the JamPolicy.
+	 * 
+	 * @return true, if the Cache is not overfull
+	 */
+	@Override
+	protected boolean hasFreeCapacity()
+	{
+		if (!isFull())
+			return true;
+
+		ensureEvictionThreadIsRunning().trigger();
+		return !isOverfull();
+	}
+
 	/**
 	 * Frees entries, if the Cache is near full.
 	 * 
@@ -651,6 +975,9 @@ public class CacheLimit<K, V> extends Cache<K, V>
     protected String evictionConfigInfo() {
         EvictionInterface<K, V> evictionClass = builder.getEvictionClass();
         return ", maxElements=" + builder.getMaxElements()
-             + ", eviction-class=" + ((evictionClass != null) ? evictionClass.getClass().getSimpleName() : "null");
+             + ", eviction-class=" + ((evictionClass != null) ? evictionClass.getClass().getSimpleName() : "null")
+             + ", eviction-mode=" + builder.getEvictionMode()
+             + ", eviction-slice-size=" + builder.getEvictionSliceSize()
+             + ", parallel-eviction=" + builder.isParallelEviction();
     }
 }
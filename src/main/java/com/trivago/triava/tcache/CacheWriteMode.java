@@ -31,6 +31,10 @@ public enum CacheWriteMode
 	 * Best-effort serialization, e.g. using Serializable or Externizable
 	 */
 	Serialize(true),
+	/**
+	 * Store a shared instance for equal values, similar to {@link String#intern()}. The interner is bounded, see
+	 * {@link com.trivago.triava.tcache.core.Builder#setInternerMaxSize(int)}.
+	 */
 	Intern(false);
 	
 	final boolean jsr107compatibleStoreByValue;
@@ -0,0 +1,301 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.cache.CacheException;
+
+import com.trivago.triava.tcache.core.Serializer;
+
+/**
+ * A compact holder layout, that packs the metadata into 16 bytes. This saves 8 bytes per entry compared to
+ * {@link StandardObjectHolder}. On a 64 bit HotSpot JVM with compressed oops an instance is expected to take 32 bytes
+ * instead of 40 bytes. HolderSizeChecks in the integration tests measures the actual heap usage.
+ * <p>
+ * The price is a lower precision: Input date and last access time are stored in seconds, rounded up so that an
+ * entry never expires early. The idle time and cache time are rounded up to seconds, and beyond 4.5 hours to minutes,
+ * hours or days. The use count saturates at {@value #USE_COUNT_MAX}.
+ * <pre>
+ * inputDate:    seconds relative to baseTimeMillis (unsigned)
+ * lastAccess:   seconds relative to baseTimeMillis (unsigned)
+ * state:        Bit 31-28: flags. Bit 0,1 serialization mode, bit 2,3 state
+ *               Bit 27-16: decayEpoch
+ *               Bit 15-0:  useCount
+ * maxIdleTime:  encoded duration
+ * maxCacheTime: encoded duration
+ * </pre>
+ * Encoded durations use bit 15-14 for the unit (seconds, minutes, hours, days) and bit 13-0 for the value.
+ * <p>
+ * Times and durations are written with plain writes, like the int fields of {@link StandardObjectHolder}. Only the
+ * state uses CAS, as flags and use count share one field.
+ * 
+ * @author cesken
+ *
+ * @param <V> The value type
+ */
+public class CompactObjectHolder<V> extends AccessTimeObjectHolder<V>
+{
+	private static final long serialVersionUID = 3093851473081939411L;
+
+	@SuppressWarnings("rawtypes") // CompactObjectHolder<V> would be incompatible with CompactObjectHolder.class
+	transient static AtomicIntegerFieldUpdater<CompactObjectHolder> stateAFU = AtomicIntegerFieldUpdater.newUpdater(CompactObjectHolder.class, "state");
+
+	final static int USE_COUNT_MAX = (1 << 16) - 1;
+	private final static int DECAY_EPOCH_SHIFT = 16;
+	private final static int FLAGS_SHIFT = 28;
+	private final static int FLAGS_MASK = 0xF << FLAGS_SHIFT;
+	private final static int DURATION_VALUE_BITS = 14;
+	private final static int DURATION_MASK = 0xFFFF;
+	private final static int DURATION_VALUE_MASK = (1 << DURATION_VALUE_BITS) - 1;
+	private final static int DURATION_UNLIMITED = DURATION_MASK;
+	private final static long[] DURATION_UNIT_SECONDS = { 1, 60, 3600, 86400 };
+	private final static long SECONDS_MASK = 0xFFFF_FFFFL;
+
+	// Fields are not initialized explicitly, as the super constructor may already have set them.
+	// offset #field-size
+	// 16 #4
+	private int inputDate;
+	// 20 #4
+	private int lastAccess;
+	// 24 #4
+	private volatile int state;
+	// 28 #2
+	private short maxIdleTime;
+	// 30 #2
+	private short maxCacheTime;
+	// 32
+
+	/**
+	 * Construct a holder. The holder will be incomplete and not accessible by cache users, until you call {@link #complete(long, long)}
+	 * 
+	 * @param value The value to store in this holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public CompactObjectHolder(V value, CacheWriteMode writeMode) throws CacheException
+	{
+		super(value, writeMode);
+	}
+
+	/**
+	 * Construct a holder, that serializes the value with the given serializer in store-by-value mode.
+	 * See {@link #CompactObjectHolder(Object, CacheWriteMode)}.
+	 * 
+	 * @param value The value to store in this holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public CompactObjectHolder(V value, CacheWriteMode writeMode, Serializer serializer) throws CacheException
+	{
+		super(value, writeMode, serializer);
+	}
+
+	public CompactObjectHolder(V value, long maxIdleTimeMillis, long maxCacheTimeSecs, CacheWriteMode writeMode) throws CacheException
+	{
+		super(value, maxIdleTimeMillis, maxCacheTimeSecs, writeMode);
+	}
+
+	/**
+	 * Encodes the given duration. The duration is rounded up to the unit that can hold it.
+	 * 
+	 * @param millis The duration in milliseconds. Long.MAX_VALUE means no limit.
+	 * @return The encoded duration
+	 */
+	static int encodeDuration(long millis)
+	{
+		if (millis == Long.MAX_VALUE)
+			return DURATION_UNLIMITED;
+
+		long value = millis / 1000 + (millis % 1000 == 0 ? 0 : 1);
+		for (int unit = 0; unit < DURATION_UNIT_SECONDS.length; unit++)
+		{
+			if (unit > 0)
+			{
+				long factor = DURATION_UNIT_SECONDS[unit] / DURATION_UNIT_SECONDS[unit - 1];
+				value = value / factor + (value % factor == 0 ? 0 : 1);
+			}
+			int encoded = (unit << DURATION_VALUE_BITS) | (int)value;
+			if (value <= DURATION_VALUE_MASK && encoded != DURATION_UNLIMITED)
+				return encoded;
+		}
+		return DURATION_UNLIMITED;
+	}
+
+	/**
+	 * Decodes the given duration.
+	 * 
+	 * @param encoded The encoded duration
+	 * @return The duration in milliseconds. Long.MAX_VALUE means no limit.
+	 */
+	static long decodeDuration(int encoded)
+	{
+		encoded &= DURATION_MASK;
+		if (encoded == DURATION_UNLIMITED)
+			return Long.MAX_VALUE;
+		int unit = encoded >>> DURATION_VALUE_BITS;
+		return (encoded & DURATION_VALUE_MASK) * DURATION_UNIT_SECONDS[unit] * 1000;
+	}
+
+	/**
+	 * Converts the given point in time to seconds. It is rounded up, so that the expiration that is calculated from
+	 * it is never earlier than with millisecond precision.
+	 */
+	private static int toSeconds(long millis)
+	{
+		if (millis <= 0)
+			return 0;
+		long seconds = millis / 1000 + (millis % 1000 == 0 ? 0 : 1);
+		return (int)(seconds > SECONDS_MASK ? SECONDS_MASK : seconds);
+	}
+
+	private static long fromSeconds(int seconds)
+	{
+		return (seconds & SECONDS_MASK) * 1000;
+	}
+
+	@Override
+	int flags()
+	{
+		int compactFlags = state >>> FLAGS_SHIFT;
+		// Move the state from bit 2,3 back to bit 5,6
+		return (compactFlags & SERIALIZATION_MASK) | ((compactFlags << 3) & STATE_MASK);
+	}
+
+	@Override
+	void setFlags(int flags)
+	{
+		int compactFlags = (flags & SERIALIZATION_MASK) | ((flags & STATE_MASK) >>> 3);
+		int current;
+		do
+		{
+			current = state;
+		}
+		while (!stateAFU.compareAndSet(this, current, (current & ~FLAGS_MASK) | (compactFlags << FLAGS_SHIFT)));
+	}
+
+	@Override
+	long inputDateMillis()
+	{
+		return fromSeconds(inputDate);
+	}
+
+	@Override
+	void setInputDateMillis(long millis)
+	{
+		inputDate = toSeconds(millis);
+	}
+
+	@Override
+	long lastAccessMillis()
+	{
+		return fromSeconds(lastAccess);
+	}
+
+	@Override
+	void setLastAccessMillis(long millis)
+	{
+		lastAccess = toSeconds(millis);
+	}
+
+	@Override
+	long maxIdleTimeMillis()
+	{
+		return decodeDuration(maxIdleTime);
+	}
+
+	@Override
+	void setMaxIdleTimeMillis(long millis)
+	{
+		if (millis < 0)
+			throw new IllegalArgumentException("millis must be not negative: " + millis);
+		maxIdleTime = (short)encodeDuration(millis);
+	}
+
+	@Override
+	long maxCacheTimeMillis()
+	{
+		return decodeDuration(maxCacheTime);
+	}
+
+	@Override
+	void setMaxCacheTimeMillis(long millis)
+	{
+		if (millis < 0)
+			throw new IllegalArgumentException("millis must be not negative: " + millis);
+		maxCacheTime = (short)encodeDuration(millis);
+	}
+
+	@Override
+	public int getUseCount()
+	{
+		return state & USE_COUNT_MAX;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The use count saturates at {@value #USE_COUNT_MAX}.
+	 */
+	@Override
+	public void incrementUseCount()
+	{
+		int current;
+		do
+		{
+			current = state;
+			if ((current & USE_COUNT_MAX) == USE_COUNT_MAX)
+				return;
+		}
+		while (!stateAFU.compareAndSet(this, current, current + 1));
+	}
+
+	@Override
+	public int decayUseCount(int shift)
+	{
+		int current;
+		int decayed;
+		do
+		{
+			current = state;
+			decayed = (current & USE_COUNT_MAX) >>> shift;
+		}
+		while (!stateAFU.compareAndSet(this, current, (current & ~USE_COUNT_MAX) | decayed));
+		return decayed;
+	}
+
+	@Override
+	public int decayUseCount(int shift, int epoch)
+	{
+		int current;
+		int decayed;
+		do
+		{
+			current = state;
+			decayed = (current & USE_COUNT_MAX) >>> shift;
+		}
+		while (!stateAFU.compareAndSet(this, current, (current & FLAGS_MASK) | (epoch << DECAY_EPOCH_SHIFT) | decayed));
+		return decayed;
+	}
+
+	@Override
+	public int decayEpoch()
+	{
+		return (state >>> DECAY_EPOCH_SHIFT) & DECAY_EPOCH_MAX;
+	}
+}
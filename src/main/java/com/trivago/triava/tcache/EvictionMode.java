@@ -0,0 +1,50 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+/**
+ * The EvictionMode defines how the eviction thread of a size limited Cache chooses the entries to evict.
+ * The {@link EvictionPolicy} (or a custom eviction class) defines <i>which</i> entries are preferred for eviction,
+ * while the EvictionMode defines <i>how much</i> of the Cache is inspected to find them.
+ * 
+ * @author cesken
+ *
+ */
+public enum EvictionMode
+{
+	/**
+	 * Inspect all Cache entries, and evict the best candidates according to the eviction policy. The eviction
+	 * order is exact, but each eviction round costs O(n log n) for a Cache with n entries.
+	 */
+	FULL,
+	/**
+	 * Inspect all Cache entries like {@link #FULL}, but only select the best candidates via partial selection instead of sorting
+	 * all entries. The victims are the same as for {@link #FULL}, but an eviction round costs O(n) expected instead of O(n log n).
+	 * <p>
+	 * For eviction classes that order by the frozen value only, like the LFU, LRU and Clock implementations, the frozen values are
+	 * kept in reusable primitive arrays. An eviction round then creates nearly no garbage.
+	 */
+	SELECT,
+	/**
+	 * Inspect only a small sample of the Cache entries for each evicted entry, similar to the Redis approximated
+	 * LRU. The best candidates of each sample are kept in a small candidate pool, and the best entry of the pool is
+	 * evicted. The cost per evicted entry is constant and does not grow with the Cache size, at the price of an
+	 * approximated eviction order. 
+	 */
+	SAMPLED
+}
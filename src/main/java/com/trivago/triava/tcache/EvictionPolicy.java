@@ -18,5 +18,5 @@ package com.trivago.triava.tcache;
 
 public enum EvictionPolicy
 {
-	LFU, LRU, CLOCK, NONE, CUSTOM
+	LFU, DECAYING_LFU, LRU, CLOCK, WTINYLFU, NONE, CUSTOM
 }
\ No newline at end of file
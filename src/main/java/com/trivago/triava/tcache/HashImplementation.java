@@ -24,4 +24,7 @@ public enum HashImplementation
 	// LocalCache always drops in case of a jam (like TCacheJamPolicy.DROP)
 //	PerfTestGuavaLocalCache, // com.google.common.cache.LocalCache  
 	HighscalelibNonBlockingHashMap, // org.cliffc.high_scale_lib.NonBlockingHashMap.java
+	OffHeap, // Off-heap values: ConcurrentHashMap index and keys on-heap, serialized values in direct memory slabs. Requires a CacheWriteMode that serializes. 
+	LongKey, // Open-addressing tables with primitive long keys. Only for Long keys, see Builder.buildLongKeyCache()
+	InlineHolder, // The holders are the map nodes, with packed metadata like the compact holders. No separate map node per entry.
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import javax.cache.CacheException;
+
+import com.trivago.triava.tcache.core.Serializer;
+import com.trivago.triava.tcache.storage.InlineHolderMap;
+import com.trivago.triava.tcache.storage.InlineNode;
+
+/**
+ * A holder that is also the entry node of an {@link InlineHolderMap}. It uses the packed metadata layout of
+ * {@link CompactObjectHolder}, plus the key, the hash and the link to the next node in the bin. An entry
+ * thus takes one object of 48 bytes, instead of a map node and a holder of together 64 bytes, with compressed oops.
+ * A lookup also saves the pointer chase from the map node to the holder. 
+ * 
+ * @author cesken
+ *
+ * @param <V> The value type
+ */
+public final class InlineObjectHolder<V> extends CompactObjectHolder<V> implements InlineNode
+{
+	private static final long serialVersionUID = -2466209580315848416L;
+
+	// offset #field-size
+	// 32 #4
+	private transient Object key;
+	// 36 #4
+	private transient int hash;
+	// 40 #4
+	private transient InlineNode next;
+	// 48 (with padding)
+
+	/**
+	 * Construct a holder, that serializes the value with the given serializer in store-by-value mode.
+	 * See {@link CompactObjectHolder#CompactObjectHolder(Object, CacheWriteMode, Serializer)}.
+	 * 
+	 * @param value The value to store in this holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public InlineObjectHolder(V value, CacheWriteMode writeMode, Serializer serializer) throws CacheException
+	{
+		super(value, writeMode, serializer);
+	}
+
+	@Override
+	public Object nodeKey()
+	{
+		return key;
+	}
+
+	@Override
+	public int nodeHash()
+	{
+		return hash;
+	}
+
+	@Override
+	public InlineNode nextNode()
+	{
+		return next;
+	}
+
+	@Override
+	public void setNextNode(InlineNode next)
+	{
+		this.next = next;
+	}
+
+	@Override
+	public void linkKey(Object key, int hash)
+	{
+		this.key = key;
+		this.hash = hash;
+	}
+}
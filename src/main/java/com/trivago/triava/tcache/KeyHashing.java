@@ -0,0 +1,40 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+/**
+ * The KeyHashing defines how the hash code of serialized keys is calculated, when using store-by-value mode
+ * ({@link CacheWriteMode#Serialize}).
+ * 
+ * @author cesken
+ *
+ */
+public enum KeyHashing
+{
+	/**
+	 * Sample at most 32 bytes of the serialized key. This is cheap for big keys, but many keys can collide if they
+	 * only differ in bytes that are not sampled. Serialized Java objects share long identical stream headers, so this is
+	 * likely for keys that are neither String nor a boxed primitive.
+	 */
+	SAMPLING,
+	/**
+	 * Calculate the xxHash64 over the full serialized key, reading 8 bytes at a time. The hash quality is
+	 * very good, at the price of reading all bytes of the key.
+	 */
+	XXHASH64
+}
@@ -0,0 +1,169 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import java.util.concurrent.TimeUnit;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.statistics.TCacheStatistics;
+import com.trivago.triava.tcache.storage.ConcurrentLongKeyMap;
+
+/**
+ * A Cache for long keys, like numeric IDs. The entries are stored in a {@link ConcurrentLongKeyMap}, which
+ * stores the keys as primitive longs in open-addressing tables. Compared to a Cache&lt;Long, V&gt; with the default
+ * storage, each entry saves the map node and the boxed key.
+ * <p>
+ * Expiration, eviction, statistics and listeners work exactly like in the underlying {@link Cache}, which is
+ * available via {@link #asCache()}. Create instances via {@link Builder#buildLongKeyCache()}, for example:
+ * <pre>
+ * LongKeyCache&lt;Hotel&gt; cache = factory.&lt;Long, Hotel&gt;builder().setMaxElements(100_000).buildLongKeyCache();
+ * </pre>
+ * 
+ * @author cesken
+ *
+ * @param <V> The value class
+ */
+public class LongKeyCache<V>
+{
+	private final Cache<Long, V> cache;
+
+	/**
+	 * Creates a LongKeyCache for the given Cache. The Cache must use the {@link HashImplementation#LongKey} storage.
+	 * 
+	 * @param cache The Cache
+	 */
+	public LongKeyCache(Cache<Long, V> cache)
+	{
+		if (!(cache.objects instanceof ConcurrentLongKeyMap))
+			throw new IllegalArgumentException("Cache " + cache.id() + " does not use the LongKey storage");
+		this.cache = cache;
+	}
+
+	/**
+	 * @see Cache#get(Object)
+	 * @param key The key
+	 * @return The value, or null if not present
+	 */
+	public V get(long key)
+	{
+		return cache.get(key);
+	}
+
+	/**
+	 * @see Cache#put(Object, Object)
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(long key, V value)
+	{
+		cache.put(key, value);
+	}
+
+	/**
+	 * @see Cache#put(Object, Object, int, int, TimeUnit)
+	 * @param key The key
+	 * @param value The value
+	 * @param idleTime The maximum idle time
+	 * @param cacheTime The maximum cache time
+	 * @param timeUnit The TimeUnit of idleTime and cacheTime
+	 */
+	public void put(long key, V value, int idleTime, int cacheTime, TimeUnit timeUnit)
+	{
+		cache.put(key, value, idleTime, cacheTime, timeUnit);
+	}
+
+	/**
+	 * @see Cache#putIfAbsent(Object, Object)
+	 * @param key The key
+	 * @param value The value
+	 * @return The current value, or null if the given value was put
+	 */
+	public V putIfAbsent(long key, V value)
+	{
+		return cache.putIfAbsent(key, value);
+	}
+
+	/**
+	 * @see Cache#remove(Object)
+	 * @param key The key
+	 * @return The removed value, or null if not present
+	 */
+	public V remove(long key)
+	{
+		return cache.remove(key);
+	}
+
+	/**
+	 * @see Cache#containsKey(Object)
+	 * @param key The key
+	 * @return true, if the key is present
+	 */
+	public boolean containsKey(long key)
+	{
+		return cache.containsKey(key);
+	}
+
+	/**
+	 * @return The number of elements
+	 */
+	public int size()
+	{
+		return cache.size();
+	}
+
+	/**
+	 * @return The statistics of the Cache
+	 */
+	public TCacheStatistics statistics()
+	{
+		return cache.statistics();
+	}
+
+	/**
+	 * @return The Cache ID
+	 */
+	public String id()
+	{
+		return cache.id();
+	}
+
+	/**
+	 * Returns the underlying Cache. Use it for the methods that are not specialized for long keys, for example
+	 * iteration, listeners or the JSR107 view.
+	 * 
+	 * @return The Cache
+	 */
+	public Cache<Long, V> asCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * @see Cache#close()
+	 */
+	public void close()
+	{
+		cache.close();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LongKeyCache [" + cache + "]";
+	}
+}
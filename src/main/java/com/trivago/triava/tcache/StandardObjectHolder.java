@@ -0,0 +1,194 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.cache.CacheException;
+
+import com.trivago.triava.tcache.core.Serializer;
+import com.trivago.triava.tcache.util.SecondsOrMillis;
+
+/**
+ * The standard holder layout. Times are stored as int values with millisecond precision, and with second precision
+ * if they exceed 12,4 days. See {@link SecondsOrMillis}.
+ * 
+ * @author cesken
+ *
+ * @param <V> The value type
+ */
+public final class StandardObjectHolder<V> extends AccessTimeObjectHolder<V>
+{
+	private static final long serialVersionUID = -4412297611541788935L;
+
+	@SuppressWarnings("rawtypes") // StandardObjectHolder<V> would be incompatible with StandardObjectHolder.class
+	transient static AtomicIntegerFieldUpdater<StandardObjectHolder> useCountAFU = AtomicIntegerFieldUpdater.newUpdater(StandardObjectHolder.class, "useCount");
+
+	// Fields are not initialized explicitly, as the super constructor may already have set them.
+	// offset #field-size
+	// 16 #4
+	private int inputDate; // in milliseconds or seconds relative to baseTimeMillis
+	// 20 #4
+	private int lastAccess; // in milliseconds or seconds relative to baseTimeMillis
+	// 24 #4
+	private int maxIdleTime;  // in milliseconds or seconds relative to inputDate
+	// 28 #4
+	private int maxCacheTime; // in milliseconds or seconds relative to inputDate
+	// 32 #4
+	private volatile int useCount;
+	// 36
+	/**
+	 * Bit 0,1: Serialization mode. 00=Not serialized, 01=Serializable, 10=Externizable
+	 */
+	private volatile byte flags; // STATE_INCOMPLETE
+	// 38 #2
+	private short decayEpoch; // Fits in the alignment gap, so it does not increase the instance size
+	// 40
+
+	/**
+	 * Construct a holder. The holder will be incomplete and not accessible by cache users, until you call {@link #complete(long, long)}
+	 * 
+	 * @param value The value to store in this holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public StandardObjectHolder(V value, CacheWriteMode writeMode) throws CacheException
+	{
+		super(value, writeMode);
+	}
+
+	/**
+	 * Construct a holder, that serializes the value with the given serializer in store-by-value mode.
+	 * See {@link #StandardObjectHolder(Object, CacheWriteMode)}.
+	 * 
+	 * @param value The value to store in this holder
+	 * @param writeMode The CacheWriteMode that defines how to serialize the data
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @throws CacheException when there is a problem serializing the value
+	 */
+	public StandardObjectHolder(V value, CacheWriteMode writeMode, Serializer serializer) throws CacheException
+	{
+		super(value, writeMode, serializer);
+	}
+
+	public StandardObjectHolder(V value, long maxIdleTimeMillis, long maxCacheTimeSecs, CacheWriteMode writeMode) throws CacheException
+	{
+		super(value, maxIdleTimeMillis, maxCacheTimeSecs, writeMode);
+	}
+
+	@Override
+	int flags()
+	{
+		return flags;
+	}
+
+	@Override
+	void setFlags(int flags)
+	{
+		this.flags = (byte)flags;
+	}
+
+	@Override
+	long inputDateMillis()
+	{
+		return SecondsOrMillis.fromInternalToMillis(inputDate);
+	}
+
+	@Override
+	void setInputDateMillis(long millis)
+	{
+		inputDate = SecondsOrMillis.fromMillisToInternal(millis);
+	}
+
+	@Override
+	long lastAccessMillis()
+	{
+		return SecondsOrMillis.fromInternalToMillis(lastAccess);
+	}
+
+	@Override
+	void setLastAccessMillis(long millis)
+	{
+		lastAccess = SecondsOrMillis.fromMillisToInternal(millis);
+	}
+
+	@Override
+	long maxIdleTimeMillis()
+	{
+		return SecondsOrMillis.fromInternalToMillis(maxIdleTime);
+	}
+
+	@Override
+	void setMaxIdleTimeMillis(long millis)
+	{
+		maxIdleTime = SecondsOrMillis.fromMillisToInternal(millis);
+	}
+
+	@Override
+	long maxCacheTimeMillis()
+	{
+		return SecondsOrMillis.fromInternalToMillis(maxCacheTime);
+	}
+
+	@Override
+	void setMaxCacheTimeMillis(long millis)
+	{
+		maxCacheTime = SecondsOrMillis.fromMillisToInternal(millis);
+	}
+
+	@Override
+	public int getUseCount()
+	{
+		return useCount;
+	}
+
+	@Override
+	public void incrementUseCount()
+	{
+		useCountAFU.incrementAndGet(this);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * This is a plain write and not a CAS.
+	 */
+	@Override
+	public int decayUseCount(int shift)
+	{
+		int decayed = useCount >>> shift;
+		useCount = decayed;
+		return decayed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * This is a plain write and not a CAS.
+	 */
+	@Override
+	public int decayUseCount(int shift, int epoch)
+	{
+		decayEpoch = (short)epoch;
+		return decayUseCount(shift);
+	}
+
+	@Override
+	public int decayEpoch()
+	{
+		return decayEpoch & DECAY_EPOCH_MAX;
+	}
+}
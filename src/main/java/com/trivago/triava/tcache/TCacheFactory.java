@@ -192,7 +192,7 @@ public class TCacheFactory implements Closeable, CacheManager
 					// JSR-107 mentions the order clear(), close(), but this means, that new entries
 					// could get added between clear and close. Thus my shutdown() does a close(), clear() sequence.
 					// For practical purposes it should be the same, and also conform to the Cache-TCK.
-					registeredCache.close0(false); 
+					registeredCache.close0(false, true);
 					CacheInstances.remove(index);
 					break;
 				}
@@ -21,8 +21,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import javax.cache.CacheException;
 import javax.cache.CacheManager;
@@ -56,6 +60,7 @@ import com.trivago.triava.tcache.core.TCacheConfigurationBean;
 import com.trivago.triava.tcache.core.TCacheEntryIterator;
 import com.trivago.triava.tcache.core.TCacheJSR107Entry;
 import com.trivago.triava.tcache.core.TCacheJSR107MutableEntry;
+import com.trivago.triava.tcache.core.WriteBehindCacheWriter;
 import com.trivago.triava.tcache.event.ListenerCollection;
 import com.trivago.triava.tcache.statistics.TCacheStatisticsBean;
 import com.trivago.triava.tcache.statistics.TCacheStatisticsBean.StatisticsAveragingMode;
@@ -97,7 +102,10 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 
 	void refreshActionRunners()
 	{
-		this.actionRunner = new WriteThroughActionRunner<K,V>(tcache);
+		if (tcache.cacheWriter instanceof WriteBehindCacheWriter)
+			this.actionRunner = new WriteBehindActionRunner<K,V>(tcache); // The writer is asynchronous. Write after the mutation, like all write-behind
+		else
+			this.actionRunner = new WriteThroughActionRunner<K,V>(tcache);
 		this.actionRunnerWriteBehind = new WriteBehindActionRunner<K,V>(tcache);
 	}
 	
@@ -143,17 +151,8 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 	{
 		throwISEwhenClosed();
 
-		Map<K, V> result = new HashMap<>(keys.size());
-		for (K key : keys)
-		{
-			V value = tcache.get(key);
-			if (value != null)
-			{
-				result.put(key, value);
-			}
-		}
-		
-		return result;
+		// Loads all misses together, see Cache.getAll()
+		return tcache.getAll(keys);
 	}
 
 	@Override
@@ -391,7 +390,7 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 				if (holder != null)
 				{
 					// JSR107 1.0 (p.63) mandates that we call getExpiryForAccess() if we read it (except if was loaded) 
-					holder.updateMaxIdleTime(tcache.expiryPolicy.getExpiryForAccess());
+					tcache.updateMaxIdleTime(key, holder, tcache.expiryPolicy.getExpiryForAccess());
 				}
 				break;
 			default:
@@ -452,7 +451,13 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 		return it;
 	}
 
-	// TODO #loadAll() must be implemented ASYNCHRONOUSLY according to JSR107 Spec
+	/**
+	 * Loads the keys asynchronously, as required by the JSR107 Spec. The keys are split in chunks of
+	 * {@link Builder#setLoadAllChunkSize(int)} keys, and the chunks are loaded in parallel on the
+	 * {@link Builder#setLoaderExecutor(java.util.concurrent.Executor) loader Executor}, each by one call to
+	 * {@link CacheLoader#loadAll(Iterable)}. The listener is completed after all chunks are loaded and put. If any
+	 * chunk fails, the listener gets the first Exception, after all other chunks have completed.
+	 */
 	@Override
 	public void loadAll(Set<? extends K> keys, boolean replaceExistingValues, CompletionListener listener)
 	{
@@ -472,67 +477,94 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 			return;
 		}
 
+		// Only a single Thread may iterate keys (may be a not thread-safe Set), and the caller may modify it after we return 
+		List<K> keyList = new ArrayList<>(keys);
+		int chunkSize = tcache.builder.getLoadAllChunkSize();
+		Executor executor = tcache.builder.getLoaderExecutor();
+		List<CompletableFuture<Void>> chunkFutures = new ArrayList<>(keyList.size() / chunkSize + 1);
 		try
 		{
-			Map<K, V> loadedEntries = null;
-			try
+			for (int from = 0; from < keyList.size(); from += chunkSize)
 			{
-				if (replaceExistingValues)
-				{
-					loadedEntries = loader.loadAll(keys);
-				}
-				else
-				{
-					final Set<K> finalKeys = new HashSet<>();
-					
-					// Only a single Thread may iterate keys (may be a not thread-safe Set)
-					for (K key : keys)
-					{
-						if (!containsKey(key))
-						{
-							finalKeys.add(key);
-						}
-					}
-	
-					loadedEntries = loader.loadAll(finalKeys);
-				}
+				List<K> chunk = keyList.subList(from, Math.min(from + chunkSize, keyList.size()));
+				chunkFutures.add(CompletableFuture.runAsync(() -> loadChunk(loader, chunk, replaceExistingValues), executor));
 			}
-			catch (Exception exc)
+		}
+		catch (Exception exc)
+		{
+			// For example a RejectedExecutionException. Already started chunks run to completion.
+			chunkFutures.add(failedFuture(exc));
+		}
+
+		CompletableFuture.allOf(chunkFutures.toArray(new CompletableFuture<?>[chunkFutures.size()])).whenComplete((result, exc) ->
+		{
+			if (listener == null)
+				return;
+			if (exc == null)
+				listener.onCompletion();
+			else
+				listener.onException(exc instanceof CompletionException && exc.getCause() instanceof Exception ? (Exception) exc.getCause() : new CacheLoaderException(exc));
+		});
+	}
+
+	/**
+	 * Loads one chunk of the keys of {@link #loadAll(Set, boolean, CompletionListener)} and puts the loaded entries,
+	 * without write-through.
+	 */
+	private void loadChunk(CacheLoader<K, V> loader, List<K> keys, boolean replaceExistingValues)
+	{
+		Map<K, V> loadedEntries = null;
+		try
+		{
+			if (replaceExistingValues)
 			{
-				// Wrap loader Exceptions in CacheLoaderExcpeption. The JSR107 Spec is a bit confusing on it, but we do it as
-				// the TCK requires it, and it was discussed on the bug tracker:
-				// https://github.com/jsr107/jsr107tck/issues/99
-				String message = "CacheLoader " + tcache.id() + " failed to load keys";
-				throw new CacheLoaderException(message + " This is a wrapped exception. See https://github.com/jsr107/jsr107tck/issues/99", exc);
+				loadedEntries = loader.loadAll(keys);
 			}
-			
-			if (loadedEntries != null)
+			else
 			{
-				Map<K, V> cleanedEntries = new HashMap<>(2*loadedEntries.size());
-				for (java.util.Map.Entry<K, V> entry: loadedEntries.entrySet())
+				final Set<K> finalKeys = new HashSet<>();
+				for (K key : keys)
 				{
-					K key = entry.getKey();
-					V value = entry.getValue();
-					if (key == null || value == null)
-						continue; //invalid => do not load
-					
-					cleanedEntries.put(key, value);
+					if (!containsKey(key))
+					{
+						finalKeys.add(key);
+					}
 				}
-				
-				putAll(cleanedEntries, false);
+
+				loadedEntries = loader.loadAll(finalKeys);
 			}
-			
-			if (listener != null)
-				listener.onCompletion();
 		}
 		catch (Exception exc)
 		{
-			if (listener != null)
-				listener.onException(exc);
+			// Wrap loader Exceptions in CacheLoaderExcpeption. The JSR107 Spec is a bit confusing on it, but we do it as
+			// the TCK requires it, and it was discussed on the bug tracker:
+			// https://github.com/jsr107/jsr107tck/issues/99
+			String message = "CacheLoader " + tcache.id() + " failed to load keys";
+			throw new CacheLoaderException(message + " This is a wrapped exception. See https://github.com/jsr107/jsr107tck/issues/99", exc);
 		}
-		
-		
 
+		if (loadedEntries != null)
+		{
+			Map<K, V> cleanedEntries = new HashMap<>(2*loadedEntries.size());
+			for (java.util.Map.Entry<K, V> entry: loadedEntries.entrySet())
+			{
+				K key = entry.getKey();
+				V value = entry.getValue();
+				if (key == null || value == null)
+					continue; //invalid => do not load
+
+				cleanedEntries.put(key, value);
+			}
+
+			putAll(cleanedEntries, false);
+		}
+	}
+
+	private static CompletableFuture<Void> failedFuture(Exception exc)
+	{
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		future.completeExceptionally(exc);
+		return future;
 	}
 
 	void putNoWriteThrough(K key, V value)
@@ -805,7 +837,7 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 			if (valueInCache != null && !mustWriteThrough)
 			{
 				// Value will not be removed, thus it is accessed
-				holder.updateMaxIdleTime(tcache.expiryPolicy.getExpiryForAccess());
+				tcache.updateMaxIdleTime(key, holder, tcache.expiryPolicy.getExpiryForAccess());
 			}
 		}
 		else
@@ -859,6 +891,8 @@ public class TCacheJSR107<K, V> implements javax.cache.Cache<K, V>
 		throwISEwhenClosed();
 		
 		removeAll(tcache.objects.keySet());
+		if (tcache.secondTier != null)
+			tcache.secondTier.clear(); // No writer and listener calls for entries in the second tier
 	}
 
 	@Override
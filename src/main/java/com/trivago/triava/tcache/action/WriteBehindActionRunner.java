@@ -22,6 +22,11 @@ package com.trivago.triava.tcache.action;
  * <li> preMutate() : NOP</li> 
  * <li> postMutate() : If mutated: statistics, notifyListeners, writeThrough</li>
  * </ul>
+ * The writeThrough in postMutate() is synchronous, unless the Cache is configured with
+ * {@link com.trivago.triava.tcache.core.Builder#setWriteBehind(int, int, java.util.concurrent.TimeUnit)}. Then the
+ * CacheWriter queues the write, and it is done asynchronously and batched by the
+ * {@link com.trivago.triava.tcache.core.WriteBehindCacheWriter}.
+ * 
  * @author cesken
  *
  */
@@ -45,7 +50,7 @@ public class WriteBehindActionRunner<K,V> extends ActionRunner<K,V>
 		action.statistics(this, arg);
 		action.notifyListeners(this, arg);
 		if (cacheWriter != null)
-			action.writeThrough(this, arg); // Should run async and possibly batched for efficient write-behind
+			action.writeThrough(this, arg); // Asynchronous and batched, if the Cache uses a WriteBehindCacheWriter
 		action.close();
 		
 	}
@@ -16,9 +16,12 @@
 
 package com.trivago.triava.tcache.core;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -37,12 +40,18 @@ import javax.cache.integration.CacheWriter;
 import com.trivago.triava.annotations.Beta;
 import com.trivago.triava.tcache.Cache;
 import com.trivago.triava.tcache.CacheWriteMode;
+import com.trivago.triava.tcache.EvictionMode;
 import com.trivago.triava.tcache.EvictionPolicy;
 import com.trivago.triava.tcache.HashImplementation;
 import com.trivago.triava.tcache.JamPolicy;
+import com.trivago.triava.tcache.KeyHashing;
+import com.trivago.triava.tcache.LongKeyCache;
 import com.trivago.triava.tcache.eviction.EvictionInterface;
 import com.trivago.triava.tcache.storage.HighscalelibNonBlockingHashMap;
+import com.trivago.triava.tcache.storage.InlineHolderStorage;
 import com.trivago.triava.tcache.storage.JavaConcurrentHashMap;
+import com.trivago.triava.tcache.storage.LongKeyStorage;
+import com.trivago.triava.tcache.storage.OffHeapStorage;
 
 /**
  * A Builder to create Cache instances. A Builder instance must be retrieved via a TCacheFactory,
@@ -68,9 +77,36 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 	private int concurrencyLevel = 14;
 	private int mapConcurrencyLevel = 16;
 	private long cleanUpIntervalMillis = 0; // 0 = auto-tuning
+	private boolean timingWheelExpiration = false;
+	private boolean expireOnRead = false;
+	private int cleanUpSweepPercentage = 100;
+	private boolean compactHolders = false;
+	private long offHeapCapacity = 1L << 30; // 1GB
+	private File persistenceFile = null;
+	private long secondTierCapacity = 0;
+	private Serializer serializer = null;
+	private boolean keysByReference = true;
+	private KeyHashing keyHashing = KeyHashing.SAMPLING;
+	private int internerMaxSize = 100000;
+	private int writeBehindBatchSize = 0; // 0 means synchronous write-through
+	private long writeBehindMaxDelayMillis = 1000;
+	private int writeBehindQueueSize = 10000;
+	private int writeBehindRetries = 3;
+	private long writeBehindRetryBackoffMillis = 100;
+	private int refreshAheadPercentage = 0; // 0 means no refresh-ahead
+	private transient Executor loaderExecutor = null;
+	private int loadAllChunkSize = 1000;
 
 	private EvictionPolicy evictionPolicy = EvictionPolicy.LFU;
 	private EvictionInterface<K, V> evictionClass = null;
+	private EvictionMode evictionMode = EvictionMode.FULL;
+	private int evictionSampleSize = 5;
+	private int evictionCandidatePoolSize = 16;
+	private int evictionFreePercentage = 10;
+	private int evictionSpacePercentage = 15;
+	private int evictionSliceSize = 0;
+	private boolean parallelEviction = false;
+	private transient ForkJoinPool evictionPool = null;
 	private HashImplementation hashImplementation = HashImplementation.ConcurrentHashMap;
 	private JamPolicy jamPolicy = JamPolicy.WAIT;
 	private boolean statistics = false; // off by JSR107 default
@@ -145,6 +181,17 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 	{
 		throw new UnsupportedOperationException("build() is only supported by internal subclasses.");
 	}
+
+	/**
+	 * Builds a Cache for long keys, that stores the keys as primitive longs. The key type of this Builder must be Long.
+	 * The storage is set to {@link HashImplementation#LongKey}, all other configuration is used like in {@link #build()}.
+	 * 
+	 * @return The Cache
+	 */
+	public LongKeyCache<V> buildLongKeyCache()
+	{
+		throw new UnsupportedOperationException("buildLongKeyCache() is only supported by internal subclasses.");
+	}
 	
 	static <Arg> Arg verifyNotNull(String name, Arg arg)
 	{
@@ -202,6 +249,465 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 		return this;
 	}
 
+	/**
+	 * Sets whether expired entries are found via a timing wheel, instead of scanning all entries. The default is false,
+	 * which means that the cleaner checks every entry in each cleanup interval. With the timing wheel, the cleaner only
+	 * checks the entries that are due in the elapsed interval, so its work is proportional to the number of expiring
+	 * entries instead of the Cache size. This is recommended for big caches with long expiration times.
+	 * The timing wheel needs some extra memory per entry, and a little extra work on writes.
+	 * 
+	 * @param timingWheelExpiration true, if the timing wheel should be used 
+	 * @return This Builder
+	 */
+	public Builder<K, V> setTimingWheelExpiration(boolean timingWheelExpiration)
+	{
+		this.timingWheelExpiration = timingWheelExpiration;
+		return this;
+	}
+
+	/**
+	 * @return true, if expired entries are found via a timing wheel
+	 */
+	public boolean isTimingWheelExpiration()
+	{
+		return timingWheelExpiration;
+	}
+
+	/**
+	 * Sets whether a read removes an expired entry from the Cache. The default is false, which means that reads
+	 * only skip expired entries, and removing them is left to the cleaner. If true, a read that finds an expired
+	 * entry removes it and sends the EXPIRED notification. This reclaims the memory of frequently read entries
+	 * early, and allows to combine it with a lower {@link #setCleanUpSweepPercentage(int)}.
+	 * 
+	 * @param expireOnRead true, if reads remove expired entries
+	 * @return This Builder
+	 */
+	public Builder<K, V> setExpireOnRead(boolean expireOnRead)
+	{
+		this.expireOnRead = expireOnRead;
+		return this;
+	}
+
+	/**
+	 * @return true, if reads remove expired entries
+	 */
+	public boolean isExpireOnRead()
+	{
+		return expireOnRead;
+	}
+
+	/**
+	 * Sets the percentage of the Cache entries that the cleaner checks per cleanup interval. The default is 100, which
+	 * checks all entries in each interval. With lower values the cleaner continues where it stopped in the previous
+	 * interval, so all entries are still checked within 100/cleanUpSweepPercentage intervals. This spreads the work
+	 * of the cleaner, at the cost of expired entries staying longer in the Cache, unless they are read
+	 * (see {@link #setExpireOnRead(boolean)}).
+	 * This has no effect if {@link #setTimingWheelExpiration(boolean)} is used.
+	 * 
+	 * @param cleanUpSweepPercentage The percentage of entries to check per interval, 1 - 100
+	 * @return This Builder
+	 */
+	public Builder<K, V> setCleanUpSweepPercentage(int cleanUpSweepPercentage)
+	{
+		if (cleanUpSweepPercentage < 1 || cleanUpSweepPercentage > 100)
+			throw new IllegalArgumentException("Invalid cleanUpSweepPercentage: " + cleanUpSweepPercentage);
+		this.cleanUpSweepPercentage = cleanUpSweepPercentage;
+		return this;
+	}
+
+	/**
+	 * @return The percentage of entries the cleaner checks per cleanup interval
+	 */
+	public int getCleanUpSweepPercentage()
+	{
+		return cleanUpSweepPercentage;
+	}
+
+	/**
+	 * Sets whether the Cache entries use a compact memory layout. The default is false. The compact layout saves
+	 * 8 bytes per entry, by storing the times with a precision of seconds instead of milliseconds. Idle time and cache
+	 * time are rounded up to full seconds, and durations longer than 4.5 hours to minutes, hours or days. Durations
+	 * longer than 44 years mean no limit. The use count, as used by the LFU eviction policies, saturates at 65535.
+	 * This is recommended for big caches whose expiration times are not shorter than a few seconds.
+	 * 
+	 * @param compactHolders true, if the compact layout should be used
+	 * @return This Builder
+	 */
+	public Builder<K, V> setCompactHolders(boolean compactHolders)
+	{
+		this.compactHolders = compactHolders;
+		return this;
+	}
+
+	/**
+	 * @return true, if the Cache entries use a compact memory layout
+	 */
+	public boolean isCompactHolders()
+	{
+		return compactHolders;
+	}
+
+	/**
+	 * Sets the maximum number of bytes that the {@link HashImplementation#OffHeap} storage may allocate for
+	 * values. The default is 1GB. Values that do not fit are kept on the heap. The memory is allocated in slabs on
+	 * demand, so a big capacity does not cost anything until it is used. Keys and metadata always stay on the heap.
+	 * 
+	 * @param offHeapCapacity The capacity in bytes
+	 * @return This Builder
+	 */
+	public Builder<K, V> setOffHeapCapacity(long offHeapCapacity)
+	{
+		if (offHeapCapacity <= 0)
+			throw new IllegalArgumentException("Invalid offHeapCapacity: " + offHeapCapacity);
+		this.offHeapCapacity = offHeapCapacity;
+		return this;
+	}
+
+	/**
+	 * @return The maximum number of bytes that the off-heap storage may allocate
+	 */
+	public long getOffHeapCapacity()
+	{
+		return offHeapCapacity;
+	}
+
+	/**
+	 * Sets a file for the persistent disk tier. If set, the Cache writes all entries to the memory-mapped file when
+	 * it is closed, and loads them when it is built. This allows warm restarts. Entries that expired while the Cache
+	 * was closed are not loaded. The file is deleted after loading, so entries are never loaded twice. The default is
+	 * null, which disables the disk tier.
+	 * <p>
+	 * Keys and values must be Serializable. Entries that cannot be serialized or deserialized are skipped.
+	 * 
+	 * @param persistenceFile The file, or null to disable the disk tier
+	 * @return This Builder
+	 */
+	public Builder<K, V> setPersistenceFile(File persistenceFile)
+	{
+		this.persistenceFile = persistenceFile;
+		return this;
+	}
+
+	/**
+	 * @return The file for the persistent disk tier, or null if the disk tier is disabled
+	 */
+	public File getPersistenceFile()
+	{
+		return persistenceFile;
+	}
+
+	/**
+	 * Sets the capacity in bytes of the off-heap second tier. If set, entries that are evicted from the heap are
+	 * demoted to the second tier instead of being dropped, and a hit in the second tier promotes the entry back
+	 * to the heap. The heap tier is limited by {@link #setMaxElements(int)} as usual. When the second tier is full,
+	 * the entries that were demoted first are dropped. The default is 0, which disables the second tier.
+	 * <p>
+	 * The second tier only applies to Caches with an eviction policy. Values must be Serializable, otherwise
+	 * they are not demoted. Only get() consults the second tier, while iterators and size() only see the heap tier.
+	 * An entry is briefly not visible while it is moved between the tiers.
+	 * 
+	 * @param secondTierCapacity The capacity in bytes, or 0 to disable the second tier
+	 * @return This Builder
+	 */
+	public Builder<K, V> setSecondTierCapacity(long secondTierCapacity)
+	{
+		if (secondTierCapacity < 0)
+			throw new IllegalArgumentException("Invalid secondTierCapacity: " + secondTierCapacity);
+		this.secondTierCapacity = secondTierCapacity;
+		return this;
+	}
+
+	/**
+	 * @return The capacity in bytes of the off-heap second tier. 0 means there is no second tier.
+	 */
+	public long getSecondTierCapacity()
+	{
+		return secondTierCapacity;
+	}
+
+	/**
+	 * Sets the serializer for keys and values in store-by-value mode, see {@link CacheWriteMode#Serialize}.
+	 * The default is null, which uses the built-in serialization of {@link com.trivago.triava.tcache.util.Serializing}.
+	 * It has compact codecs for String, the boxed primitives, byte[] and Externalizable, and uses Java serialization
+	 * for all other values.
+	 * 
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @return This Builder
+	 */
+	public Builder<K, V> setSerializer(Serializer serializer)
+	{
+		this.serializer = serializer;
+		return this;
+	}
+
+	/**
+	 * @return The serializer for store-by-value mode, or null for the built-in serialization
+	 */
+	public Serializer getSerializer()
+	{
+		return serializer;
+	}
+
+	/**
+	 * Sets whether keys of known immutable types are kept by reference in store-by-value mode, see
+	 * {@link CacheWriteMode#Serialize}. Known immutable types are String, the boxed primitives, BigInteger, BigDecimal,
+	 * UUID and enums. Such keys cannot be modified after a put, so serializing them is not required for store-by-value
+	 * semantics and the lookup costs about the same as in identity mode. All other keys are serialized on each operation.
+	 * The default is true.
+	 * 
+	 * @param keysByReference true, if immutable keys should be kept by reference
+	 * @return This Builder
+	 */
+	public Builder<K, V> setKeysByReference(boolean keysByReference)
+	{
+		this.keysByReference = keysByReference;
+		return this;
+	}
+
+	/**
+	 * @return true, if keys of known immutable types are kept by reference in store-by-value mode
+	 */
+	public boolean isKeysByReference()
+	{
+		return keysByReference;
+	}
+
+	/**
+	 * Sets how the hash code of serialized keys is calculated in store-by-value mode, see {@link CacheWriteMode#Serialize}.
+	 * The default is {@link KeyHashing#SAMPLING}. Use {@link KeyHashing#XXHASH64} for keys whose serialized form
+	 * shares long identical byte sequences, like objects using Java serialization.
+	 * 
+	 * @param keyHashing The {@link KeyHashing}
+	 * @return This Builder
+	 */
+	public Builder<K, V> setKeyHashing(KeyHashing keyHashing)
+	{
+		this.keyHashing = verifyNotNull("keyHashing", keyHashing);
+		return this;
+	}
+
+	/**
+	 * @return The hashing for serialized keys
+	 */
+	public KeyHashing getKeyHashing()
+	{
+		return keyHashing;
+	}
+
+	/**
+	 * Sets the maximum number of distinct values that are interned in {@link CacheWriteMode#Intern} mode. When more
+	 * distinct values are put, rarely shared values are evicted from the interner. Evicted values stay in the Cache,
+	 * but further equal values are not deduplicated against them. The default is 100000. 
+	 * 
+	 * @param internerMaxSize The maximum number of interned values
+	 * @return This Builder
+	 */
+	public Builder<K, V> setInternerMaxSize(int internerMaxSize)
+	{
+		if (internerMaxSize <= 0)
+			throw new IllegalArgumentException("Invalid internerMaxSize: " + internerMaxSize);
+		this.internerMaxSize = internerMaxSize;
+		return this;
+	}
+
+	/**
+	 * @return The maximum number of interned values in {@link CacheWriteMode#Intern} mode
+	 */
+	public int getInternerMaxSize()
+	{
+		return internerMaxSize;
+	}
+
+	/**
+	 * Enables asynchronous write-behind for the CacheWriter. Mutations are then written by a background thread instead
+	 * of the calling thread. Pending writes to the same key are coalesced, so only the latest value or a delete is
+	 * written. The writer is called via {@link CacheWriter#writeAll(java.util.Collection)} and
+	 * {@link CacheWriter#deleteAll(java.util.Collection)} as soon as batchSize keys are pending, or when the oldest
+	 * pending key has waited for maxDelay.
+	 * <p>
+	 * With write-behind, CacheWriter exceptions are not propagated to the caller. Failed batches are retried as
+	 * configured by {@link #setWriteBehindRetries(int, int, TimeUnit)}. Pending writes are flushed when the Cache is
+	 * closed. The default is synchronous write-through.
+	 * 
+	 * @param batchSize The maximum number of keys per writeAll() or deleteAll() call
+	 * @param maxDelay The maximum time a write is pending
+	 * @param timeUnit The TimeUnit of maxDelay
+	 * @return This Builder
+	 */
+	public Builder<K, V> setWriteBehind(int batchSize, int maxDelay, TimeUnit timeUnit)
+	{
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Invalid batchSize: " + batchSize);
+		if (maxDelay < 0)
+			throw new IllegalArgumentException("Invalid maxDelay: " + maxDelay);
+		this.writeBehindBatchSize = batchSize;
+		this.writeBehindMaxDelayMillis = timeUnit.toMillis(maxDelay);
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of distinct keys that can be pending for write-behind. When the queue is full, writing
+	 * threads block until the writer has caught up. The default is 10000. 
+	 * 
+	 * @param writeBehindQueueSize The maximum number of pending keys
+	 * @return This Builder
+	 */
+	public Builder<K, V> setWriteBehindQueueSize(int writeBehindQueueSize)
+	{
+		if (writeBehindQueueSize <= 0)
+			throw new IllegalArgumentException("Invalid writeBehindQueueSize: " + writeBehindQueueSize);
+		this.writeBehindQueueSize = writeBehindQueueSize;
+		return this;
+	}
+
+	/**
+	 * Sets how often a failed write-behind batch is retried. The wait before each retry starts at backoff and doubles
+	 * with every further retry. Entries of a batch that still fails afterwards are dropped and logged. The default is 3
+	 * retries with a backoff of 100ms.
+	 * 
+	 * @param retries The number of retries. 0 disables retrying
+	 * @param backoff The wait before the first retry
+	 * @param timeUnit The TimeUnit of backoff
+	 * @return This Builder
+	 */
+	public Builder<K, V> setWriteBehindRetries(int retries, int backoff, TimeUnit timeUnit)
+	{
+		if (retries < 0)
+			throw new IllegalArgumentException("Invalid retries: " + retries);
+		if (backoff < 0)
+			throw new IllegalArgumentException("Invalid backoff: " + backoff);
+		this.writeBehindRetries = retries;
+		this.writeBehindRetryBackoffMillis = timeUnit.toMillis(backoff);
+		return this;
+	}
+
+	/**
+	 * @return true, if the CacheWriter is called asynchronously. See {@link #setWriteBehind(int, int, TimeUnit)}
+	 */
+	public boolean isWriteBehind()
+	{
+		return writeBehindBatchSize > 0;
+	}
+
+	/**
+	 * @return The maximum number of keys per write-behind batch, or 0 if write-behind is disabled
+	 */
+	public int getWriteBehindBatchSize()
+	{
+		return writeBehindBatchSize;
+	}
+
+	/**
+	 * @return The maximum time in milliseconds that a write is pending
+	 */
+	public long getWriteBehindMaxDelayMillis()
+	{
+		return writeBehindMaxDelayMillis;
+	}
+
+	/**
+	 * @return The maximum number of pending write-behind keys
+	 */
+	public int getWriteBehindQueueSize()
+	{
+		return writeBehindQueueSize;
+	}
+
+	/**
+	 * @return The number of retries for a failed write-behind batch
+	 */
+	public int getWriteBehindRetries()
+	{
+		return writeBehindRetries;
+	}
+
+	/**
+	 * @return The wait in milliseconds before the first retry of a failed write-behind batch
+	 */
+	public long getWriteBehindRetryBackoffMillis()
+	{
+		return writeBehindRetryBackoffMillis;
+	}
+
+	/**
+	 * Enables refresh-ahead. When a read hits an entry that has lived for the given percentage of its maximum cache
+	 * time, the current value is returned immediately, and the entry is reloaded asynchronously via the CacheLoader on
+	 * the {@link #setLoaderExecutor(Executor) loader Executor}. The reloaded value replaces the entry, unless the
+	 * entry was changed in the meantime. Hot keys are thus reloaded before they expire, and readers never wait for the
+	 * loader. Only one refresh per key runs at a time. If the refresh fails or the loader returns null, the current
+	 * value stays until it expires.
+	 * <p>
+	 * Refresh-ahead requires a CacheLoader and has no effect on entries without a maximum cache time. The default is
+	 * 0, which disables refresh-ahead.
+	 * 
+	 * @param refreshAheadPercentage The age in percent of the maximum cache time, from which on a read triggers a
+	 *            refresh. 0 disables refresh-ahead
+	 * @return This Builder
+	 */
+	public Builder<K, V> setRefreshAhead(int refreshAheadPercentage)
+	{
+		if (refreshAheadPercentage < 0 || refreshAheadPercentage >= 100)
+			throw new IllegalArgumentException("Invalid refreshAheadPercentage: " + refreshAheadPercentage);
+		this.refreshAheadPercentage = refreshAheadPercentage;
+		return this;
+	}
+
+	/**
+	 * @return The age in percent of the maximum cache time that triggers a refresh, or 0 if refresh-ahead is disabled
+	 */
+	public int getRefreshAheadPercentage()
+	{
+		return refreshAheadPercentage;
+	}
+
+	/**
+	 * Sets the Executor for asynchronous loads, like refresh-ahead and the chunks of
+	 * {@link javax.cache.Cache#loadAll(java.util.Set, boolean, javax.cache.integration.CompletionListener)}. If this method is not called, the
+	 * {@link ForkJoinPool#commonPool()} is used. A blocking CacheLoader should use a dedicated Executor, so that it
+	 * does not starve the common pool.
+	 * 
+	 * @param loaderExecutor The Executor for asynchronous loads
+	 * @return This Builder
+	 */
+	public Builder<K, V> setLoaderExecutor(Executor loaderExecutor)
+	{
+		this.loaderExecutor = verifyNotNull("loaderExecutor", loaderExecutor);
+		return this;
+	}
+
+	/**
+	 * @return The Executor for asynchronous loads
+	 */
+	public Executor getLoaderExecutor()
+	{
+		return loaderExecutor != null ? loaderExecutor : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Sets the number of keys that {@link javax.cache.Cache#loadAll(java.util.Set, boolean, javax.cache.integration.CompletionListener)}
+	 * passes to one {@link javax.cache.integration.CacheLoader#loadAll(Iterable)} call. The chunks are loaded in
+	 * parallel on the {@link #setLoaderExecutor(Executor) loader Executor}. Smaller chunks give more parallelism,
+	 * bigger chunks fewer calls to a CacheLoader that loads in bulk. The default is 1000.
+	 * 
+	 * @param loadAllChunkSize The number of keys per chunk
+	 * @return This Builder
+	 */
+	public Builder<K, V> setLoadAllChunkSize(int loadAllChunkSize)
+	{
+		if (loadAllChunkSize <= 0)
+			throw new IllegalArgumentException("Invalid loadAllChunkSize: " + loadAllChunkSize);
+		this.loadAllChunkSize = loadAllChunkSize;
+		return this;
+	}
+
+	/**
+	 * @return The number of keys per loadAll() chunk
+	 */
+	public int getLoadAllChunkSize()
+	{
+		return loadAllChunkSize;
+	}
+
 	/**
 	 * @deprecated Use {@link #setMaxElements(int)}
 	 * @param maxElements See {@link #setMaxElements(int)}
@@ -254,6 +760,186 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 		return evictionClass;
 	}
 
+	/**
+	 * Sets how the eviction thread chooses the entries to evict. The default is {@link EvictionMode#FULL}, which
+	 * inspects all entries on each eviction round. The EvictionMode has no effect on caches of unlimited size
+	 * {@link EvictionPolicy}}.NONE.
+	 * 
+	 * @param evictionMode The {@link EvictionMode}
+	 * @return This Builder
+	 */
+	public Builder<K,V> setEvictionMode(EvictionMode evictionMode)
+	{
+		this.evictionMode = verifyNotNull("evictionMode", evictionMode);
+		return this;
+	}
+
+	/**
+	 * Sets the parameters for {@link EvictionMode#SAMPLED}, and activates that mode. For each evicted entry,
+	 * sampleSize entries are inspected and offered to a pool of the best eviction candidates. The best entry
+	 * from the pool is then evicted. Bigger values give a more exact eviction order, at the price of more work per
+	 * evicted entry. The defaults are a sampleSize of 5 and a candidatePoolSize of 16.
+	 * 
+	 * @param sampleSize The number of entries to inspect per evicted entry
+	 * @param candidatePoolSize The maximum number of candidates kept in the pool 
+	 * @return This Builder
+	 */
+	public Builder<K,V> setEvictionSampling(int sampleSize, int candidatePoolSize)
+	{
+		if (sampleSize <= 0)
+			throw new IllegalArgumentException("Invalid sampleSize: " + sampleSize);
+		if (candidatePoolSize <= 0)
+			throw new IllegalArgumentException("Invalid candidatePoolSize: " + candidatePoolSize);
+		this.evictionMode = EvictionMode.SAMPLED;
+		this.evictionSampleSize = sampleSize;
+		this.evictionCandidatePoolSize = candidatePoolSize;
+		return this;
+	}
+
+	/**
+	 * @return the evictionMode
+	 */
+	public EvictionMode getEvictionMode()
+	{
+		return evictionMode;
+	}
+
+	/**
+	 * @return The number of entries to inspect per evicted entry in {@link EvictionMode#SAMPLED}
+	 */
+	public int getEvictionSampleSize()
+	{
+		return evictionSampleSize;
+	}
+
+	/**
+	 * @return The size of the eviction candidate pool in {@link EvictionMode#SAMPLED}
+	 */
+	public int getEvictionCandidatePoolSize()
+	{
+		return evictionCandidatePoolSize;
+	}
+
+	/**
+	 * Sets the watermarks that control eviction, given in percent of maxElements. Eviction starts when the Cache
+	 * reaches maxElements (high watermark). Each eviction round tries to evict freePercentage of maxElements, but not
+	 * below the low watermark of maxElements * (100 - freePercentage) / 100. Writers can overfill the Cache by
+	 * evictionSpacePercentage while eviction is running. When that block watermark is reached, writers
+	 * are blocked or their writes are dropped, as defined by the {@link JamPolicy}.
+	 * <p>
+	 * The defaults are a freePercentage of 10 and an evictionSpacePercentage of 15.
+	 * 
+	 * @param freePercentage The percentage to evict per eviction round, in the range [1, 99]
+	 * @param evictionSpacePercentage The percentage by which writers may overfill the Cache, 0 or more
+	 * @return This Builder
+	 */
+	public Builder<K,V> setEvictionWatermarks(int freePercentage, int evictionSpacePercentage)
+	{
+		if (freePercentage < 1 || freePercentage > 99)
+			throw new IllegalArgumentException("Invalid freePercentage: " + freePercentage);
+		if (evictionSpacePercentage < 0)
+			throw new IllegalArgumentException("Invalid evictionSpacePercentage: " + evictionSpacePercentage);
+		this.evictionFreePercentage = freePercentage;
+		this.evictionSpacePercentage = evictionSpacePercentage;
+		return this;
+	}
+
+	/**
+	 * @return The percentage of maxElements to evict per eviction round
+	 */
+	public int getEvictionFreePercentage()
+	{
+		return evictionFreePercentage;
+	}
+
+	/**
+	 * @return The percentage of maxElements by which writers may overfill the Cache during eviction
+	 */
+	public int getEvictionSpacePercentage()
+	{
+		return evictionSpacePercentage;
+	}
+
+	/**
+	 * Activates incremental eviction, if sliceSize is bigger than 0. The default is 0, which means that each eviction
+	 * round evicts all elements at once and then wakes up blocked writers.
+	 * <p>
+	 * With incremental eviction, the eviction thread evicts in slices of at most sliceSize elements. After each slice
+	 * blocked writers are woken up, and eviction continues until the low watermark is reached. This reduces write stalls
+	 * on big caches. As each slice determines its victims on its own, incremental eviction requires
+	 * {@link EvictionMode#SAMPLED}. Building an evicting Cache with a different EvictionMode throws an
+	 * IllegalArgumentException. The eviction class hooks {@link EvictionInterface#beforeEviction()} and
+	 * {@link EvictionInterface#afterEviction()} are called once per eviction round, and not per slice. 
+	 * 
+	 * @param sliceSize The maximum number of elements to evict per slice, or 0 to deactivate incremental eviction
+	 * @return This Builder
+	 */
+	public Builder<K,V> setEvictionSliceSize(int sliceSize)
+	{
+		if (sliceSize < 0)
+			throw new IllegalArgumentException("Invalid sliceSize: " + sliceSize);
+		this.evictionSliceSize = sliceSize;
+		return this;
+	}
+
+	/**
+	 * @return The maximum number of elements to evict per slice, or 0 if incremental eviction is not active
+	 */
+	public int getEvictionSliceSize()
+	{
+		return evictionSliceSize;
+	}
+
+	/**
+	 * Sets whether the eviction thread freezes the entries and selects the victims in parallel, using the
+	 * {@link ForkJoinPool#commonPool()}. The default is false. This is useful for very big caches, where a single
+	 * eviction thread would take seconds per eviction round. It has no effect in {@link EvictionMode#SAMPLED}.
+	 * <p>
+	 * In parallel eviction, {@link EvictionInterface#getFreezeValue(Object, com.trivago.triava.tcache.TCacheHolder)}
+	 * is called concurrently from multiple threads, so it must be thread-safe.
+	 * 
+	 * @param parallelEviction true, if eviction should run in parallel 
+	 * @return This Builder
+	 */
+	public Builder<K,V> setParallelEviction(boolean parallelEviction)
+	{
+		this.parallelEviction = parallelEviction;
+		this.evictionPool = null;
+		return this;
+	}
+
+	/**
+	 * Activates parallel eviction like {@link #setParallelEviction(boolean)}, but uses the given ForkJoinPool
+	 * instead of the common pool.
+	 * 
+	 * @param evictionPool The pool for parallel eviction
+	 * @return This Builder
+	 */
+	public Builder<K,V> setParallelEviction(ForkJoinPool evictionPool)
+	{
+		this.evictionPool = verifyNotNull("evictionPool", evictionPool);
+		this.parallelEviction = true;
+		return this;
+	}
+
+	/**
+	 * @return true, if eviction runs in parallel
+	 */
+	public boolean isParallelEviction()
+	{
+		return parallelEviction;
+	}
+
+	/**
+	 * @return The ForkJoinPool for parallel eviction, or null if eviction does not run in parallel
+	 */
+	public ForkJoinPool getEvictionPool()
+	{
+		if (!parallelEviction)
+			return null;
+		return evictionPool != null ? evictionPool : ForkJoinPool.commonPool();
+	}
+
 
 	/**
 	 * Set the StorageBackend for the underlying ConcurrentMap. If this method is not called,
@@ -411,6 +1097,12 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 //				return new GuavaLocalCache<K, V>();
 			case HighscalelibNonBlockingHashMap:
 				return new HighscalelibNonBlockingHashMap<K, V>();
+			case OffHeap:
+				return new OffHeapStorage<K, V>();
+			case LongKey:
+				return new LongKeyStorage<K, V>();
+			case InlineHolder:
+				return new InlineHolderStorage<K, V>();
 			default:
 				return null;
 		}
@@ -502,6 +1194,31 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 		props.setProperty("expectedMapSize", Integer.toString(expectedMapSize));
 		props.setProperty("concurrencyLevel", Integer.toString(concurrencyLevel));
 		props.setProperty("evictionPolicy", evictionPolicy.toString());
+		props.setProperty("evictionMode", evictionMode.toString());
+		props.setProperty("evictionSampleSize", Integer.toString(evictionSampleSize));
+		props.setProperty("evictionCandidatePoolSize", Integer.toString(evictionCandidatePoolSize));
+		props.setProperty("evictionFreePercentage", Integer.toString(evictionFreePercentage));
+		props.setProperty("evictionSpacePercentage", Integer.toString(evictionSpacePercentage));
+		props.setProperty("evictionSliceSize", Integer.toString(evictionSliceSize));
+		props.setProperty("parallelEviction", Boolean.toString(parallelEviction));
+		props.setProperty("timingWheelExpiration", Boolean.toString(timingWheelExpiration));
+		props.setProperty("expireOnRead", Boolean.toString(expireOnRead));
+		props.setProperty("cleanUpSweepPercentage", Integer.toString(cleanUpSweepPercentage));
+		props.setProperty("compactHolders", Boolean.toString(compactHolders));
+		props.setProperty("offHeapCapacity", Long.toString(offHeapCapacity));
+		props.setProperty("persistenceFile", String.valueOf(persistenceFile));
+		props.setProperty("secondTierCapacity", Long.toString(secondTierCapacity));
+		props.setProperty("serializerClass", serializer == null ? "null" : serializer.getClass().getName());
+		props.setProperty("keysByReference", Boolean.toString(keysByReference));
+		props.setProperty("keyHashing", keyHashing.toString());
+		props.setProperty("internerMaxSize", Integer.toString(internerMaxSize));
+		props.setProperty("writeBehindBatchSize", Integer.toString(writeBehindBatchSize));
+		props.setProperty("writeBehindMaxDelayMillis", Long.toString(writeBehindMaxDelayMillis));
+		props.setProperty("writeBehindQueueSize", Integer.toString(writeBehindQueueSize));
+		props.setProperty("writeBehindRetries", Integer.toString(writeBehindRetries));
+		props.setProperty("writeBehindRetryBackoffMillis", Long.toString(writeBehindRetryBackoffMillis));
+		props.setProperty("refreshAheadPercentage", Integer.toString(refreshAheadPercentage));
+		props.setProperty("loadAllChunkSize", Integer.toString(loadAllChunkSize));
 		props.setProperty("hashMapClass", hashImplementation.toString());
 		props.setProperty("jamPolicy", jamPolicy.toString());
 		props.setProperty("statistics", Boolean.toString(statistics));
@@ -536,12 +1253,41 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 			target.maxCacheTime = sourceB.maxCacheTime;
 			target.maxCacheTimeSpread = sourceB.maxCacheTimeSpread;
 			this.cleanUpIntervalMillis = sourceB.cleanUpIntervalMillis;
+			target.timingWheelExpiration = sourceB.timingWheelExpiration;
+			target.expireOnRead = sourceB.expireOnRead;
+			target.cleanUpSweepPercentage = sourceB.cleanUpSweepPercentage;
+			target.compactHolders = sourceB.compactHolders;
+			target.offHeapCapacity = sourceB.offHeapCapacity;
+			target.persistenceFile = sourceB.persistenceFile;
+			target.secondTierCapacity = sourceB.secondTierCapacity;
+			target.serializer = sourceB.serializer;
+			target.keysByReference = sourceB.keysByReference;
+			if (sourceB.keyHashing != null)
+				target.keyHashing = sourceB.keyHashing;
+			target.internerMaxSize = sourceB.internerMaxSize;
+			target.writeBehindBatchSize = sourceB.writeBehindBatchSize;
+			target.writeBehindMaxDelayMillis = sourceB.writeBehindMaxDelayMillis;
+			target.writeBehindQueueSize = sourceB.writeBehindQueueSize;
+			target.writeBehindRetries = sourceB.writeBehindRetries;
+			target.writeBehindRetryBackoffMillis = sourceB.writeBehindRetryBackoffMillis;
+			target.refreshAheadPercentage = sourceB.refreshAheadPercentage;
+			target.loaderExecutor = sourceB.loaderExecutor;
+			target.loadAllChunkSize = sourceB.loadAllChunkSize;
 			target.expectedMapSize = sourceB.expectedMapSize;
 			target.concurrencyLevel = sourceB.concurrencyLevel;
 			if (sourceB.evictionPolicy != null)
 				target.evictionPolicy = sourceB.evictionPolicy;
 			if (sourceB.evictionClass != null)
 				target.evictionClass = sourceB.evictionClass;			
+			if (sourceB.evictionMode != null)
+				target.evictionMode = sourceB.evictionMode;
+			target.evictionSampleSize = sourceB.evictionSampleSize;
+			target.evictionCandidatePoolSize = sourceB.evictionCandidatePoolSize;
+			target.evictionFreePercentage = sourceB.evictionFreePercentage;
+			target.evictionSpacePercentage = sourceB.evictionSpacePercentage;
+			target.evictionSliceSize = sourceB.evictionSliceSize;
+			target.parallelEviction = sourceB.parallelEviction;
+			target.evictionPool = sourceB.evictionPool;
 			if (sourceB.hashImplementation != null)
 				target.hashImplementation = sourceB.hashImplementation;
 			if (sourceB.jamPolicy != null)
@@ -597,6 +1343,13 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 		result = prime * result + concurrencyLevel;
 		result = prime * result + ((evictionClass == null) ? 0 : evictionClass.hashCode());
 		result = prime * result + ((evictionPolicy == null) ? 0 : evictionPolicy.hashCode());
+		result = prime * result + ((evictionMode == null) ? 0 : evictionMode.hashCode());
+		result = prime * result + evictionSampleSize;
+		result = prime * result + evictionCandidatePoolSize;
+		result = prime * result + evictionFreePercentage;
+		result = prime * result + evictionSpacePercentage;
+		result = prime * result + evictionSliceSize;
+		result = prime * result + (parallelEviction ? 1231 : 1237);
 		result = prime * result + expectedMapSize;
 		result = prime * result + ((hashImplementation == null) ? 0 : hashImplementation.hashCode());
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
@@ -607,6 +1360,24 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 		result = prime * result + (int) (maxCacheTime ^ (maxCacheTime >>> 32));
 		result = prime * result + (int) (maxCacheTimeSpread ^ (maxCacheTimeSpread >>> 32));
 		result = prime * result + (int) (cleanUpIntervalMillis ^ (cleanUpIntervalMillis >>> 32));
+		result = prime * result + (timingWheelExpiration ? 1231 : 1237);
+		result = prime * result + (expireOnRead ? 1231 : 1237);
+		result = prime * result + cleanUpSweepPercentage;
+		result = prime * result + (compactHolders ? 1231 : 1237);
+		result = prime * result + (int) (offHeapCapacity ^ (offHeapCapacity >>> 32));
+		result = prime * result + ((persistenceFile == null) ? 0 : persistenceFile.hashCode());
+		result = prime * result + (int) (secondTierCapacity ^ (secondTierCapacity >>> 32));
+		result = prime * result + ((serializer == null) ? 0 : serializer.hashCode());
+		result = prime * result + (keysByReference ? 1231 : 1237);
+		result = prime * result + ((keyHashing == null) ? 0 : keyHashing.hashCode());
+		result = prime * result + internerMaxSize;
+		result = prime * result + writeBehindBatchSize;
+		result = prime * result + (int) (writeBehindMaxDelayMillis ^ (writeBehindMaxDelayMillis >>> 32));
+		result = prime * result + writeBehindQueueSize;
+		result = prime * result + writeBehindRetries;
+		result = prime * result + (int) (writeBehindRetryBackoffMillis ^ (writeBehindRetryBackoffMillis >>> 32));
+		result = prime * result + refreshAheadPercentage;
+		result = prime * result + loadAllChunkSize;
 		result = prime * result + expiryPolicyFactory.hashCode();
 		result = prime * result + (statistics ? 1231 : 1237);
 		result = prime * result + ((valueType == null) ? 0 : valueType.hashCode());
@@ -638,6 +1409,22 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 			return false;
 		if (evictionPolicy != other.evictionPolicy)
 			return false;
+		if (evictionMode != other.evictionMode)
+			return false;
+		if (evictionSampleSize != other.evictionSampleSize)
+			return false;
+		if (evictionCandidatePoolSize != other.evictionCandidatePoolSize)
+			return false;
+		if (evictionFreePercentage != other.evictionFreePercentage)
+			return false;
+		if (evictionSpacePercentage != other.evictionSpacePercentage)
+			return false;
+		if (evictionSliceSize != other.evictionSliceSize)
+			return false;
+		if (parallelEviction != other.parallelEviction)
+			return false;
+		if (evictionPool != other.evictionPool)
+			return false;
 		if (expectedMapSize != other.expectedMapSize)
 			return false;
 		if (hashImplementation != other.hashImplementation)
@@ -673,6 +1460,54 @@ public class Builder<K,V>  implements TriavaCacheConfiguration<K, V, Builder<K,V
 			return false;
 		if (cleanUpIntervalMillis != other.cleanUpIntervalMillis)
 			return false;
+		if (timingWheelExpiration != other.timingWheelExpiration)
+			return false;
+		if (expireOnRead != other.expireOnRead)
+			return false;
+		if (cleanUpSweepPercentage != other.cleanUpSweepPercentage)
+			return false;
+		if (compactHolders != other.compactHolders)
+			return false;
+		if (offHeapCapacity != other.offHeapCapacity)
+			return false;
+		if (persistenceFile == null)
+		{
+			if (other.persistenceFile != null)
+				return false;
+		}
+		else if (!persistenceFile.equals(other.persistenceFile))
+			return false;
+		if (secondTierCapacity != other.secondTierCapacity)
+			return false;
+		if (serializer == null)
+		{
+			if (other.serializer != null)
+				return false;
+		}
+		else if (!serializer.equals(other.serializer))
+			return false;
+		if (keysByReference != other.keysByReference)
+			return false;
+		if (keyHashing != other.keyHashing)
+			return false;
+		if (internerMaxSize != other.internerMaxSize)
+			return false;
+		if (writeBehindBatchSize != other.writeBehindBatchSize)
+			return false;
+		if (writeBehindMaxDelayMillis != other.writeBehindMaxDelayMillis)
+			return false;
+		if (writeBehindQueueSize != other.writeBehindQueueSize)
+			return false;
+		if (writeBehindRetries != other.writeBehindRetries)
+			return false;
+		if (writeBehindRetryBackoffMillis != other.writeBehindRetryBackoffMillis)
+			return false;
+		if (refreshAheadPercentage != other.refreshAheadPercentage)
+			return false;
+		if (loaderExecutor != other.loaderExecutor)
+			return false;
+		if (loadAllChunkSize != other.loadAllChunkSize)
+			return false;
 		if (! expiryPolicyFactory.equals(other.expiryPolicyFactory))
 			return false;
 		if (statistics != other.statistics)
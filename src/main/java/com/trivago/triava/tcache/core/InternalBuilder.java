@@ -21,9 +21,14 @@ import javax.cache.configuration.Configuration;
 
 import com.trivago.triava.tcache.Cache;
 import com.trivago.triava.tcache.CacheLimit;
+import com.trivago.triava.tcache.EvictionMode;
+import com.trivago.triava.tcache.HashImplementation;
+import com.trivago.triava.tcache.LongKeyCache;
 import com.trivago.triava.tcache.TCacheFactory;
+import com.trivago.triava.tcache.eviction.DecayingLFUEviction;
 import com.trivago.triava.tcache.eviction.LFUEviction;
 import com.trivago.triava.tcache.eviction.LRUEviction;
+import com.trivago.triava.tcache.eviction.TinyLfuEviction;
 
 /**
  * A Builder that additionally stores the TCacheFactory. The TCacheFactory is only used for internal purposes in the {@link #build()} call. It cannot
@@ -62,6 +67,11 @@ public class InternalBuilder<K, V> extends Builder<K, V>
 		{
 			setId("tcache-" + anonymousCacheId.incrementAndGet());
 		}
+		if (getEvictionSliceSize() > 0 && getEvictionMode() != EvictionMode.SAMPLED)
+		{
+			// FULL and SELECT freeze and order the whole Cache for each slice, which is O(n) per slice
+			throw new IllegalArgumentException("Incremental eviction requires EvictionMode.SAMPLED, but is " + getEvictionMode() + " in cache: " + getId());
+		}
 
 		final Cache<K, V> cache;
 		if (getEvictionClass() != null)
@@ -75,9 +85,15 @@ public class InternalBuilder<K, V> extends Builder<K, V>
 				case LFU:
 					cache = new CacheLimit<>(factory, this.setEvictionClass(new LFUEviction<K,V>()));
 					break;
+				case DECAYING_LFU:
+					cache = new CacheLimit<>(factory, this.setEvictionClass(new DecayingLFUEviction<K,V>()));
+					break;
 				case LRU:
 					cache = new CacheLimit<>(factory, this.setEvictionClass(new LRUEviction<K,V>()));
 					break;
+				case WTINYLFU:
+					cache = new CacheLimit<>(factory, this.setEvictionClass(new TinyLfuEviction<K,V>(getMaxElements())));
+					break;
 //				case CLOCK:
 //					throw new UnsupportedOperationException("Experimental option is not activated: eviciton.CLOCK");
 //					break;
@@ -98,5 +114,18 @@ public class InternalBuilder<K, V> extends Builder<K, V>
 		return cache;
 	}
 
+	@SuppressWarnings("unchecked") // The key type is verified
+	@Override
+	public LongKeyCache<V> buildLongKeyCache()
+	{
+		Class<K> keyType = getKeyType();
+		if (keyType != null && keyType != Long.class && keyType != Object.class)
+		{
+			throw new IllegalArgumentException("LongKeyCache requires Long keys, but keyType=" + keyType.getName());
+		}
+		setHashImplementation(HashImplementation.LongKey);
+		return new LongKeyCache<V>((Cache<Long, V>) build());
+	}
+
 
 }
@@ -0,0 +1,233 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent loads of the same key ("single-flight"). The first thread that loads a key runs the load, and
+ * all threads that request the same key while that load is running wait for it and share its result, or its
+ * exception. A load that starts after the previous one completed runs again, so nothing is cached here.
+ * <p>
+ * Single loads via {@link #load(Object, Load)} and bulk loads via {@link #loadAll(Collection, BulkLoad)} coalesce with
+ * each other, so a key is never loaded twice at the same time.
+ * 
+ * @author cesken
+ *
+ * @param <K> The key class
+ * @param <R> The result class of a load
+ */
+public class LoadCoalescer<K, R>
+{
+	private final ConcurrentMap<K, Flight<R>> flights = new ConcurrentHashMap<>();
+	private final LongAdder coalescedCount = new LongAdder();
+
+	/**
+	 * A load function that may throw checked Exceptions.
+	 */
+	public interface Load<K, R>
+	{
+		R load(K key) throws Exception;
+	}
+
+	/**
+	 * A bulk load function that may throw checked Exceptions. Keys that could not be loaded are absent from the
+	 * returned Map, or mapped to null.
+	 */
+	public interface BulkLoad<K, R>
+	{
+		Map<K, R> loadAll(List<K> keys) throws Exception;
+	}
+
+	/**
+	 * Loads the key, or waits for a concurrently running load of the same key.
+	 * 
+	 * @param key The key
+	 * @param load The load function. It is only called when no load of the key is running
+	 * @return The result of the load
+	 * @throws Exception The Exception thrown by the load, or InterruptedException if interrupted while waiting
+	 */
+	public R load(K key, Load<K, R> load) throws Exception
+	{
+		Flight<R> flight = new Flight<R>();
+		Flight<R> running = flights.putIfAbsent(key, flight);
+		if (running == null)
+		{
+			try
+			{
+				R result = load.load(key);
+				flight.complete(result);
+				return result;
+			}
+			catch (Throwable exc)
+			{
+				flight.completeExceptionally(exc);
+				throw exc;
+			}
+			finally
+			{
+				flights.remove(key, flight);
+			}
+		}
+
+		if (running.leader == Thread.currentThread())
+		{
+			// The load function requests its own key. Waiting for ourselves would deadlock.
+			return load.load(key);
+		}
+
+		coalescedCount.increment();
+		return await(running);
+	}
+
+	/**
+	 * Waits for the given load and returns its result, or throws its Exception. If interrupted while waiting, the
+	 * interrupt flag is restored before the InterruptedException is thrown.
+	 */
+	private R await(Flight<R> running) throws Exception
+	{
+		try
+		{
+			return running.get();
+		}
+		catch (InterruptedException exc)
+		{
+			Thread.currentThread().interrupt();
+			throw exc;
+		}
+		catch (ExecutionException exc)
+		{
+			Throwable cause = exc.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * Loads the keys with a single call of the bulk load function, or waits for concurrently running loads of some of
+	 * the keys. Keys that are not loading yet are registered as running loads before the bulk load starts, so
+	 * concurrent {@link #load(Object, Load)} calls for them wait for this bulk load. After the bulk load, this method
+	 * waits for the keys that were already loading.
+	 * 
+	 * @param keys The distinct keys to load
+	 * @param bulkLoad The bulk load function. It is only called for the keys that are not loading yet, and not at all
+	 *            if all keys are loading
+	 * @return The results. Keys that could not be loaded are absent
+	 * @throws Exception The Exception thrown by the bulk load or a concurrent load, or InterruptedException if
+	 *             interrupted while waiting
+	 */
+	public Map<K, R> loadAll(Collection<K> keys, BulkLoad<K, R> bulkLoad) throws Exception
+	{
+		Map<K, Flight<R>> ownFlights = new LinkedHashMap<>(keys.size() * 2);
+		Map<K, Flight<R>> runningFlights = new HashMap<>();
+		Flight<R> flight = new Flight<R>();
+		for (K key : keys)
+		{
+			Flight<R> running = flights.putIfAbsent(key, flight);
+			if (running == null)
+			{
+				ownFlights.put(key, flight);
+				flight = new Flight<R>();
+			}
+			else if (running.leader == Thread.currentThread())
+			{
+				// Requested from within a load function. Waiting for ourselves would deadlock, so load it again.
+				ownFlights.put(key, null);
+			}
+			else
+			{
+				runningFlights.put(key, running);
+			}
+		}
+
+		Map<K, R> results = new HashMap<>(keys.size() * 2);
+		if (!ownFlights.isEmpty())
+		{
+			try
+			{
+				Map<K, R> loaded = bulkLoad.loadAll(new ArrayList<>(ownFlights.keySet()));
+				for (Map.Entry<K, Flight<R>> entry : ownFlights.entrySet())
+				{
+					R result = loaded == null ? null : loaded.get(entry.getKey());
+					if (result != null)
+						results.put(entry.getKey(), result);
+					if (entry.getValue() != null)
+						entry.getValue().complete(result);
+				}
+			}
+			catch (Throwable exc)
+			{
+				for (Flight<R> ownFlight : ownFlights.values())
+				{
+					if (ownFlight != null)
+						ownFlight.completeExceptionally(exc);
+				}
+				throw exc;
+			}
+			finally
+			{
+				for (Map.Entry<K, Flight<R>> entry : ownFlights.entrySet())
+				{
+					if (entry.getValue() != null)
+						flights.remove(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		for (Map.Entry<K, Flight<R>> entry : runningFlights.entrySet())
+		{
+			coalescedCount.increment();
+			R result = await(entry.getValue());
+			if (result != null)
+				results.put(entry.getKey(), result);
+		}
+		return results;
+	}
+
+	/**
+	 * @return The number of loads that were not run, because they waited for the running load of the same key
+	 */
+	public long coalescedCount()
+	{
+		return coalescedCount.sum();
+	}
+
+	/**
+	 * @return The number of loads currently running
+	 */
+	public int inFlightCount()
+	{
+		return flights.size();
+	}
+
+	private static final class Flight<R> extends CompletableFuture<R>
+	{
+		final Thread leader = Thread.currentThread();
+	}
+}
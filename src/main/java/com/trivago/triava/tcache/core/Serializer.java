@@ -0,0 +1,53 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.core;
+
+import java.io.IOException;
+
+/**
+ * The interface for providing a custom serializer, that serializes values and keys in store-by-value mode
+ * ({@link com.trivago.triava.tcache.CacheWriteMode#Serialize}). Implementations must be thread-safe. The serialized
+ * form of a key must be deterministic, as serialized keys are compared byte by byte.
+ * <p>
+ * If no serializer is configured, the built-in serialization of {@link com.trivago.triava.tcache.util.Serializing}
+ * is used.
+ * 
+ * @author cesken
+ *
+ */
+public interface Serializer
+{
+	/**
+	 * Serializes the given object
+	 * 
+	 * @param obj The object, never null
+	 * @return The serialized form of the object
+	 * @throws IOException If the object cannot be serialized
+	 */
+	byte[] serialize(Object obj) throws IOException;
+
+	/**
+	 * Deserializes an object, that was serialized by {@link #serialize(Object)}
+	 * 
+	 * @param serialized The serialized form
+	 * @return The object
+	 * @throws IOException If the data is corrupt
+	 * @throws ClassNotFoundException If the class of the object cannot be found
+	 */
+	Object deserialize(byte[] serialized) throws IOException, ClassNotFoundException;
+}
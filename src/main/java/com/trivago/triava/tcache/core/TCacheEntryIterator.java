@@ -42,6 +42,7 @@ public class TCacheEntryIterator<K, V> implements Iterator<Entry<K,V>>
 	Entry<K, V> currentElement = null;
 	java.util.Map.Entry<K, AccessTimeObjectHolder<V>> nextElement = null;
 	final Cache<K,V> cache;
+	final com.trivago.triava.tcache.Cache<K,V> tcache;
 	final StatisticsCalculator statisticsCalculator;
 	final TCacheExpiryPolicy expiryPolicy;
 	
@@ -52,6 +53,7 @@ public class TCacheEntryIterator<K, V> implements Iterator<Entry<K,V>>
 
 		this.statisticsCalculator = tcache.statisticsCalculator();
 		this.cache = tcache.jsr107cache();
+		this.tcache = tcache;
 	}
 
 	@Override
@@ -74,7 +76,7 @@ public class TCacheEntryIterator<K, V> implements Iterator<Entry<K,V>>
 				throw new NoSuchElementException();
 
 			AccessTimeObjectHolder<V> holder = entry.getValue();
-			holder.updateMaxIdleTime(expiryPolicy.getExpiryForAccess());
+			tcache.updateMaxIdleTime(entry.getKey(), holder, expiryPolicy.getExpiryForAccess());
 			V value = holder.get();
 			// To be considered: value could be null now, if it got invalid between the peekNext() and peek() calls
 			// This means entry.value can be null. This is likely not a good design decision. Future directions: Rethink this
@@ -43,6 +43,7 @@ public class TCacheHolderIterator<K,V> implements Iterator<Entry<K,TCacheHolder<
 	Entry<K, TCacheHolder<V>> currentElement = null;
 	java.util.Map.Entry<K, AccessTimeObjectHolder<V>> nextElement = null;
 	final Cache<K,V> cache;
+	final com.trivago.triava.tcache.Cache<K,V> tcache;
 	final StatisticsCalculator statisticsCalculator;
 	final TCacheExpiryPolicy expiryPolicy;
 	final boolean touch;
@@ -55,6 +56,7 @@ public class TCacheHolderIterator<K,V> implements Iterator<Entry<K,TCacheHolder<
 
 		this.statisticsCalculator = tcache.statisticsCalculator();
 		this.cache = tcache.jsr107cache();
+		this.tcache = tcache;
 	}
 
 	@Override
@@ -79,7 +81,7 @@ public class TCacheHolderIterator<K,V> implements Iterator<Entry<K,TCacheHolder<
 			AccessTimeObjectHolder<V> holder = entry.getValue();
 			if (touch)
 			{
-				holder.updateMaxIdleTime(expiryPolicy.getExpiryForAccess());
+				tcache.updateMaxIdleTime(entry.getKey(), holder, expiryPolicy.getExpiryForAccess());
 			}
 			// To be considered: holder.value could be null now, if it got invalid between the peekNext() and peek() calls
 			// This means entry.value can be null. This is likely not a good design decision. Future directions: Rethink this.
@@ -0,0 +1,457 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.cache.Cache;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
+
+import com.trivago.triava.logging.TriavaLogger;
+
+/**
+ * A CacheWriter that writes asynchronously to a delegate CacheWriter. Writes and deletes are queued per key, and a
+ * background thread passes them in batches to {@link CacheWriter#writeAll(Collection)} and
+ * {@link CacheWriter#deleteAll(Collection)}. Multiple writes to a pending key are coalesced, so that only the last
+ * write or delete of that key reaches the delegate.
+ * <p>
+ * A batch is written when batchSize keys are pending, or when the oldest pending key has waited for maxDelayMillis.
+ * When queueSize keys are pending, writing threads block until the batch thread has caught up. A failed batch is
+ * retried with exponential backoff. If it still fails, its entries are dropped and logged, as there is no caller to
+ * throw to. {@link #close()} writes all pending entries before returning.
+ * 
+ * @author cesken
+ *
+ * @param <K> The key class
+ * @param <V> The value class
+ */
+public class WriteBehindCacheWriter<K, V> implements CacheWriter<K, V>
+{
+	private final CacheWriter<K, V> writer;
+	private final String id;
+	private final int batchSize;
+	private final long maxDelayMillis;
+	private final int queueSize;
+	private final int retries;
+	private final long retryBackoffMillis;
+	private final TriavaLogger logger;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition batchReady = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition batchCompleted = lock.newCondition();
+	/**
+	 * Pending writes in the order of their first write. A coalesced write keeps the position of the first one, so the
+	 * head of the map is always the oldest pending key.
+	 */
+	private final LinkedHashMap<K, Pending<V>> pending = new LinkedHashMap<>();
+	// Number of pending entries ever taken into a batch, and of those whose batch is completed. Batches are taken from
+	// the head of pending, so all entries pending at a given time are completed when completedCount reaches takenCount
+	// plus the pending size of that time. See flush().
+	private long takenCount = 0;
+	private long completedCount = 0;
+	private int flushRequests = 0;
+	private boolean closed = false;
+
+	private final LongAdder batchCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+
+	private final Thread batchThread;
+
+	/**
+	 * Creates a write-behind writer and starts its batch thread.
+	 * 
+	 * @param writer The delegate CacheWriter
+	 * @param id The Cache id, used for the thread name and for logging
+	 * @param batchSize The maximum number of keys per writeAll() or deleteAll() call
+	 * @param maxDelayMillis The maximum time a write is pending
+	 * @param queueSize The maximum number of pending keys
+	 * @param retries The number of retries for a failed batch
+	 * @param retryBackoffMillis The wait before the first retry
+	 * @param logger The logger for failed batches
+	 */
+	public WriteBehindCacheWriter(CacheWriter<? super K, ? super V> writer, String id, int batchSize, long maxDelayMillis,
+			int queueSize, int retries, long retryBackoffMillis, TriavaLogger logger)
+	{
+		@SuppressWarnings("unchecked")
+		CacheWriter<K, V> writer2 = (CacheWriter<K, V>) writer;
+		this.writer = writer2;
+		this.id = id;
+		this.batchSize = batchSize;
+		this.maxDelayMillis = maxDelayMillis;
+		this.queueSize = queueSize;
+		this.retries = retries;
+		this.retryBackoffMillis = retryBackoffMillis;
+		this.logger = logger;
+
+		batchThread = new Thread(this::runBatches, "tCache-WriteBehind:" + id);
+		batchThread.setDaemon(true);
+		batchThread.start();
+	}
+
+	@Override
+	public void write(Cache.Entry<? extends K, ? extends V> entry) throws CacheWriterException
+	{
+		if (!enqueue(entry.getKey(), entry.getValue()))
+			writer.write(entry);
+	}
+
+	/**
+	 * Queues all entries and removes them from the given Collection, signaling to the caller that they have been
+	 * accepted.
+	 */
+	@Override
+	public void writeAll(Collection<Cache.Entry<? extends K, ? extends V>> entries) throws CacheWriterException
+	{
+		Iterator<Cache.Entry<? extends K, ? extends V>> it = entries.iterator();
+		while (it.hasNext())
+		{
+			Cache.Entry<? extends K, ? extends V> entry = it.next();
+			write(entry);
+			it.remove();
+		}
+	}
+
+	@Override
+	public void delete(Object key) throws CacheWriterException
+	{
+		@SuppressWarnings("unchecked")
+		K k = (K) key;
+		if (!enqueue(k, null))
+			writer.delete(key);
+	}
+
+	/**
+	 * Queues all deletes and removes the keys from the given Collection, signaling to the caller that they have been
+	 * accepted.
+	 */
+	@Override
+	public void deleteAll(Collection<?> keys) throws CacheWriterException
+	{
+		Iterator<?> it = keys.iterator();
+		while (it.hasNext())
+		{
+			delete(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Queues a write, or a delete if value is null. Blocks while the queue is full.
+	 * 
+	 * @return true if queued, false if this writer is closed and the caller must write synchronously
+	 */
+	private boolean enqueue(K key, V value)
+	{
+		lock.lock();
+		try
+		{
+			while (!closed && pending.size() >= queueSize && !pending.containsKey(key))
+			{
+				notFull.await();
+			}
+			if (closed)
+				return false;
+
+			Pending<V> previous = pending.get(key);
+			if (previous != null)
+			{
+				previous.value = value;
+				coalescedCount.increment();
+			}
+			else
+			{
+				pending.put(key, new Pending<V>(value, System.currentTimeMillis()));
+				int size = pending.size();
+				if (size == 1 || size == batchSize)
+					batchReady.signal();
+			}
+			return true;
+		}
+		catch (InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			throw new CacheWriterException("Interrupted while waiting for the write-behind queue of Cache " + id, ie);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until all writes that were queued before this call have been passed to the delegate writer. Writes that
+	 * are queued concurrently are not waited for, so this returns also under a steady write load.
+	 * 
+	 * @throws InterruptedException If the current thread was interrupted while waiting
+	 */
+	public void flush() throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			flushRequests++;
+			batchReady.signal();
+			long target = takenCount + pending.size();
+			while (completedCount < target)
+			{
+				batchCompleted.await();
+			}
+		}
+		finally
+		{
+			flushRequests--;
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting writes, writes all pending entries and stops the batch thread. Writes after closing are passed
+	 * synchronously to the delegate writer.
+	 */
+	public void close()
+	{
+		lock.lock();
+		try
+		{
+			closed = true;
+			batchReady.signal();
+			notFull.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		try
+		{
+			batchThread.join();
+		}
+		catch (InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void runBatches()
+	{
+		while (true)
+		{
+			Map<K, V> batch;
+			try
+			{
+				batch = nextBatch();
+			}
+			catch (InterruptedException ie)
+			{
+				// Interruption policy: Only close() stops this thread, and it does so without interrupting.
+				continue;
+			}
+			if (batch == null)
+				return;
+
+			try
+			{
+				writeBatch(batch);
+			}
+			finally
+			{
+				completeBatch(batch.size());
+			}
+		}
+	}
+
+	/**
+	 * Waits until a batch is due and takes it from the queue.
+	 * 
+	 * @return The batch, with null values for deletes. null if this writer is closed and nothing is pending
+	 */
+	private Map<K, V> nextBatch() throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			while (true)
+			{
+				if (pending.isEmpty())
+				{
+					if (closed)
+						return null;
+					batchReady.await();
+					continue;
+				}
+				if (closed || flushRequests > 0 || pending.size() >= batchSize)
+					break;
+				long waitMillis = pending.values().iterator().next().queuedMillis + maxDelayMillis - System.currentTimeMillis();
+				if (waitMillis <= 0)
+					break;
+				batchReady.await(waitMillis, TimeUnit.MILLISECONDS);
+			}
+
+			int count = Math.min(batchSize, pending.size());
+			Map<K, V> batch = new LinkedHashMap<>(count * 2);
+			Iterator<Map.Entry<K, Pending<V>>> it = pending.entrySet().iterator();
+			for (int i = 0; i < count; i++)
+			{
+				Map.Entry<K, Pending<V>> entry = it.next();
+				batch.put(entry.getKey(), entry.getValue().value);
+				it.remove();
+			}
+			takenCount += count;
+			notFull.signalAll();
+			return batch;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void completeBatch(int count)
+	{
+		lock.lock();
+		try
+		{
+			completedCount += count;
+			if (flushRequests > 0)
+				batchCompleted.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the batch to the delegate writer. The keys in a batch are distinct, so writes and deletes can be passed in
+	 * two separate calls. Only the entries that the writer reports as not written are retried.
+	 */
+	private void writeBatch(Map<K, V> batch)
+	{
+		List<Cache.Entry<? extends K, ? extends V>> writes = new ArrayList<>(batch.size());
+		List<K> deletes = new ArrayList<>(0);
+		for (Map.Entry<K, V> entry : batch.entrySet())
+		{
+			if (entry.getValue() == null)
+				deletes.add(entry.getKey());
+			else
+				writes.add(new TCacheJSR107Entry<K, V>(entry.getKey(), entry.getValue()));
+		}
+
+		batchCount.increment();
+		for (int attempt = 0; ; attempt++)
+		{
+			try
+			{
+				if (!writes.isEmpty())
+				{
+					writer.writeAll(writes);
+					writes.clear();
+				}
+				if (!deletes.isEmpty())
+				{
+					writer.deleteAll(deletes);
+					deletes.clear();
+				}
+				return;
+			}
+			catch (Exception exc)
+			{
+				if (attempt >= retries)
+				{
+					int failed = writes.size() + deletes.size();
+					failedCount.add(failed);
+					logger.error("Write-behind of " + failed + " entries of Cache " + id + " FAILED after " + attempt + " retries", exc);
+					return;
+				}
+			}
+
+			try
+			{
+				Thread.sleep(retryBackoffMillis << Math.min(attempt, 20));
+			}
+			catch (InterruptedException ie)
+			{
+				// Interruption policy: Only used for quitting. Retry without further waiting.
+			}
+		}
+	}
+
+	/**
+	 * @return The number of keys waiting to be written, not including the batch that is currently being written
+	 */
+	public int pendingCount()
+	{
+		lock.lock();
+		try
+		{
+			return pending.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The number of batches passed to the delegate writer, including failed ones
+	 */
+	public long batchCount()
+	{
+		return batchCount.sum();
+	}
+
+	/**
+	 * @return The number of writes that replaced a pending write of the same key
+	 */
+	public long coalescedCount()
+	{
+		return coalescedCount.sum();
+	}
+
+	/**
+	 * @return The number of writes and deletes that were dropped after all retries failed
+	 */
+	public long failedCount()
+	{
+		return failedCount.sum();
+	}
+
+	private static final class Pending<V>
+	{
+		V value; // null means delete
+		final long queuedMillis;
+
+		Pending(V value, long queuedMillis)
+		{
+			this.value = value;
+			this.queuedMillis = queuedMillis;
+		}
+	}
+}
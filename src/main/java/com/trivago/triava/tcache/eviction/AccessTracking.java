@@ -0,0 +1,39 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+/**
+ * An optional extension for eviction implementations, that need to know about each access to the Cache. If the eviction class
+ * of a size limited Cache implements this interface, {@link #recordAccess(Object)} is called on each read and write,
+ * including reads of keys that are not in the Cache.
+ * <p>
+ * Implementations must be thread-safe and very cheap, as they are called on the read path of the Cache.
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ */
+public interface AccessTracking<K>
+{
+	/**
+	 * Records an access to the given key.
+	 * 
+	 * @param key The key, never null
+	 */
+	void recordAccess(K key);
+}
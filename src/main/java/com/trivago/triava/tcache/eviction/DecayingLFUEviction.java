@@ -0,0 +1,143 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+import com.trivago.triava.tcache.TCacheHolder;
+
+/**
+ * LFU eviction based on a decaying use count. In contrast to {@link LFUEviction}, the use count of each entry decays
+ * over time, so that entries that were popular in the past can be evicted by the current hot set.
+ * <p>
+ * The decay is counted in epochs: By default a new epoch starts with each eviction round. If a half-life is given,
+ * a new epoch starts once per elapsed half-life instead. The use count is halved once per epoch. The decay is applied
+ * lazily when an entry is frozen: The holder remembers the epoch of its last decay, so it is halved by the number of
+ * epochs it missed, and not again when it is frozen a second time in the same epoch. So the decay does not depend on
+ * how often an entry is sampled, e.g. in {@link com.trivago.triava.tcache.EvictionMode#SAMPLED}. An entry that was
+ * never decayed catches up on the epochs that started after its creation.
+ * <p>
+ * The use count is decayed by a plain write to the holder, so the read path keeps its single increment.
+ * Increments that race with the decay may get lost. The holder stores the epoch modulo
+ * {@link AccessTimeObjectHolder#DECAY_EPOCH_MAX}, so an entry that is not frozen for that many epochs may decay less.
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ * @param <V> Value class 
+ */
+public class DecayingLFUEviction<K,V> extends FreezingEvictor<K,V> 
+{
+	private static final long serialVersionUID = -6184567384953213437L;
+
+	// Halving the use count 31 times or more leaves nothing, so older epochs are not relevant
+	private static final int MAX_SHIFT = 31;
+	private static final int EPOCH_HISTORY = MAX_SHIFT + 1;
+
+	private final long halfLifeMillis;
+	private long lastDecayMillis;
+	private long epoch = 0;
+	// The start times of the latest epochs, indexed by epoch % EPOCH_HISTORY. Written before publishing the epoch.
+	private final long[] epochStartMillis = new long[EPOCH_HISTORY];
+	private volatile long currentEpoch = 0;
+
+	/**
+	 * Creates an instance that halves the use counts in each eviction round
+	 */
+	public DecayingLFUEviction()
+	{
+		this(0);
+	}
+
+	/**
+	 * Creates an instance that halves the use counts once per half-life.
+	 * 
+	 * @param halfLifeMillis The half-life in milliseconds. 0 means to halve the use counts in each eviction round.
+	 */
+	public DecayingLFUEviction(long halfLifeMillis)
+	{
+		if (halfLifeMillis < 0)
+			throw new IllegalArgumentException("Invalid halfLifeMillis: " + halfLifeMillis);
+		this.halfLifeMillis = halfLifeMillis;
+		this.lastDecayMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts the epochs for the upcoming eviction round
+	 */
+	@Override
+	public void beforeEviction()
+	{
+		long now = System.currentTimeMillis();
+		if (halfLifeMillis == 0)
+		{
+			startEpoch(now);
+		}
+		else
+		{
+			long halvings = (now - lastDecayMillis) / halfLifeMillis;
+			long skipped = Math.max(0, halvings - EPOCH_HISTORY);
+			epoch += skipped;
+			for (long i = skipped + 1; i <= halvings; i++)
+			{
+				startEpoch(lastDecayMillis + i * halfLifeMillis);
+			}
+			lastDecayMillis += halvings * halfLifeMillis;
+		}
+		currentEpoch = epoch;
+	}
+
+	private void startEpoch(long startMillis)
+	{
+		epoch++;
+		epochStartMillis[(int)(epoch % EPOCH_HISTORY)] = startMillis;
+	}
+
+	/**
+	 * @return Decayed use count
+	 */
+	@Override
+	public long getFreezeValue(K key, TCacheHolder<V> holder)
+	{
+		if (!(holder instanceof AccessTimeObjectHolder))
+			return holder.getUseCount();
+
+		AccessTimeObjectHolder<V> decayingHolder = (AccessTimeObjectHolder<V>)holder;
+		long epochNow = currentEpoch;
+		int stamp = (int)(epochNow % AccessTimeObjectHolder.DECAY_EPOCH_MAX) + 1;
+		int holderStamp = decayingHolder.decayEpoch();
+		if (holderStamp == stamp)
+			return decayingHolder.getUseCount(); // Already decayed in this epoch
+
+		long missedEpochs = holderStamp == 0 ? epochsSince(decayingHolder.getCreationTime(), epochNow)
+				: Math.floorMod(stamp - holderStamp, AccessTimeObjectHolder.DECAY_EPOCH_MAX);
+		return decayingHolder.decayUseCount((int)Math.min(missedEpochs, MAX_SHIFT), stamp);
+	}
+
+	/**
+	 * Returns the number of epochs that started after the given time. The result is limited to {@link #EPOCH_HISTORY}.
+	 */
+	private int epochsSince(long millis, long epochNow)
+	{
+		int count = 0;
+		for (long e = epochNow; e > 0 && count < EPOCH_HISTORY && epochStartMillis[(int)(e % EPOCH_HISTORY)] > millis; e--)
+		{
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,133 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import java.util.Comparator;
+
+/**
+ * A small, fixed size pool of eviction candidates, ordered by an eviction comparator. The best candidate for eviction
+ * is always at the front of the pool. If the pool is full, a new candidate is only taken if it is a better candidate
+ * than the worst one in the pool, which is then dropped.
+ * <p>
+ * The pool is meant for sampling based eviction with small pool sizes (like 16), so insertion is done by a linear scan.
+ * This class is not thread-safe. It is meant to be used only by the eviction thread.
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ * @param <V> Value class
+ */
+public class EvictionCandidatePool<K, V>
+{
+	private final HolderFreezer<K, V>[] candidates;
+	private final Comparator<? super HolderFreezer<K, V>> comparator;
+	private int size = 0;
+
+	/**
+	 * Creates a candidate pool.
+	 * 
+	 * @param capacity The maximum number of candidates in the pool
+	 * @param comparator The comparator implementing the eviction policy, see {@link EvictionInterface#evictionComparator()}
+	 */
+	@SuppressWarnings("unchecked")
+	public EvictionCandidatePool(int capacity, Comparator<? super HolderFreezer<K, V>> comparator)
+	{
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		this.candidates = (HolderFreezer<K, V>[])new HolderFreezer<?, ?>[capacity];
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Offers a candidate to the pool. The candidate is added if the pool is not full, or if it is a better candidate
+	 * than the worst one in the pool. A candidate whose holder is already in the pool is ignored.
+	 * 
+	 * @param candidate The candidate
+	 * @return true, if the candidate was added to the pool
+	 */
+	public boolean offer(HolderFreezer<K, V> candidate)
+	{
+		int insertPos = size;
+		for (int i = 0; i < size; i++)
+		{
+			HolderFreezer<K, V> current = candidates[i];
+			if (current.getHolder() == candidate.getHolder())
+			{
+				// Already in the pool, e.g. because the sampling has wrapped around
+				return false;
+			}
+			if (insertPos == size && comparator.compare(candidate, current) < 0)
+			{
+				insertPos = i;
+			}
+		}
+
+		if (insertPos == candidates.length)
+		{
+			// Pool is full, and the candidate is worse than all others
+			return false;
+		}
+
+		int moveCount = Math.min(size, candidates.length - 1) - insertPos;
+		if (moveCount > 0)
+		{
+			System.arraycopy(candidates, insertPos, candidates, insertPos + 1, moveCount);
+		}
+		candidates[insertPos] = candidate;
+		if (size < candidates.length)
+			size++;
+		return true;
+	}
+
+	/**
+	 * Removes and returns the best candidate for eviction.
+	 * 
+	 * @return The best candidate, or null if the pool is empty
+	 */
+	public HolderFreezer<K, V> poll()
+	{
+		if (size == 0)
+			return null;
+
+		HolderFreezer<K, V> best = candidates[0];
+		size--;
+		System.arraycopy(candidates, 1, candidates, 0, size);
+		candidates[size] = null;
+		return best;
+	}
+
+	/**
+	 * @return The number of candidates in the pool
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes all candidates from the pool.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < size; i++)
+		{
+			candidates[i] = null;
+		}
+		size = 0;
+	}
+}
@@ -47,6 +47,18 @@ abstract public class FreezingEvictor<K, V> implements EvictionInterface<K, V>
 		return comparator;
 	}
 
+	/**
+	 * Returns whether the eviction order is fully defined by the frozen values, which is the case if the standard
+	 * comparator is used. The Cache can then use the primitive {@link FrozenValueBuffer} for eviction,
+	 * instead of creating one {@link HolderFreezer} per entry. Returns false, if {@link #evictionComparator()} is overridden.
+	 * 
+	 * @return true, if the eviction order is defined by the frozen values in ascending order
+	 */
+	public boolean ordersByFrozenValue()
+	{
+		return evictionComparator() instanceof FreezingEvictor.StandardComparator;
+	}
+
 	/**
 	 * Default implementation for {@link EvictionInterface#beforeEviction()}. It does nothing.
 	 */
@@ -0,0 +1,162 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import java.io.Serializable;
+
+/**
+ * A probabilistic frequency counter, implemented as a count-min sketch with 4-bit counters. Each key is counted in 4
+ * counters, and its frequency is estimated by the minimum of those. The maximum frequency that can be counted is 15.
+ * <p>
+ * The sketch supports aging: After a sample of 10 * maximumSize increments, all counters are halved. Keys that were
+ * popular in the past thus lose their frequency over time, unless they stay popular.
+ * <p>
+ * Thread-safety: Updates are not synchronized, to keep the read path of the Cache cheap. Concurrent increments may
+ * get lost, which only reduces the precision of the estimated frequency.
+ * <p>
+ * This implementation is derived from the FrequencySketch of Caffeine by Ben Manes
+ * (https://github.com/ben-manes/caffeine), licensed under the Apache License, Version 2.0. The counter layout, the
+ * index and seed scheme and the reset masks are taken from there.
+ * 
+ * @author cesken
+ *
+ */
+public class FrequencySketch implements Serializable
+{
+	private static final long serialVersionUID = -1496474580357961327L;
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+	private static final long ONE_MASK = 0x1111_1111_1111_1111L;
+
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size = 0;
+
+	/**
+	 * Creates a sketch that is suitable to count the frequencies of the given number of keys.
+	 * 
+	 * @param maximumSize The expected maximum number of keys, typically the maximum number of Cache elements
+	 */
+	public FrequencySketch(int maximumSize)
+	{
+		int maximum = Math.max(1, Math.min(maximumSize, 1 << 30));
+		int tableSize = Integer.highestOneBit(maximum);
+		if (tableSize < maximum)
+			tableSize <<= 1;
+		this.table = new long[tableSize];
+		this.tableMask = tableSize - 1;
+		this.sampleSize = (int)Math.min(10L * maximum, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the estimated frequency of the key with the given hash code.
+	 * 
+	 * @param hashCode The hash code of the key
+	 * @return The estimated frequency, in the range [0, 15]
+	 */
+	public int frequency(int hashCode)
+	{
+		int hash = spread(hashCode);
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++)
+		{
+			int index = indexOf(hash, i);
+			int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Increments the frequency of the key with the given hash code, unless it is already at its maximum. 
+	 * 
+	 * @param hashCode The hash code of the key
+	 */
+	public void increment(int hashCode)
+	{
+		int hash = spread(hashCode);
+		int start = (hash & 3) << 2;
+
+		boolean added = false;
+		for (int i = 0; i < 4; i++)
+		{
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+
+		if (added && ++size >= sampleSize)
+		{
+			reset();
+		}
+	}
+
+	/**
+	 * Increments the 4-bit counter j in table[i], unless it is at its maximum of 15.
+	 * 
+	 * @return true, if the counter was incremented
+	 */
+	private boolean incrementAt(int i, int j)
+	{
+		int offset = j << 2;
+		long mask = 0xfL << offset;
+		long value = table[i];
+		if ((value & mask) != mask)
+		{
+			table[i] = value + (1L << offset);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Ages all counters by halving them.
+	 */
+	void reset()
+	{
+		int oddCounters = 0;
+		for (int i = 0; i < table.length; i++)
+		{
+			oddCounters += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		// Each key uses 4 counters, so the truncation error per key is roughly oddCounters/4
+		size = (size >>> 1) - (oddCounters >>> 2);
+	}
+
+	/**
+	 * Returns the table index for the given hash and counter number.
+	 */
+	private int indexOf(int hash, int counter)
+	{
+		long h = (hash + SEEDS[counter]) * SEEDS[counter];
+		h += (h >>> 32);
+		return ((int)h) & tableMask;
+	}
+
+	/**
+	 * Applies a supplemental hash function, as the hash codes of keys are often of poor quality. 
+	 */
+	private static int spread(int x)
+	{
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
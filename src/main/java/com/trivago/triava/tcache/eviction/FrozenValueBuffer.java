@@ -0,0 +1,240 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import java.util.Arrays;
+
+import com.trivago.triava.tcache.TCacheHolder;
+
+/**
+ * A reusable buffer for eviction candidates, that stores the frozen values in a primitive long[] array, in parallel with
+ * arrays for the keys and holders. This avoids creating one {@link HolderFreezer} per Cache entry in each eviction round. The
+ * buffer only grows, so after the first eviction rounds no further allocations are required.
+ * <p>
+ * The buffer orders candidates by ascending frozen value, like {@link FreezingEvictor#compareByFreezer(HolderFreezer, HolderFreezer, boolean)}.
+ * It can thus only be used for eviction classes, whose comparator orders by the frozen value alone, see
+ * {@link FreezingEvictor#ordersByFrozenValue()}. Ties are broken arbitrarily, similar to the tie breaker of the HolderFreezer.
+ * <p>
+ * This class is not thread-safe. It is meant to be used only by the eviction thread.
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ * @param <V> Value class
+ */
+public class FrozenValueBuffer<K, V>
+{
+	private long[] frozenValues;
+	private Object[] keys;
+	private Object[] holders;
+	private int size = 0;
+
+	/**
+	 * Creates a buffer with the given initial capacity
+	 * 
+	 * @param initialCapacity The initial capacity
+	 */
+	public FrozenValueBuffer(int initialCapacity)
+	{
+		int capacity = Math.max(16, initialCapacity);
+		frozenValues = new long[capacity];
+		keys = new Object[capacity];
+		holders = new Object[capacity];
+	}
+
+	/**
+	 * Adds a candidate to the buffer.
+	 * 
+	 * @param key The key of the cache entry
+	 * @param holder The holder of the cache entry
+	 * @param frozenValue The frozen value, see {@link EvictionInterface#getFreezeValue(Object, TCacheHolder)}
+	 */
+	public void add(K key, TCacheHolder<V> holder, long frozenValue)
+	{
+		if (size == frozenValues.length)
+		{
+			grow();
+		}
+		frozenValues[size] = frozenValue;
+		keys[size] = key;
+		holders[size] = holder;
+		size++;
+	}
+
+	private void grow()
+	{
+		int newCapacity = frozenValues.length + (frozenValues.length >> 1);
+		if (newCapacity < 0)
+			newCapacity = Integer.MAX_VALUE - 8; // overflow
+		frozenValues = Arrays.copyOf(frozenValues, newCapacity);
+		keys = Arrays.copyOf(keys, newCapacity);
+		holders = Arrays.copyOf(holders, newCapacity);
+	}
+
+	/**
+	 * Removes all candidates. The references to keys and holders are cleared, so that they can be garbage collected. The
+	 * allocated capacity is kept for the next eviction round.
+	 */
+	public void clear()
+	{
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(holders, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * @return The number of candidates in this buffer
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The current capacity of this buffer
+	 */
+	public int capacity()
+	{
+		return frozenValues.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public K key(int index)
+	{
+		return (K)keys[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	public TCacheHolder<V> holder(int index)
+	{
+		return (TCacheHolder<V>)holders[index];
+	}
+
+	public long frozenValue(int index)
+	{
+		return frozenValues[index];
+	}
+
+	/**
+	 * Rearranges the candidates, so that the count candidates with the smallest frozen values are at the front, in sorted order.
+	 * The order of the remaining candidates is unspecified. This is the primitive counterpart of
+	 * {@link VictimSelection#selectSmallest(Object[], int, java.util.Comparator)}.
+	 * 
+	 * @param count The number of candidates to select
+	 */
+	public void selectSmallest(int count)
+	{
+		if (count <= 0 || size == 0)
+			return;
+		if (count > size)
+			count = size;
+
+		final int k = count - 1;
+		int left = 0;
+		int right = size - 1;
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(size));
+		while (right > left)
+		{
+			if (depthLimit-- == 0)
+			{
+				heapSort(left, right + 1);
+				break;
+			}
+
+			long pivot = medianOfThree(frozenValues[left], frozenValues[left + (right - left) / 2], frozenValues[right]);
+
+			// 3-way partition: [left, lt-1] < pivot, [lt, gt] == pivot, [gt+1, right] > pivot
+			int lt = left;
+			int gt = right;
+			int i = left;
+			while (i <= gt)
+			{
+				long value = frozenValues[i];
+				if (value < pivot)
+					swap(lt++, i++);
+				else if (value > pivot)
+					swap(i, gt--);
+				else
+					i++;
+			}
+
+			if (k < lt)
+				right = lt - 1;
+			else if (k > gt)
+				left = gt + 1;
+			else
+				break;
+		}
+
+		heapSort(0, count);
+	}
+
+	private static long medianOfThree(long x, long y, long z)
+	{
+		return Math.max(Math.min(x, y), Math.min(Math.max(x, y), z));
+	}
+
+	/**
+	 * Sorts the range [from, to) in ascending order. Heap sort is used as it needs no extra memory and has a guaranteed
+	 * O(n log n) runtime.
+	 */
+	private void heapSort(int from, int to)
+	{
+		int n = to - from;
+		for (int i = n / 2 - 1; i >= 0; i--)
+		{
+			siftDown(from, i, n);
+		}
+		for (int end = n - 1; end > 0; end--)
+		{
+			swap(from, from + end);
+			siftDown(from, 0, end);
+		}
+	}
+
+	private void siftDown(int base, int node, int n)
+	{
+		while (true)
+		{
+			int child = 2 * node + 1;
+			if (child >= n)
+				return;
+			if (child + 1 < n && frozenValues[base + child + 1] > frozenValues[base + child])
+				child++;
+			if (frozenValues[base + node] >= frozenValues[base + child])
+				return;
+			swap(base + node, base + child);
+			node = child;
+		}
+	}
+
+	private void swap(int i, int j)
+	{
+		long tmpValue = frozenValues[i];
+		frozenValues[i] = frozenValues[j];
+		frozenValues[j] = tmpValue;
+
+		Object tmpKey = keys[i];
+		keys[i] = keys[j];
+		keys[j] = tmpKey;
+
+		Object tmpHolder = holders[i];
+		holders[i] = holders[j];
+		holders[j] = tmpHolder;
+	}
+}
@@ -0,0 +1,133 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveTask;
+
+import com.trivago.triava.tcache.TCacheHolder;
+
+/**
+ * A fork-join task that freezes the entries of a Cache in parallel and selects the eviction victims. The entries are
+ * split into shards via their {@link Spliterator}. Each shard freezes its entries and keeps only its best victims,
+ * and the victim sets of the shards are merged pairwise.
+ * <p>
+ * The {@link EvictionInterface} is used unchanged, but {@link EvictionInterface#getFreezeValue(Object, TCacheHolder)}
+ * is called concurrently from the threads of the ForkJoinPool. {@link EvictionInterface#beforeEviction()} and
+ * {@link EvictionInterface#afterEviction()} are not called by this task.
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ * @param <V> Value class 
+ */
+public class ParallelFreezeTask<K, V> extends RecursiveTask<HolderFreezer<K, V>[]>
+{
+	private static final long serialVersionUID = -2961346040612373408L;
+
+	/**
+	 * Shards with an estimated size up to this value are not split further 
+	 */
+	public static final int SHARD_SIZE = 16384;
+
+	private final Spliterator<? extends Entry<K, ? extends TCacheHolder<V>>> spliterator;
+	private final EvictionInterface<K, V> evictionClass;
+	private final int victimCount;
+
+	/**
+	 * Creates a task that selects the victimCount best victims from the entries of the given Spliterator.
+	 * 
+	 * @param spliterator The entries of the Cache
+	 * @param evictionClass The eviction class for freezing and comparing entries
+	 * @param victimCount The number of victims to select
+	 */
+	public ParallelFreezeTask(Spliterator<? extends Entry<K, ? extends TCacheHolder<V>>> spliterator, EvictionInterface<K, V> evictionClass, int victimCount)
+	{
+		this.spliterator = spliterator;
+		this.evictionClass = evictionClass;
+		this.victimCount = victimCount;
+	}
+
+	/**
+	 * @return The victims, sorted in eviction order. The number of victims is victimCount, or less if there are less entries.
+	 */
+	@Override
+	protected HolderFreezer<K, V>[] compute()
+	{
+		if (spliterator.estimateSize() > SHARD_SIZE)
+		{
+			Spliterator<? extends Entry<K, ? extends TCacheHolder<V>>> split = spliterator.trySplit();
+			if (split != null)
+			{
+				ParallelFreezeTask<K, V> left = new ParallelFreezeTask<>(split, evictionClass, victimCount);
+				left.fork();
+				HolderFreezer<K, V>[] right = new ParallelFreezeTask<>(spliterator, evictionClass, victimCount).compute();
+				return merge(left.join(), right);
+			}
+		}
+
+		return freezeShard();
+	}
+
+	private HolderFreezer<K, V>[] freezeShard()
+	{
+		List<HolderFreezer<K, V>> frozen = new ArrayList<>((int)Math.min(spliterator.estimateSize(), SHARD_SIZE));
+		spliterator.forEachRemaining(entry ->
+		{
+			K key = entry.getKey();
+			TCacheHolder<V> holder = entry.getValue();
+			frozen.add(new HolderFreezer<>(key, holder, evictionClass.getFreezeValue(key, holder)));
+		});
+
+		HolderFreezer<K, V>[] candidates = frozen.toArray(newArray(frozen.size()));
+		return select(candidates);
+	}
+
+	private HolderFreezer<K, V>[] merge(HolderFreezer<K, V>[] victims1, HolderFreezer<K, V>[] victims2)
+	{
+		HolderFreezer<K, V>[] candidates = newArray(victims1.length + victims2.length);
+		System.arraycopy(victims1, 0, candidates, 0, victims1.length);
+		System.arraycopy(victims2, 0, candidates, victims1.length, victims2.length);
+		return select(candidates);
+	}
+
+	/**
+	 * Returns the victimCount best candidates in eviction order.
+	 */
+	private HolderFreezer<K, V>[] select(HolderFreezer<K, V>[] candidates)
+	{
+		Comparator<? super HolderFreezer<K, V>> comparator = evictionClass.evictionComparator();
+		VictimSelection.selectSmallest(candidates, victimCount, comparator);
+		if (candidates.length <= victimCount)
+			return candidates;
+
+		HolderFreezer<K, V>[] victims = newArray(victimCount);
+		System.arraycopy(candidates, 0, victims, 0, victimCount);
+		return victims;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K, V> HolderFreezer<K, V>[] newArray(int length)
+	{
+		return (HolderFreezer<K, V>[])new HolderFreezer<?, ?>[length];
+	}
+}
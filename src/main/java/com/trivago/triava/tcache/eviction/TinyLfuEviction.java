@@ -0,0 +1,95 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import com.trivago.triava.tcache.TCacheHolder;
+
+/**
+ * W-TinyLFU eviction. The access frequency of all keys, including keys that are not in the Cache, is recorded in a
+ * {@link FrequencySketch}, whose counters age over time. This is in contrast to {@link LFUEviction}, where the use count
+ * never decays and entries that were popular once can stay in the Cache forever.
+ * <p>
+ * Entries that were added after the previous eviction round form the admission window. They are evicted last, so that
+ * new entries get the chance to build up frequency. All other entries form the main region, and are evicted by ascending
+ * frequency. When an entry leaves the window, it thus has to compete with the main region entries: It stays only if it is
+ * accessed more frequently than the other eviction candidates. Ties are broken by recency (LRU).
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ * @param <V> Value class 
+ */
+public class TinyLfuEviction<K,V> extends FreezingEvictor<K,V> implements AccessTracking<K>
+{
+	private static final long serialVersionUID = -3271838213390468826L;
+
+	// Layout of the frozen value, from most to least significant: window flag | 4 bit frequency | 44 bit access time 
+	private static final int FREQUENCY_SHIFT = 44;
+	private static final long RECENCY_MASK = (1L << FREQUENCY_SHIFT) - 1;
+	private static final long WINDOW_FLAG = 1L << (FREQUENCY_SHIFT + 4);
+
+	private final FrequencySketch sketch;
+	// All entries are in the window until the first eviction round ended
+	private volatile long windowStartMillis = -1;
+
+	/**
+	 * @param maxElements The maximum number of Cache elements. Used for sizing the frequency sketch.
+	 */
+	public TinyLfuEviction(int maxElements)
+	{
+		this.sketch = new FrequencySketch(maxElements);
+	}
+
+	@Override
+	public void recordAccess(K key)
+	{
+		sketch.increment(key.hashCode());
+	}
+
+	/**
+	 * Starts a new admission window. The window start uses the system time, while the creation time of the holders is
+	 * estimated and lags behind. Entries created shortly after the window start may thus not be counted to the window,
+	 * but older entries are never counted to it. For the same reason, entries created in the same millisecond as the
+	 * window start are not counted to the window.
+	 */
+	@Override
+	public void afterEviction()
+	{
+		windowStartMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return A value combining, in order of significance: Whether the entry is in the admission window, the estimated frequency and the last access time
+	 */
+	@Override
+	public long getFreezeValue(K key, TCacheHolder<V> holder)
+	{
+		long window = holder.getCreationTime() > windowStartMillis ? WINDOW_FLAG : 0;
+		long frequency = sketch.frequency(key.hashCode());
+		long recency = holder.getLastAccessTime() & RECENCY_MASK;
+		return window | (frequency << FREQUENCY_SHIFT) | recency;
+	}
+
+	/**
+	 * @return The frequency sketch of this eviction instance
+	 */
+	public FrequencySketch sketch()
+	{
+		return sketch;
+	}
+}
@@ -0,0 +1,121 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.eviction;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Partial selection of eviction victims. Instead of sorting all eviction candidates, only the best candidates
+ * are moved to the front and sorted. This uses an introselect: A quickselect with a 3-way partition, which falls back to
+ * sorting if the partitioning does not converge fast enough. The expected cost is O(n + k log k) for n candidates and k selected
+ * victims, instead of O(n log n) for a full sort.
+ * 
+ * @author cesken
+ *
+ */
+public class VictimSelection
+{
+	/**
+	 * Rearranges the given array, so that the count smallest elements according to the comparator are at the front of the
+	 * array, in sorted order. The order of the remaining elements is unspecified. If count is equal or bigger than the array length,
+	 * the whole array gets sorted.
+	 * 
+	 * @param candidates The candidates
+	 * @param count The number of elements to select
+	 * @param comparator The comparator, for example {@link EvictionInterface#evictionComparator()}
+	 */
+	public static <T> void selectSmallest(T[] candidates, int count, Comparator<? super T> comparator)
+	{
+		int n = candidates.length;
+		if (count <= 0 || n == 0)
+			return;
+		if (count >= n)
+		{
+			Arrays.sort(candidates, comparator);
+			return;
+		}
+
+		final int k = count - 1; // Position that must hold the count-th smallest element
+		int left = 0;
+		int right = n - 1;
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(n));
+		while (right > left)
+		{
+			if (depthLimit-- == 0)
+			{
+				// Partitioning does not converge. Sorting the remaining range guarantees O(n log n) in the worst case.
+				Arrays.sort(candidates, left, right + 1, comparator);
+				break;
+			}
+
+			T pivot = medianOfThree(candidates, left, left + (right - left) / 2, right, comparator);
+
+			// 3-way partition: [left, lt-1] < pivot, [lt, gt] == pivot, [gt+1, right] > pivot
+			// Many identical values are common, e.g. use counts for LFU, so a 2-way partition could degrade.
+			int lt = left;
+			int gt = right;
+			int i = left;
+			while (i <= gt)
+			{
+				int cmp = comparator.compare(candidates[i], pivot);
+				if (cmp < 0)
+					swap(candidates, lt++, i++);
+				else if (cmp > 0)
+					swap(candidates, i, gt--);
+				else
+					i++;
+			}
+
+			if (k < lt)
+				right = lt - 1;
+			else if (k > gt)
+				left = gt + 1;
+			else
+				break; // k is within the "equal" range => done
+		}
+
+		Arrays.sort(candidates, 0, count, comparator);
+	}
+
+	private static <T> T medianOfThree(T[] a, int i, int j, int k, Comparator<? super T> comparator)
+	{
+		T x = a[i];
+		T y = a[j];
+		T z = a[k];
+		if (comparator.compare(x, y) < 0)
+		{
+			if (comparator.compare(y, z) < 0)
+				return y;
+			return comparator.compare(x, z) < 0 ? z : x;
+		}
+		else
+		{
+			if (comparator.compare(x, z) < 0)
+				return x;
+			return comparator.compare(y, z) < 0 ? z : y;
+		}
+	}
+
+	private static <T> void swap(T[] a, int i, int j)
+	{
+		T tmp = a[i];
+		a[i] = a[j];
+		a[j] = tmp;
+	}
+}
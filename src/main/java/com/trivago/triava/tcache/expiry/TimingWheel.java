@@ -0,0 +1,287 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel, that indexes keys by their expiration time. It has 4 levels with 64 slots each.
+ * A slot on level 0 spans one tick, a slot on level n spans 64^n ticks. Keys are scheduled into the slot that covers
+ * their expiration time, on the lowest level that can hold it. When time advances, the due slots are fired.
+ * <p>
+ * The wheel does not hold the Cache values. It only tells which keys may be due, and the caller must check the
+ * actual holder of each fired key: If it is expired, it gets removed. If it is still valid, it must be scheduled again.
+ * This moves keys from higher levels to lower levels, and it also handles expiration times that got extended since
+ * the key was scheduled.
+ * <p>
+ * A key is in at most one slot. Scheduling a key again moves it to the slot of the new expiration time. Each
+ * scheduled key carries a token, typically the holder it was scheduled for. {@link #unschedule(Object, Object)}
+ * removes the key only if it is still scheduled for that token, so removing an old holder does not unschedule
+ * a newer holder for the same key. Expiration times beyond the range of the wheel are scheduled in the farthest
+ * slot, and get scheduled again when that slot fires.
+ * <p>
+ * Thread-safety: {@link #schedule(Object, long, Object)} and {@link #unschedule(Object, Object)} can be called
+ * concurrently. {@link #advance(long, Consumer)} must only be
+ * called by a single thread at a time, typically the cleaner thread. 
+ * 
+ * @author cesken
+ *
+ * @param <K> Key class
+ */
+public class TimingWheel<K>
+{
+	private static final int LEVELS = 4;
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final long MAX_DELTA = (1L << (BITS * LEVELS)) - 1;
+
+	private final long tickMillis;
+	private final Set<K>[][] slots;
+	// The slot and token of each scheduled key
+	private final ConcurrentHashMap<K, Scheduled<K>> index = new ConcurrentHashMap<>();
+	// Scheduling holds the read lock, advancing holds the write lock while switching to the next tick 
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile long currentTick;
+
+	/**
+	 * Creates a timing wheel with the given resolution. Keys are fired up to one tick after their expiration time. 
+	 * 
+	 * @param tickMillis The duration of one tick in milliseconds. Typically the cleanup interval of the Cache.
+	 * @param nowMillis The current time in milliseconds
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tickMillis, long nowMillis)
+	{
+		if (tickMillis <= 0)
+			throw new IllegalArgumentException("Invalid tickMillis: " + tickMillis);
+		this.tickMillis = tickMillis;
+		this.currentTick = nowMillis / tickMillis;
+		this.slots = (Set<K>[][])new Set<?>[LEVELS][SLOTS];
+		for (int level = 0; level < LEVELS; level++)
+		{
+			for (int slot = 0; slot < SLOTS; slot++)
+			{
+				slots[level][slot] = ConcurrentHashMap.newKeySet();
+			}
+		}
+	}
+
+	/**
+	 * Schedules the key for the given expiration time. If the expiration time is already due, the key is fired
+	 * on the next call to {@link #advance(long, Consumer)} that reaches the next tick.
+	 * 
+	 * @param key The key
+	 * @param expirationMillis The expiration time in milliseconds since EPOCH
+	 */
+	public void schedule(K key, long expirationMillis)
+	{
+		schedule(key, expirationMillis, null);
+	}
+
+	/**
+	 * Schedules the key for the given expiration time, and remembers the given token. If the key is already
+	 * scheduled, it is moved to the slot of the given expiration time. If the expiration time is already due,
+	 * the key is fired on the next call to {@link #advance(long, Consumer)} that reaches the next tick.
+	 * 
+	 * @param key The key
+	 * @param expirationMillis The expiration time in milliseconds since EPOCH
+	 * @param token The token for {@link #unschedule(Object, Object)}, compared by identity. May be null.
+	 */
+	public void schedule(K key, long expirationMillis, Object token)
+	{
+		// Round up, so that keys are never fired before they expire
+		long expirationTick = expirationMillis / tickMillis + (expirationMillis % tickMillis == 0 ? 0 : 1);
+
+		lock.readLock().lock();
+		try
+		{
+			long tick = currentTick;
+			long delta = expirationTick - tick;
+			if (delta <= 0)
+			{
+				delta = 1;
+			}
+			else if (delta > MAX_DELTA)
+			{
+				delta = MAX_DELTA;
+			}
+			expirationTick = tick + delta;
+
+			int level = 0;
+			while (level < LEVELS - 1 && (delta >>> (BITS * (level + 1))) != 0)
+			{
+				level++;
+			}
+			int slot = (int)((expirationTick >>> (BITS * level)) & SLOT_MASK);
+			Set<K> keys = slots[level][slot];
+			index.compute(key, (k, scheduled) ->
+			{
+				if (scheduled != null && scheduled.keys != keys)
+					scheduled.keys.remove(k);
+				keys.add(k);
+				return new Scheduled<>(keys, token);
+			});
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the key from the wheel, if it is scheduled for the given token. This is cheap, and should be called
+	 * when the entry of the key is removed.
+	 * 
+	 * @param key The key
+	 * @param token The token that was used for scheduling, compared by identity
+	 * @return true, if the key was removed from the wheel
+	 */
+	public boolean unschedule(K key, Object token)
+	{
+		boolean[] removed = { false };
+		index.computeIfPresent(key, (k, scheduled) ->
+		{
+			if (scheduled.token != token)
+				return scheduled;
+			scheduled.keys.remove(k);
+			removed[0] = true;
+			return null;
+		});
+		return removed[0];
+	}
+
+	/**
+	 * Advances the wheel to the given time, and passes all keys of the fired slots to the given consumer. The
+	 * consumer is called without holding any locks, so it may schedule keys again.
+	 * 
+	 * @param nowMillis The current time in milliseconds since EPOCH
+	 * @param consumer The consumer for the fired keys
+	 * @return The number of fired keys
+	 */
+	public int advance(long nowMillis, Consumer<K> consumer)
+	{
+		List<Set<K>> fired = new ArrayList<>();
+
+		lock.writeLock().lock();
+		try
+		{
+			long previousTick = currentTick;
+			long newTick = nowMillis / tickMillis;
+			if (newTick <= previousTick)
+				return 0;
+
+			currentTick = newTick;
+			for (int level = 0; level < LEVELS; level++)
+			{
+				int shift = BITS * level;
+				long previousIndex = previousTick >>> shift;
+				long newIndex = newTick >>> shift;
+				if (newIndex == previousIndex)
+					break; // Higher levels are also unchanged
+
+				long steps = Math.min(newIndex - previousIndex, SLOTS);
+				for (long i = 1; i <= steps; i++)
+				{
+					int slot = (int)((previousIndex + i) & SLOT_MASK);
+					Set<K> keys = slots[level][slot];
+					if (!keys.isEmpty())
+					{
+						fired.add(keys);
+						slots[level][slot] = ConcurrentHashMap.newKeySet();
+					}
+				}
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+
+		int count = 0;
+		for (Set<K> keys : fired)
+		{
+			for (K key : keys)
+			{
+				// Skip keys that were unscheduled or moved to another slot in the meantime
+				Scheduled<K> scheduled = index.get(key);
+				if (scheduled != null && scheduled.keys == keys && index.remove(key, scheduled))
+				{
+					consumer.accept(key);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Removes all keys from the wheel
+	 */
+	public void clear()
+	{
+		lock.writeLock().lock();
+		try
+		{
+			for (int level = 0; level < LEVELS; level++)
+			{
+				for (int slot = 0; slot < SLOTS; slot++)
+				{
+					slots[level][slot].clear();
+				}
+			}
+			index.clear();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of scheduled keys. This method is meant for monitoring and is not exact under concurrent
+	 * modification.
+	 * 
+	 * @return The number of scheduled keys
+	 */
+	public int size()
+	{
+		return index.size();
+	}
+
+	/**
+	 * The slot and the token of a scheduled key
+	 */
+	private static final class Scheduled<K>
+	{
+		final Set<K> keys;
+		final Object token;
+
+		Scheduled(Set<K> keys, Object token)
+		{
+			this.keys = keys;
+			this.token = token;
+		}
+	}
+}
@@ -42,6 +42,16 @@ public class TCacheStatistics implements TCacheStatisticsInterface, Serializable
 	private long evictionRounds;
 	private long evictionHalts;
 	private long evictionRate;
+	private long secondTierHitCount;
+	private long secondTierMissCount;
+	private long secondTierElementCount;
+	private long demotionCount;
+	private long internHitCount;
+	private long internMissCount;
+	private long internElementCount;
+	private float internDedupRatio;
+	private long coalescedLoadCount;
+	private long refreshCount;
 
 
 	/**
@@ -155,6 +165,163 @@ public class TCacheStatistics implements TCacheStatisticsInterface, Serializable
 		this.dropCount = dropCount;
 	}
 
+	/**
+	 * Returns the number of hits in the second tier. Each of them is also counted in {@link #getHitCount()}, so the
+	 * hits in the heap tier are {@code getHitCount() - getSecondTierHitCount()}.
+	 * 
+	 * @return the number of hits in the second tier
+	 */
+	public long getSecondTierHitCount()
+	{
+		return secondTierHitCount;
+	}
+
+	@Override
+	public void setSecondTierHitCount(long count)
+	{
+		this.secondTierHitCount = count;
+	}
+
+	/**
+	 * Returns the number of misses in the second tier. These are the misses in the heap tier, that were also not
+	 * found in the second tier.
+	 * 
+	 * @return the number of misses in the second tier
+	 */
+	public long getSecondTierMissCount()
+	{
+		return secondTierMissCount;
+	}
+
+	@Override
+	public void setSecondTierMissCount(long count)
+	{
+		this.secondTierMissCount = count;
+	}
+
+	/**
+	 * @return the number of elements in the second tier
+	 */
+	public long getSecondTierElementCount()
+	{
+		return secondTierElementCount;
+	}
+
+	@Override
+	public void setSecondTierElementCount(long count)
+	{
+		this.secondTierElementCount = count;
+	}
+
+	/**
+	 * @return the number of elements demoted from the heap tier to the second tier
+	 */
+	public long getDemotionCount()
+	{
+		return demotionCount;
+	}
+
+	@Override
+	public void setDemotionCount(long count)
+	{
+		this.demotionCount = count;
+	}
+
+	/**
+	 * Returns the number of values that were replaced by an already interned equal value, in
+	 * {@link com.trivago.triava.tcache.CacheWriteMode#Intern} mode.
+	 * 
+	 * @return the number of deduplicated values
+	 */
+	public long getInternHitCount()
+	{
+		return internHitCount;
+	}
+
+	@Override
+	public void setInternHitCount(long count)
+	{
+		this.internHitCount = count;
+	}
+
+	/**
+	 * @return the number of values that were interned as a new instance
+	 */
+	public long getInternMissCount()
+	{
+		return internMissCount;
+	}
+
+	@Override
+	public void setInternMissCount(long count)
+	{
+		this.internMissCount = count;
+	}
+
+	/**
+	 * @return the number of values currently held by the interner
+	 */
+	public long getInternElementCount()
+	{
+		return internElementCount;
+	}
+
+	@Override
+	public void setInternElementCount(long count)
+	{
+		this.internElementCount = count;
+	}
+
+	/**
+	 * Returns the ratio of put values that were deduplicated, from 0 to 1. Each deduplicated value saves the heap
+	 * space of one value instance.
+	 * 
+	 * @return the deduplication ratio
+	 */
+	public float getInternDedupRatio()
+	{
+		return internDedupRatio;
+	}
+
+	@Override
+	public void setInternDedupRatio(float ratio)
+	{
+		this.internDedupRatio = ratio;
+	}
+
+	/**
+	 * Returns the number of read-through loads that were not run, because a load of the same key was already running.
+	 * Those requests waited for the running load and shared its value.
+	 * 
+	 * @return the number of coalesced loads
+	 */
+	public long getCoalescedLoadCount()
+	{
+		return coalescedLoadCount;
+	}
+
+	@Override
+	public void setCoalescedLoadCount(long count)
+	{
+		this.coalescedLoadCount = count;
+	}
+
+	/**
+	 * Returns the number of entries that were reloaded by refresh-ahead and replaced with the reloaded value.
+	 * 
+	 * @return the number of refreshed entries
+	 */
+	public long getRefreshCount()
+	{
+		return refreshCount;
+	}
+
+	@Override
+	public void setRefreshCount(long count)
+	{
+		this.refreshCount = count;
+	}
+
 
 	@Override
 	public String toString()
@@ -182,6 +349,38 @@ public class TCacheStatistics implements TCacheStatisticsInterface, Serializable
 		builder.append(evictionHalts);
 		builder.append(", elementCount=");
 		builder.append(elementCount);
+		if (demotionCount > 0 || secondTierElementCount > 0)
+		{
+			builder.append(", secondTierHitCount=");
+			builder.append(secondTierHitCount);
+			builder.append(", secondTierMissCount=");
+			builder.append(secondTierMissCount);
+			builder.append(", secondTierElementCount=");
+			builder.append(secondTierElementCount);
+			builder.append(", demotionCount=");
+			builder.append(demotionCount);
+		}
+		if (internHitCount > 0 || internMissCount > 0)
+		{
+			builder.append(", internHitCount=");
+			builder.append(internHitCount);
+			builder.append(", internMissCount=");
+			builder.append(internMissCount);
+			builder.append(", internElementCount=");
+			builder.append(internElementCount);
+			builder.append(", internDedupRatio=");
+			builder.append(internDedupRatio);
+		}
+		if (coalescedLoadCount > 0)
+		{
+			builder.append(", coalescedLoadCount=");
+			builder.append(coalescedLoadCount);
+		}
+		if (refreshCount > 0)
+		{
+			builder.append(", refreshCount=");
+			builder.append(refreshCount);
+		}
 		builder.append("]");
 		return builder.toString();
 	}
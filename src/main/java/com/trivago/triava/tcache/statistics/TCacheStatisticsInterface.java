@@ -41,4 +41,47 @@ public interface TCacheStatisticsInterface
 	void setHitRatio(float count);
 	void setElementCount(long count);
 	void setDropCount(long dropCount);
+
+	// The following setters were added after the initial release. They have empty default implementations, so that
+	// existing implementations of this interface keep working.
+
+	default void setSecondTierHitCount(long count)
+	{
+	}
+
+	default void setSecondTierMissCount(long count)
+	{
+	}
+
+	default void setSecondTierElementCount(long count)
+	{
+	}
+
+	default void setDemotionCount(long count)
+	{
+	}
+
+	default void setInternHitCount(long count)
+	{
+	}
+
+	default void setInternMissCount(long count)
+	{
+	}
+
+	default void setInternElementCount(long count)
+	{
+	}
+
+	default void setInternDedupRatio(float ratio)
+	{
+	}
+
+	default void setCoalescedLoadCount(long count)
+	{
+	}
+
+	default void setRefreshCount(long count)
+	{
+	}
 }
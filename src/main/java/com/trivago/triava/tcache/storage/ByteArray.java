@@ -18,12 +18,22 @@ package com.trivago.triava.tcache.storage;
 
 import java.util.Arrays;
 
+import com.trivago.triava.tcache.KeyHashing;
+
 /**
  * A data structure holding a byte array, and provides  a {@link #hashCode} based on the byte array content.
  * Important note: The arrays used for creating instances of this class must not be modified as its hash code is cached. See {@link ByteArray#ByteArray(byte[])} for details.
+ * <p>
+ * The hash code is either sampled from the bytes, or calculated from all bytes. See {@link KeyHashing} for details.
  */
 public class ByteArray
 {
+	private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME64_3 = 0x165667B19E3779F9L;
+	private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
 	final byte[] bytes;
 	final int hashCode;
 
@@ -35,9 +45,39 @@ public class ByteArray
 	 * @param bytes The byte array
 	 */
 	public ByteArray(byte[] bytes)
+	{
+		this(bytes, KeyHashing.SAMPLING);
+	}
+
+	/**
+	 * Creates a new ByteArray from the given bytes, using the given hashing. The same restrictions as for
+	 * {@link ByteArray#ByteArray(byte[])} apply. ByteArray instances are only equal if they use the same hashing.
+	 * 
+	 * @param bytes The byte array
+	 * @param hashing The hashing
+	 */
+	public ByteArray(byte[] bytes, KeyHashing hashing)
 	{
 		this.bytes = bytes;
-		
+		if (hashing == KeyHashing.XXHASH64)
+		{
+			long hash = xxHash64(bytes, 0);
+			this.hashCode = (int)(hash ^ (hash >>> 32));
+		}
+		else
+		{
+			this.hashCode = sampledHash(bytes);
+		}
+	}
+
+	/**
+	 * Calculates the hash code from at most 32 bytes.
+	 * 
+	 * @param bytes The byte array
+	 * @return The hash code
+	 */
+	static int sampledHash(byte[] bytes)
+	{
 		int step;
 		int count;
 		if (bytes.length < 32)
@@ -66,7 +106,109 @@ public class ByteArray
 		{
 			result = prime * result + bytes[pos];
 		}
-		this.hashCode = result;
+		return result;
+	}
+
+	/**
+	 * Calculates the xxHash64 of all given bytes. The bytes are read in little-endian order, 8 bytes at a time.
+	 * 
+	 * @param bytes The byte array
+	 * @param seed The seed
+	 * @return The 64 bit hash
+	 */
+	static long xxHash64(byte[] bytes, long seed)
+	{
+		final int length = bytes.length;
+		int pos = 0;
+		long hash;
+
+		if (length >= 32)
+		{
+			long v1 = seed + PRIME64_1 + PRIME64_2;
+			long v2 = seed + PRIME64_2;
+			long v3 = seed;
+			long v4 = seed - PRIME64_1;
+			final int limit = length - 32;
+			do
+			{
+				v1 = round(v1, getLong(bytes, pos));
+				v2 = round(v2, getLong(bytes, pos + 8));
+				v3 = round(v3, getLong(bytes, pos + 16));
+				v4 = round(v4, getLong(bytes, pos + 24));
+				pos += 32;
+			} while (pos <= limit);
+
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		}
+		else
+		{
+			hash = seed + PRIME64_5;
+		}
+
+		hash += length;
+
+		while (pos + 8 <= length)
+		{
+			hash ^= round(0, getLong(bytes, pos));
+			hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+			pos += 8;
+		}
+		if (pos + 4 <= length)
+		{
+			hash ^= (getInt(bytes, pos) & 0xFFFFFFFFL) * PRIME64_1;
+			hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+			pos += 4;
+		}
+		while (pos < length)
+		{
+			hash ^= (bytes[pos] & 0xFFL) * PRIME64_5;
+			hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+			pos++;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME64_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME64_3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private static long round(long acc, long input)
+	{
+		acc += input * PRIME64_2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME64_1;
+	}
+
+	private static long mergeRound(long acc, long val)
+	{
+		acc ^= round(0, val);
+		return acc * PRIME64_1 + PRIME64_4;
+	}
+
+	private static long getLong(byte[] bytes, int pos)
+	{
+		return (bytes[pos] & 0xFFL)
+				| (bytes[pos + 1] & 0xFFL) << 8
+				| (bytes[pos + 2] & 0xFFL) << 16
+				| (bytes[pos + 3] & 0xFFL) << 24
+				| (bytes[pos + 4] & 0xFFL) << 32
+				| (bytes[pos + 5] & 0xFFL) << 40
+				| (bytes[pos + 6] & 0xFFL) << 48
+				| (bytes[pos + 7] & 0xFFL) << 56;
+	}
+
+	private static int getInt(byte[] bytes, int pos)
+	{
+		return (bytes[pos] & 0xFF)
+				| (bytes[pos + 1] & 0xFF) << 8
+				| (bytes[pos + 2] & 0xFF) << 16
+				| (bytes[pos + 3] & 0xFF) << 24;
 	}
 	
 
@@ -17,23 +17,35 @@
 package com.trivago.triava.tcache.storage;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 
 import javax.cache.CacheException;
 
 import com.trivago.triava.tcache.CacheWriteMode;
+import com.trivago.triava.tcache.KeyHashing;
+import com.trivago.triava.tcache.core.Serializer;
 import com.trivago.triava.tcache.util.Serializing;
 
 /**
  * A concurrent Map that serializes and de-serializes keys. You should only instanciate this if you need serialized keys.
  * <p>
- * Using this class can drastically reduce performance as keys are serialized or deserialized on each operation. Calling
- * bulk methods is also not very efficient, as all keys need to be converted. Worst method to call is entrySet()
+ * Using this class can drastically reduce performance as keys are serialized or deserialized on each operation. This can
+ * be avoided for keys of known immutable types, see {@link #ConcurrentKeyDeserMap(ConcurrentMap, CacheWriteMode, Serializer, boolean)}.
+ * Such keys are stored by reference, all other keys are stored as {@link ByteArray}.
+ * <p>
+ * The {@link #keySet()} and {@link #entrySet()} are views on the backing Map. Keys are deserialized lazily while iterating.
  *   
  * @author cesken
  *
@@ -42,13 +54,72 @@ import com.trivago.triava.tcache.util.Serializing;
  */
 public class ConcurrentKeyDeserMap<K,V> implements ConcurrentMap<K, V>
 {
-	final ConcurrentMap<ByteArray,V> backingMap;
+	/**
+	 * Classes that are final and immutable. Instances of them behave identically whether they are kept by reference
+	 * or serialized and deserialized again.
+	 */
+	private static final Set<Class<?>> IMMUTABLE_KEY_CLASSES = new HashSet<>(Arrays.<Class<?>>asList(String.class,
+			Integer.class, Long.class, Short.class, Byte.class, Character.class, Boolean.class, Float.class, Double.class,
+			BigInteger.class, BigDecimal.class, UUID.class));
+
+	final ConcurrentMap<Object,V> backingMap;
 	final CacheWriteMode writeMode;
+	final Serializer serializer;
+	final boolean keysByReference;
+	final KeyHashing keyHashing;
 	
 	public ConcurrentKeyDeserMap(ConcurrentMap<ByteArray,V> backingMap, CacheWriteMode writeMode)
+	{
+		this(backingMap, writeMode, null);
+	}
+
+	/**
+	 * Creates a Map, that serializes the keys with the given serializer.
+	 * 
+	 * @param backingMap The Map that holds the serialized keys
+	 * @param writeMode The CacheWriteMode
+	 * @param serializer The serializer, or null for the built-in serialization
+	 */
+	@SuppressWarnings("unchecked") // All keys are serialized, so the backing Map only sees ByteArray keys 
+	public ConcurrentKeyDeserMap(ConcurrentMap<ByteArray,V> backingMap, CacheWriteMode writeMode, Serializer serializer)
+	{
+		this((ConcurrentMap<Object,V>)(ConcurrentMap<?,V>)backingMap, writeMode, serializer, false);
+	}
+
+	/**
+	 * Creates a Map, that serializes the keys with the given serializer. If keysByReference is true, keys of known
+	 * immutable types (String, the boxed primitives, BigInteger, BigDecimal, UUID and enums) are kept by reference
+	 * and do not need to be serialized.  
+	 * 
+	 * @param backingMap The Map that holds the serialized keys, and the immutable keys if keysByReference is true
+	 * @param writeMode The CacheWriteMode
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @param keysByReference true, if immutable keys should be kept by reference
+	 */
+	public ConcurrentKeyDeserMap(ConcurrentMap<Object,V> backingMap, CacheWriteMode writeMode, Serializer serializer, boolean keysByReference)
+	{
+		this(backingMap, writeMode, serializer, keysByReference, KeyHashing.SAMPLING);
+	}
+
+	/**
+	 * Creates a Map, that serializes the keys with the given serializer, and hashes the serialized keys with the
+	 * given hashing. See {@link #ConcurrentKeyDeserMap(ConcurrentMap, CacheWriteMode, Serializer, boolean)} for the
+	 * other parameters.
+	 * 
+	 * @param backingMap The Map that holds the serialized keys, and the immutable keys if keysByReference is true
+	 * @param writeMode The CacheWriteMode
+	 * @param serializer The serializer, or null for the built-in serialization
+	 * @param keysByReference true, if immutable keys should be kept by reference
+	 * @param keyHashing The hashing for the serialized keys
+	 */
+	public ConcurrentKeyDeserMap(ConcurrentMap<Object,V> backingMap, CacheWriteMode writeMode, Serializer serializer, boolean keysByReference,
+			KeyHashing keyHashing)
 	{
 		this.backingMap = backingMap;
 		this.writeMode = writeMode;
+		this.serializer = serializer != null ? serializer : Serializing.BUILTIN;
+		this.keysByReference = keysByReference;
+		this.keyHashing = keyHashing;
 	}
 	
 	
@@ -97,7 +168,7 @@ public class ConcurrentKeyDeserMap<K,V> implements ConcurrentMap<K, V>
 	@Override
 	public void putAll(Map<? extends K, ? extends V> m)
 	{
-		Map<ByteArray, V> map = new HashMap<>(m.size()); 
+		Map<Object, V> map = new HashMap<>(m.size()); 
 		for (java.util.Map.Entry<? extends K, ? extends V> entry : m.entrySet())
 		{
 			map.put(serialize(entry.getKey()), entry.getValue());
@@ -111,15 +182,13 @@ public class ConcurrentKeyDeserMap<K,V> implements ConcurrentMap<K, V>
 		backingMap.clear();
 	}
 
+	/**
+	 * Returns a view of the keys. Keys are deserialized lazily while iterating. 
+	 */
 	@Override
 	public Set<K> keySet()
 	{
-		Set<K> keySet = new HashSet<>(backingMap.size());
-		for (ByteArray key : backingMap.keySet())
-		{
-			keySet.add(deserialize(key));
-		}
-		return keySet;
+		return new KeySetView();
 	}
 
 	@Override
@@ -129,18 +198,12 @@ public class ConcurrentKeyDeserMap<K,V> implements ConcurrentMap<K, V>
 	}
 
 	/**
-	 * Note that this method is quite inefficient. It creates a whole new Map and then returns the entrySet from it.
+	 * Returns a view of the entries. Keys are deserialized lazily, on the first call to {@link java.util.Map.Entry#getKey()}.
 	 */
 	@Override
 	public Set<java.util.Map.Entry<K, V>> entrySet()
 	{
-		Map<K, V> map = new HashMap<>(backingMap.size()); 
-		for (java.util.Map.Entry<ByteArray, V> entry : backingMap.entrySet())
-		{
-			map.put(deserialize(entry.getKey()), entry.getValue());
-		}
-		
-		return map.entrySet();
+		return new EntrySetView();
 	}
 
 	@Override
@@ -168,31 +231,44 @@ public class ConcurrentKeyDeserMap<K,V> implements ConcurrentMap<K, V>
 	}
 
 
-	private K deserialize(ByteArray key)
+	private K deserialize(Object key)
 	{
+		if (!(key instanceof ByteArray))
+		{
+			@SuppressWarnings("unchecked")
+			K referencedKey = (K)key;
+			return referencedKey;
+		}
+
+		ByteArray serializedKey = (ByteArray)key;
 		try
 		{
 			@SuppressWarnings("unchecked")
-			K fromBytearray = (K)Serializing.fromBytearray((byte[])(key.bytes));
+			K fromBytearray = (K)serializer.deserialize((byte[])(serializedKey.bytes));
 			return fromBytearray;
 		}
 		catch (ClassNotFoundException | IOException e)
 		{
 			// Nearly impossible, as we serialized the data ourselves
-			throw new CacheException("Cannot deserialize key with length=" + key.bytes.length, e);
+			throw new CacheException("Cannot deserialize key with length=" + serializedKey.bytes.length, e);
 		}
 	}
 	
-	private ByteArray serialize(Object key)
+	private Object serialize(Object key)
 	{
 		if (key == null)
 		{
 			throw new NullPointerException("key must not be null");
 		}
 
+		if (keysByReference && isImmutable(key))
+		{
+			return key;
+		}
+
 		try
 		{
-			return new ByteArray(Serializing.toBytearray(key));
+			return new ByteArray(serializer.serialize(key), keyHashing);
 		}
 		catch (IOException e)
 		{
@@ -200,8 +276,205 @@ public class ConcurrentKeyDeserMap<K,V> implements ConcurrentMap<K, V>
 		}
 	}
 
+	/**
+	 * Returns whether the given key is of a known immutable type. The check is on the exact class, as subclasses
+	 * of non-final classes like BigInteger could be mutable.
+	 * 
+	 * @param key The key
+	 * @return true, if the key is immutable
+	 */
+	static boolean isImmutable(Object key)
+	{
+		return IMMUTABLE_KEY_CLASSES.contains(key.getClass()) || key instanceof Enum;
+	}
+
+	/**
+	 * A view on the keys of the backing Map. 
+	 */
+	private final class KeySetView extends AbstractSet<K>
+	{
+		@Override
+		public Iterator<K> iterator()
+		{
+			final Iterator<Object> it = backingMap.keySet().iterator();
+			return new Iterator<K>()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public K next()
+				{
+					return deserialize(it.next());
+				}
+
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return backingMap.size();
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return backingMap.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object key)
+		{
+			return key != null && containsKey(key);
+		}
+
+		@Override
+		public boolean remove(Object key)
+		{
+			return key != null && ConcurrentKeyDeserMap.this.remove(key) != null;
+		}
+
+		@Override
+		public void clear()
+		{
+			backingMap.clear();
+		}
+	}
+
+	/**
+	 * A view on the entries of the backing Map. 
+	 */
+	private final class EntrySetView extends AbstractSet<java.util.Map.Entry<K, V>>
+	{
+		@Override
+		public Iterator<java.util.Map.Entry<K, V>> iterator()
+		{
+			final Iterator<java.util.Map.Entry<Object, V>> it = backingMap.entrySet().iterator();
+			return new Iterator<java.util.Map.Entry<K, V>>()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
 
+				@Override
+				public java.util.Map.Entry<K, V> next()
+				{
+					return new LazyKeyEntry(it.next());
+				}
 
+				@Override
+				public void remove()
+				{
+					it.remove();
+				}
+			};
+		}
 
+		@Override
+		public int size()
+		{
+			return backingMap.size();
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return backingMap.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof java.util.Map.Entry))
+				return false;
+			java.util.Map.Entry<?, ?> entry = (java.util.Map.Entry<?, ?>) o;
+			if (entry.getKey() == null)
+				return false;
+			V value = get(entry.getKey());
+			return value != null && value.equals(entry.getValue());
+		}
 
+		@Override
+		public boolean remove(Object o)
+		{
+			if (!(o instanceof java.util.Map.Entry))
+				return false;
+			java.util.Map.Entry<?, ?> entry = (java.util.Map.Entry<?, ?>) o;
+			return entry.getKey() != null && ConcurrentKeyDeserMap.this.remove(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public void clear()
+		{
+			backingMap.clear();
+		}
+	}
+
+	/**
+	 * An entry of the backing Map, whose key is deserialized on first access. 
+	 */
+	private final class LazyKeyEntry implements java.util.Map.Entry<K, V>
+	{
+		final java.util.Map.Entry<Object, V> backingEntry;
+		K key = null;
+
+		LazyKeyEntry(java.util.Map.Entry<Object, V> backingEntry)
+		{
+			this.backingEntry = backingEntry;
+		}
+
+		@Override
+		public K getKey()
+		{
+			if (key == null)
+			{
+				key = deserialize(backingEntry.getKey());
+			}
+			return key;
+		}
+
+		@Override
+		public V getValue()
+		{
+			return backingEntry.getValue();
+		}
+
+		@Override
+		public V setValue(V value)
+		{
+			return backingEntry.setValue(value);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof java.util.Map.Entry))
+				return false;
+			java.util.Map.Entry<?, ?> other = (java.util.Map.Entry<?, ?>) o;
+			return Objects.equals(getKey(), other.getKey()) && Objects.equals(getValue(), other.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString()
+		{
+			return getKey() + "=" + getValue();
+		}
+	}
 }
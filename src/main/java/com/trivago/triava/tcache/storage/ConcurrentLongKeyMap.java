@@ -0,0 +1,715 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A concurrent Map with primitive long keys. The entries are held in open-addressing tables with linear probing,
+ * that store the keys in a long[] and the values in an Object[]. Compared to a ConcurrentHashMap&lt;Long, V&gt;, there
+ * is no map node and no boxed key per entry.
+ * <p>
+ * The Map is split in segments, each guarded by a StampedLock. Reads are optimistic and do not block, unless a
+ * write to the same segment happens concurrently. Writes lock the segment. Removal uses backward shift deletion, so
+ * there are no tombstones. 
+ * <p>
+ * The methods of the {@link ConcurrentMap} interface accept Long keys. Use the methods with a long parameter,
+ * like {@link #get(long)}, to avoid boxing. Like in ConcurrentHashMap, null keys and values are not allowed.
+ * Iterators are weakly consistent. They iterate a snapshot of each segment, taken when the iterator reaches the segment.
+ * 
+ * @author cesken
+ *
+ * @param <V> The value class
+ */
+public class ConcurrentLongKeyMap<V> extends AbstractMap<Long, V> implements ConcurrentMap<Long, V>
+{
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MIN_SEGMENT_CAPACITY = 8;
+
+	private final Segment<V>[] segments;
+	private final int segmentShift;
+	private final int initialSegmentCapacity;
+	private EntrySetView entrySet = null;
+
+	/**
+	 * Creates a Map that can hold expectedSize elements without resizing.
+	 * 
+	 * @param expectedSize The expected number of elements
+	 * @param concurrencyLevel The estimated number of concurrently writing threads
+	 */
+	public ConcurrentLongKeyMap(int expectedSize, int concurrencyLevel)
+	{
+		if (expectedSize < 0)
+			throw new IllegalArgumentException("Invalid expectedSize: " + expectedSize);
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("Invalid concurrencyLevel: " + concurrencyLevel);
+
+		int segmentCount = Math.min(1 << 16, powerOfTwo(concurrencyLevel));
+		this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+		this.initialSegmentCapacity = Math.max(MIN_SEGMENT_CAPACITY, powerOfTwo((int)(expectedSize / segmentCount / LOAD_FACTOR) + 1));
+		@SuppressWarnings("unchecked")
+		Segment<V>[] newSegments = (Segment<V>[]) new Segment<?>[segmentCount];
+		this.segments = newSegments;
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment<V>(initialSegmentCapacity);
+		}
+	}
+
+	private static int powerOfTwo(int value)
+	{
+		int highestOneBit = Integer.highestOneBit(Math.max(1, value));
+		return highestOneBit == value ? value : highestOneBit << 1;
+	}
+
+	/**
+	 * Spreads the key bits, so that consecutive IDs are distributed over segments and slots.
+	 * This is the finalizer of MurmurHash3.
+	 */
+	static long spread(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private Segment<V> segmentFor(long hash)
+	{
+		// The high bits select the segment, the low bits select the slot
+		return segments.length == 1 ? segments[0] : segments[(int)(hash >>> segmentShift)];
+	}
+
+	// --- Primitive API ------------------------------------------------------------------------------------
+
+	/**
+	 * Returns the value for the given key.
+	 * 
+	 * @param key The key
+	 * @return The value, or null if there is no value for the key
+	 */
+	public V get(long key)
+	{
+		long hash = spread(key);
+		return segmentFor(hash).get(key, hash);
+	}
+
+	/**
+	 * Returns whether there is a value for the given key.
+	 * 
+	 * @param key The key
+	 * @return true, if there is a value for the key
+	 */
+	public boolean containsKey(long key)
+	{
+		return get(key) != null;
+	}
+
+	/**
+	 * Puts the given value for the given key.
+	 * 
+	 * @param key The key
+	 * @param value The value
+	 * @return The previous value, or null if there was none
+	 */
+	public V put(long key, V value)
+	{
+		verifyValueNotNull(value);
+		long hash = spread(key);
+		return segmentFor(hash).put(key, hash, value, null, false);
+	}
+
+	/**
+	 * Puts the given value for the given key, if there is no value for it yet.
+	 * 
+	 * @param key The key
+	 * @param value The value
+	 * @return The current value, or null if the given value was put
+	 */
+	public V putIfAbsent(long key, V value)
+	{
+		verifyValueNotNull(value);
+		long hash = spread(key);
+		return segmentFor(hash).put(key, hash, value, null, true);
+	}
+
+	/**
+	 * Removes the value for the given key.
+	 * 
+	 * @param key The key
+	 * @return The removed value, or null if there was none
+	 */
+	public V remove(long key)
+	{
+		long hash = spread(key);
+		return segmentFor(hash).remove(key, hash, null);
+	}
+
+	// --- Map API ------------------------------------------------------------------------------------------
+
+	@Override
+	public int size()
+	{
+		long size = 0;
+		for (Segment<V> segment : segments)
+		{
+			size += segment.size;
+		}
+		return (int)Math.min(size, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for (Segment<V> segment : segments)
+		{
+			if (segment.size != 0)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public V get(Object key)
+	{
+		return (key instanceof Long) ? get(((Long)key).longValue()) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return get(key) != null;
+	}
+
+	@Override
+	public V put(Long key, V value)
+	{
+		return put(key.longValue(), value);
+	}
+
+	@Override
+	public V putIfAbsent(Long key, V value)
+	{
+		return putIfAbsent(key.longValue(), value);
+	}
+
+	@Override
+	public V remove(Object key)
+	{
+		return (key instanceof Long) ? remove(((Long)key).longValue()) : null;
+	}
+
+	@Override
+	public boolean remove(Object key, Object value)
+	{
+		if (!(key instanceof Long) || value == null)
+			return false;
+		long longKey = (Long)key;
+		long hash = spread(longKey);
+		return segmentFor(hash).remove(longKey, hash, value) != null;
+	}
+
+	@Override
+	public boolean replace(Long key, V oldValue, V newValue)
+	{
+		verifyValueNotNull(oldValue);
+		verifyValueNotNull(newValue);
+		long hash = spread(key);
+		return segmentFor(hash).put(key, hash, newValue, oldValue, false) != null;
+	}
+
+	@Override
+	public V replace(Long key, V value)
+	{
+		verifyValueNotNull(value);
+		long hash = spread(key);
+		return segmentFor(hash).replace(key, hash, value);
+	}
+
+	@Override
+	public void clear()
+	{
+		for (Segment<V> segment : segments)
+		{
+			segment.clear(initialSegmentCapacity);
+		}
+	}
+
+	@Override
+	public Set<Entry<Long, V>> entrySet()
+	{
+		EntrySetView view = entrySet;
+		if (view == null)
+		{
+			view = new EntrySetView();
+			entrySet = view;
+		}
+		return view;
+	}
+
+	private static void verifyValueNotNull(Object value)
+	{
+		if (value == null)
+			throw new NullPointerException("value must not be null");
+	}
+
+	/**
+	 * The keys and values of a Segment. Tables are never modified after being replaced by a bigger one.
+	 */
+	private static final class Table
+	{
+		final long[] keys;
+		final Object[] values; // null means: free slot
+		final int mask;
+
+		Table(int capacity)
+		{
+			keys = new long[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+		}
+	}
+
+	/**
+	 * A part of the Map. The table and size are only modified while holding the write lock.
+	 */
+	@SuppressWarnings("serial") // Segments are never serialized
+	private static final class Segment<V> extends StampedLock
+	{
+		volatile Table table;
+		volatile int size = 0;
+
+		Segment(int capacity)
+		{
+			table = new Table(capacity);
+		}
+
+		V get(long key, long hash)
+		{
+			long stamp = tryOptimisticRead();
+			if (stamp != 0)
+			{
+				Object value = find(table, key, hash);
+				if (validate(stamp))
+					return castValue(value);
+			}
+
+			// Concurrent write. Read under lock.
+			stamp = readLock();
+			try
+			{
+				return castValue(find(table, key, hash));
+			}
+			finally
+			{
+				unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Finds the value. The probe length is limited, as an optimistic reader can see an inconsistent table.
+		 */
+		private Object find(Table t, long key, long hash)
+		{
+			long[] keys = t.keys;
+			Object[] values = t.values;
+			int mask = t.mask;
+			int index = (int)hash & mask;
+			for (int probes = 0; probes <= mask; probes++)
+			{
+				Object value = values[index];
+				if (value == null)
+					return null;
+				if (keys[index] == key)
+					return value;
+				index = (index + 1) & mask;
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the slot of the key, or -1 if not present. Must be called with the lock held.
+		 */
+		private int indexOf(Table t, long key, long hash)
+		{
+			int mask = t.mask;
+			int index = (int)hash & mask;
+			while (t.values[index] != null)
+			{
+				if (t.keys[index] == key)
+					return index;
+				index = (index + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Puts the value. If expectedValue is not null, only replaces a value that equals it, and returns non-null on success.
+		 */
+		V put(long key, long hash, V value, Object expectedValue, boolean onlyIfAbsent)
+		{
+			long stamp = writeLock();
+			try
+			{
+				Table t = table;
+				int mask = t.mask;
+				int index = (int)hash & mask;
+				while (t.values[index] != null)
+				{
+					if (t.keys[index] == key)
+					{
+						V oldValue = castValue(t.values[index]);
+						if (onlyIfAbsent)
+							return oldValue;
+						if (expectedValue != null && !expectedValue.equals(oldValue))
+							return null;
+						t.values[index] = value;
+						return oldValue;
+					}
+					index = (index + 1) & mask;
+				}
+
+				if (expectedValue != null)
+					return null; // Nothing to replace
+
+				t.keys[index] = key;
+				t.values[index] = value;
+				int newSize = size + 1;
+				size = newSize;
+				if (newSize > (int)(t.keys.length * LOAD_FACTOR))
+					resize(t);
+				return null;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		V replace(long key, long hash, V value)
+		{
+			long stamp = writeLock();
+			try
+			{
+				Table t = table;
+				int index = indexOf(t, key, hash);
+				if (index < 0)
+					return null;
+				V oldValue = castValue(t.values[index]);
+				t.values[index] = value;
+				return oldValue;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Removes the value. If expectedValue is not null, only removes a value that equals it.
+		 */
+		V remove(long key, long hash, Object expectedValue)
+		{
+			long stamp = writeLock();
+			try
+			{
+				Table t = table;
+				int index = indexOf(t, key, hash);
+				if (index < 0)
+					return null;
+				V oldValue = castValue(t.values[index]);
+				if (expectedValue != null && !expectedValue.equals(oldValue))
+					return null;
+
+				deleteSlot(t, index);
+				size = size - 1;
+				return oldValue;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Frees the slot, and shifts following entries of the probe sequence back, so that lookups do not stop early. 
+		 */
+		private void deleteSlot(Table t, int freeIndex)
+		{
+			long[] keys = t.keys;
+			Object[] values = t.values;
+			int mask = t.mask;
+			values[freeIndex] = null;
+			int index = freeIndex;
+			while (true)
+			{
+				index = (index + 1) & mask;
+				if (values[index] == null)
+					return;
+				int home = (int)spread(keys[index]) & mask;
+				// Keep the entry, if its home slot lies cyclically in (freeIndex, index]
+				boolean keep = freeIndex <= index ? (freeIndex < home && home <= index) : (freeIndex < home || home <= index);
+				if (!keep)
+				{
+					keys[freeIndex] = keys[index];
+					values[freeIndex] = values[index];
+					values[index] = null;
+					freeIndex = index;
+				}
+			}
+		}
+
+		private void resize(Table oldTable)
+		{
+			Table newTable = new Table(oldTable.keys.length << 1);
+			int mask = newTable.mask;
+			for (int i = 0; i < oldTable.keys.length; i++)
+			{
+				Object value = oldTable.values[i];
+				if (value != null)
+				{
+					long key = oldTable.keys[i];
+					int index = (int)spread(key) & mask;
+					while (newTable.values[index] != null)
+					{
+						index = (index + 1) & mask;
+					}
+					newTable.keys[index] = key;
+					newTable.values[index] = value;
+				}
+			}
+			table = newTable;
+		}
+
+		void clear(int capacity)
+		{
+			long stamp = writeLock();
+			try
+			{
+				table = new Table(capacity);
+				size = 0;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * @return A copy of the entries 
+		 */
+		Snapshot snapshot()
+		{
+			long stamp = readLock();
+			try
+			{
+				Table t = table;
+				int count = size;
+				long[] keys = new long[count];
+				Object[] values = new Object[count];
+				int pos = 0;
+				for (int i = 0; i < t.keys.length && pos < count; i++)
+				{
+					if (t.values[i] != null)
+					{
+						keys[pos] = t.keys[i];
+						values[pos] = t.values[i];
+						pos++;
+					}
+				}
+				return new Snapshot(keys, values, pos);
+			}
+			finally
+			{
+				unlockRead(stamp);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <V> V castValue(Object value)
+	{
+		return (V)value;
+	}
+
+	private static final class Snapshot
+	{
+		final long[] keys;
+		final Object[] values;
+		final int count;
+
+		Snapshot(long[] keys, Object[] values, int count)
+		{
+			this.keys = keys;
+			this.values = values;
+			this.count = count;
+		}
+	}
+
+	private final class EntrySetView extends AbstractSet<Entry<Long, V>>
+	{
+		@Override
+		public Iterator<Entry<Long, V>> iterator()
+		{
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return ConcurrentLongKeyMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return ConcurrentLongKeyMap.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> entry = (Entry<?, ?>) o;
+			V value = get(entry.getKey());
+			return value != null && value.equals(entry.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o)
+		{
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> entry = (Entry<?, ?>) o;
+			return ConcurrentLongKeyMap.this.remove(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public void clear()
+		{
+			ConcurrentLongKeyMap.this.clear();
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Entry<Long, V>>
+	{
+		int segmentIndex = 0;
+		Snapshot snapshot = null;
+		int pos = 0;
+		MapEntry lastReturned = null;
+
+		@Override
+		public boolean hasNext()
+		{
+			while (snapshot == null || pos >= snapshot.count)
+			{
+				if (segmentIndex >= segments.length)
+					return false;
+				snapshot = segments[segmentIndex++].snapshot();
+				pos = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public Entry<Long, V> next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			lastReturned = new MapEntry(snapshot.keys[pos], castValue(snapshot.values[pos]));
+			pos++;
+			return lastReturned;
+		}
+
+		@Override
+		public void remove()
+		{
+			if (lastReturned == null)
+				throw new IllegalStateException();
+			ConcurrentLongKeyMap.this.remove(lastReturned.key, lastReturned.value);
+			lastReturned = null;
+		}
+	}
+
+	/**
+	 * An entry of the Map. {@link #setValue(Object)} writes through to the Map.
+	 */
+	private final class MapEntry implements Entry<Long, V>
+	{
+		final long key;
+		V value;
+
+		MapEntry(long key, V value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public Long getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public V getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public V setValue(V value)
+		{
+			verifyValueNotNull(value);
+			V oldValue = this.value;
+			this.value = value;
+			put(key, value);
+			return oldValue;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> other = (Entry<?, ?>) o;
+			return Long.valueOf(key).equals(other.getKey()) && value.equals(other.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode(key) ^ value.hashCode();
+		}
+
+		@Override
+		public String toString()
+		{
+			return key + "=" + value;
+		}
+	}
+}
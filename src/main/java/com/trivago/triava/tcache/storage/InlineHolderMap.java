@@ -0,0 +1,598 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+
+/**
+ * A concurrent Map whose values are their own entry nodes. Each value must implement {@link InlineNode}, and
+ * the Map links the values directly into its bins. Compared to a ConcurrentHashMap, there is no map node per entry,
+ * and a lookup needs one pointer chase less.
+ * <p>
+ * The Map is split in segments, each guarded by a StampedLock, like {@link ConcurrentLongKeyMap}. Reads are optimistic
+ * and do not block, unless a write to the same segment happens concurrently. Writes lock the segment. As the nodes
+ * cannot be copied, a resize relinks them. Optimistic readers that overlap a write thus retry under the read lock.
+ * <p>
+ * Each value must be put at most once. Null keys and values are not allowed. Iterators are weakly consistent.
+ * They iterate a snapshot of each segment, taken when the iterator reaches the segment.
+ * 
+ * @author cesken
+ *
+ * @param <K> The key class
+ * @param <V> The value class of the holders
+ */
+public class InlineHolderMap<K, V> extends AbstractMap<K, AccessTimeObjectHolder<V>> implements ConcurrentMap<K, AccessTimeObjectHolder<V>>
+{
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MIN_SEGMENT_CAPACITY = 8;
+
+	private final Segment[] segments;
+	private final int segmentShift;
+	private final int initialSegmentCapacity;
+	private EntrySetView entrySet = null;
+
+	/**
+	 * Creates a Map that can hold expectedSize elements without resizing.
+	 * 
+	 * @param expectedSize The expected number of elements
+	 * @param concurrencyLevel The estimated number of concurrently writing threads
+	 */
+	public InlineHolderMap(int expectedSize, int concurrencyLevel)
+	{
+		if (expectedSize < 0)
+			throw new IllegalArgumentException("Invalid expectedSize: " + expectedSize);
+		if (concurrencyLevel <= 0)
+			throw new IllegalArgumentException("Invalid concurrencyLevel: " + concurrencyLevel);
+
+		int segmentCount = Math.min(1 << 16, powerOfTwo(concurrencyLevel));
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		this.initialSegmentCapacity = Math.max(MIN_SEGMENT_CAPACITY, powerOfTwo((int)(expectedSize / segmentCount / LOAD_FACTOR) + 1));
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++)
+		{
+			segments[i] = new Segment(initialSegmentCapacity);
+		}
+	}
+
+	private static int powerOfTwo(int value)
+	{
+		int highestOneBit = Integer.highestOneBit(Math.max(1, value));
+		return highestOneBit == value ? value : highestOneBit << 1;
+	}
+
+	/**
+	 * Spreads the bits of the hash code, so that the high bits can select the segment and the low bits the bin.
+	 */
+	static int spread(int hashCode)
+	{
+		int h = hashCode * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private Segment segmentFor(int hash)
+	{
+		return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+	}
+
+	private static InlineNode toNode(Object value)
+	{
+		if (value == null)
+			throw new NullPointerException("value must not be null");
+		if (!(value instanceof InlineNode))
+			throw new IllegalArgumentException("value must implement InlineNode: " + value.getClass().getName());
+		return (InlineNode)value;
+	}
+
+	@Override
+	public int size()
+	{
+		long size = 0;
+		for (Segment segment : segments)
+		{
+			size += segment.count;
+		}
+		return (int)Math.min(size, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		for (Segment segment : segments)
+		{
+			if (segment.count != 0)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> get(Object key)
+	{
+		int hash = spread(key.hashCode());
+		return castHolder(segmentFor(hash).get(key, hash));
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return get(key) != null;
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> put(K key, AccessTimeObjectHolder<V> value)
+	{
+		int hash = spread(key.hashCode());
+		return castHolder(segmentFor(hash).put(key, hash, toNode(value), null, false));
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> putIfAbsent(K key, AccessTimeObjectHolder<V> value)
+	{
+		int hash = spread(key.hashCode());
+		return castHolder(segmentFor(hash).put(key, hash, toNode(value), null, true));
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> remove(Object key)
+	{
+		int hash = spread(key.hashCode());
+		return castHolder(segmentFor(hash).remove(key, hash, null));
+	}
+
+	@Override
+	public boolean remove(Object key, Object value)
+	{
+		if (value == null)
+			return false;
+		int hash = spread(key.hashCode());
+		return segmentFor(hash).remove(key, hash, value) != null;
+	}
+
+	@Override
+	public boolean replace(K key, AccessTimeObjectHolder<V> oldValue, AccessTimeObjectHolder<V> newValue)
+	{
+		if (oldValue == null)
+			throw new NullPointerException("oldValue must not be null");
+		int hash = spread(key.hashCode());
+		return segmentFor(hash).put(key, hash, toNode(newValue), oldValue, false) != null;
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> replace(K key, AccessTimeObjectHolder<V> value)
+	{
+		int hash = spread(key.hashCode());
+		return castHolder(segmentFor(hash).replace(key, hash, toNode(value)));
+	}
+
+	@Override
+	public void clear()
+	{
+		for (Segment segment : segments)
+		{
+			segment.clear(initialSegmentCapacity);
+		}
+	}
+
+	@Override
+	public Set<Entry<K, AccessTimeObjectHolder<V>>> entrySet()
+	{
+		EntrySetView view = entrySet;
+		if (view == null)
+		{
+			view = new EntrySetView();
+			entrySet = view;
+		}
+		return view;
+	}
+
+	@SuppressWarnings("unchecked")
+	private AccessTimeObjectHolder<V> castHolder(InlineNode node)
+	{
+		return (AccessTimeObjectHolder<V>)node;
+	}
+
+	private static boolean keyMatches(InlineNode node, Object key, int hash)
+	{
+		if (node.nodeHash() != hash)
+			return false;
+		Object nodeKey = node.nodeKey();
+		return nodeKey == key || key.equals(nodeKey);
+	}
+
+	/**
+	 * A part of the Map. The table, the nodes in it and the count are only modified while holding the write lock.
+	 */
+	@SuppressWarnings("serial") // Segments are never serialized
+	private static final class Segment extends StampedLock
+	{
+		volatile InlineNode[] table;
+		volatile int count = 0;
+
+		Segment(int capacity)
+		{
+			table = new InlineNode[capacity];
+		}
+
+		InlineNode get(Object key, int hash)
+		{
+			long stamp = tryOptimisticRead();
+			if (stamp != 0)
+			{
+				try
+				{
+					InlineNode node = find(table, key, hash, true);
+					if (validate(stamp))
+						return node;
+				}
+				catch (RuntimeException exc)
+				{
+					// A key of an inconsistent read can fail in equals(). Read again under lock.
+				}
+			}
+
+			// Concurrent write. Read under lock.
+			stamp = readLock();
+			try
+			{
+				return find(table, key, hash, false);
+			}
+			finally
+			{
+				unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Finds the node. An optimistic reader can see a bin that is relinked concurrently, so its walk is limited.
+		 * The result is discarded in that case.
+		 */
+		private InlineNode find(InlineNode[] tab, Object key, int hash, boolean optimistic)
+		{
+			int maxSteps = optimistic ? count + 1 : Integer.MAX_VALUE;
+			InlineNode node = tab[hash & (tab.length - 1)];
+			for (int steps = 0; node != null && steps < maxSteps; steps++)
+			{
+				if (keyMatches(node, key, hash))
+					return node;
+				node = node.nextNode();
+			}
+			return null;
+		}
+
+		/**
+		 * Puts the node. If expectedValue is not null, only replaces a node that is or equals it, and returns non-null on success.
+		 */
+		InlineNode put(Object key, int hash, InlineNode newNode, Object expectedValue, boolean onlyIfAbsent)
+		{
+			long stamp = writeLock();
+			try
+			{
+				InlineNode[] tab = table;
+				int index = hash & (tab.length - 1);
+				InlineNode previous = null;
+				for (InlineNode node = tab[index]; node != null; previous = node, node = node.nextNode())
+				{
+					if (keyMatches(node, key, hash))
+					{
+						if (onlyIfAbsent)
+							return node;
+						if (expectedValue != null && expectedValue != node && !expectedValue.equals(node))
+							return null;
+						newNode.linkKey(key, hash);
+						newNode.setNextNode(node.nextNode());
+						if (previous == null)
+							tab[index] = newNode;
+						else
+							previous.setNextNode(newNode);
+						return node;
+					}
+				}
+
+				if (expectedValue != null)
+					return null; // Nothing to replace
+
+				newNode.linkKey(key, hash);
+				newNode.setNextNode(tab[index]);
+				tab[index] = newNode;
+				int newCount = count + 1;
+				count = newCount;
+				if (newCount > (int)(tab.length * LOAD_FACTOR))
+					resize(tab);
+				return null;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		InlineNode replace(Object key, int hash, InlineNode newNode)
+		{
+			long stamp = writeLock();
+			try
+			{
+				InlineNode[] tab = table;
+				int index = hash & (tab.length - 1);
+				InlineNode previous = null;
+				for (InlineNode node = tab[index]; node != null; previous = node, node = node.nextNode())
+				{
+					if (keyMatches(node, key, hash))
+					{
+						newNode.linkKey(key, hash);
+						newNode.setNextNode(node.nextNode());
+						if (previous == null)
+							tab[index] = newNode;
+						else
+							previous.setNextNode(newNode);
+						return node;
+					}
+				}
+				return null;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * Removes the node. If expectedValue is not null, only removes a node that is or equals it.
+		 */
+		InlineNode remove(Object key, int hash, Object expectedValue)
+		{
+			long stamp = writeLock();
+			try
+			{
+				InlineNode[] tab = table;
+				int index = hash & (tab.length - 1);
+				InlineNode previous = null;
+				for (InlineNode node = tab[index]; node != null; previous = node, node = node.nextNode())
+				{
+					if (keyMatches(node, key, hash))
+					{
+						if (expectedValue != null && expectedValue != node && !expectedValue.equals(node))
+							return null;
+						// The removed node keeps its next link, so a concurrent optimistic reader can continue its walk 
+						if (previous == null)
+							tab[index] = node.nextNode();
+						else
+							previous.setNextNode(node.nextNode());
+						count = count - 1;
+						return node;
+					}
+				}
+				return null;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		private void resize(InlineNode[] oldTable)
+		{
+			InlineNode[] newTable = new InlineNode[oldTable.length << 1];
+			int mask = newTable.length - 1;
+			for (InlineNode head : oldTable)
+			{
+				InlineNode node = head;
+				while (node != null)
+				{
+					InlineNode next = node.nextNode();
+					int index = node.nodeHash() & mask;
+					node.setNextNode(newTable[index]);
+					newTable[index] = node;
+					node = next;
+				}
+			}
+			table = newTable;
+		}
+
+		void clear(int capacity)
+		{
+			long stamp = writeLock();
+			try
+			{
+				table = new InlineNode[capacity];
+				count = 0;
+			}
+			finally
+			{
+				unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * @return A copy of the nodes
+		 */
+		InlineNode[] snapshot()
+		{
+			long stamp = readLock();
+			try
+			{
+				InlineNode[] nodes = new InlineNode[count];
+				int pos = 0;
+				for (InlineNode head : table)
+				{
+					for (InlineNode node = head; node != null; node = node.nextNode())
+					{
+						nodes[pos++] = node;
+					}
+				}
+				return nodes;
+			}
+			finally
+			{
+				unlockRead(stamp);
+			}
+		}
+	}
+
+	private final class EntrySetView extends AbstractSet<Entry<K, AccessTimeObjectHolder<V>>>
+	{
+		@Override
+		public Iterator<Entry<K, AccessTimeObjectHolder<V>>> iterator()
+		{
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return InlineHolderMap.this.size();
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return InlineHolderMap.this.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> entry = (Entry<?, ?>) o;
+			Object value = get(entry.getKey());
+			return value != null && value.equals(entry.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o)
+		{
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> entry = (Entry<?, ?>) o;
+			return InlineHolderMap.this.remove(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public void clear()
+		{
+			InlineHolderMap.this.clear();
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Entry<K, AccessTimeObjectHolder<V>>>
+	{
+		int segmentIndex = 0;
+		InlineNode[] snapshot = null;
+		int pos = 0;
+		MapEntry lastReturned = null;
+
+		@Override
+		public boolean hasNext()
+		{
+			while (snapshot == null || pos >= snapshot.length)
+			{
+				if (segmentIndex >= segments.length)
+					return false;
+				snapshot = segments[segmentIndex++].snapshot();
+				pos = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public Entry<K, AccessTimeObjectHolder<V>> next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			InlineNode node = snapshot[pos++];
+			@SuppressWarnings("unchecked")
+			K key = (K)node.nodeKey();
+			lastReturned = new MapEntry(key, castHolder(node));
+			return lastReturned;
+		}
+
+		@Override
+		public void remove()
+		{
+			if (lastReturned == null)
+				throw new IllegalStateException();
+			InlineHolderMap.this.remove(lastReturned.key, lastReturned.value);
+			lastReturned = null;
+		}
+	}
+
+	/**
+	 * An entry of the Map. {@link #setValue(AccessTimeObjectHolder)} writes through to the Map.
+	 */
+	private final class MapEntry implements Entry<K, AccessTimeObjectHolder<V>>
+	{
+		final K key;
+		AccessTimeObjectHolder<V> value;
+
+		MapEntry(K key, AccessTimeObjectHolder<V> value)
+		{
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public K getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public AccessTimeObjectHolder<V> getValue()
+		{
+			return value;
+		}
+
+		@Override
+		public AccessTimeObjectHolder<V> setValue(AccessTimeObjectHolder<V> value)
+		{
+			AccessTimeObjectHolder<V> oldValue = this.value;
+			this.value = value;
+			put(key, value);
+			return oldValue;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Entry))
+				return false;
+			Entry<?, ?> other = (Entry<?, ?>) o;
+			return key.equals(other.getKey()) && value.equals(other.getValue());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		@Override
+		public String toString()
+		{
+			return key + "=" + value;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.core.StorageBackend;
+
+/**
+ * Implements a storage that uses an {@link InlineHolderMap}. The holders are the nodes of the Map, so there is no
+ * separate map node per entry. The Cache creates {@link com.trivago.triava.tcache.InlineObjectHolder} instances for this
+ * storage, which use the compact metadata layout.
+ *  
+ * @author cesken
+ *
+ * @param <K> The key class
+ * @param <V> The value class
+ */
+public class InlineHolderStorage<K,V> implements StorageBackend<K, V>
+{
+	@Override
+	public ConcurrentMap<K, AccessTimeObjectHolder<V>> createMap(Builder<K,V> builder, double evictionMapSizeFactor)
+	{
+		int requiredMapSize = builder.getMaxElements() + (int)evictionMapSizeFactor;
+		return new InlineHolderMap<>(requiredMapSize, builder.getMapConcurrencyLevel());
+	}
+
+}
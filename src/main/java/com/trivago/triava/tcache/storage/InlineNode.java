@@ -0,0 +1,61 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+/**
+ * A value that can act as the entry node of an {@link InlineHolderMap}. The node holds its key, the hash and the link
+ * to the next node of its bin, so the Map needs no separate node object per entry.
+ * <p>
+ * The fields are only written by the InlineHolderMap, while it holds the lock of the segment that contains the node.
+ * A node must be put in at most one Map, and only once.
+ * 
+ * @author cesken
+ *
+ */
+public interface InlineNode
+{
+	/**
+	 * @return The key of this node
+	 */
+	Object nodeKey();
+
+	/**
+	 * @return The spread hash code of the key
+	 */
+	int nodeHash();
+
+	/**
+	 * @return The next node in the bin, or null
+	 */
+	InlineNode nextNode();
+
+	/**
+	 * Sets the next node in the bin.
+	 * 
+	 * @param next The next node, or null
+	 */
+	void setNextNode(InlineNode next);
+
+	/**
+	 * Sets the key and hash, when this node is put in the Map.
+	 * 
+	 * @param key The key
+	 * @param hash The spread hash code of the key
+	 */
+	void linkKey(Object key, int hash);
+}
@@ -0,0 +1,359 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A persistent disk tier, that stores Cache entries in a memory-mapped file. It is used to persist the entries
+ * of a Cache on close, and to load them when a Cache with the same file is built again. This allows warm
+ * restarts.
+ * <p>
+ * The file consists of a header and a sequence of records. Each record holds the serialized key and value,
+ * and the expiration metadata of the entry. A new file is written to a temporary file first and then atomically
+ * moved to the final location, so a crash during writing never leaves a corrupt file.
+ * <p>
+ * The file is mapped in windows of {@link #WINDOW_SIZE} bytes, so files can be bigger than 2GB.
+ * 
+ * @author cesken
+ *
+ */
+public class MappedFileTier
+{
+	static final int MAGIC = 0x54434143; // "TCAC"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 8; // magic, version, record count
+	static final int RECORD_OVERHEAD = 4 + 4 + 4 * 8; // key length, value length, 4 timestamps
+	static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+	private final File file;
+
+	/**
+	 * Creates a disk tier for the given file. The file does not need to exist.
+	 * 
+	 * @param file The file
+	 */
+	public MappedFileTier(File file)
+	{
+		this.file = file;
+	}
+
+	public File file()
+	{
+		return file;
+	}
+
+	/**
+	 * Opens a writer for a new file. The current file stays untouched until {@link Writer#commit()} is called.
+	 * 
+	 * @return The writer
+	 * @throws IOException If the temporary file cannot be created
+	 */
+	public Writer openWriter() throws IOException
+	{
+		return new Writer();
+	}
+
+	/**
+	 * Opens a reader for the current file.
+	 * 
+	 * @return The reader, or null if the file does not exist
+	 * @throws IOException If the file cannot be opened, or it is not a valid disk tier file
+	 */
+	public Reader openReader() throws IOException
+	{
+		if (!file.exists())
+			return null;
+		return new Reader();
+	}
+
+	/**
+	 * Deletes the file
+	 * 
+	 * @return true, if the file was deleted
+	 */
+	public boolean delete()
+	{
+		return file.delete();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MappedFileTier [file=" + file + "]";
+	}
+
+	/**
+	 * A persisted Cache entry. All times are in milliseconds since EPOCH, durations are in milliseconds.
+	 */
+	public static final class Record
+	{
+		public final byte[] key;
+		public final byte[] value;
+		public final long creationTime;
+		public final long lastAccessTime;
+		public final long maxIdleTimeMillis;
+		public final long maxCacheTimeMillis;
+
+		public Record(byte[] key, byte[] value, long creationTime, long lastAccessTime, long maxIdleTimeMillis, long maxCacheTimeMillis)
+		{
+			this.key = key;
+			this.value = value;
+			this.creationTime = creationTime;
+			this.lastAccessTime = lastAccessTime;
+			this.maxIdleTimeMillis = maxIdleTimeMillis;
+			this.maxCacheTimeMillis = maxCacheTimeMillis;
+		}
+	}
+
+	/**
+	 * A sliding mapped window over a FileChannel.
+	 */
+	private static final class MappedWindow
+	{
+		private final FileChannel channel;
+		private final MapMode mode;
+		private long windowStart = 0;
+		private MappedByteBuffer buffer = null;
+
+		MappedWindow(FileChannel channel, MapMode mode)
+		{
+			this.channel = channel;
+			this.mode = mode;
+		}
+
+		/**
+		 * Makes sure that the given number of bytes can be read or written at the current position.
+		 */
+		MappedByteBuffer ensure(int bytes) throws IOException
+		{
+			if (buffer != null && buffer.remaining() >= bytes)
+				return buffer;
+
+			long position = position();
+			long size = Math.max(WINDOW_SIZE, bytes);
+			if (mode == MapMode.READ_ONLY)
+			{
+				long available = channel.size() - position;
+				if (available < bytes)
+					throw new IOException("Truncated disk tier file at position " + position);
+				size = Math.min(size, available);
+			}
+			else if (buffer != null)
+			{
+				buffer.force();
+			}
+			buffer = channel.map(mode, position, size);
+			windowStart = position;
+			return buffer;
+		}
+
+		long position()
+		{
+			return buffer == null ? windowStart : windowStart + buffer.position();
+		}
+
+		void force()
+		{
+			if (buffer != null)
+				buffer.force();
+		}
+
+		void release()
+		{
+			// A MappedByteBuffer cannot be unmapped explicitly. It is unmapped when it is garbage collected.
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Writes records to a new disk tier file.
+	 */
+	public final class Writer implements Closeable
+	{
+		private final Path tmpPath;
+		private final FileChannel channel;
+		private final MappedWindow window;
+		private long count = 0;
+		private boolean committed = false;
+		private boolean closed = false;
+
+		private Writer() throws IOException
+		{
+			tmpPath = new File(file.getPath() + ".tmp").toPath();
+			channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			window = new MappedWindow(channel, MapMode.READ_WRITE);
+			window.ensure(HEADER_SIZE).position(HEADER_SIZE);
+		}
+
+		public void write(Record record) throws IOException
+		{
+			MappedByteBuffer buffer = window.ensure(RECORD_OVERHEAD + record.key.length + record.value.length);
+			buffer.putInt(record.key.length);
+			buffer.putInt(record.value.length);
+			buffer.putLong(record.creationTime);
+			buffer.putLong(record.lastAccessTime);
+			buffer.putLong(record.maxIdleTimeMillis);
+			buffer.putLong(record.maxCacheTimeMillis);
+			buffer.put(record.key);
+			buffer.put(record.value);
+			count++;
+		}
+
+		/**
+		 * @return The number of records written
+		 */
+		public long count()
+		{
+			return count;
+		}
+
+		/**
+		 * Finishes the file, and replaces the current disk tier file with it.
+		 * 
+		 * @throws IOException If writing or moving the file fails
+		 */
+		public void commit() throws IOException
+		{
+			long length = window.position();
+			window.force();
+			window.release();
+
+			MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(count);
+			header.force();
+
+			channel.truncate(length);
+			channel.force(true);
+			committed = true;
+			close();
+			try
+			{
+				Files.move(tmpPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (IOException exc)
+			{
+				Files.deleteIfExists(tmpPath);
+				throw exc;
+			}
+		}
+
+		/**
+		 * Closes the writer. If {@link #commit()} was not called, the temporary file is deleted.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+			closed = true;
+			window.release();
+			channel.close();
+			if (!committed)
+				Files.deleteIfExists(tmpPath);
+		}
+	}
+
+	/**
+	 * Reads the records of a disk tier file.
+	 */
+	public final class Reader implements Closeable
+	{
+		private final FileChannel channel;
+		private final MappedWindow window;
+		private final long count;
+		private long read = 0;
+
+		private Reader() throws IOException
+		{
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			window = new MappedWindow(channel, MapMode.READ_ONLY);
+			try
+			{
+				MappedByteBuffer buffer = window.ensure(HEADER_SIZE);
+				int magic = buffer.getInt();
+				int version = buffer.getInt();
+				if (magic != MAGIC || version != VERSION)
+					throw new IOException("Not a disk tier file, or unsupported version: " + file);
+				count = buffer.getLong();
+			}
+			catch (IOException exc)
+			{
+				channel.close();
+				throw exc;
+			}
+		}
+
+		/**
+		 * @return The number of records in the file
+		 */
+		public long count()
+		{
+			return count;
+		}
+
+		/**
+		 * Reads the next record.
+		 * 
+		 * @return The record, or null if all records were read
+		 * @throws IOException If the file is corrupt
+		 */
+		public Record next() throws IOException
+		{
+			if (read == count)
+				return null;
+
+			MappedByteBuffer buffer = window.ensure(RECORD_OVERHEAD);
+			int keyLength = buffer.getInt();
+			int valueLength = buffer.getInt();
+			long creationTime = buffer.getLong();
+			long lastAccessTime = buffer.getLong();
+			long maxIdleTimeMillis = buffer.getLong();
+			long maxCacheTimeMillis = buffer.getLong();
+			if (keyLength < 0 || valueLength < 0)
+				throw new IOException("Corrupt disk tier file at record " + read + ": " + file);
+
+			buffer = window.ensure(keyLength + valueLength);
+			byte[] key = new byte[keyLength];
+			byte[] value = new byte[valueLength];
+			buffer.get(key);
+			buffer.get(value);
+			read++;
+			return new Record(key, value, creationTime, lastAccessTime, maxIdleTimeMillis, maxCacheTimeMillis);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			window.release();
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+
+/**
+ * The hash index of the off-heap storage. Keys and holders are kept on-heap in this map, while the serialized
+ * values are moved to a {@link SlabStore} when a holder gets inserted. Holders that are displaced or removed
+ * get their off-heap block retired. Holders that could not be inserted, e.g. on a failing putIfAbsent(), are
+ * moved back on-heap, as the caller may still use them. 
+ * <p>
+ * This map delegates to a ConcurrentHashMap instead of extending it, so that all modifications go through the
+ * methods above: The default implementations of compute(), merge() and the other ConcurrentMap methods use them,
+ * and the views remove via {@link #remove(Object, Object)}.
+ * 
+ * @author cesken
+ *
+ * @param <K> The key class
+ * @param <V> The value class
+ */
+public class OffHeapIndexMap<K, V> extends AbstractMap<K, AccessTimeObjectHolder<V>> implements ConcurrentMap<K, AccessTimeObjectHolder<V>>
+{
+	private final ConcurrentHashMap<K, AccessTimeObjectHolder<V>> backingMap;
+	private final SlabStore store;
+	private final Set<Map.Entry<K, AccessTimeObjectHolder<V>>> entrySet = new EntrySetView();
+
+	public OffHeapIndexMap(int initialCapacity, float loadFactor, int concurrencyLevel, SlabStore store)
+	{
+		this.backingMap = new ConcurrentHashMap<>(initialCapacity, loadFactor, concurrencyLevel);
+		this.store = store;
+	}
+
+	/**
+	 * @return The off-heap store for the values
+	 */
+	public SlabStore store()
+	{
+		return store;
+	}
+
+	@Override
+	public int size()
+	{
+		return backingMap.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return backingMap.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return backingMap.containsKey(key);
+	}
+
+	@Override
+	public boolean containsValue(Object value)
+	{
+		return backingMap.containsValue(value);
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> get(Object key)
+	{
+		return backingMap.get(key);
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> put(K key, AccessTimeObjectHolder<V> holder)
+	{
+		holder.moveOffHeap(store);
+		AccessTimeObjectHolder<V> oldHolder = backingMap.put(key, holder);
+		retire(oldHolder, holder);
+		return oldHolder;
+	}
+
+	@Override
+	public void putAll(Map<? extends K, ? extends AccessTimeObjectHolder<V>> map)
+	{
+		for (Map.Entry<? extends K, ? extends AccessTimeObjectHolder<V>> entry : map.entrySet())
+		{
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> putIfAbsent(K key, AccessTimeObjectHolder<V> holder)
+	{
+		boolean moved = holder.moveOffHeap(store);
+		AccessTimeObjectHolder<V> oldHolder = backingMap.putIfAbsent(key, holder);
+		if (oldHolder != null && moved)
+			holder.moveOnHeap();
+		return oldHolder;
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> replace(K key, AccessTimeObjectHolder<V> holder)
+	{
+		boolean moved = holder.moveOffHeap(store);
+		AccessTimeObjectHolder<V> oldHolder = backingMap.replace(key, holder);
+		if (oldHolder == null && moved)
+			holder.moveOnHeap();
+		retire(oldHolder, holder);
+		return oldHolder;
+	}
+
+	@Override
+	public boolean replace(K key, AccessTimeObjectHolder<V> oldHolder, AccessTimeObjectHolder<V> newHolder)
+	{
+		boolean moved = newHolder.moveOffHeap(store);
+		boolean replaced = backingMap.replace(key, oldHolder, newHolder);
+		if (replaced)
+			retire(oldHolder, newHolder);
+		else if (moved)
+			newHolder.moveOnHeap();
+		return replaced;
+	}
+
+	@Override
+	public AccessTimeObjectHolder<V> remove(Object key)
+	{
+		AccessTimeObjectHolder<V> oldHolder = backingMap.remove(key);
+		retire(oldHolder, null);
+		return oldHolder;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean remove(Object key, Object value)
+	{
+		boolean removed = backingMap.remove(key, value);
+		if (removed)
+			retire((AccessTimeObjectHolder<V>)value, null);
+		return removed;
+	}
+
+	@Override
+	public void clear()
+	{
+		for (Map.Entry<K, AccessTimeObjectHolder<V>> entry : backingMap.entrySet())
+		{
+			remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<K, AccessTimeObjectHolder<V>>> entrySet()
+	{
+		return entrySet;
+	}
+
+	private void retire(AccessTimeObjectHolder<V> oldHolder, AccessTimeObjectHolder<V> newHolder)
+	{
+		// The same holder may be put again, e.g. after a failing putIfAbsent(). Do not retire it in that case.
+		if (oldHolder != null && oldHolder != newHolder)
+			oldHolder.retireOffHeap();
+	}
+
+	/**
+	 * A view on the entries of the backing Map. Removals and Entry.setValue() go through the methods of the
+	 * enclosing map. The key and value views of AbstractMap are based on this view.
+	 */
+	private final class EntrySetView extends AbstractSet<Map.Entry<K, AccessTimeObjectHolder<V>>>
+	{
+		@Override
+		public Iterator<Map.Entry<K, AccessTimeObjectHolder<V>>> iterator()
+		{
+			final Iterator<Map.Entry<K, AccessTimeObjectHolder<V>>> it = backingMap.entrySet().iterator();
+			return new Iterator<Map.Entry<K, AccessTimeObjectHolder<V>>>()
+			{
+				Map.Entry<K, AccessTimeObjectHolder<V>> lastReturned = null;
+
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public Map.Entry<K, AccessTimeObjectHolder<V>> next()
+				{
+					Map.Entry<K, AccessTimeObjectHolder<V>> entry = it.next();
+					lastReturned = new WriteThroughEntry(entry.getKey(), entry.getValue());
+					return lastReturned;
+				}
+
+				@Override
+				public void remove()
+				{
+					if (lastReturned == null)
+						throw new IllegalStateException();
+					OffHeapIndexMap.this.remove(lastReturned.getKey(), lastReturned.getValue());
+					lastReturned = null;
+				}
+			};
+		}
+
+		@Override
+		public int size()
+		{
+			return backingMap.size();
+		}
+
+		@Override
+		public boolean isEmpty()
+		{
+			return backingMap.isEmpty();
+		}
+
+		@Override
+		public boolean contains(Object o)
+		{
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			if (entry.getKey() == null)
+				return false;
+			AccessTimeObjectHolder<V> holder = get(entry.getKey());
+			return holder != null && holder.equals(entry.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o)
+		{
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			return entry.getKey() != null && OffHeapIndexMap.this.remove(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public void clear()
+		{
+			OffHeapIndexMap.this.clear();
+		}
+	}
+
+	/**
+	 * An entry whose setValue() puts into the enclosing map.
+	 */
+	private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, AccessTimeObjectHolder<V>>
+	{
+		private static final long serialVersionUID = 4624873127462396301L;
+
+		WriteThroughEntry(K key, AccessTimeObjectHolder<V> holder)
+		{
+			super(key, holder);
+		}
+
+		@Override
+		public AccessTimeObjectHolder<V> setValue(AccessTimeObjectHolder<V> holder)
+		{
+			super.setValue(holder);
+			return put(getKey(), holder);
+		}
+	}
+}
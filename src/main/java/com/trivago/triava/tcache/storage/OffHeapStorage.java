@@ -0,0 +1,55 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.core.StorageBackend;
+
+/**
+ * Implements an off-heap values storage, that keeps the serialized values in direct ByteBuffer slabs. Keys and the
+ * Cache metadata stay on-heap, so eviction and expiration work like with the other storages. Only serialized values
+ * are stored off-heap, so this storage should be used with {@link com.trivago.triava.tcache.CacheWriteMode#Serialize}.
+ * Values that are not serialized, too big for a slab, or that do not fit in the off-heap capacity stay on-heap.
+ * <p>
+ * Each entry still has a map node, the key, the holder and an {@link OffHeapValue} handle on the heap. This storage
+ * moves the bulk of big values out of the heap, but it does not reduce the number of heap objects per entry, so it
+ * does not help caches with many small entries.
+ * <p>
+ * TODO Store the serialized keys and the metadata in the slabs too, with an own hash index. Then an entry needs no
+ * heap objects at all. This is required for holding tens of GB without a growing GC pause time.
+ * 
+ * @author cesken
+ *
+ * @param <K> The key class
+ * @param <V> The value class
+ */
+public class OffHeapStorage<K,V> implements StorageBackend<K, V>
+{
+	@Override
+	public ConcurrentMap<K, AccessTimeObjectHolder<V>> createMap(Builder<K,V> builder, double evictionMapSizeFactor)
+	{
+		double loadFactor = 0.75F;
+		int requiredMapSize = (int) (builder.getMaxElements() / loadFactor) + (int)evictionMapSizeFactor;
+		SlabStore store = new SlabStore(builder.getOffHeapCapacity());
+		return new OffHeapIndexMap<>(requiredMapSize, (float) loadFactor, builder.getMapConcurrencyLevel(), store);
+	}
+
+}
@@ -0,0 +1,300 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+
+/**
+ * A second Cache tier, that holds serialized entries off-heap in a {@link SlabStore}. Entries evicted from the heap
+ * tier are demoted to this tier, and a hit in this tier promotes the entry back to the heap tier. An entry is
+ * removed from this tier when its promotion is completed, so it lives in at most one tier. If the heap tier has no
+ * room, the entry is served from this tier and stays here.
+ * <p>
+ * When the off-heap capacity is exhausted, the entries that were demoted first are dropped to make room.
+ * Expired entries are dropped on promotion. Each entry keeps the original expiration metadata of its holder, so a
+ * promoted entry expires as if it had never left the heap tier.
+ * 
+ * @author cesken
+ *
+ * @param <K> The key class
+ */
+public class OffHeapTier<K>
+{
+	private static final int MAX_MAKE_ROOM_ATTEMPTS = 64;
+	private static final int COMPACTION_THRESHOLD = 1000;
+
+	private final SlabStore store;
+	private final ConcurrentHashMap<K, TierEntry<K>> entries = new ConcurrentHashMap<>();
+	// Entries in demotion order. Contains also entries that are already promoted or dropped, see compactDemotionOrder().
+	private final ConcurrentLinkedQueue<TierEntry<K>> demotionOrder = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger demotionOrderSize = new AtomicInteger();
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder demotionCount = new LongAdder();
+	private final LongAdder dropCount = new LongAdder();
+
+	/**
+	 * Creates a tier that stores the entries in the given store.
+	 * 
+	 * @param store The off-heap store
+	 */
+	public OffHeapTier(SlabStore store)
+	{
+		this.store = store;
+	}
+
+	/**
+	 * Demotes the given entry to this tier. An existing entry for the key is replaced.
+	 * 
+	 * @param key The key
+	 * @param value The serialized value
+	 * @param creationTime The creation time in milliseconds since EPOCH
+	 * @param lastAccessTime The last access time in milliseconds since EPOCH
+	 * @param maxIdleTimeMillis The maximum idle time in milliseconds
+	 * @param maxCacheTimeMillis The maximum cache time in milliseconds. 0 means no limit.
+	 * @return true, if the entry was demoted. false, if it is too big for the store.
+	 */
+	public boolean demote(K key, byte[] value, long creationTime, long lastAccessTime, long maxIdleTimeMillis, long maxCacheTimeMillis)
+	{
+		OffHeapValue offHeapValue = store.store(value);
+		for (int attempt = 0; offHeapValue == null && attempt < MAX_MAKE_ROOM_ATTEMPTS; attempt++)
+		{
+			if (!dropOldest())
+				break;
+			offHeapValue = store.store(value);
+		}
+		if (offHeapValue == null)
+		{
+			dropCount.increment();
+			return false;
+		}
+
+		TierEntry<K> entry = new TierEntry<>(key, offHeapValue, creationTime, lastAccessTime, maxIdleTimeMillis, maxCacheTimeMillis);
+		TierEntry<K> oldEntry = entries.put(key, entry);
+		if (oldEntry != null)
+			oldEntry.value.free(); // Only the Thread that removes an entry from the map may free it
+
+		demotionOrder.add(entry);
+		if (demotionOrderSize.incrementAndGet() > 2 * entries.size() + COMPACTION_THRESHOLD)
+			compactDemotionOrder();
+		demotionCount.increment();
+		return true;
+	}
+
+	/**
+	 * Drops the entry that was demoted first.
+	 * 
+	 * @return true, if an entry was dropped. false, if this tier is empty.
+	 */
+	private boolean dropOldest()
+	{
+		TierEntry<K> oldest;
+		while ((oldest = demotionOrder.poll()) != null)
+		{
+			demotionOrderSize.decrementAndGet();
+			if (entries.remove(oldest.key, oldest))
+			{
+				oldest.value.free();
+				dropCount.increment();
+				return true;
+			}
+			// else: Already promoted or replaced
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the entries from the demotion order, that are not in this tier any longer.
+	 */
+	private synchronized void compactDemotionOrder()
+	{
+		demotionOrder.removeIf(entry -> entries.get(entry.key) != entry);
+		demotionOrderSize.set(demotionOrder.size());
+	}
+
+	/**
+	 * Reads the entry for the given key, for promoting it to the heap tier. The entry stays in this tier until
+	 * {@link #completePromotion(Object, Promotion)} is called, so it is not lost if the heap tier has no room.
+	 * Expired entries are removed. The entry is counted as hit if it exists and is not expired, otherwise as miss.
+	 * 
+	 * @param key The key
+	 * @param nowMillis The current time in milliseconds since EPOCH
+	 * @return The entry to promote, or null if there is no valid entry for the key
+	 */
+	public Promotion promote(K key, long nowMillis)
+	{
+		TierEntry<K> entry = entries.get(key);
+		if (entry == null)
+		{
+			missCount.increment();
+			return null;
+		}
+
+		if (nowMillis > AccessTimeObjectHolder.idleDueTime(entry.lastAccessTime, entry.maxIdleTimeMillis)
+				|| nowMillis > AccessTimeObjectHolder.cacheDueTime(entry.creationTime, entry.maxCacheTimeMillis))
+		{
+			if (entries.remove(key, entry))
+				entry.value.free();
+			missCount.increment();
+			return null;
+		}
+
+		byte[] value = entry.value.read();
+		if (value == null)
+		{
+			// Removed and freed concurrently
+			missCount.increment();
+			return null;
+		}
+
+		hitCount.increment();
+		return new Promotion(entry, value);
+	}
+
+	/**
+	 * Removes the promoted entry from this tier, after it was put in the heap tier. Nothing is done, if the entry
+	 * was removed or replaced in the meantime.
+	 * 
+	 * @param key The key
+	 * @param promotion The promotion, as returned by {@link #promote(Object, long)}
+	 */
+	public void completePromotion(K key, Promotion promotion)
+	{
+		if (entries.remove(key, promotion.entry))
+			promotion.entry.value.free();
+	}
+
+	/**
+	 * Removes the entry for the given key from this tier, if it exists.
+	 * 
+	 * @param key The key
+	 */
+	public void invalidate(K key)
+	{
+		TierEntry<K> entry = entries.remove(key);
+		if (entry != null)
+			entry.value.free();
+	}
+
+	/**
+	 * Removes all entries from this tier.
+	 */
+	public void clear()
+	{
+		for (K key : entries.keySet())
+		{
+			invalidate(key);
+		}
+		compactDemotionOrder();
+	}
+
+	/**
+	 * @return The number of entries in this tier
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	public long hitCount()
+	{
+		return hitCount.sum();
+	}
+
+	public long missCount()
+	{
+		return missCount.sum();
+	}
+
+	public long demotionCount()
+	{
+		return demotionCount.sum();
+	}
+
+	/**
+	 * @return The number of entries that were dropped from this tier to make room, or that did not fit at all
+	 */
+	public long dropCount()
+	{
+		return dropCount.sum();
+	}
+
+	/**
+	 * @return The off-heap store of this tier
+	 */
+	public SlabStore store()
+	{
+		return store;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OffHeapTier [size=" + size() + ", hitCount=" + hitCount() + ", missCount=" + missCount() + ", demotionCount="
+				+ demotionCount() + ", dropCount=" + dropCount() + ", store=" + store + "]";
+	}
+
+	private static final class TierEntry<K>
+	{
+		final K key;
+		final OffHeapValue value;
+		final long creationTime;
+		final long lastAccessTime;
+		final long maxIdleTimeMillis;
+		final long maxCacheTimeMillis;
+
+		TierEntry(K key, OffHeapValue value, long creationTime, long lastAccessTime, long maxIdleTimeMillis, long maxCacheTimeMillis)
+		{
+			this.key = key;
+			this.value = value;
+			this.creationTime = creationTime;
+			this.lastAccessTime = lastAccessTime;
+			this.maxIdleTimeMillis = maxIdleTimeMillis;
+			this.maxCacheTimeMillis = maxCacheTimeMillis;
+		}
+	}
+
+	/**
+	 * An entry that is promoted from this tier. All times are in milliseconds since EPOCH, durations are in milliseconds.
+	 */
+	public static final class Promotion
+	{
+		private final TierEntry<?> entry;
+		public final byte[] value;
+		public final long creationTime;
+		public final long lastAccessTime;
+		public final long maxIdleTimeMillis;
+		public final long maxCacheTimeMillis;
+
+		Promotion(TierEntry<?> entry, byte[] value)
+		{
+			this.entry = entry;
+			this.value = value;
+			this.creationTime = entry.creationTime;
+			this.lastAccessTime = entry.lastAccessTime;
+			this.maxIdleTimeMillis = entry.maxIdleTimeMillis;
+			this.maxCacheTimeMillis = entry.maxCacheTimeMillis;
+		}
+	}
+}
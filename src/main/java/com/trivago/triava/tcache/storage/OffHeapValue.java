@@ -0,0 +1,129 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import com.trivago.triava.tcache.storage.SlabStore.Slab;
+
+/**
+ * A reference to a byte array that is stored off-heap in a {@link SlabStore}.
+ * 
+ * @author cesken
+ *
+ */
+public final class OffHeapValue
+{
+	private static final int LIVE = 0;
+	private static final int RETIRED = 1;
+	private static final int FREED = 2;
+
+	private static final AtomicIntegerFieldUpdater<OffHeapValue> stateAFU = AtomicIntegerFieldUpdater.newUpdater(OffHeapValue.class, "state");
+
+	private final SlabStore store;
+	final Slab slab;
+	final int offset;
+	final int length;
+	private volatile int state = LIVE;
+	private long retireTime;
+
+	OffHeapValue(SlabStore store, Slab slab, int offset, int length)
+	{
+		this.store = store;
+		this.slab = slab;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * Reads a copy of the stored bytes.
+	 * 
+	 * @return The bytes, or null if the block was already freed
+	 */
+	public byte[] read()
+	{
+		byte[] bytes = new byte[length];
+		long stamp = slab.lock.tryOptimisticRead();
+		if (stamp != 0 && state != FREED)
+		{
+			slab.read(offset, bytes);
+			if (slab.lock.validate(stamp))
+				return bytes;
+		}
+
+		// Concurrent write or free in the same slab. Read again under the lock. 
+		stamp = slab.lock.readLock();
+		try
+		{
+			if (state == FREED)
+				return null;
+			slab.read(offset, bytes);
+			return bytes;
+		}
+		finally
+		{
+			slab.lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Marks the block for freeing. It stays readable for the grace period of the store. Calling this more than
+	 * once has no effect.
+	 */
+	public void retire()
+	{
+		store.retire(this);
+	}
+
+	/**
+	 * Frees the block immediately. Only use this if no other Thread can have a reference to this instance.
+	 */
+	public void free()
+	{
+		store.free(this);
+	}
+
+	/**
+	 * @return The length of the stored byte array
+	 */
+	public int length()
+	{
+		return length;
+	}
+
+	boolean markRetired(long nowMillis)
+	{
+		if (!stateAFU.compareAndSet(this, LIVE, RETIRED))
+			return false;
+		retireTime = nowMillis;
+		return true;
+	}
+
+	boolean markFreed()
+	{
+		if (state == FREED)
+			return false;
+		state = FREED;
+		return true;
+	}
+
+	long retireTime()
+	{
+		return retireTime;
+	}
+}
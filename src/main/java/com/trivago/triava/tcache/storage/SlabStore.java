@@ -0,0 +1,295 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An off-heap store for byte arrays, that uses direct ByteBuffer slabs. Each stored byte array occupies a block,
+ * whose size is the next power of two (minimum 16 bytes). Freed blocks are kept in a free list per block size and
+ * get reused for the next blocks of the same size.
+ * <p>
+ * Blocks are not freed immediately: {@link OffHeapValue#retire()} marks them for freeing, and they are freed
+ * after a grace period. This allows Threads that still hold a reference to read the value, for example
+ * the old value of a put. Reading an {@link OffHeapValue} after it was freed returns null. Reads are
+ * lock-free, and they are validated against concurrent frees via a StampedLock per slab.
+ * <p>
+ * Allocation and freeing are synchronized on the store. Retired blocks are freed on the next allocation after the
+ * grace period. Storing the bytes takes no slab lock, so it does not invalidate the optimistic reads of other
+ * blocks in the same slab.
+ * 
+ * @author cesken
+ *
+ */
+public class SlabStore
+{
+	public static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+	public static final long DEFAULT_GRACE_MILLIS = 1000;
+	private static final int MIN_BLOCK_SHIFT = 4; // 16 bytes
+
+	private final int slabSize;
+	private final long capacity;
+	private final long graceMillis;
+
+	// All following fields are guarded by "this"
+	private final List<Slab> slabs = new ArrayList<>();
+	private final LongStack[] freeBlocks;
+	private int bumpOffset = 0; // Offset of the next unused byte in the last slab
+	private long usedBytes = 0;
+
+	private final ConcurrentLinkedQueue<OffHeapValue> retired = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a store with the default slab size and grace period.
+	 * 
+	 * @param capacity The maximum number of bytes to allocate off-heap
+	 */
+	public SlabStore(long capacity)
+	{
+		this(capacity, (int)Math.min(DEFAULT_SLAB_SIZE, capacity), DEFAULT_GRACE_MILLIS);
+	}
+
+	/**
+	 * Creates a store.
+	 * 
+	 * @param capacity The maximum number of bytes to allocate off-heap
+	 * @param slabSize The size of each slab in bytes. This is also the maximum size of a stored byte array.
+	 * @param graceMillis The time in milliseconds that a retired block stays readable, before it is freed
+	 */
+	public SlabStore(long capacity, int slabSize, long graceMillis)
+	{
+		if (slabSize < (1 << MIN_BLOCK_SHIFT) || slabSize > capacity)
+			throw new IllegalArgumentException("Invalid slabSize: " + slabSize + ", capacity=" + capacity);
+		if (graceMillis < 0)
+			throw new IllegalArgumentException("Invalid graceMillis: " + graceMillis);
+		this.capacity = capacity;
+		this.slabSize = slabSize;
+		this.graceMillis = graceMillis;
+
+		int sizeClasses = sizeClass(slabSize) + 1;
+		this.freeBlocks = new LongStack[sizeClasses];
+		for (int i = 0; i < sizeClasses; i++)
+		{
+			freeBlocks[i] = new LongStack();
+		}
+	}
+
+	/**
+	 * Returns the size class for the given length. The block size of the size class is {@code 16 << sizeClass}
+	 */
+	static int sizeClass(int length)
+	{
+		if (length <= (1 << MIN_BLOCK_SHIFT))
+			return 0;
+		return 32 - Integer.numberOfLeadingZeros(length - 1) - MIN_BLOCK_SHIFT;
+	}
+
+	private static int blockSize(int sizeClass)
+	{
+		return 1 << (sizeClass + MIN_BLOCK_SHIFT);
+	}
+
+	/**
+	 * Stores a copy of the given bytes off-heap.
+	 * 
+	 * @param bytes The bytes to store
+	 * @return A reference to the stored bytes, or null if the bytes do not fit in a slab or the capacity is exhausted
+	 */
+	public OffHeapValue store(byte[] bytes)
+	{
+		OffHeapValue value = allocate(bytes.length);
+		if (value != null)
+		{
+			value.slab.write(value.offset, bytes);
+		}
+		return value;
+	}
+
+	private synchronized OffHeapValue allocate(int length)
+	{
+		if (length > slabSize)
+			return null;
+
+		reclaim(System.currentTimeMillis());
+
+		int sizeClass = sizeClass(length);
+		int blockSize = blockSize(sizeClass);
+		Slab slab;
+		int offset;
+		long block = freeBlocks[sizeClass].pop();
+		if (block >= 0)
+		{
+			slab = slabs.get((int)(block >>> 32));
+			offset = (int)block;
+		}
+		else
+		{
+			if (slabs.isEmpty() || bumpOffset + blockSize > slabSize)
+			{
+				if ((long)(slabs.size() + 1) * slabSize > capacity)
+					return null; // Full
+				slabs.add(new Slab(slabs.size(), ByteBuffer.allocateDirect(slabSize)));
+				bumpOffset = 0;
+			}
+			slab = slabs.get(slabs.size() - 1);
+			offset = bumpOffset;
+			bumpOffset += blockSize;
+		}
+
+		usedBytes += blockSize;
+		return new OffHeapValue(this, slab, offset, length);
+	}
+
+	/**
+	 * Schedules the block of the given value for freeing, after the grace period
+	 * 
+	 * @param value The value to retire
+	 */
+	void retire(OffHeapValue value)
+	{
+		if (value.markRetired(System.currentTimeMillis()))
+		{
+			retired.add(value);
+		}
+	}
+
+	/**
+	 * Frees all retired blocks whose grace period is over.
+	 */
+	private void reclaim(long nowMillis)
+	{
+		OffHeapValue value;
+		while ((value = retired.peek()) != null && value.retireTime() + graceMillis <= nowMillis)
+		{
+			retired.poll();
+			free(value);
+		}
+	}
+
+	/**
+	 * Frees the block of the given value immediately. The block is reused by the next allocations.
+	 * 
+	 * @param value The value to free
+	 */
+	synchronized void free(OffHeapValue value)
+	{
+		Slab slab = value.slab;
+		long stamp = slab.lock.writeLock();
+		try
+		{
+			if (!value.markFreed())
+				return;
+		}
+		finally
+		{
+			slab.lock.unlockWrite(stamp);
+		}
+
+		int sizeClass = sizeClass(value.length);
+		freeBlocks[sizeClass].push(((long)slab.index << 32) | value.offset);
+		usedBytes -= blockSize(sizeClass);
+	}
+
+	/**
+	 * @return The number of bytes in used blocks, including retired blocks that are not yet freed
+	 */
+	public synchronized long usedBytes()
+	{
+		return usedBytes;
+	}
+
+	/**
+	 * @return The number of bytes allocated off-heap
+	 */
+	public synchronized long allocatedBytes()
+	{
+		return (long)slabs.size() * slabSize;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SlabStore [capacity=" + capacity + ", slabSize=" + slabSize + ", allocatedBytes=" + allocatedBytes()
+				+ ", usedBytes=" + usedBytes() + "]";
+	}
+
+	/**
+	 * A slab of off-heap memory.
+	 */
+	static final class Slab
+	{
+		final int index;
+		final ByteBuffer buffer;
+		// Frees hold the write lock. Readers use optimistic reads.
+		final StampedLock lock = new StampedLock();
+
+		Slab(int index, ByteBuffer buffer)
+		{
+			this.index = index;
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Writes the bytes of a freshly allocated block. This needs no lock: The new OffHeapValue is not visible to
+		 * readers before it is published, e.g. via the Cache map. A reader of a previous value in the same block
+		 * either sees it as freed, or fails the validation, as the free took the write lock.
+		 */
+		void write(int offset, byte[] bytes)
+		{
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.put(bytes);
+		}
+
+		void read(int offset, byte[] bytes)
+		{
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.get(bytes);
+		}
+	}
+
+	/**
+	 * A simple growable stack of primitive long values.
+	 */
+	static final class LongStack
+	{
+		private long[] elements = new long[16];
+		private int size = 0;
+
+		void push(long value)
+		{
+			if (size == elements.length)
+				elements = Arrays.copyOf(elements, size * 2);
+			elements[size++] = value;
+		}
+
+		/**
+		 * @return The top element, or -1 if the stack is empty
+		 */
+		long pop()
+		{
+			return size == 0 ? -1 : elements[--size];
+		}
+	}
+}
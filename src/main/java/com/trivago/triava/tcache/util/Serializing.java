@@ -18,49 +18,198 @@ package com.trivago.triava.tcache.util;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.trivago.triava.tcache.core.Serializer;
 
 /**
  * Methods that help serializing and deserializing.
+ * <p>
+ * Common types have a compact codec, that avoids the costs of Java serialization: String, the boxed primitives,
+ * byte[] and Externalizable. All other objects are serialized with Java serialization. The first byte of the serialized
+ * form identifies the codec. Java serialization always starts with the byte 0xAC, which is not used as a codec tag.
+ * <p>
+ * Output buffers are pooled per Thread.
+ * 
  * @author cesken
  *
  */
 public class Serializing
 {
+	/**
+	 * A Serializer that uses the methods of this class. 
+	 */
+	public static final Serializer BUILTIN = new Serializer()
+	{
+		@Override
+		public byte[] serialize(Object obj) throws IOException
+		{
+			return toBytearray(obj);
+		}
+
+		@Override
+		public Object deserialize(byte[] serialized) throws IOException, ClassNotFoundException
+		{
+			return fromBytearray(serialized);
+		}
+	};
+
+	static final byte TAG_STRING = 1;
+	static final byte TAG_INTEGER = 2;
+	static final byte TAG_LONG = 3;
+	static final byte TAG_SHORT = 4;
+	static final byte TAG_BYTE = 5;
+	static final byte TAG_CHARACTER = 6;
+	static final byte TAG_BOOLEAN = 7;
+	static final byte TAG_FLOAT = 8;
+	static final byte TAG_DOUBLE = 9;
+	static final byte TAG_BYTEARRAY = 10;
+	static final byte TAG_EXTERNALIZABLE = 11;
+	static final byte TAG_JAVA_SERIALIZATION = (byte)0xAC; // First byte of ObjectStreamConstants.STREAM_MAGIC
+
+	private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<PooledOutputStream> pooledOutput = new ThreadLocal<PooledOutputStream>()
+	{
+		@Override
+		protected PooledOutputStream initialValue()
+		{
+			return new PooledOutputStream();
+		}
+	};
+
 	public static byte[] toBytearray(Object obj) throws IOException
 	{
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		ObjectOutput out = null;
+		Class<?> clazz = obj.getClass();
+		if (clazz == String.class)
+		{
+			// Hint: The String is encoded directly into the result, as the UTF-8 length is not known before.
+			byte[] utf8 = ((String)obj).getBytes(StandardCharsets.UTF_8);
+			byte[] bytes = new byte[utf8.length + 1];
+			bytes[0] = TAG_STRING;
+			System.arraycopy(utf8, 0, bytes, 1, utf8.length);
+			return bytes;
+		}
+		if (clazz == Integer.class)
+			return ByteBuffer.allocate(5).put(TAG_INTEGER).putInt((Integer)obj).array();
+		if (clazz == Long.class)
+			return ByteBuffer.allocate(9).put(TAG_LONG).putLong((Long)obj).array();
+		if (clazz == Short.class)
+			return ByteBuffer.allocate(3).put(TAG_SHORT).putShort((Short)obj).array();
+		if (clazz == Byte.class)
+			return new byte[] { TAG_BYTE, (Byte)obj };
+		if (clazz == Character.class)
+			return ByteBuffer.allocate(3).put(TAG_CHARACTER).putChar((Character)obj).array();
+		if (clazz == Boolean.class)
+			return new byte[] { TAG_BOOLEAN, (byte)((Boolean)obj ? 1 : 0) };
+		if (clazz == Float.class)
+			return ByteBuffer.allocate(5).put(TAG_FLOAT).putFloat((Float)obj).array();
+		if (clazz == Double.class)
+			return ByteBuffer.allocate(9).put(TAG_DOUBLE).putDouble((Double)obj).array();
+		if (clazz == byte[].class)
+		{
+			byte[] source = (byte[])obj;
+			byte[] bytes = new byte[source.length + 1];
+			bytes[0] = TAG_BYTEARRAY;
+			System.arraycopy(source, 0, bytes, 1, source.length);
+			return bytes;
+		}
+
+		PooledOutputStream bos = acquireOutput();
 		try
 		{
-		  out = new ObjectOutputStream(bos);   
-		  out.writeObject(obj);
-		  return bos.toByteArray();
+			if (obj instanceof Externalizable)
+			{
+				bos.write(TAG_EXTERNALIZABLE);
+				ObjectOutputStream out = new ObjectOutputStream(bos);
+				out.writeUTF(clazz.getName());
+				((Externalizable)obj).writeExternal(out);
+				out.flush();
+			}
+			else
+			{
+				ObjectOutput out = new ObjectOutputStream(bos);
+				out.writeObject(obj);
+				out.flush();
+			}
+			return bos.toByteArray();
 		}
 		finally
 		{
-		  try
-		  {
-		    if (out != null)
-		    {
-		      out.close();
-		    }
-		  }
-		  catch (IOException ex) {}
-
-		  try
-		  {
-		    bos.close();
-		  }
-		  catch (IOException ex) {}
+			releaseOutput(bos);
 		}
 	}
-	
+
 	public static Object fromBytearray(byte[] serialized) throws IOException, ClassNotFoundException
+	{
+		if (serialized.length == 0)
+			throw new StreamCorruptedException("Empty serialized data");
+
+		ByteBuffer buffer = ByteBuffer.wrap(serialized, 1, serialized.length - 1);
+		switch (serialized[0])
+		{
+			case TAG_STRING:
+				return new String(serialized, 1, serialized.length - 1, StandardCharsets.UTF_8);
+			case TAG_INTEGER:
+				return buffer.getInt();
+			case TAG_LONG:
+				return buffer.getLong();
+			case TAG_SHORT:
+				return buffer.getShort();
+			case TAG_BYTE:
+				return buffer.get();
+			case TAG_CHARACTER:
+				return buffer.getChar();
+			case TAG_BOOLEAN:
+				return buffer.get() != 0;
+			case TAG_FLOAT:
+				return buffer.getFloat();
+			case TAG_DOUBLE:
+				return buffer.getDouble();
+			case TAG_BYTEARRAY:
+			{
+				byte[] bytes = new byte[serialized.length - 1];
+				System.arraycopy(serialized, 1, bytes, 0, bytes.length);
+				return bytes;
+			}
+			case TAG_EXTERNALIZABLE:
+				return readExternalizable(serialized);
+			case TAG_JAVA_SERIALIZATION:
+				return readJavaSerialization(serialized);
+			default:
+				throw new StreamCorruptedException("Unknown serialization tag: " + serialized[0]);
+		}
+	}
+
+	private static Object readExternalizable(byte[] serialized) throws IOException, ClassNotFoundException
+	{
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized, 1, serialized.length - 1)))
+		{
+			String className = in.readUTF();
+			ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+			Class<?> clazz = Class.forName(className, true, classLoader != null ? classLoader : Serializing.class.getClassLoader());
+			Externalizable obj;
+			try
+			{
+				obj = (Externalizable)clazz.getConstructor().newInstance();
+			}
+			catch (ReflectiveOperationException | ClassCastException exc)
+			{
+				throw new IOException("Cannot instantiate Externalizable class " + className, exc);
+			}
+			obj.readExternal(in);
+			return obj;
+		}
+	}
+
+	private static Object readJavaSerialization(byte[] serialized) throws IOException, ClassNotFoundException
 	{
 		ByteArrayInputStream bis = new ByteArrayInputStream(serialized);
 		ObjectInput in = null;
@@ -87,5 +236,42 @@ public class Serializing
 		}
 	}
 
+	/**
+	 * Returns the output buffer of the current Thread. If it is already in use, e.g. by a nested call from
+	 * Externalizable.writeExternal(), a new buffer is returned.
+	 */
+	private static PooledOutputStream acquireOutput()
+	{
+		PooledOutputStream bos = pooledOutput.get();
+		if (bos.inUse)
+			return new PooledOutputStream();
+		bos.inUse = true;
+		return bos;
+	}
+
+	private static void releaseOutput(PooledOutputStream bos)
+	{
+		bos.reset();
+		bos.inUse = false;
+		if (bos.capacity() > MAX_POOLED_BUFFER_SIZE)
+			pooledOutput.remove(); // Do not keep big buffers forever
+	}
+
+	/**
+	 * A ByteArrayOutputStream that is reused.
+	 */
+	private static final class PooledOutputStream extends ByteArrayOutputStream
+	{
+		boolean inUse = false;
 
+		PooledOutputStream()
+		{
+			super(256);
+		}
+
+		int capacity()
+		{
+			return buf.length;
+		}
+	}
 }
@@ -0,0 +1,82 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link BoundedHashInterner}
+ * 
+ * @author cesken
+ *
+ */
+public class BoundedHashInternerTest
+{
+	@Test
+	public void returnsSharedInstance()
+	{
+		BoundedHashInterner<String> interner = new BoundedHashInterner<>(10);
+		String first = new String("EN");
+		String second = new String("EN");
+
+		assertSame(first, interner.get(first));
+		assertSame(first, interner.get(second));
+		assertNull(interner.get(null));
+		assertEquals(1, interner.size());
+		assertEquals(1, interner.hitCount());
+		assertEquals(1, interner.missCount());
+	}
+
+	@Test
+	public void sizeIsBounded()
+	{
+		int maxSize = 100;
+		BoundedHashInterner<Integer> interner = new BoundedHashInterner<>(maxSize);
+		for (int i = 0; i < 10_000; i++)
+		{
+			interner.get(i);
+		}
+
+		assertTrue("size=" + interner.size(), interner.size() <= maxSize);
+		assertEquals(10_000 - interner.size(), interner.evictionCount());
+	}
+
+	@Test
+	public void referencedValuesSurviveEviction()
+	{
+		BoundedHashInterner<String> interner = new BoundedHashInterner<>(10);
+		String popular = new String("popular");
+		interner.get(popular);
+		for (int i = 0; i < 1000; i++)
+		{
+			// The hit sets the referenced bit, so the clock hand skips the popular value once per round
+			assertSame(popular, interner.get(new String("popular")));
+			interner.get("rare-" + i);
+		}
+
+		String rare = new String("rare-0");
+		assertNotSame(rare, interner.get("rare-0"));
+		assertSame(popular, interner.get(new String("popular")));
+	}
+}
@@ -0,0 +1,93 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.trivago.triava.collections.ReferenceHashInterner.ReferenceType;
+
+/**
+ * Tests for {@link ReferenceHashInterner}
+ * 
+ * @author cesken
+ *
+ */
+public class ReferenceHashInternerTest
+{
+	@Test
+	public void returnsSharedInstance()
+	{
+		for (ReferenceType referenceType : ReferenceType.values())
+		{
+			ReferenceHashInterner<String> interner = new ReferenceHashInterner<>(referenceType, 0);
+			String first = new String("EN");
+			String second = new String("EN");
+
+			assertSame(first, interner.get(first));
+			assertSame(first, interner.get(second));
+			assertNull(interner.get(null));
+			assertEquals(1, interner.size());
+			assertEquals(0.5f, interner.hitRate(), 0.001);
+		}
+	}
+
+	@Test
+	public void sizeIsBounded()
+	{
+		int maxSize = 100;
+		ReferenceHashInterner<String> interner = new ReferenceHashInterner<>(ReferenceType.SOFT, maxSize);
+		// Keep the values strongly reachable, so only the eviction removes them
+		List<String> values = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++)
+		{
+			values.add(interner.get("value-" + i));
+		}
+
+		assertTrue("size=" + interner.size(), interner.size() <= maxSize);
+		assertEquals(10_000 - interner.size(), interner.evictionCount());
+	}
+
+	@Test
+	public void unusedValuesAreReleased() throws InterruptedException
+	{
+		ReferenceHashInterner<String> interner = new ReferenceHashInterner<>();
+		String kept = interner.get(new String("kept"));
+		for (int i = 0; i < 1000; i++)
+		{
+			interner.get("unused-" + i);
+		}
+
+		for (int i = 0; i < 50 && interner.size() > 1; i++)
+		{
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, interner.size());
+		assertSame(kept, interner.get(new String("kept")));
+		assertEquals(1000, interner.releaseCount());
+	}
+}
@@ -0,0 +1,398 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.eviction.EvictionCandidatePool;
+import com.trivago.triava.tcache.eviction.FreezingEvictor;
+import com.trivago.triava.tcache.eviction.FrozenValueBuffer;
+import com.trivago.triava.tcache.eviction.HolderFreezer;
+import com.trivago.triava.tcache.eviction.LFUEviction;
+import com.trivago.triava.tcache.eviction.ParallelFreezeTask;
+import com.trivago.triava.tcache.eviction.VictimSelection;
+import com.trivago.triava.tcache.statistics.TCacheStatistics;
+
+/**
+ * Tests covering the different {@link EvictionMode}s of a size limited Cache
+ * 
+ * @author cesken
+ *
+ */
+public class CacheLimitEvictionModeTest
+{
+	private static final int MAP_SIZE = 1000;
+
+	/**
+	 * Evicts odd keys before even keys. 
+	 */
+	static class OddFirstEvictor extends FreezingEvictor<Integer, Integer>
+	{
+		private static final long serialVersionUID = -2616208620434856129L;
+		final AtomicInteger beforeEvictionCalls = new AtomicInteger();
+		final AtomicInteger afterEvictionCalls = new AtomicInteger();
+
+		@Override
+		public long getFreezeValue(Integer key, TCacheHolder<Integer> holder)
+		{
+			return key % 2 == 0 ? 1 : 0;
+		}
+
+		@Override
+		public void beforeEviction()
+		{
+			beforeEvictionCalls.incrementAndGet();
+		}
+
+		@Override
+		public void afterEviction()
+		{
+			afterEvictionCalls.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Evicts odd keys before even keys, like {@link OddFirstEvictor}, but via an own comparator. 
+	 */
+	static class OddFirstComparatorEvictor extends FreezingEvictor<Integer, Integer>
+	{
+		private static final long serialVersionUID = 1950404591467366553L;
+
+		@Override
+		public long getFreezeValue(Integer key, TCacheHolder<Integer> holder)
+		{
+			return 0;
+		}
+
+		@Override
+		public Comparator<HolderFreezer<Integer, Integer>> evictionComparator()
+		{
+			return (o1, o2) -> Integer.compare(o1.getKey() % 2 == 0 ? 1 : 0, o2.getKey() % 2 == 0 ? 1 : 0);
+		}
+	}
+
+	private Cache<Integer, Integer> createCache(String id, EvictionMode evictionMode)
+	{
+		return createCache(id, evictionMode, new OddFirstEvictor());
+	}
+
+	private Cache<Integer, Integer> createCache(String id, EvictionMode evictionMode, FreezingEvictor<Integer, Integer> evictor)
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		builder.setId(id).setMaxElements(MAP_SIZE);
+		builder.setEvictionClass(evictor);
+		builder.setEvictionMode(evictionMode);
+		return builder.build();
+	}
+
+	@Test
+	public void sampledEvictionLimitsSize() throws InterruptedException
+	{
+		limitsSize(createCache("sampledEvictionLimitsSize", EvictionMode.SAMPLED));
+	}
+
+	@Test
+	public void fullEvictionLimitsSize() throws InterruptedException
+	{
+		limitsSize(createCache("fullEvictionLimitsSize", EvictionMode.FULL));
+	}
+
+	private void limitsSize(Cache<Integer, Integer> cache) throws InterruptedException
+	{
+		try
+		{
+			for (int i = 0; i < 20 * MAP_SIZE; i++)
+			{
+				cache.put(i, i);
+			}
+			Thread.sleep(100);
+			
+			// Overfill is limited to 15% (default evictionSpacePercentage)
+			assertTrue("Cache size not limited: size=" + cache.size(), cache.size() <= MAP_SIZE * 115 / 100);
+			assertTrue("No evictions: " + cache.statistics(), cache.statistics().getEvictionCount() > 0);
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void selectEvictionLimitsSize() throws InterruptedException
+	{
+		limitsSize(createCache("selectEvictionLimitsSize", EvictionMode.SELECT));
+	}
+
+	@Test
+	public void sampledEvictionUsesComparator() throws InterruptedException
+	{
+		evictionUsesComparator(createCache("sampledEvictionUsesComparator", EvictionMode.SAMPLED));
+	}
+
+	@Test
+	public void selectEvictionUsesComparator() throws InterruptedException
+	{
+		evictionUsesComparator(createCache("selectEvictionUsesComparator", EvictionMode.SELECT));
+	}
+
+	@Test
+	public void selectEvictionUsesCustomComparator() throws InterruptedException
+	{
+		OddFirstComparatorEvictor evictor = new OddFirstComparatorEvictor();
+		assertFalse("Own comparator must disable the primitive eviction path", evictor.ordersByFrozenValue());
+		assertTrue(new OddFirstEvictor().ordersByFrozenValue());
+		evictionUsesComparator(createCache("selectEvictionUsesCustomComparator", EvictionMode.SELECT, evictor));
+	}
+
+	@Test
+	public void parallelEvictionUsesComparator() throws InterruptedException
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		builder.setId("parallelEvictionUsesComparator").setMaxElements(MAP_SIZE);
+		builder.setEvictionClass(new OddFirstEvictor());
+		builder.setParallelEviction(new ForkJoinPool(4));
+		evictionUsesComparator(builder.build());
+	}
+
+	@Test
+	public void parallelFreezeSelectsSmallest()
+	{
+		int entries = 10 * ParallelFreezeTask.SHARD_SIZE;
+		int victimCount = 1000;
+		Random random = new Random(42);
+		ConcurrentHashMap<Integer, AccessTimeObjectHolder<Integer>> map = new ConcurrentHashMap<>();
+		for (int i = 0; i < entries; i++)
+		{
+			map.put(i, new StandardObjectHolder<>(random.nextInt(entries), CacheWriteMode.Identity));
+		}
+
+		FreezingEvictor<Integer, Integer> byValue = new FreezingEvictor<Integer, Integer>()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public long getFreezeValue(Integer key, TCacheHolder<Integer> holder)
+			{
+				return holder.peek();
+			}
+		};
+
+		HolderFreezer<Integer, Integer>[] victims = ForkJoinPool.commonPool().invoke(new ParallelFreezeTask<>(map.entrySet().spliterator(), byValue, victimCount));
+
+		long[] expected = map.values().stream().mapToLong(AccessTimeObjectHolder::peek).sorted().limit(victimCount).toArray();
+		long[] actual = Arrays.stream(victims).mapToLong(HolderFreezer::getFrozenValue).toArray();
+		assertArrayEquals(expected, actual);
+	}
+
+	private void evictionUsesComparator(Cache<Integer, Integer> cache) throws InterruptedException
+	{
+		try
+		{
+			// Fill exactly to the limit, then add one more element to trigger a single eviction round
+			for (int i = 0; i <= MAP_SIZE; i++)
+			{
+				cache.put(i, i);
+			}
+			Thread.sleep(100);
+
+			int evenKeys = 0;
+			for (Integer key : cache.keySet())
+			{
+				if (key % 2 == 0)
+					evenKeys++;
+			}
+			// All even keys (half of the elements) must survive, as there are enough odd keys to evict
+			assertEquals("Even keys must not be evicted", MAP_SIZE / 2 + 1, evenKeys);
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test
+	public void victimSelectionMatchesSort()
+	{
+		Random random = new Random(42);
+		for (int round = 0; round < 50; round++)
+		{
+			int n = 1 + random.nextInt(2000);
+			int count = random.nextInt(n + 10);
+			Integer[] values = new Integer[n];
+			for (int i = 0; i < n; i++)
+			{
+				// Small value range, to get many duplicates like LFU use counts
+				values[i] = random.nextInt(round % 2 == 0 ? 10 : 100_000);
+			}
+
+			Integer[] sorted = values.clone();
+			Arrays.sort(sorted);
+			VictimSelection.selectSmallest(values, count, Integer::compare);
+
+			int selected = Math.min(count, n);
+			assertArrayEquals("n=" + n + ", count=" + count, Arrays.copyOf(sorted, selected), Arrays.copyOf(values, selected));
+		}
+	}
+
+	@Test
+	public void frozenValueBufferSelectsSmallest()
+	{
+		Random random = new Random(4711);
+		FrozenValueBuffer<Integer, Integer> buffer = new FrozenValueBuffer<>(16);
+		for (int round = 0; round < 50; round++)
+		{
+			int n = 1 + random.nextInt(2000);
+			int count = random.nextInt(n + 10);
+			long[] values = new long[n];
+			for (int i = 0; i < n; i++)
+			{
+				values[i] = random.nextInt(round % 2 == 0 ? 10 : 100_000);
+				buffer.add(i, null, values[i]);
+			}
+
+			long[] originalValues = values.clone();
+			buffer.selectSmallest(count);
+			Arrays.sort(values);
+			int selected = Math.min(count, n);
+			for (int i = 0; i < selected; i++)
+			{
+				assertEquals("n=" + n + ", count=" + count + ", pos=" + i, values[i], buffer.frozenValue(i));
+			}
+			// Keys must move together with their frozen values. Keys are the original positions.
+			for (int i = 0; i < n; i++)
+			{
+				assertEquals(originalValues[buffer.key(i)], buffer.frozenValue(i));
+			}
+			
+			int capacity = buffer.capacity();
+			buffer.clear();
+			assertEquals(0, buffer.size());
+			assertEquals("clear() must keep the capacity", capacity, buffer.capacity());
+		}
+	}
+
+	@Test
+	public void samplingBuilderParameters()
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		assertEquals(EvictionMode.FULL, builder.getEvictionMode());
+		builder.setEvictionSampling(10, 32);
+		assertEquals(EvictionMode.SAMPLED, builder.getEvictionMode());
+		assertEquals(10, builder.getEvictionSampleSize());
+		assertEquals(32, builder.getEvictionCandidatePoolSize());
+	}
+
+	@Test
+	public void watermarkBuilderParameters()
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		assertEquals(10, builder.getEvictionFreePercentage());
+		assertEquals(15, builder.getEvictionSpacePercentage());
+		assertEquals(0, builder.getEvictionSliceSize());
+		builder.setEvictionWatermarks(20, 5).setEvictionSliceSize(100);
+		assertEquals(20, builder.getEvictionFreePercentage());
+		assertEquals(5, builder.getEvictionSpacePercentage());
+		assertEquals(100, builder.getEvictionSliceSize());
+
+		try
+		{
+			builder.setEvictionWatermarks(0, 5);
+			fail("freePercentage 0 must be rejected");
+		}
+		catch (IllegalArgumentException expected)
+		{
+		}
+	}
+
+	@Test
+	public void incrementalEvictionReachesLowWatermark() throws InterruptedException
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		builder.setId("incrementalEvictionReachesLowWatermark").setMaxElements(MAP_SIZE);
+		OddFirstEvictor evictor = new OddFirstEvictor();
+		builder.setEvictionClass(evictor);
+		builder.setEvictionSampling(5, 16);
+		builder.setEvictionWatermarks(20, 10);
+		builder.setEvictionSliceSize(50);
+		CacheLimit<Integer, Integer> cache = (CacheLimit<Integer, Integer>) builder.build();
+		try
+		{
+			for (int i = 0; i < 20 * MAP_SIZE; i++)
+			{
+				cache.put(i, i);
+			}
+			Thread.sleep(100);
+
+			int size = cache.size();
+			assertTrue("Cache size not limited: size=" + size, size <= MAP_SIZE);
+			assertTrue("Evicted below the low watermark: size=" + size, size >= MAP_SIZE * 80 / 100);
+
+			TCacheStatistics statistics = cache.statistics();
+			assertTrue("Eviction not done in slices: " + statistics, cache.counterEvictionSlices >= statistics.getEvictionCount() / 50);
+			assertTrue("Rounds must not count slices: " + statistics, statistics.getEvictionRounds() < cache.counterEvictionSlices);
+			assertEquals("Hooks must be called once per round", statistics.getEvictionRounds(), evictor.beforeEvictionCalls.get());
+			assertEquals("Hooks must be called once per round", statistics.getEvictionRounds(), evictor.afterEvictionCalls.get());
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void incrementalEvictionRequiresSampling()
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		builder.setId("incrementalEvictionRequiresSampling").setMaxElements(MAP_SIZE);
+		builder.setEvictionMode(EvictionMode.SELECT);
+		builder.setEvictionSliceSize(50);
+		builder.build();
+	}
+
+	@Test
+	public void candidatePoolKeepsBestCandidates()
+	{
+		LFUEviction<Integer, Integer> lfu = new LFUEviction<>();
+		EvictionCandidatePool<Integer, Integer> pool = new EvictionCandidatePool<>(3, lfu.evictionComparator());
+		for (int value : new int[] {7, 3, 9, 1, 5, 8})
+		{
+			AccessTimeObjectHolder<Integer> holder = new StandardObjectHolder<>(value, CacheWriteMode.Identity);
+			pool.offer(new HolderFreezer<Integer, Integer>(value, holder, value));
+		}
+
+		assertEquals(3, pool.size());
+		assertEquals(1, pool.poll().getFrozenValue());
+		assertEquals(3, pool.poll().getFrozenValue());
+		assertEquals(5, pool.poll().getFrozenValue());
+		assertEquals(null, pool.poll());
+	}
+}
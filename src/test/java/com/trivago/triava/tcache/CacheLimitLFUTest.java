@@ -31,6 +31,7 @@ import org.junit.Test;
 import com.trivago.triava.tcache.EvictionPolicy;
 import com.trivago.triava.tcache.TCacheFactory;
 import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.eviction.DecayingLFUEviction;
 import com.trivago.triava.tcache.eviction.FreezingEvictor;
 
 /**
@@ -175,6 +176,116 @@ public class CacheLimitLFUTest
 		}
 	}
 
+	@Test
+	public void decayingLfuHalvesUseCountPerRound()
+	{
+		DecayingLFUEviction<String, Integer> evictor = new DecayingLFUEviction<>();
+		AccessTimeObjectHolder<Integer> holder = new StandardObjectHolder<>(1, CacheWriteMode.Identity);
+		for (int i = 0; i < 8; i++)
+		{
+			holder.incrementUseCount();
+		}
+
+		evictor.beforeEviction();
+		assertEquals(4, evictor.getFreezeValue("a", holder));
+		evictor.afterEviction();
+		assertEquals(4, holder.getUseCount());
+
+		evictor.beforeEviction();
+		assertEquals(2, evictor.getFreezeValue("a", holder));
+		evictor.afterEviction();
+		assertEquals(2, holder.getUseCount());
+	}
+
+	@Test
+	public void decayingLfuDecaysOncePerRound()
+	{
+		DecayingLFUEviction<String, Integer> evictor = new DecayingLFUEviction<>();
+		AccessTimeObjectHolder<Integer> holder = new CompactObjectHolder<>(1, CacheWriteMode.Identity);
+		for (int i = 0; i < 64; i++)
+		{
+			holder.incrementUseCount();
+		}
+
+		// Sampled several times in one round, e.g. when the sample cursor wraps around
+		evictor.beforeEviction();
+		for (int i = 0; i < 3; i++)
+		{
+			assertEquals(32, evictor.getFreezeValue("a", holder));
+		}
+		evictor.afterEviction();
+
+		// Not sampled for two rounds: Catches up on the third round
+		for (int round = 0; round < 2; round++)
+		{
+			evictor.beforeEviction();
+			evictor.afterEviction();
+		}
+		evictor.beforeEviction();
+		assertEquals(4, evictor.getFreezeValue("a", holder));
+		assertEquals(4, evictor.getFreezeValue("a", holder));
+		evictor.afterEviction();
+		assertEquals(4, holder.getUseCount());
+	}
+
+	@Test
+	public void decayingLfuWithHalfLife()
+	{
+		DecayingLFUEviction<String, Integer> evictor = new DecayingLFUEviction<>(TimeUnit.HOURS.toMillis(1));
+		AccessTimeObjectHolder<Integer> holder = new StandardObjectHolder<>(1, CacheWriteMode.Identity);
+		for (int i = 0; i < 8; i++)
+		{
+			holder.incrementUseCount();
+		}
+
+		// Half-life not yet reached => no decay
+		evictor.beforeEviction();
+		assertEquals(8, evictor.getFreezeValue("a", holder));
+		evictor.afterEviction();
+		assertEquals(8, holder.getUseCount());
+	}
+
+	@Test
+	public void decayingLfuEvictsFormerlyHotKeys()
+	{
+		Builder<String, Integer> builder = cacheBuilder("decayingLfuEvictsFormerlyHotKeys", 3600, 3600, 1000, null);
+		builder.setEvictionPolicy(EvictionPolicy.DECAYING_LFU);
+		Cache<String, Integer> decayingCache = builder.build();
+		try
+		{
+			// Yesterday's hot set
+			for (int i = 0; i < 100; i++)
+			{
+				decayingCache.put("old" + i, i);
+				for (int j = 0; j < 20; j++)
+				{
+					decayingCache.get("old" + i);
+				}
+			}
+
+			// Today's traffic, accessed moderately over many eviction rounds
+			for (int i = 0; i < 50000; i++)
+			{
+				String key = "new" + i;
+				decayingCache.put(key, i);
+				decayingCache.get(key);
+				decayingCache.get(key);
+			}
+
+			int oldKeysPresent = 0;
+			for (int i = 0; i < 100; i++)
+			{
+				if (decayingCache.containsKey("old" + i))
+					oldKeysPresent++;
+			}
+			assertTrue("Formerly hot keys were not evicted: " + oldKeysPresent, oldKeysPresent < 100);
+		}
+		finally
+		{
+			decayingCache.close();
+		}
+	}
+
 	// ----------------------------- CUSTOM EVICITON TEST FOLLOWS BEWLOW -----------------------------
 	
 	/**
@@ -0,0 +1,105 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.eviction.FrequencySketch;
+
+/**
+ * Tests for the {@link EvictionPolicy#WTINYLFU} eviction policy
+ * 
+ * @author cesken
+ *
+ */
+public class CacheLimitTinyLfuTest
+{
+	private static final int MAP_SIZE = 1000;
+
+	@Test
+	public void sketchCountsAndAges()
+	{
+		FrequencySketch sketch = new FrequencySketch(MAP_SIZE);
+		assertEquals(0, sketch.frequency(42));
+
+		for (int i = 0; i < 6; i++)
+		{
+			sketch.increment(42);
+		}
+		assertTrue("frequency=" + sketch.frequency(42), sketch.frequency(42) >= 6);
+
+		for (int i = 0; i < 100; i++)
+		{
+			sketch.increment(42);
+		}
+		assertEquals("Frequency must saturate at 15", 15, sketch.frequency(42));
+
+		// Enough distinct increments to trigger aging at least once
+		for (int i = 0; i < 10 * MAP_SIZE; i++)
+		{
+			sketch.increment(1000 + i);
+		}
+		assertTrue("Frequency not aged: " + sketch.frequency(42), sketch.frequency(42) < 15);
+	}
+
+	@Test
+	public void hotKeysSurviveScan() throws InterruptedException
+	{
+		Builder<Integer, Integer> builder = TCacheFactory.standardFactory().builder();
+		builder.setId("hotKeysSurviveScan").setMaxElements(MAP_SIZE);
+		builder.setEvictionPolicy(EvictionPolicy.WTINYLFU);
+		Cache<Integer, Integer> cache = builder.build();
+		try
+		{
+			int hotKeys = MAP_SIZE / 10;
+			for (int i = 0; i < hotKeys; i++)
+			{
+				cache.put(i, i);
+			}
+			for (int round = 0; round < 10; round++)
+			{
+				for (int i = 0; i < hotKeys; i++)
+				{
+					cache.get(i);
+				}
+			}
+
+			// Scan with one-hit keys. A recency based policy would evict all hot keys.
+			for (int i = MAP_SIZE; i < 11 * MAP_SIZE; i++)
+			{
+				cache.put(i, i);
+			}
+			Thread.sleep(100);
+
+			assertTrue("Cache was not evicting: size=" + cache.size(), cache.size() < 2 * MAP_SIZE);
+			for (int i = 0; i < hotKeys; i++)
+			{
+				assertTrue("Hot key was evicted: " + i, cache.containsKey(i));
+			}
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+}
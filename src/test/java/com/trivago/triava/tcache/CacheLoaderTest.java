@@ -16,12 +16,28 @@
 
 package com.trivago.triava.tcache;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.cache.Cache;
 import javax.cache.CacheManager;
@@ -81,7 +97,325 @@ public class CacheLoaderTest
 		
 	}
 
-	
+
+	@Test
+	public void testLoadAllIsAsynchronousAndChunked() throws Exception
+	{
+		ChunkCountingLoader loader = new ChunkCountingLoader();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		com.trivago.triava.tcache.Cache<Integer, String> cache = TCacheFactory.standardFactory().<Integer, String> builder()
+				.setId("CacheLoaderTest-loadAll").setLoader(loader).setLoaderExecutor(executor).setLoadAllChunkSize(10).build();
+		Set<Integer> keys = new HashSet<>();
+		for (int i = 1; i <= 95; i++)
+		{
+			keys.add(i);
+		}
+
+		CompletionListenerFuture completionListener = new CompletionListenerFuture();
+		cache.jsr107cache().loadAll(keys, false, completionListener);
+		assertFalse("loadAll must not wait for the loader", completionListener.isDone());
+		loader.gate.countDown();
+		completionListener.get(10, TimeUnit.SECONDS);
+
+		assertEquals(10, loader.chunks.get());
+		assertTrue("Chunks must be loaded in parallel", loader.threads.size() > 1);
+		for (int i = 1; i <= 95; i++)
+		{
+			assertEquals("Number " + i, cache.get(i));
+		}
+
+		// A failing chunk is reported to the listener
+		keys.add(-1);
+		completionListener = new CompletionListenerFuture();
+		cache.jsr107cache().loadAll(keys, true, completionListener);
+		try
+		{
+			completionListener.get(10, TimeUnit.SECONDS);
+			fail("Expected CacheLoaderException");
+		}
+		catch (ExecutionException exc)
+		{
+			assertTrue(exc.getCause().toString(), exc.getCause() instanceof CacheLoaderException);
+		}
+		cache.close();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testGetAllLoadsMissesInOneCall() throws Exception
+	{
+		BulkRecordingLoader loader = new BulkRecordingLoader();
+		com.trivago.triava.tcache.Cache<Integer, String> cache = TCacheFactory.standardFactory().<Integer, String> builder()
+				.setId("CacheLoaderTest-getAll").setLoader(loader).setReadThrough(true).build();
+		Set<Integer> keys = new HashSet<>();
+		for (int i = 1; i <= 300; i++)
+		{
+			keys.add(i);
+			if (i <= 100)
+				cache.put(i, "Number " + i);
+		}
+
+		Map<Integer, String> result = cache.jsr107cache().getAll(keys);
+		assertEquals(300, result.size());
+		assertEquals("Number 300", result.get(300));
+		assertEquals(1, loader.bulkLoads.size());
+		assertEquals(200, loader.bulkLoads.get(0).size());
+		assertEquals(0, loader.singleLoads.get());
+		assertEquals(200, cache.statistics().getMissCount());
+		cache.close();
+	}
+
+	@Test
+	public void testGetAllWaitsForRunningLoads() throws Exception
+	{
+		BulkRecordingLoader loader = new BulkRecordingLoader();
+		loader.singleGate = new CountDownLatch(1);
+		com.trivago.triava.tcache.Cache<Integer, String> cache = TCacheFactory.standardFactory().<Integer, String> builder()
+				.setId("CacheLoaderTest-getAllRunning").setLoader(loader).setReadThrough(true).build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Future<String> single = executor.submit(() -> cache.get(500));
+		while (cache.loadCoalescer.inFlightCount() == 0)
+		{
+			Thread.sleep(1);
+		}
+		Future<Map<Integer, String>> bulk = executor.submit(() -> cache.jsr107cache().getAll(new HashSet<>(Arrays.asList(500, 501))));
+		while (loader.bulkLoads.isEmpty())
+		{
+			Thread.sleep(1);
+		}
+		loader.singleGate.countDown();
+
+		assertEquals("Number 500", single.get(10, TimeUnit.SECONDS));
+		Map<Integer, String> result = bulk.get(10, TimeUnit.SECONDS);
+		assertEquals("Number 500", result.get(500));
+		assertEquals("Number 501", result.get(501));
+		assertEquals("Running load must not be repeated", Arrays.asList(501), loader.bulkLoads.get(0));
+		assertEquals(1, loader.singleLoads.get());
+		executor.shutdown();
+		cache.close();
+	}
+
+	@Test
+	public void testConcurrentLoadsAreCoalesced() throws Exception
+	{
+		GatedCountingLoader loader = new GatedCountingLoader();
+		com.trivago.triava.tcache.Cache<Integer, String> cache = TCacheFactory.standardFactory().<Integer, String> builder()
+				.setId("CacheLoaderTest-coalesced").setLoader(loader).setReadThrough(true).build();
+
+		List<Future<String>> results = getConcurrently(cache, 1, 16);
+		awaitCoalesced(cache, 15);
+		loader.gate.countDown();
+		for (Future<String> result : results)
+		{
+			assertEquals("Number 1", result.get());
+		}
+		assertEquals("Loader must be called once for concurrent misses", 1, loader.loads.get());
+		assertEquals(15, cache.statistics().getCoalescedLoadCount());
+		assertEquals(16, cache.statistics().getMissCount());
+
+		// A later miss after expiration or removal loads again
+		cache.remove(1);
+		assertEquals("Number 1", cache.jsr107cache().get(1));
+		assertEquals(2, loader.loads.get());
+		cache.close();
+	}
+
+	@Test
+	public void testCoalescedLoadsShareException() throws Exception
+	{
+		GatedCountingLoader loader = new GatedCountingLoader();
+		com.trivago.triava.tcache.Cache<Integer, String> cache = TCacheFactory.standardFactory().<Integer, String> builder()
+				.setId("CacheLoaderTest-coalescedException").setLoader(loader).setReadThrough(true).build();
+
+		List<Future<String>> results = getConcurrently(cache, -1, 8);
+		awaitCoalesced(cache, 7);
+		loader.gate.countDown();
+		for (Future<String> result : results)
+		{
+			try
+			{
+				result.get();
+				fail("Expected CacheLoaderException");
+			}
+			catch (ExecutionException exc)
+			{
+				assertTrue(exc.getCause().toString(), exc.getCause() instanceof CacheLoaderException);
+			}
+		}
+		assertEquals(1, loader.loads.get());
+		cache.close();
+	}
+
+	@Test
+	public void testRefreshAhead() throws Exception
+	{
+		VersionLoader loader = new VersionLoader();
+		com.trivago.triava.tcache.Cache<Integer, String> cache = TCacheFactory.standardFactory().<Integer, String> builder()
+				.setId("CacheLoaderTest-refreshAhead").setLoader(loader).setReadThrough(true)
+				.setMaxCacheTime(1, TimeUnit.SECONDS).setRefreshAhead(50).setLoaderExecutor(Runnable::run).build();
+
+		assertEquals("1-v1", cache.get(1));
+		assertEquals("Young entries are not refreshed", "1-v1", cache.get(1));
+		assertEquals(1, loader.loads.get());
+
+		Thread.sleep(600);
+		assertEquals("The current value must be returned while refreshing", "1-v1", cache.get(1));
+		assertEquals(2, loader.loads.get());
+		assertEquals("1-v2", cache.get(1));
+		assertEquals(1, cache.statistics().getRefreshCount());
+
+		Thread.sleep(600);
+		assertEquals("The refreshed entry must not have expired", "1-v2", cache.get(1));
+		assertEquals("1-v3", cache.get(1));
+		assertEquals(3, loader.loads.get());
+		cache.close();
+	}
+
+	private List<Future<String>> getConcurrently(com.trivago.triava.tcache.Cache<Integer, String> cache, int key, int threads) throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<String>> results = new ArrayList<>(threads);
+		for (int i = 0; i < threads; i++)
+		{
+			results.add(executor.submit(() -> {
+				start.await();
+				return cache.get(key);
+			}));
+		}
+		start.countDown();
+		executor.shutdown();
+		return results;
+	}
+
+	/**
+	 * Waits until the given number of loads joined a running load of another thread.
+	 */
+	private void awaitCoalesced(com.trivago.triava.tcache.Cache<Integer, String> cache, long coalesced) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (cache.statistics().getCoalescedLoadCount() < coalesced)
+		{
+			assertTrue("Timeout waiting for coalesced loads", System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * A loader that counts the loadAll() calls and the threads calling it. Loads wait until the gate is opened.
+	 */
+	static class ChunkCountingLoader extends com.trivago.triava.tcache.core.CacheLoader<Integer, String>
+	{
+		final AtomicInteger chunks = new AtomicInteger();
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		@Override
+		public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) throws CacheLoaderException
+		{
+			chunks.incrementAndGet();
+			threads.add(Thread.currentThread());
+			try
+			{
+				gate.await();
+				Thread.sleep(10);
+			}
+			catch (InterruptedException e)
+			{
+				throw new CacheLoaderException(e);
+			}
+			return super.loadAll(keys);
+		}
+
+		@Override
+		public String load(Integer key) throws CacheLoaderException
+		{
+			if (key < 0)
+				throw new CacheLoaderException("Invalid key " + key);
+			return "Number " + key;
+		}
+	}
+
+	/**
+	 * A loader that records the keys of each loadAll() call. Single loads wait until singleGate is opened.
+	 */
+	static class BulkRecordingLoader extends com.trivago.triava.tcache.core.CacheLoader<Integer, String>
+	{
+		final List<List<Integer>> bulkLoads = new CopyOnWriteArrayList<>();
+		final AtomicInteger singleLoads = new AtomicInteger();
+		volatile CountDownLatch singleGate = null;
+
+		@Override
+		public Map<Integer, String> loadAll(Iterable<? extends Integer> keys) throws CacheLoaderException
+		{
+			List<Integer> keyList = new ArrayList<>();
+			Map<Integer, String> values = new HashMap<>();
+			for (Integer key : keys)
+			{
+				keyList.add(key);
+				values.put(key, "Number " + key);
+			}
+			bulkLoads.add(keyList);
+			return values;
+		}
+
+		@Override
+		public String load(Integer key) throws CacheLoaderException
+		{
+			singleLoads.incrementAndGet();
+			try
+			{
+				if (singleGate != null)
+					singleGate.await();
+			}
+			catch (InterruptedException e)
+			{
+				throw new CacheLoaderException(e);
+			}
+			return "Number " + key;
+		}
+	}
+
+	/**
+	 * A loader that returns a new version of the value on each load
+	 */
+	static class VersionLoader extends com.trivago.triava.tcache.core.CacheLoader<Integer, String>
+	{
+		final AtomicInteger loads = new AtomicInteger();
+
+		@Override
+		public String load(Integer key) throws CacheLoaderException
+		{
+			return key + "-v" + loads.incrementAndGet();
+		}
+	}
+
+	/**
+	 * A loader that counts its calls. Loads wait until the gate is opened, so concurrent requests arrive while it is loading. Negative keys fail.
+	 */
+	static class GatedCountingLoader extends com.trivago.triava.tcache.core.CacheLoader<Integer, String>
+	{
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch gate = new CountDownLatch(1);
+
+		@Override
+		public String load(Integer key) throws CacheLoaderException
+		{
+			loads.incrementAndGet();
+			try
+			{
+				gate.await();
+			}
+			catch (InterruptedException e)
+			{
+				throw new CacheLoaderException(e);
+			}
+			if (key < 0)
+				throw new CacheLoaderException("Invalid key " + key);
+			return "Number " + key;
+		}
+	}
 	
 	/**
 	 * Creates a Cache via plain JSR107 API. The Cache is configured with a default MutableConfiguration.
@@ -17,13 +17,23 @@
 package com.trivago.triava.tcache;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.cache.Cache.Entry;
 import javax.cache.CacheException;
@@ -38,6 +48,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.core.Serializer;
 import com.trivago.triava.tcache.statistics.TCacheStatistics;
 
 /**
@@ -111,6 +122,89 @@ public class CacheTest {
         assertEquals(putValue, value);
     }
 
+    @Test
+    public void testCustomSerializer() {
+        AtomicInteger serializations = new AtomicInteger();
+        Serializer serializer = new Serializer() {
+            @Override
+            public byte[] serialize(Object obj) throws IOException {
+                serializations.incrementAndGet();
+                return obj.toString().getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public Object deserialize(byte[] serialized) {
+                return new String(serialized, StandardCharsets.UTF_8);
+            }
+        };
+        Cache<String, String> serializerCache = TCacheFactory.standardFactory().<String, String>builder()
+                .setId("testCustomSerializer")
+                .setCacheWriteMode(CacheWriteMode.Serialize)
+                .setSerializer(serializer).setKeysByReference(false).build();
+        serializerCache.put("ONE", "value");
+        assertEquals("value", serializerCache.get("ONE"));
+        assertTrue(serializerCache.containsKey("ONE"));
+        assertEquals(Collections.singletonList("ONE"), new ArrayList<>(serializerCache.keySet()));
+        assertTrue("Keys and values must use the custom serializer", serializations.get() >= 2);
+        serializerCache.close();
+    }
+
+    @Test
+    public void testInternMode() {
+        Cache<String, String> internCache = TCacheFactory.standardFactory().<String, String>builder()
+                .setId("testInternMode")
+                .setCacheWriteMode(CacheWriteMode.Intern).build();
+        String value1 = new String("localized");
+        String value2 = new String("localized");
+        internCache.put("ONE", value1);
+        internCache.put("TWO", value2);
+        internCache.put("THREE", "unique");
+
+        assertSame("Equal values must be deduplicated", internCache.get("ONE"), internCache.get("TWO"));
+        TCacheStatistics statistics = internCache.statistics();
+        assertEquals(1, statistics.getInternHitCount());
+        assertEquals(2, statistics.getInternMissCount());
+        assertEquals(2, statistics.getInternElementCount());
+        assertEquals(1f / 3, statistics.getInternDedupRatio(), 0.001);
+        internCache.close();
+    }
+
+    @Test
+    public void testKeysByReference() {
+        Cache<Object, Integer> refCache = TCacheFactory.standardFactory().<Object, Integer>builder()
+                .setId("testKeysByReference")
+                .setCacheWriteMode(CacheWriteMode.Serialize).build();
+        ArrayList<String> mutableKey = new ArrayList<>(Collections.singletonList("a"));
+        refCache.put("ONE", 1);
+        refCache.put(2L, 2);
+        refCache.put(mutableKey, 3);
+        // Mutable keys are still serialized, so modifying them after the put does not affect the cache
+        mutableKey.add("b");
+        assertNull(refCache.get(mutableKey));
+        assertEquals(Integer.valueOf(3), refCache.get(new ArrayList<>(Collections.singletonList("a"))));
+        assertEquals(Integer.valueOf(1), refCache.get("ONE"));
+        assertEquals(Integer.valueOf(2), refCache.get(2L));
+        assertNull("Keys of different types must not collide", refCache.get(2));
+
+        Set<Object> keys = new HashSet<>(refCache.keySet());
+        assertEquals(3, keys.size());
+        assertTrue(keys.contains("ONE"));
+        assertTrue(keys.contains(new ArrayList<>(Collections.singletonList("a"))));
+
+        // The views are backed by the cache
+        Iterator<Object> keyIterator = refCache.objects.keySet().iterator();
+        while (keyIterator.hasNext()) {
+            if ("ONE".equals(keyIterator.next()))
+                keyIterator.remove();
+        }
+        assertFalse(refCache.containsKey("ONE"));
+        assertTrue(refCache.objects.entrySet().remove(
+                new AbstractMap.SimpleEntry<>(2L, refCache.objects.get(2L))));
+        assertFalse(refCache.containsKey(2L));
+        assertEquals(1, refCache.objects.entrySet().size());
+        refCache.close();
+    }
+
     /**
      * This is a copy from the Cache class. It is not public there, but we would like to do some unit tests on it.
      */
@@ -170,6 +264,95 @@ public class CacheTest {
         assertTrue("Cache is not empty after sleep", cache1.size() == 0);
     }
 
+    @Test
+    public void expireCacheEntryWithTimingWheel() {
+        Builder<String, Integer> cacheB = TCacheFactory.standardFactory().builder();
+        Cache<String, Integer> cache1 = cacheB.setId("CacheTest-expireCacheEntryWithTimingWheel")
+                .setMaxIdleTime(1, TimeUnit.SECONDS).setMaxCacheTime(1, TimeUnit.SECONDS).setMaxElements(10)
+                .setTimingWheelExpiration(true).build();
+
+        cache1.put("key-a", 1);
+        cache1.put("key-b", 2, 60, 60, TimeUnit.SECONDS);
+        assertEquals("Retrieved value do not match.", Integer.valueOf(1), cache1.get("key-a"));
+        try {
+            Thread.sleep(1400);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals("Cache should only contain the entry with the longer expiration", 1, cache1.size());
+        assertEquals(Integer.valueOf(2), cache1.get("key-b"));
+        cache1.close();
+    }
+
+    @Test
+    public void expireWithTimingWheelWhilePutting() throws InterruptedException {
+        Builder<String, Integer> cacheB = TCacheFactory.standardFactory().builder();
+        Cache<String, Integer> cache1 = cacheB.setId("CacheTest-expireWithTimingWheelWhilePutting")
+                .setMaxIdleTime(1, TimeUnit.SECONDS).setMaxCacheTime(1, TimeUnit.SECONDS).setMaxElements(1000)
+                .setTimingWheelExpiration(true).build();
+
+        // Keep replacing the entries while the first ones expire, so that puts race with the cleaner
+        long end = System.currentTimeMillis() + 1500;
+        int round = 0;
+        while (System.currentTimeMillis() < end) {
+            for (int i = 0; i < 100; i++) {
+                cache1.put("key-" + i, round);
+            }
+            round++;
+            Thread.sleep(1);
+        }
+        assertEquals(100, cache1.size());
+
+        Thread.sleep(1500);
+        assertEquals("Replaced entries must expire", 0, cache1.size());
+        cache1.close();
+    }
+
+    @Test
+    public void expireOnRead() {
+        Builder<String, Integer> cacheB = TCacheFactory.standardFactory().builder();
+        // Long idle time => the cleaner runs only every 5 minutes
+        Cache<String, Integer> cache1 = cacheB.setId("CacheTest-expireOnRead")
+                .setMaxIdleTime(3600, TimeUnit.SECONDS).setMaxCacheTime(3600, TimeUnit.SECONDS).setMaxElements(10)
+                .setExpireOnRead(true).build();
+
+        cache1.put("key-a", 1, 1, 1, TimeUnit.SECONDS);
+        cache1.put("key-b", 2);
+        try {
+            Thread.sleep(1100);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals("Expired entry is still in the Cache before reading it", 2, cache1.size());
+        assertNull(cache1.get("key-a"));
+        assertEquals("Expired entry was not removed on read", 1, cache1.size());
+        assertEquals(Integer.valueOf(2), cache1.get("key-b"));
+        cache1.close();
+    }
+
+    @Test
+    public void cleanUpSweepPercentage() {
+        Builder<String, Integer> cacheB = TCacheFactory.standardFactory().builder();
+        Cache<String, Integer> cache1 = cacheB.setId("CacheTest-cleanUpSweepPercentage")
+                .setMaxIdleTime(1, TimeUnit.SECONDS).setMaxCacheTime(1, TimeUnit.SECONDS).setMaxElements(1000)
+                .setCleanUpSweepPercentage(10).build();
+
+        for (int i = 0; i < 500; i++) {
+            cache1.put("key-" + i, i);
+        }
+        try {
+            // 1s expiration, plus at least 10 cleanup intervals of 100ms for a full sweep
+            Thread.sleep(2500);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        assertEquals("Cache is not empty after all sweeps", 0, cache1.size());
+        cache1.close();
+    }
+
     @Test
     public void putIfAbsent() {
         assertTrue("Cache is not empty at start of test", cache.size() == 0);
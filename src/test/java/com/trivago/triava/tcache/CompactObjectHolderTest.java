@@ -0,0 +1,131 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link CompactObjectHolder}, and for a Cache using it.
+ * 
+ * @author cesken
+ */
+public class CompactObjectHolderTest
+{
+	@Test
+	public void durationEncoding()
+	{
+		assertEquals(0, decoded(0));
+		assertEquals("Rounded up to seconds", 1000, decoded(1));
+		assertEquals(2000, decoded(1500));
+		assertEquals(TimeUnit.HOURS.toMillis(4) + 1000, decoded(TimeUnit.HOURS.toMillis(4) + 1));
+		assertEquals("Rounded up to minutes", TimeUnit.HOURS.toMillis(5) + 60_000, decoded(TimeUnit.HOURS.toMillis(5) + 1000));
+		assertEquals(TimeUnit.DAYS.toMillis(3), decoded(TimeUnit.DAYS.toMillis(3)));
+		assertEquals(TimeUnit.DAYS.toMillis(365), decoded(TimeUnit.DAYS.toMillis(365)));
+		assertEquals(TimeUnit.DAYS.toMillis(40 * 365), decoded(TimeUnit.DAYS.toMillis(40 * 365)));
+		assertEquals("Beyond the range means no limit", Long.MAX_VALUE, decoded(TimeUnit.DAYS.toMillis(100 * 365)));
+		assertEquals(Long.MAX_VALUE, decoded(Long.MAX_VALUE));
+	}
+
+	private long decoded(long millis)
+	{
+		return CompactObjectHolder.decodeDuration(CompactObjectHolder.encodeDuration(millis));
+	}
+
+	@Test
+	public void metadataIsKeptSeparately()
+	{
+		CompactObjectHolder<Integer> holder = new CompactObjectHolder<>(42, CacheWriteMode.Identity);
+		assertTrue("Holder must be incomplete", holder.isInvalid());
+
+		holder.setMaxIdleTimeMillis(TimeUnit.HOURS.toMillis(1));
+		holder.setMaxCacheTimeMillis(TimeUnit.DAYS.toMillis(10));
+		holder.setInputDateMillis(TimeUnit.DAYS.toMillis(1000));
+		holder.setLastAccessMillis(TimeUnit.DAYS.toMillis(1001));
+		for (int i = 0; i < 5; i++)
+		{
+			holder.incrementUseCount();
+		}
+		assertEquals(5, holder.getUseCount());
+		assertEquals(TimeUnit.DAYS.toMillis(1000), holder.inputDateMillis());
+		assertEquals(TimeUnit.DAYS.toMillis(1001), holder.lastAccessMillis());
+		assertEquals(TimeUnit.HOURS.toMillis(1), holder.maxIdleTimeMillis());
+		assertEquals(TimeUnit.DAYS.toMillis(10), holder.maxCacheTimeMillis());
+		assertEquals(Integer.valueOf(42), holder.peek());
+
+		assertEquals(2, holder.decayUseCount(1));
+		assertEquals(TimeUnit.HOURS.toMillis(1), holder.maxIdleTimeMillis());
+
+		assertTrue(holder.release());
+		assertFalse("Already released", holder.release());
+		assertEquals(2, holder.getUseCount());
+	}
+
+	@Test
+	public void timesAreRoundedUp()
+	{
+		CompactObjectHolder<Integer> holder = new CompactObjectHolder<>(1, CacheWriteMode.Identity);
+		holder.setInputDateMillis(1001);
+		holder.setLastAccessMillis(2000);
+		assertEquals("Rounding down could expire the entry early", 2000, holder.inputDateMillis());
+		assertEquals(2000, holder.lastAccessMillis());
+	}
+
+	@Test
+	public void useCountSaturates()
+	{
+		CompactObjectHolder<Integer> holder = new CompactObjectHolder<>(1, CacheWriteMode.Identity);
+		holder.setMaxIdleTimeMillis(1000);
+		for (int i = 0; i < CompactObjectHolder.USE_COUNT_MAX + 10; i++)
+		{
+			holder.incrementUseCount();
+		}
+		assertEquals(CompactObjectHolder.USE_COUNT_MAX, holder.getUseCount());
+		assertEquals(1000, holder.maxIdleTimeMillis());
+	}
+
+	@Test
+	public void cacheWithCompactHolders() throws InterruptedException
+	{
+		Cache<String, Integer> cache = TCacheFactory.standardFactory().<String, Integer> builder()
+				.setId("CompactObjectHolderTest-cacheWithCompactHolders").setMaxElements(10)
+				.setMaxIdleTime(1, TimeUnit.SECONDS).setMaxCacheTime(1, TimeUnit.SECONDS)
+				.setCompactHolders(true).build();
+		try
+		{
+			cache.put("a", 1);
+			cache.put("b", 2, 60, 60, TimeUnit.SECONDS);
+			assertEquals(Integer.valueOf(1), cache.get("a"));
+
+			// Second precision: Expiration happens within 1 second + rounding + cleanup interval
+			Thread.sleep(2500);
+			assertNull(cache.get("a"));
+			assertEquals(Integer.valueOf(2), cache.get("b"));
+		}
+		finally
+		{
+			cache.close();
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.core.Serializer;
+
+/**
+ * Tests for the persistent disk tier, see {@link Builder#setPersistenceFile(File)}.
+ * 
+ * @author cesken
+ */
+public class DiskTierTest
+{
+	private File file;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		file = File.createTempFile("DiskTierTest", ".tcache");
+		file.delete();
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	@Test
+	public void entriesSurviveRestart()
+	{
+		Cache<String, Integer> cache = diskTierCache("DiskTierTest-restart", CacheWriteMode.Identity, false);
+		for (int i = 0; i < 1000; i++)
+		{
+			cache.put("key-" + i, i);
+		}
+		cache.close();
+		assertTrue("File must be written on close", file.exists());
+
+		Cache<String, Integer> restarted = diskTierCache("DiskTierTest-restart", CacheWriteMode.Identity, false);
+		assertEquals(1000, restarted.size());
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals(Integer.valueOf(i), restarted.get("key-" + i));
+		}
+		assertFalse("File must be deleted after loading", file.exists());
+		restarted.close();
+	}
+
+	@Test
+	public void destroyedCacheDoesNotPersist()
+	{
+		Cache<String, Integer> cache = diskTierCache("DiskTierTest-destroy", CacheWriteMode.Identity, false);
+		cache.put("key", 1);
+		TCacheFactory.standardFactory().destroyCache("DiskTierTest-destroy");
+		assertFalse("A destroyed Cache must not write the file", file.exists());
+
+		Cache<String, Integer> recreated = diskTierCache("DiskTierTest-destroy", CacheWriteMode.Identity, false);
+		assertEquals("Entries of a destroyed Cache must not come back", 0, recreated.size());
+		assertNull(recreated.get("key"));
+		recreated.close();
+	}
+
+	@Test
+	public void expiredEntriesAreDropped() throws InterruptedException
+	{
+		Cache<String, String> cache = diskTierCache("DiskTierTest-expired", CacheWriteMode.Serialize, true);
+		cache.put("long", "value", 1, 1, TimeUnit.HOURS);
+		cache.put("short", "value", 1, 1, TimeUnit.SECONDS);
+		cache.close();
+
+		Thread.sleep(2100);
+		Cache<String, String> restarted = diskTierCache("DiskTierTest-expired", CacheWriteMode.Serialize, true);
+		assertEquals("value", restarted.get("long"));
+		assertNull("Expired while the Cache was closed", restarted.get("short"));
+		assertEquals(1, restarted.size());
+		restarted.close();
+	}
+
+	@Test
+	public void expirationMetadataSurvivesRestart() throws InterruptedException
+	{
+		verifyExpirationMetadataSurvivesRestart(false);
+		verifyExpirationMetadataSurvivesRestart(true);
+	}
+
+	private void verifyExpirationMetadataSurvivesRestart(boolean compactHolders) throws InterruptedException
+	{
+		String id = "DiskTierTest-metadata-" + compactHolders;
+		Cache<String, String> cache = diskTierCache(id, CacheWriteMode.Serialize, compactHolders);
+		cache.put("key", "value", 10, 3600, TimeUnit.SECONDS);
+		AccessTimeObjectHolder<String> holder = cache.objects.get("key");
+		Thread.sleep(50);
+		cache.close();
+
+		// Restart twice. The idle time must not shrink on each restart.
+		for (int restart = 0; restart < 2; restart++)
+		{
+			Thread.sleep(50);
+			Cache<String, String> restarted = diskTierCache(id, CacheWriteMode.Serialize, compactHolders);
+			AccessTimeObjectHolder<String> restored = restarted.objects.get("key");
+			assertEquals(holder.maxIdleTimeMillis(), restored.maxIdleTimeMillis());
+			assertEquals(holder.maxCacheTimeMillis(), restored.maxCacheTimeMillis());
+			assertEquals(holder.getCreationTime(), restored.getCreationTime());
+			assertEquals(holder.getLastAccessTime(), restored.getLastAccessTime());
+			restarted.close();
+		}
+	}
+
+	@Test
+	public void notSerializableEntriesAreSkipped()
+	{
+		Cache<String, Object> cache = diskTierCache("DiskTierTest-notSerializable", CacheWriteMode.Identity, false);
+		cache.put("serializable", "value");
+		cache.put("notSerializable", new Object());
+		cache.close();
+
+		Cache<String, Object> restarted = diskTierCache("DiskTierTest-notSerializable", CacheWriteMode.Identity, false);
+		assertEquals("value", restarted.get("serializable"));
+		assertNull(restarted.get("notSerializable"));
+		restarted.close();
+	}
+
+	@Test
+	public void customSerializerEntriesSurviveRestart()
+	{
+		Cache<String, Name> cache = customSerializerCache();
+		cache.put("key", new Name("value"));
+		cache.close();
+
+		Cache<String, Name> restarted = customSerializerCache();
+		assertEquals("Values that are not Serializable must be persisted via the Serializer", "value", restarted.get("key").name);
+		restarted.close();
+	}
+
+	private Cache<String, Name> customSerializerCache()
+	{
+		Builder<String, Name> builder = TCacheFactory.standardFactory().builder();
+		return builder.setId("DiskTierTest-customSerializer")
+				.setMaxElements(10)
+				.setCacheWriteMode(CacheWriteMode.Serialize)
+				.setSerializer(new NameSerializer())
+				.setPersistenceFile(file)
+				.build();
+	}
+
+	/**
+	 * A value that is not Serializable, and can only be stored via {@link NameSerializer}
+	 */
+	static final class Name
+	{
+		final String name;
+
+		Name(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	static final class NameSerializer implements Serializer
+	{
+		// Keys are Strings, values are Names. The first character tells which one.
+		@Override
+		public byte[] serialize(Object obj) throws IOException
+		{
+			String string = obj instanceof Name ? "N" + ((Name)obj).name : "S" + obj;
+			return string.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Object deserialize(byte[] serialized)
+		{
+			String string = new String(serialized, StandardCharsets.UTF_8);
+			return string.charAt(0) == 'N' ? new Name(string.substring(1)) : string.substring(1);
+		}
+	}
+
+	@Test
+	public void entriesSpanMappedWindows()
+	{
+		Cache<Integer, byte[]> cache = diskTierCache("DiskTierTest-windows", CacheWriteMode.Identity, false);
+		for (int i = 0; i < 40; i++)
+		{
+			byte[] value = new byte[1_000_000 + i];
+			value[value.length - 1] = (byte)i;
+			cache.put(i, value);
+		}
+		cache.close();
+		assertTrue("File must be bigger than one mapped window", file.length() > 16 * 1024 * 1024);
+
+		Cache<Integer, byte[]> restarted = diskTierCache("DiskTierTest-windows", CacheWriteMode.Identity, false);
+		for (int i = 0; i < 40; i++)
+		{
+			byte[] value = restarted.get(i);
+			assertEquals(1_000_000 + i, value.length);
+			assertEquals((byte)i, value[value.length - 1]);
+		}
+		restarted.close();
+	}
+
+	private <K, V> Cache<K, V> diskTierCache(String id, CacheWriteMode writeMode, boolean compactHolders)
+	{
+		Builder<K, V> builder = TCacheFactory.standardFactory().builder();
+		return builder.setId(id)
+				.setMaxElements(10_000)
+				.setCacheWriteMode(writeMode)
+				.setCompactHolders(compactHolders)
+				.setPersistenceFile(file)
+				.build();
+	}
+}
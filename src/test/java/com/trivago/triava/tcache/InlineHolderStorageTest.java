@@ -0,0 +1,92 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.storage.InlineHolderMap;
+
+/**
+ * Tests for Caches with the {@link HashImplementation#InlineHolder} storage.
+ * 
+ * @author cesken
+ */
+public class InlineHolderStorageTest
+{
+	@Test
+	public void holdersAreMapNodes() throws InterruptedException
+	{
+		Cache<String, String> cache = TCacheFactory.standardFactory().<String, String> builder()
+				.setId("InlineHolderStorageTest-nodes").setHashImplementation(HashImplementation.InlineHolder).build();
+		assertTrue(cache.objects instanceof InlineHolderMap);
+
+		cache.put("a", "1");
+		cache.put("a", "2");
+		cache.put("b", "3", 1, 1, TimeUnit.MILLISECONDS);
+		assertTrue(cache.objects.get("a") instanceof InlineObjectHolder);
+		assertEquals("2", cache.get("a"));
+		// Second precision: Times and durations are rounded up to seconds
+		Thread.sleep(2100);
+		assertNull(cache.get("b"));
+		assertEquals("2", cache.remove("a"));
+		assertNull(cache.get("a"));
+		cache.close();
+	}
+
+	@Test
+	public void eviction()
+	{
+		int maxElements = 1000;
+		Cache<Integer, Integer> cache = TCacheFactory.standardFactory().<Integer, Integer> builder()
+				.setId("InlineHolderStorageTest-eviction").setMaxElements(maxElements)
+				.setHashImplementation(HashImplementation.InlineHolder).build();
+
+		for (int i = 0; i < 20 * maxElements; i++)
+		{
+			cache.put(i, i);
+		}
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (cache.statistics().getEvictionCount() == 0 && System.currentTimeMillis() < waitUntil)
+		{
+			Thread.yield();
+		}
+
+		assertTrue("No evictions: " + cache.statistics(), cache.statistics().getEvictionCount() > 0);
+		assertTrue("Size not limited: " + cache.size(), cache.size() < 20 * maxElements);
+		cache.close();
+	}
+
+	@Test
+	public void storeByValue()
+	{
+		Cache<String, StringBuilder> cache = TCacheFactory.standardFactory().<String, StringBuilder> builder()
+				.setId("InlineHolderStorageTest-storeByValue").setCacheWriteMode(CacheWriteMode.Serialize)
+				.setHashImplementation(HashImplementation.InlineHolder).build();
+		StringBuilder value = new StringBuilder("a");
+		cache.put("key", value);
+		value.append("b");
+		assertEquals("a", cache.get("key").toString());
+		cache.close();
+	}
+}
@@ -0,0 +1,163 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.statistics.TCacheStatistics;
+
+/**
+ * Tests for {@link LongKeyCache}, see {@link Builder#buildLongKeyCache()}.
+ * 
+ * @author cesken
+ */
+public class LongKeyCacheTest
+{
+	@Test
+	public void basicOperations()
+	{
+		LongKeyCache<String> cache = TCacheFactory.standardFactory().<Long, String> builder()
+				.setId("LongKeyCacheTest-basic").buildLongKeyCache();
+
+		cache.put(4711L, "hotel");
+		cache.put(-1L, "negative");
+		assertEquals("hotel", cache.get(4711L));
+		assertEquals("negative", cache.get(-1L));
+		assertTrue(cache.containsKey(4711L));
+		assertEquals("hotel", cache.putIfAbsent(4711L, "other"));
+		assertEquals("hotel", cache.remove(4711L));
+		assertNull(cache.get(4711L));
+		assertEquals(1, cache.size());
+		assertEquals(Long.valueOf(-1L), cache.asCache().keySet().iterator().next());
+
+		TCacheStatistics statistics = cache.statistics();
+		assertEquals(3, statistics.getHitCount());
+		assertEquals(1, statistics.getMissCount());
+		cache.close();
+	}
+
+	@Test
+	public void expiration() throws InterruptedException
+	{
+		LongKeyCache<String> cache = TCacheFactory.standardFactory().<Long, String> builder()
+				.setId("LongKeyCacheTest-expiration").buildLongKeyCache();
+
+		cache.put(1L, "short", 1, 1, TimeUnit.MILLISECONDS);
+		cache.put(2L, "long", 1, 1, TimeUnit.HOURS);
+		Thread.sleep(50);
+		assertNull(cache.get(1L));
+		assertEquals("long", cache.get(2L));
+		cache.close();
+	}
+
+	@Test
+	public void eviction()
+	{
+		int maxElements = 1000;
+		LongKeyCache<Long> cache = TCacheFactory.standardFactory().<Long, Long> builder()
+				.setId("LongKeyCacheTest-eviction").setMaxElements(maxElements).setEvictionPolicy(EvictionPolicy.LRU)
+				.buildLongKeyCache();
+
+		for (long i = 0; i < 20 * maxElements; i++)
+		{
+			cache.put(i, i);
+		}
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (cache.statistics().getEvictionCount() == 0 && System.currentTimeMillis() < waitUntil)
+		{
+			Thread.yield();
+		}
+
+		assertTrue("No evictions: " + cache.statistics(), cache.statistics().getEvictionCount() > 0);
+		assertTrue("Size not limited: " + cache.size(), cache.size() < 20 * maxElements);
+		cache.close();
+	}
+
+	@Test
+	public void listeners()
+	{
+		final AtomicInteger created = new AtomicInteger();
+		LongKeyCache<String> cache = TCacheFactory.standardFactory().<Long, String> builder()
+				.setId("LongKeyCacheTest-listeners").buildLongKeyCache();
+		CountingListener listener = new CountingListener(created);
+		cache.asCache().jsr107cache().registerCacheEntryListener(new MutableCacheEntryListenerConfiguration<Long, String>(
+				FactoryBuilder.factoryOf(listener), null, false, true));
+
+		// Like in Cache, the created events are sent by the JSR107 API
+		cache.asCache().jsr107cache().put(1L, "one");
+		cache.asCache().jsr107cache().put(2L, "two");
+		assertEquals(2, created.get());
+		assertEquals("one", cache.get(1L));
+		cache.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherKeyTypes()
+	{
+		Builder<String, String> builder = TCacheFactory.standardFactory().<String, String> builder();
+		builder.setKeyType(String.class);
+		builder.buildLongKeyCache();
+	}
+
+	@Test
+	public void storeByValue()
+	{
+		LongKeyCache<StringBuilder> cache = TCacheFactory.standardFactory().<Long, StringBuilder> builder()
+				.setId("LongKeyCacheTest-storeByValue").setCacheWriteMode(CacheWriteMode.Serialize).buildLongKeyCache();
+		StringBuilder value = new StringBuilder("a");
+		cache.put(1L, value);
+		value.append("b");
+		assertEquals("a", cache.get(1L).toString());
+		assertFalse(cache.get(1L) == cache.get(1L));
+		cache.close();
+	}
+
+	static class CountingListener implements CacheEntryCreatedListener<Long, String>, java.io.Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		final transient AtomicInteger created;
+
+		CountingListener(AtomicInteger created)
+		{
+			this.created = created;
+		}
+
+		@Override
+		public void onCreated(Iterable<CacheEntryEvent<? extends Long, ? extends String>> events)
+		{
+			for (@SuppressWarnings("unused") CacheEntryEvent<? extends Long, ? extends String> event : events)
+			{
+				created.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.core.Serializer;
+import com.trivago.triava.tcache.storage.OffHeapIndexMap;
+import com.trivago.triava.tcache.storage.OffHeapValue;
+import com.trivago.triava.tcache.storage.SlabStore;
+import com.trivago.triava.tcache.util.ChangeStatus;
+
+/**
+ * Tests for the {@link HashImplementation#OffHeap} storage and its {@link SlabStore}.
+ * 
+ * @author cesken
+ */
+public class OffHeapStorageTest
+{
+	@Test
+	public void storeAndRead()
+	{
+		SlabStore store = new SlabStore(1024, 256, 0);
+		byte[] bytes = { 1, 2, 3, 4, 5 };
+		OffHeapValue value = store.store(bytes);
+		assertNotNull(value);
+		assertArrayEquals(bytes, value.read());
+		assertEquals(5, value.length());
+		assertEquals("Smallest block size", 16, store.usedBytes());
+
+		assertNull("Bigger than a slab", store.store(new byte[257]));
+	}
+
+	@Test
+	public void retiredBlocksAreReused()
+	{
+		SlabStore store = new SlabStore(256, 256, 0);
+		OffHeapValue[] values = new OffHeapValue[4];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = store.store(new byte[64]);
+			assertNotNull(values[i]);
+		}
+		assertNull("Store is full", store.store(new byte[64]));
+
+		values[0].retire();
+		values[0].retire(); // No effect
+		byte[] bytes = new byte[64];
+		bytes[0] = 7;
+		OffHeapValue reused = store.store(bytes);
+		assertNotNull("Retired block must be reclaimed on allocation", reused);
+		assertArrayEquals(bytes, reused.read());
+		assertNull("Freed value cannot be read", values[0].read());
+		assertEquals(256, store.usedBytes());
+	}
+
+	@Test
+	public void retiredBlocksStayReadableDuringGracePeriod()
+	{
+		SlabStore store = new SlabStore(1024, 1024, TimeUnit.HOURS.toMillis(1));
+		byte[] bytes = { 42 };
+		OffHeapValue value = store.store(bytes);
+		value.retire();
+		store.store(new byte[] { 43 });
+		assertArrayEquals(bytes, value.read());
+
+		value.free();
+		assertNull(value.read());
+	}
+
+	@Test
+	public void indexMapRetiresOnAllRemovals()
+	{
+		SlabStore store = new SlabStore(1024, 1024, 0);
+		OffHeapIndexMap<String, String> map = new OffHeapIndexMap<>(16, 0.75f, 1, store);
+		for (String key : new String[] { "compute", "merge", "iterator", "keySet", "values" })
+		{
+			map.put(key, new StandardObjectHolder<>(key, CacheWriteMode.Serialize));
+		}
+		assertTrue(store.usedBytes() > 0);
+
+		map.compute("compute", (k, holder) -> null);
+		map.merge("merge", new StandardObjectHolder<>("x", CacheWriteMode.Serialize), (oldHolder, holder) -> null);
+		Iterator<String> it = map.keySet().iterator();
+		while (it.hasNext())
+		{
+			if (it.next().equals("iterator"))
+				it.remove();
+		}
+		map.keySet().remove("keySet");
+		map.values().removeIf(holder -> "values".equals(holder.peek()));
+		assertTrue(map.isEmpty());
+
+		// Retired blocks are freed on the next allocation, as the grace period is 0 
+		OffHeapValue trigger = store.store(new byte[1]);
+		assertEquals("All blocks of the removed holders must be freed", 16, store.usedBytes());
+		trigger.free();
+	}
+
+	@Test
+	public void cacheOperations() throws InterruptedException
+	{
+		Cache<String, String> cache = offHeapCache("OffHeapStorageTest-cacheOperations", 100);
+
+		cache.put("a", "value-a");
+		assertEquals("value-a", cache.get("a"));
+		cache.put("a", "value-a2");
+		assertEquals("value-a2", cache.get("a"));
+		assertEquals(ChangeStatus.CHANGED, cache.replace("a", "value-a2", "value-a3"));
+		assertEquals("value-a3", cache.get("a"));
+		assertEquals("value-a3", cache.remove("a"));
+		assertNull(cache.get("a"));
+
+		String longValue = new String(new char[1_000_000]);
+		cache.put("long", longValue);
+		assertEquals("Values that do not fit are kept on heap", longValue, cache.get("long"));
+
+		cache.put("expiring", "value", 1, 1, TimeUnit.SECONDS);
+		assertEquals("value", cache.get("expiring"));
+		Thread.sleep(1500);
+		assertNull(cache.get("expiring"));
+
+		cache.close();
+	}
+
+	@Test
+	public void customSerializerValuesAreOffHeap()
+	{
+		SlabStore store = new SlabStore(1024, 1024, 0);
+		OffHeapIndexMap<String, Name> map = new OffHeapIndexMap<>(16, 0.75f, 1, store);
+		AccessTimeObjectHolder<Name> holder = AccessTimeObjectHolder.create(new Name("value-a"), CacheWriteMode.Serialize, new NameSerializer());
+		map.put("a", holder);
+		assertTrue("Value must be stored off-heap", store.usedBytes() > 0);
+		assertEquals("value-a", map.get("a").peek().name);
+
+		map.remove("a");
+		store.store(new byte[1]).free(); // Frees the retired block, as the grace period is 0
+		assertEquals(0, store.usedBytes());
+	}
+
+	@Test
+	public void cacheEviction()
+	{
+		int maxElements = 1000;
+		Cache<Integer, String> cache = offHeapCache("OffHeapStorageTest-cacheEviction", maxElements);
+		for (int i = 0; i < 10 * maxElements; i++)
+		{
+			cache.put(i, "value-" + i);
+		}
+		assertTrue("No evictions: " + cache.statistics(), cache.statistics().getEvictionCount() > 0);
+		assertTrue("Cache must be evicting: " + cache.statistics(), cache.size() < 10 * maxElements);
+		cache.put(-1, "value");
+		assertEquals("value", cache.get(-1));
+		cache.close();
+	}
+
+	/**
+	 * A value that is not Serializable, and can only be stored via {@link NameSerializer}
+	 */
+	static final class Name
+	{
+		final String name;
+
+		Name(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	static final class NameSerializer implements Serializer
+	{
+		// Keys are Strings, values are Names. The first character tells which one.
+		@Override
+		public byte[] serialize(Object obj) throws IOException
+		{
+			String string = obj instanceof Name ? "N" + ((Name)obj).name : "S" + obj;
+			return string.getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public Object deserialize(byte[] serialized)
+		{
+			String string = new String(serialized, StandardCharsets.UTF_8);
+			return string.charAt(0) == 'N' ? new Name(string.substring(1)) : string.substring(1);
+		}
+	}
+
+	private <K, V> Cache<K, V> offHeapCache(String id, int maxElements)
+	{
+		Builder<K, V> builder = TCacheFactory.standardFactory().builder();
+		return builder.setId(id)
+				.setMaxElements(maxElements)
+				.setHashImplementation(HashImplementation.OffHeap)
+				.setCacheWriteMode(CacheWriteMode.Serialize)
+				.setOffHeapCapacity(1 << 20)
+				.build();
+	}
+}
@@ -0,0 +1,208 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.eviction.LRUEviction;
+import com.trivago.triava.tcache.expiry.Constants;
+import com.trivago.triava.tcache.statistics.TCacheStatistics;
+import com.trivago.triava.tcache.storage.OffHeapTier;
+import com.trivago.triava.tcache.storage.SlabStore;
+
+/**
+ * Tests for the off-heap second tier, see {@link Builder#setSecondTierCapacity(long)}.
+ * 
+ * @author cesken
+ */
+public class SecondTierTest
+{
+	@Test
+	public void evictedEntriesArePromoted() throws InterruptedException
+	{
+		int maxElements = 100;
+		Cache<Integer, String> cache = tieredCache("SecondTierTest-promote", maxElements);
+		int elements = 10 * maxElements;
+		for (int i = 0; i < elements; i++)
+		{
+			cache.put(i, "value-" + i);
+		}
+		waitForEviction(cache);
+
+		TCacheStatistics statistics = cache.statistics();
+		assertTrue("No demotions: " + statistics, statistics.getDemotionCount() > 0);
+		assertTrue("Heap tier must be limited: " + statistics, cache.size() < elements);
+
+		// Promotions evict other entries concurrently. An entry is briefly in neither tier while it is demoted.
+		int found = 0;
+		for (int i = 0; i < elements; i++)
+		{
+			String value = cache.get(i);
+			if (value != null)
+			{
+				assertEquals("value-" + i, value);
+				found++;
+			}
+		}
+		assertTrue("Most entries must be found: " + found, found > elements * 95 / 100);
+
+		statistics = cache.statistics();
+		assertEquals(statistics.toString(), found, statistics.getHitCount());
+		assertTrue(statistics.toString(), statistics.getSecondTierHitCount() > 0);
+		cache.close();
+	}
+
+	@Test
+	public void writesInvalidateSecondTier()
+	{
+		int maxElements = 100;
+		Cache<Integer, String> cache = tieredCache("SecondTierTest-invalidate", maxElements);
+		for (int i = 0; i < 10 * maxElements; i++)
+		{
+			cache.put(i, "value-" + i);
+		}
+		waitForEviction(cache);
+
+		for (int i = 0; i < 10 * maxElements; i++)
+		{
+			cache.remove(i);
+		}
+		for (int i = 0; i < 10 * maxElements; i++)
+		{
+			assertNull("Removed entry must not be promoted", cache.get(i));
+		}
+		assertEquals(0, cache.statistics().getSecondTierElementCount());
+		cache.close();
+	}
+
+	@Test
+	public void entriesStayInSecondTierWithoutRoom()
+	{
+		TCacheFactory factory = TCacheFactory.standardFactory();
+		Builder<Integer, String> builder = factory.<Integer, String> builder()
+				.setId("SecondTierTest-noRoom")
+				.setMaxElements(100)
+				.setEvictionClass(new LRUEviction<Integer, String>())
+				.setSecondTierCapacity(1 << 20);
+		boolean[] room = { false };
+		Cache<Integer, String> cache = new CacheLimit<Integer, String>(factory, builder)
+		{
+			@Override
+			protected boolean hasFreeCapacity()
+			{
+				return room[0];
+			}
+		};
+
+		cache.put(1, "value");
+		AccessTimeObjectHolder<String> holder = cache.objects.get(1);
+		cache.removeAndRelease(1);
+		cache.demote(1, "value", holder);
+
+		assertEquals("Served from the second tier", "value", cache.get(1));
+		assertNull("Not promoted without room", cache.objects.get(1));
+		assertEquals("Entry must not be lost", 1, cache.statistics().getSecondTierElementCount());
+
+		room[0] = true;
+		assertEquals("value", cache.get(1));
+		assertTrue("Promoted with room", cache.objects.get(1) != null);
+		assertEquals(0, cache.statistics().getSecondTierElementCount());
+		cache.close();
+	}
+
+	@Test
+	public void expirationMetadataSurvivesRoundTrip() throws InterruptedException
+	{
+		Cache<Integer, String> cache = tieredCache("SecondTierTest-roundTrip", 100);
+		cache.put(1, "value", 10, 3600, TimeUnit.SECONDS);
+		AccessTimeObjectHolder<String> holder = cache.objects.get(1);
+
+		// Demote and promote twice. The idle time must not shrink on each round trip.
+		for (int round = 0; round < 2; round++)
+		{
+			Thread.sleep(50);
+			AccessTimeObjectHolder<String> current = cache.objects.get(1);
+			cache.removeAndRelease(1);
+			cache.demote(1, "value", current);
+			assertEquals("value", cache.get(1));
+
+			AccessTimeObjectHolder<String> promoted = cache.objects.get(1);
+			assertTrue("Promoted", promoted != null && promoted != current);
+			assertEquals(holder.maxIdleTimeMillis(), promoted.maxIdleTimeMillis());
+			assertEquals(holder.maxCacheTimeMillis(), promoted.maxCacheTimeMillis());
+			assertEquals(holder.getCreationTime(), promoted.getCreationTime());
+		}
+		cache.close();
+	}
+
+	@Test
+	public void expiredEntriesAreNotPromoted()
+	{
+		OffHeapTier<String> tier = new OffHeapTier<>(new SlabStore(1024, 1024, 0));
+		long now = System.currentTimeMillis();
+		tier.demote("expired", new byte[] { 1 }, now - 2, now - 2, 1, 0);
+		tier.demote("valid", new byte[] { 2 }, now, now, Constants.EXPIRY_MAX, TimeUnit.HOURS.toMillis(1));
+		assertNull(tier.promote("expired", now));
+		OffHeapTier.Promotion promotion = tier.promote("valid", now);
+		assertEquals(2, promotion.value[0]);
+		assertEquals("Entry stays until the promotion is completed", 1, tier.size());
+		tier.completePromotion("valid", promotion);
+		assertNull("Promoted entries are removed", tier.promote("valid", now));
+		assertEquals(1, tier.hitCount());
+		assertEquals(2, tier.missCount());
+	}
+
+	@Test
+	public void oldestEntriesAreDroppedWhenFull()
+	{
+		OffHeapTier<Integer> tier = new OffHeapTier<>(new SlabStore(256, 256, 0));
+		for (int i = 0; i < 8; i++)
+		{
+			assertTrue(tier.demote(i, new byte[64], 0, 0, Constants.EXPIRY_MAX, 0));
+		}
+		assertEquals(4, tier.size());
+		assertEquals(4, tier.dropCount());
+		assertNull("Oldest entry must be dropped", tier.promote(0, 0));
+		assertEquals(64, tier.promote(7, 0).value.length);
+	}
+
+	private void waitForEviction(Cache<Integer, String> cache)
+	{
+		long waitUntil = System.currentTimeMillis() + 5000;
+		while (cache.statistics().getEvictionCount() == 0 && System.currentTimeMillis() < waitUntil)
+		{
+			Thread.yield();
+		}
+	}
+
+	private <K, V> Cache<K, V> tieredCache(String id, int maxElements)
+	{
+		Builder<K, V> builder = TCacheFactory.standardFactory().builder();
+		return builder.setId(id)
+				.setMaxElements(maxElements)
+				.setSecondTierCapacity(1 << 20)
+				.build();
+	}
+}
@@ -0,0 +1,198 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.expiry.Constants;
+import com.trivago.triava.tcache.expiry.TimingWheel;
+
+/**
+ * Tests for the {@link TimingWheel}, driven the same way as the Cache does it: Fired keys that are not yet expired are
+ * scheduled again.
+ * 
+ * @author cesken
+ */
+public class TimingWheelTest
+{
+    private static final long TICK = 10;
+
+    @Test
+    public void firesKeysOnAllLevels()
+    {
+        long start = 1_000_000;
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, start);
+        Map<String, Long> expirations = new HashMap<>();
+        expirations.put("level0", start + 25);
+        expirations.put("level1", start + 5_000);
+        expirations.put("level2", start + 400_000);
+        expirations.put("level3", start + 20_000_000);
+        for (Map.Entry<String, Long> entry : expirations.entrySet())
+        {
+            wheel.schedule(entry.getKey(), entry.getValue());
+        }
+
+        Set<String> expired = new HashSet<>();
+        advanceAndVerify(wheel, start + 20, expirations, expired);
+        assertTrue("Key fired before its expiration", expired.isEmpty());
+        advanceAndVerify(wheel, start + 30, expirations, expired);
+        assertEquals(1, expired.size());
+
+        for (long now = start + 30; now <= start + 20_001_000; now += 997)
+        {
+            advanceAndVerify(wheel, now, expirations, expired);
+        }
+        assertEquals(expirations.keySet(), expired);
+        assertEquals("All keys should have left the wheel", 0, wheel.size());
+    }
+
+    @Test
+    public void firesRandomExpirations()
+    {
+        Random random = new Random(4711);
+        long start = 123_456_789;
+        TimingWheel<Integer> wheel = new TimingWheel<>(TICK, start);
+        Map<Integer, Long> expirations = new HashMap<>();
+        for (int i = 0; i < 10_000; i++)
+        {
+            long expiration = start + random.nextInt(2_000_000);
+            expirations.put(i, expiration);
+            wheel.schedule(i, expiration);
+        }
+
+        Set<Integer> expired = new HashSet<>();
+        long now = start;
+        while (expired.size() < expirations.size())
+        {
+            now += 1 + random.nextInt(3000);
+            advanceAndVerify(wheel, now, expirations, expired);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void overdueAndClearedKeys()
+    {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 1000);
+        Set<String> fired = new HashSet<>();
+        wheel.schedule("overdue", 500);
+        assertEquals("Nothing fires within the same tick", 0, wheel.advance(1005, fired::add));
+        assertEquals(1, wheel.advance(1010, fired::add));
+        assertTrue(fired.contains("overdue"));
+
+        wheel.schedule("cleared", 2000);
+        wheel.clear();
+        assertEquals(0, wheel.size());
+        assertEquals(0, wheel.advance(3000, fired::add));
+    }
+
+    @Test
+    public void unscheduleAndMove()
+    {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, 1000);
+        Object oldToken = new Object();
+        Object newToken = new Object();
+        Set<String> fired = new HashSet<>();
+
+        wheel.schedule("removed", 1100, oldToken);
+        assertTrue(wheel.unschedule("removed", oldToken));
+        assertEquals(0, wheel.size());
+
+        wheel.schedule("replaced", 1100, oldToken);
+        wheel.schedule("replaced", 5000, newToken);
+        assertEquals("A key is only in one slot", 1, wheel.size());
+        assertTrue("Unscheduling an old token must keep the new one", !wheel.unschedule("replaced", oldToken));
+        assertEquals(0, wheel.advance(1200, fired::add));
+        assertEquals(1, wheel.advance(5000, fired::add));
+        assertTrue(fired.contains("replaced"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cacheTimeWithoutIdleTime()
+    {
+        verifyNotFiredBeforeCacheTime(new StandardObjectHolder<>(1, CacheWriteMode.Identity));
+        verifyNotFiredBeforeCacheTime(new CompactObjectHolder<>(1, CacheWriteMode.Identity));
+    }
+
+    /**
+     * Schedules a holder with a cache time of one hour and no idle time, like the Cache does, and verifies that
+     * it does not expire before the cache time. Higher levels of the wheel fire early, but only once per level.
+     */
+    private void verifyNotFiredBeforeCacheTime(AccessTimeObjectHolder<Integer> holder)
+    {
+        long cacheTime = TimeUnit.HOURS.toMillis(1);
+        holder.setMaxIdleTimeMillis(Constants.EXPIRY_MAX);
+        holder.setMaxCacheTimeMillis(cacheTime);
+        holder.setInputDateMillis(10_000);
+        holder.setLastAccessMillis(10_000);
+        long created = holder.getCreationTime();
+        assertEquals(created + cacheTime, holder.getExpirationDueTime());
+
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, created);
+        wheel.schedule("key", holder.getExpirationDueTime(), holder);
+        int fired = 0;
+        for (long now = created; now < created + cacheTime; now += 9_973)
+        {
+            long nowMillis = now;
+            fired += wheel.advance(nowMillis, key ->
+            {
+                assertTrue("Key expired before its cache time: " + holder, holder.getExpirationDueTime() > nowMillis);
+                wheel.schedule(key, holder.getExpirationDueTime(), holder);
+            });
+        }
+        assertTrue("Key must not be scheduled again on every tick: fired=" + fired, fired < 4);
+        assertEquals(1, wheel.advance(created + cacheTime + TICK, key -> {}));
+    }
+
+    /**
+     * Advances the wheel like the Cache cleaner does, and verifies that all keys whose expiration tick is reached
+     * have been fired.
+     */
+    private <K> void advanceAndVerify(TimingWheel<K> wheel, long now, Map<K, Long> expirations, Set<K> expired)
+    {
+        wheel.advance(now, key ->
+        {
+            long expiration = expirations.get(key);
+            if (expiration <= now)
+                expired.add(key);
+            else
+                wheel.schedule(key, expiration);
+        });
+
+        long nowTick = now / TICK;
+        for (Map.Entry<K, Long> entry : expirations.entrySet())
+        {
+            long expirationTick = (entry.getValue() + TICK - 1) / TICK;
+            if (expirationTick <= nowTick)
+            {
+                assertTrue("Key not fired in time: " + entry.getKey(), expired.contains(entry.getKey()));
+            }
+        }
+    }
+}
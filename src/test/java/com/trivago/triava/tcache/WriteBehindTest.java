@@ -0,0 +1,302 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.integration.CacheWriter;
+import javax.cache.integration.CacheWriterException;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.core.Builder;
+import com.trivago.triava.tcache.core.WriteBehindCacheWriter;
+
+/**
+ * Tests for the asynchronous write-behind configured by {@link Builder#setWriteBehind(int, int, TimeUnit)}
+ * 
+ * @author cesken
+ */
+public class WriteBehindTest
+{
+	@Test
+	public void coalescesAndFlushesOnClose()
+	{
+		RecordingWriter writer = new RecordingWriter();
+		Cache<Integer, String> cache = builder("coalesce", writer).setWriteBehind(100, 1, TimeUnit.HOURS).build();
+		javax.cache.Cache<Integer, String> jcache = cache.jsr107cache();
+		for (int i = 0; i < 10; i++)
+		{
+			jcache.put(1, "v" + i);
+		}
+		for (int i = 2; i <= 50; i++)
+		{
+			jcache.put(i, "v" + i);
+		}
+		jcache.remove(3);
+		assertEquals("Nothing may be written before the batch is due", 0, writer.writeCalls.get());
+
+		cache.close();
+
+		assertEquals(1, writer.writeCalls.get());
+		assertEquals(1, writer.deleteCalls.get());
+		assertEquals(49, writer.written.size());
+		assertEquals("v9", writer.written.get(1));
+		assertFalse(writer.written.containsKey(3));
+		assertEquals(1, writer.deleted.size());
+	}
+
+	@Test
+	public void writesBySize() throws InterruptedException
+	{
+		RecordingWriter writer = new RecordingWriter();
+		Cache<Integer, String> cache = builder("size", writer).setWriteBehind(10, 1, TimeUnit.HOURS).build();
+		javax.cache.Cache<Integer, String> jcache = cache.jsr107cache();
+		for (int i = 0; i < 100; i++)
+		{
+			jcache.put(i, "v" + i);
+		}
+
+		waitFor(() -> writer.written.size() == 100);
+		assertEquals(100, writer.written.size());
+		assertEquals(10, writer.writeCalls.get());
+		assertEquals(10, writer.maxBatch.get());
+		cache.close();
+	}
+
+	@Test
+	public void writesByTime() throws InterruptedException
+	{
+		RecordingWriter writer = new RecordingWriter();
+		Cache<Integer, String> cache = builder("time", writer).setWriteBehind(1000, 50, TimeUnit.MILLISECONDS).build();
+		cache.jsr107cache().put(1, "one");
+
+		waitFor(() -> writer.written.size() == 1);
+		assertEquals("one", writer.written.get(1));
+		cache.close();
+	}
+
+	@Test
+	public void flushesUnderSteadyWrites() throws InterruptedException
+	{
+		RecordingWriter writer = new RecordingWriter();
+		writer.delayMillis = 5;
+		Cache<Integer, String> cache = builder("flush", writer).setWriteBehind(10, 1, TimeUnit.HOURS)
+				.setWriteBehindQueueSize(100).build();
+		WriteBehindCacheWriter<Integer, String> wbWriter = (WriteBehindCacheWriter<Integer, String>) cache.cacheWriter();
+		javax.cache.Cache<Integer, String> jcache = cache.jsr107cache();
+		for (int i = 0; i < 55; i++)
+		{
+			jcache.put(i, "v" + i);
+		}
+
+		// The delegate is slower than the producer, so the queue is never empty while flushing
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread producer = new Thread(() -> {
+			for (int i = 1000; !stop.get(); i++)
+			{
+				jcache.put(i, "v" + i);
+			}
+		});
+		producer.start();
+		CountDownLatch flushed = new CountDownLatch(1);
+		Thread flusher = new Thread(() -> {
+			try
+			{
+				wbWriter.flush();
+				flushed.countDown();
+			}
+			catch (InterruptedException e)
+			{
+				// Fails below
+			}
+		});
+		flusher.start();
+
+		boolean flushReturned = flushed.await(10, TimeUnit.SECONDS);
+		stop.set(true);
+		producer.join();
+		flusher.interrupt();
+		assertTrue("flush() must not wait for writes queued after the call", flushReturned);
+		for (int i = 0; i < 55; i++)
+		{
+			assertEquals("v" + i, writer.written.get(i));
+		}
+		cache.close();
+	}
+
+	@Test
+	public void retriesFailedBatches()
+	{
+		RecordingWriter writer = new RecordingWriter();
+		writer.failures.set(2);
+		Cache<Integer, String> cache = builder("retry", writer).setWriteBehind(10, 1, TimeUnit.HOURS)
+				.setWriteBehindRetries(2, 1, TimeUnit.MILLISECONDS).build();
+		WriteBehindCacheWriter<Integer, String> wbWriter = (WriteBehindCacheWriter<Integer, String>) cache.cacheWriter();
+		cache.jsr107cache().put(1, "one");
+		cache.close();
+
+		assertEquals("one", writer.written.get(1));
+		assertEquals(3, writer.writeCalls.get());
+		assertEquals(0, wbWriter.failedCount());
+	}
+
+	@Test
+	public void dropsAfterRetries()
+	{
+		RecordingWriter writer = new RecordingWriter();
+		writer.failures.set(Integer.MAX_VALUE);
+		Cache<Integer, String> cache = builder("drop", writer).setWriteBehind(10, 1, TimeUnit.HOURS)
+				.setWriteBehindRetries(1, 1, TimeUnit.MILLISECONDS).build();
+		WriteBehindCacheWriter<Integer, String> wbWriter = (WriteBehindCacheWriter<Integer, String>) cache.cacheWriter();
+		cache.jsr107cache().put(1, "one");
+		cache.jsr107cache().put(2, "two");
+		cache.close();
+
+		assertEquals(2, writer.writeCalls.get());
+		assertEquals(2, wbWriter.failedCount());
+	}
+
+	@Test
+	public void blocksWhenQueueIsFull() throws InterruptedException
+	{
+		RecordingWriter writer = new RecordingWriter();
+		writer.gate = new CountDownLatch(1);
+		Cache<Integer, String> cache = builder("backpressure", writer).setWriteBehind(1, 0, TimeUnit.MILLISECONDS)
+				.setWriteBehindQueueSize(5).build();
+		javax.cache.Cache<Integer, String> jcache = cache.jsr107cache();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			for (int i = 0; i < 20; i++)
+			{
+				jcache.put(i, "v" + i);
+			}
+			done.countDown();
+		});
+		producer.start();
+
+		assertFalse("Producer must block while the writer is stuck", done.await(300, TimeUnit.MILLISECONDS));
+		writer.gate.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		cache.close();
+		assertEquals(20, writer.written.size());
+	}
+
+	private Builder<Integer, String> builder(String id, RecordingWriter writer)
+	{
+		return TCacheFactory.standardFactory().<Integer, String> builder().setId("WriteBehindTest-" + id)
+				.setCacheWriterFactory(new FactoryBuilder.SingletonFactory<CacheWriter<Integer, String>>(writer))
+				.setWriteThrough(true);
+	}
+
+	private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException
+	{
+		long waitUntil = System.currentTimeMillis() + 10_000;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < waitUntil)
+		{
+			Thread.sleep(10);
+		}
+	}
+
+	static class RecordingWriter implements CacheWriter<Integer, String>
+	{
+		final Map<Integer, String> written = new ConcurrentHashMap<>();
+		final List<Object> deleted = new ArrayList<>();
+		final AtomicInteger writeCalls = new AtomicInteger();
+		final AtomicInteger deleteCalls = new AtomicInteger();
+		final AtomicInteger maxBatch = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		volatile CountDownLatch gate = null;
+		volatile long delayMillis = 0;
+
+		@Override
+		public void write(javax.cache.Cache.Entry<? extends Integer, ? extends String> entry) throws CacheWriterException
+		{
+			written.put(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public void writeAll(Collection<javax.cache.Cache.Entry<? extends Integer, ? extends String>> entries) throws CacheWriterException
+		{
+			writeCalls.incrementAndGet();
+			if (failures.getAndDecrement() > 0)
+				throw new CacheWriterException("Simulated failure");
+			if (gate != null)
+			{
+				try
+				{
+					gate.await();
+				}
+				catch (InterruptedException e)
+				{
+					throw new CacheWriterException(e);
+				}
+			}
+			if (delayMillis > 0)
+			{
+				try
+				{
+					Thread.sleep(delayMillis);
+				}
+				catch (InterruptedException e)
+				{
+					throw new CacheWriterException(e);
+				}
+			}
+			maxBatch.accumulateAndGet(entries.size(), Math::max);
+			for (javax.cache.Cache.Entry<? extends Integer, ? extends String> entry : entries)
+			{
+				write(entry);
+			}
+			entries.clear();
+		}
+
+		@Override
+		public void delete(Object key) throws CacheWriterException
+		{
+			synchronized (deleted)
+			{
+				deleted.add(key);
+			}
+		}
+
+		@Override
+		public void deleteAll(Collection<?> keys) throws CacheWriterException
+		{
+			deleteCalls.incrementAndGet();
+			for (Object key : keys)
+			{
+				delete(key);
+			}
+			keys.clear();
+		}
+	}
+}
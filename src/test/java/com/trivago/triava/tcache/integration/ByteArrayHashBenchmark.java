@@ -0,0 +1,200 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+
+package com.trivago.triava.tcache.integration;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.Cache;
+import com.trivago.triava.tcache.CacheWriteMode;
+import com.trivago.triava.tcache.KeyHashing;
+import com.trivago.triava.tcache.TCacheFactory;
+import com.trivago.triava.tcache.storage.ByteArray;
+import com.trivago.triava.tcache.util.Serializing;
+
+/**
+ * DISCLAIMER: THESE TESTS ARE NOT PART OF THE REGULAR UNIT TESTS. THEY WILL NOT BE EXECUTED IN THE MAVEN TEST
+ * SCOPE. ONLY RUN THEM IF YOU KNOW THE INNER WORKINGS OF TRIAVA CACHE.
+ * <p>
+ * Compares {@link KeyHashing#SAMPLING} with {@link KeyHashing#XXHASH64} for serialized keys. The first benchmark
+ * counts the hash code collisions of keys using Java serialization, the second one measures the throughput of
+ * calculating the hash codes and of lookups in a HashMap, the last one measures the lookup throughput of a
+ * Cache in store-by-value mode.
+ * 
+ * @author cesken
+ *
+ */
+public class ByteArrayHashBenchmark
+{
+    private static final int KEYS = 1_000_000;
+    // The sampled hash codes of the keys nearly all collide, so lookups with SAMPLING are O(n). Keep this small.
+    private static final int LOOKUP_KEYS = 5_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void compareCollisions() throws IOException
+    {
+        byte[][] serializedKeys = serializedKeys(KEYS);
+        for (KeyHashing hashing : KeyHashing.values())
+        {
+            Set<Integer> hashCodes = new HashSet<>(KEYS * 2);
+            // Count keys that share a bucket in a power of two table, like the one of a HashMap
+            int buckets = Integer.highestOneBit(KEYS) << 1;
+            int[] bucketCounts = new int[buckets];
+            for (byte[] serializedKey : serializedKeys)
+            {
+                int hashCode = new ByteArray(serializedKey, hashing).hashCode();
+                hashCodes.add(hashCode);
+                bucketCounts[spread(hashCode) & (buckets - 1)]++;
+            }
+            int maxBucket = 0;
+            long bucketCollisions = 0;
+            for (int count : bucketCounts)
+            {
+                maxBucket = Math.max(maxBucket, count);
+                if (count > 1)
+                    bucketCollisions += count - 1;
+            }
+            System.out.println(hashing + ": keys=" + KEYS + ", distinct hash codes=" + hashCodes.size()
+                    + ", bucket collisions=" + bucketCollisions + ", longest bucket=" + maxBucket);
+        }
+    }
+
+    @Test
+    public void compareThroughput() throws IOException
+    {
+        byte[][] serializedKeys = serializedKeys(LOOKUP_KEYS);
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            for (KeyHashing hashing : KeyHashing.values())
+            {
+                long start = System.nanoTime();
+                ByteArray[] keys = new ByteArray[LOOKUP_KEYS];
+                for (int i = 0; i < LOOKUP_KEYS; i++)
+                {
+                    keys[i] = new ByteArray(serializedKeys[i], hashing);
+                }
+                long hashNanos = System.nanoTime() - start;
+
+                Map<ByteArray, Integer> map = new HashMap<>(LOOKUP_KEYS * 2);
+                for (int i = 0; i < LOOKUP_KEYS; i++)
+                {
+                    map.put(keys[i], i);
+                }
+                start = System.nanoTime();
+                long found = 0;
+                for (int i = 0; i < LOOKUP_KEYS; i++)
+                {
+                    if (map.get(new ByteArray(serializedKeys[i], hashing)) != null)
+                        found++;
+                }
+                long lookupNanos = System.nanoTime() - start;
+
+                System.out.println(hashing + ", round=" + round + ": hash=" + TimeUnit.NANOSECONDS.toMillis(hashNanos) + "ms"
+                        + ", lookup=" + TimeUnit.NANOSECONDS.toMillis(lookupNanos) + "ms, found=" + found);
+            }
+        }
+    }
+
+    @Test
+    public void compareCacheLookups()
+    {
+        for (KeyHashing hashing : KeyHashing.values())
+        {
+            Cache<CompositeKey, Integer> cache = TCacheFactory.standardFactory().<CompositeKey, Integer> builder()
+                    .setId("ByteArrayHashBenchmark-" + hashing)
+                    .setCacheWriteMode(CacheWriteMode.Serialize)
+                    .setKeyHashing(hashing)
+                    .build();
+            int elems = LOOKUP_KEYS;
+            for (int i = 0; i < elems; i++)
+            {
+                cache.put(new CompositeKey("de", i), i);
+            }
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                long start = System.nanoTime();
+                for (int i = 0; i < elems; i++)
+                {
+                    cache.get(new CompositeKey("de", i));
+                }
+                long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                System.out.println(hashing + ", round=" + round + ": " + elems + " lookups in " + durationMillis + "ms");
+            }
+            cache.close();
+        }
+    }
+
+    private static byte[][] serializedKeys(int count) throws IOException
+    {
+        byte[][] serializedKeys = new byte[count][];
+        for (int i = 0; i < count; i++)
+        {
+            serializedKeys[i] = Serializing.toBytearray(new CompositeKey("de", i));
+        }
+        return serializedKeys;
+    }
+
+    /**
+     * Same spreading as in java.util.HashMap
+     */
+    private static int spread(int hashCode)
+    {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    /**
+     * A typical key using Java serialization. The serialized form starts with a long identical stream header.
+     */
+    static class CompositeKey implements Serializable
+    {
+        private static final long serialVersionUID = 5157433417522380498L;
+
+        final String locale;
+        final long id;
+
+        CompositeKey(String locale, long id)
+        {
+            this.locale = locale;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return locale.hashCode() * 31 + Long.hashCode(id);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof CompositeKey))
+                return false;
+            CompositeKey other = (CompositeKey) obj;
+            return id == other.id && locale.equals(other.locale);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.integration;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.Cache;
+import com.trivago.triava.tcache.EvictionMode;
+import com.trivago.triava.tcache.TCacheFactory;
+import com.trivago.triava.tcache.eviction.FrozenValueBuffer;
+import com.trivago.triava.tcache.eviction.HolderFreezer;
+import com.trivago.triava.tcache.eviction.LFUEviction;
+import com.trivago.triava.tcache.eviction.VictimSelection;
+
+/**
+ * DISCLAIMER: THESE TESTS ARE NOT PART OF THE REGULAR UNIT TESTS. THEY WILL NOT BE EXECUTED IN THE MAVEN TEST
+ * SCOPE. ONLY RUN THEM IF YOU KNOW THE INNER WORKINGS OF TRIAVA CACHE.
+ * <p>
+ * Compares the victim ordering of {@link EvictionMode#FULL} (sorting all frozen entries) with {@link EvictionMode#SELECT}
+ * (partial selection of the victims). The first benchmarks measure the ordering step in isolation, the last ones
+ * measure the write throughput of a full Cache in both modes, with sequential and parallel eviction. The primitive selection is what {@link EvictionMode#SELECT} uses
+ * for the standard eviction policies. Run with a big heap, e.g. -Xmx4g.
+ * 
+ * @author cesken
+ *
+ */
+public class EvictionSelectionBenchmark
+{
+    private static final int ROUNDS = 5;
+    private static final int EVICT_PERCENT = 10;
+
+    @Test
+    public void compareOrdering1M()
+    {
+        compareOrdering(1_000_000);
+    }
+
+    @Test
+    public void compareOrdering10M()
+    {
+        compareOrdering(10_000_000);
+    }
+
+    @Test
+    public void compareCacheWrites1M()
+    {
+        compareCacheWrites(1_000_000);
+    }
+
+    @Test
+    public void compareCacheWrites10M()
+    {
+        compareCacheWrites(10_000_000);
+    }
+
+    private void compareOrdering(int size)
+    {
+        Comparator<HolderFreezer<Integer, Integer>> comparator = new LFUEviction<Integer, Integer>().evictionComparator();
+        HolderFreezer<Integer, Integer>[] template = createFrozen(size);
+        int victims = size * EVICT_PERCENT / 100;
+
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            HolderFreezer<Integer, Integer>[] toSort = template.clone();
+            long start = System.nanoTime();
+            Arrays.sort(toSort, comparator);
+            long sortNanos = System.nanoTime() - start;
+
+            HolderFreezer<Integer, Integer>[] toSelect = template.clone();
+            start = System.nanoTime();
+            VictimSelection.selectSmallest(toSelect, victims, comparator);
+            long selectNanos = System.nanoTime() - start;
+
+            FrozenValueBuffer<Integer, Integer> buffer = new FrozenValueBuffer<>(size);
+            for (HolderFreezer<Integer, Integer> frozen : template)
+            {
+                buffer.add(frozen.getKey(), null, frozen.getFrozenValue());
+            }
+            start = System.nanoTime();
+            buffer.selectSmallest(victims);
+            long primitiveSelectNanos = System.nanoTime() - start;
+
+            System.out.println("size=" + size + ", victims=" + victims + ", round=" + round
+                    + ": sort=" + TimeUnit.NANOSECONDS.toMillis(sortNanos) + "ms"
+                    + ", select=" + TimeUnit.NANOSECONDS.toMillis(selectNanos) + "ms"
+                    + ", primitive-select=" + TimeUnit.NANOSECONDS.toMillis(primitiveSelectNanos) + "ms");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private HolderFreezer<Integer, Integer>[] createFrozen(int size)
+    {
+        Random random = new Random(42);
+        HolderFreezer<Integer, Integer>[] frozen = new HolderFreezer[size];
+        for (int i = 0; i < size; i++)
+        {
+            // Skewed use counts, similar to what LFUEviction freezes 
+            long useCount = (long)Math.abs(random.nextGaussian() * 100);
+            frozen[i] = new HolderFreezer<>(i, null, useCount);
+        }
+        return frozen;
+    }
+
+    private void compareCacheWrites(int size)
+    {
+        for (boolean parallel : new boolean[] { false, true })
+        {
+            for (EvictionMode evictionMode : new EvictionMode[] { EvictionMode.FULL, EvictionMode.SELECT })
+            {
+                String variant = evictionMode + (parallel ? "-parallel" : "");
+                Cache<Integer, Integer> cache = TCacheFactory.standardFactory().<Integer, Integer> builder()
+                        .setId("EvictionSelectionBenchmark-" + variant + "-" + size)
+                        .setMaxElements(size)
+                        .setEvictionMode(evictionMode)
+                        .setParallelEviction(parallel)
+                        .build();
+
+                int elems = 5 * size;
+                long start = System.nanoTime();
+                for (int i = 0; i < elems; i++)
+                {
+                    cache.put(i, i);
+                }
+                long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                System.out.println(variant + ": " + durationMillis + "ms. " + cache.statistics());
+                cache.close();
+            }
+        }
+    }
+}
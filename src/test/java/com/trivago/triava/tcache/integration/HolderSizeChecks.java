@@ -0,0 +1,92 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.integration;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.Cache;
+import com.trivago.triava.tcache.TCacheFactory;
+
+/**
+ * DISCLAIMER: THESE TESTS ARE NOT PART OF THE REGULAR UNIT TESTS. THEY WILL NOT BE EXECUTED IN THE MAVEN TEST
+ * SCOPE. ONLY RUN THEM IF YOU KNOW THE INNER WORKINGS OF TRIAVA CACHE.
+ * <p>
+ * Compares the memory footprint of the standard and the compact holder layout. The footprint is measured as the
+ * growth of the used heap after a GC, when filling a Cache. Keys and values are identical for both layouts, so the
+ * difference per entry is the difference of the holder sizes as laid out by the running JVM. Run it with a
+ * fixed heap size and the serial GC, e.g. -Xms1g -Xmx1g -XX:+UseSerialGC, to get stable numbers. Expected is a
+ * saving of 8 bytes per entry with compressed oops.
+ * 
+ * @author cesken
+ *
+ */
+public class HolderSizeChecks
+{
+    private static final int ENTRIES = 1_000_000;
+    private static final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+    @Test
+    public void compactHoldersAreSmaller()
+    {
+        Integer[] values = new Integer[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++)
+        {
+            values[i] = i;
+        }
+
+        measure(false, values); // Warm up, e.g. class loading and thread pools
+        double standardSize = measure(false, values);
+        double compactSize = measure(true, values);
+        System.out.println("Heap bytes per entry: standard=" + standardSize + ", compact=" + compactSize);
+        assertTrue("Compact holders should save about 8 bytes per entry", standardSize - compactSize >= 7);
+    }
+
+    /**
+     * @return The heap growth per entry in bytes
+     */
+    private double measure(boolean compact, Integer[] values)
+    {
+        long before = usedHeap();
+        Cache<Integer, Integer> cache = TCacheFactory.standardFactory().<Integer, Integer> builder()
+                .setId("HolderSizeChecks-" + compact)
+                .setMaxElements(ENTRIES)
+                .setCompactHolders(compact)
+                .build();
+        for (Integer value : values)
+        {
+            cache.put(value, value);
+        }
+        long after = usedHeap();
+        cache.close();
+        return (after - before) / (double) ENTRIES;
+    }
+
+    private long usedHeap()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+}
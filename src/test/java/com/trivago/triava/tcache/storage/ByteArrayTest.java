@@ -0,0 +1,64 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.KeyHashing;
+
+/**
+ * Tests for the hashing of {@link ByteArray}
+ * 
+ * @author cesken
+ *
+ */
+public class ByteArrayTest
+{
+	@Test
+	public void xxHash64ReferenceValues()
+	{
+		assertEquals(0xEF46DB3751D8E999L, ByteArray.xxHash64(new byte[0], 0));
+		assertEquals(0xD24EC4F1A98C6E5BL, ByteArray.xxHash64(bytes("a"), 0));
+		assertEquals(0x44BC2CF5AD770999L, ByteArray.xxHash64(bytes("abc"), 0));
+		assertEquals(0xFBCEA83C8A378BF1L, ByteArray.xxHash64(bytes("Nobody inspects the spammish repetition"), 0));
+	}
+
+	@Test
+	public void fullHashSeesAllBytes()
+	{
+		byte[] bytes1 = new byte[1000];
+		byte[] bytes2 = new byte[1000];
+		// Position 1 is not sampled by the sampling hash
+		bytes2[1] = 1;
+
+		assertEquals(new ByteArray(bytes1, KeyHashing.SAMPLING).hashCode(), new ByteArray(bytes2, KeyHashing.SAMPLING).hashCode());
+		assertNotEquals(new ByteArray(bytes1, KeyHashing.XXHASH64).hashCode(), new ByteArray(bytes2, KeyHashing.XXHASH64).hashCode());
+		assertNotEquals(new ByteArray(bytes1, KeyHashing.XXHASH64), new ByteArray(bytes2, KeyHashing.XXHASH64));
+		assertEquals(new ByteArray(bytes1.clone(), KeyHashing.XXHASH64), new ByteArray(bytes1, KeyHashing.XXHASH64));
+	}
+
+	private static byte[] bytes(String s)
+	{
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,163 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConcurrentLongKeyMap}
+ * 
+ * @author cesken
+ *
+ */
+public class ConcurrentLongKeyMapTest
+{
+	@Test
+	public void behavesLikeHashMap()
+	{
+		ConcurrentLongKeyMap<String> map = new ConcurrentLongKeyMap<>(16, 4);
+		Map<Long, String> reference = new HashMap<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200_000; i++)
+		{
+			// Few distinct keys, so there are many removals within probe sequences
+			long key = random.nextInt(2000) - 1000;
+			switch (random.nextInt(4))
+			{
+				case 0:
+					assertEquals(reference.put(key, "v" + i), map.put(key, "v" + i));
+					break;
+				case 1:
+					assertEquals(reference.remove(key), map.remove(key));
+					break;
+				case 2:
+					assertEquals(reference.putIfAbsent(key, "a" + i), map.putIfAbsent(key, "a" + i));
+					break;
+				default:
+					assertEquals(reference.get(key), map.get(key));
+			}
+		}
+
+		assertEquals(reference.size(), map.size());
+		assertEquals(reference, new HashMap<>(map));
+	}
+
+	@Test
+	public void conditionalOperations()
+	{
+		ConcurrentLongKeyMap<String> map = new ConcurrentLongKeyMap<>(0, 1);
+		assertNull(map.replace(1L, "x"));
+		assertFalse(map.containsKey(1L));
+		map.put(1L, "one");
+		assertFalse(map.replace(1L, "other", "uno"));
+		assertTrue(map.replace(1L, "one", "uno"));
+		assertFalse(map.remove(1L, "one"));
+		assertTrue(map.remove(1L, "uno"));
+		assertNull(map.get(1L));
+		assertNull(map.get("1"));
+	}
+
+	@Test
+	public void iteratorRemove()
+	{
+		ConcurrentLongKeyMap<Long> map = new ConcurrentLongKeyMap<>(0, 4);
+		for (long i = 0; i < 1000; i++)
+		{
+			map.put(i, Long.valueOf(i));
+		}
+
+		Iterator<Entry<Long, Long>> it = map.entrySet().iterator();
+		int visited = 0;
+		while (it.hasNext())
+		{
+			Entry<Long, Long> entry = it.next();
+			visited++;
+			if (entry.getKey() % 2 == 0)
+				it.remove();
+		}
+
+		assertEquals(1000, visited);
+		assertEquals(500, map.size());
+		for (long i = 0; i < 1000; i++)
+		{
+			assertEquals(i % 2 == 0 ? null : Long.valueOf(i), map.get(i));
+		}
+	}
+
+	@Test
+	public void concurrentReadsDuringWrites() throws Exception
+	{
+		final ConcurrentLongKeyMap<Long> map = new ConcurrentLongKeyMap<>(0, 2);
+		final int keys = 10_000;
+		for (long i = 0; i < keys; i += 2)
+		{
+			map.put(i, Long.valueOf(i));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try
+		{
+			// The writer adds and removes the odd keys, the readers must always find the even keys
+			Future<?> writer = executor.submit(() -> {
+				for (int round = 0; round < 20; round++)
+				{
+					for (long i = 1; i < keys; i += 2)
+						map.put(i, Long.valueOf(i));
+					for (long i = 1; i < keys; i += 2)
+						map.remove(i);
+				}
+			});
+			Future<Integer> reader = executor.submit(() -> {
+				int misses = 0;
+				while (!writer.isDone())
+				{
+					for (long i = 0; i < keys; i += 2)
+					{
+						Long value = map.get(i);
+						if (value == null || value != i)
+							misses++;
+					}
+				}
+				return misses;
+			});
+
+			writer.get(60, TimeUnit.SECONDS);
+			assertEquals(Integer.valueOf(0), reader.get(60, TimeUnit.SECONDS));
+			assertEquals(keys / 2, map.size());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}
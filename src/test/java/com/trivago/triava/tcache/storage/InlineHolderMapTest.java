@@ -0,0 +1,180 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.trivago.triava.tcache.AccessTimeObjectHolder;
+import com.trivago.triava.tcache.CacheWriteMode;
+import com.trivago.triava.tcache.CompactObjectHolder;
+import com.trivago.triava.tcache.InlineObjectHolder;
+
+/**
+ * Tests for {@link InlineHolderMap}
+ * 
+ * @author cesken
+ *
+ */
+public class InlineHolderMapTest
+{
+	@Test
+	public void behavesLikeHashMap()
+	{
+		InlineHolderMap<Integer, String> map = new InlineHolderMap<>(16, 4);
+		Map<Integer, AccessTimeObjectHolder<String>> reference = new HashMap<>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200_000; i++)
+		{
+			Integer key = random.nextInt(2000);
+			AccessTimeObjectHolder<String> holder = holder("v" + i);
+			switch (random.nextInt(4))
+			{
+				case 0:
+					assertSame(reference.put(key, holder), map.put(key, holder));
+					break;
+				case 1:
+					assertSame(reference.remove(key), map.remove(key));
+					break;
+				case 2:
+					assertSame(reference.putIfAbsent(key, holder), map.putIfAbsent(key, holder));
+					break;
+				default:
+					assertSame(reference.get(key), map.get(key));
+			}
+		}
+
+		assertEquals(reference.size(), map.size());
+		assertEquals(reference, new HashMap<>(map));
+	}
+
+	@Test
+	public void conditionalOperations()
+	{
+		InlineHolderMap<String, String> map = new InlineHolderMap<>(0, 1);
+		AccessTimeObjectHolder<String> one = holder("one");
+		AccessTimeObjectHolder<String> uno = holder("uno");
+		assertNull(map.replace("1", one));
+		map.put("1", one);
+		assertFalse(map.replace("1", uno, holder("x")));
+		assertTrue(map.replace("1", one, uno));
+		assertFalse(map.remove("1", one));
+		assertTrue(map.remove("1", uno));
+		assertTrue(map.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOtherHolders()
+	{
+		InlineHolderMap<String, String> map = new InlineHolderMap<>(0, 1);
+		map.put("1", new CompactObjectHolder<String>("one", CacheWriteMode.Identity));
+	}
+
+	@Test
+	public void iteratorRemove()
+	{
+		InlineHolderMap<Integer, String> map = new InlineHolderMap<>(0, 4);
+		for (int i = 0; i < 1000; i++)
+		{
+			map.put(i, holder("v" + i));
+		}
+
+		Iterator<Entry<Integer, AccessTimeObjectHolder<String>>> it = map.entrySet().iterator();
+		int visited = 0;
+		while (it.hasNext())
+		{
+			Entry<Integer, AccessTimeObjectHolder<String>> entry = it.next();
+			visited++;
+			if (entry.getKey() % 2 == 0)
+				it.remove();
+		}
+
+		assertEquals(1000, visited);
+		assertEquals(500, map.size());
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals(i % 2 != 0, map.containsKey(i));
+		}
+	}
+
+	@Test
+	public void concurrentReadsDuringResize() throws Exception
+	{
+		final InlineHolderMap<Integer, String> map = new InlineHolderMap<>(0, 1);
+		final int keys = 10_000;
+		for (int i = 0; i < keys; i += 2)
+		{
+			map.put(i, holder("v" + i));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			// The writer adds and removes the odd keys, which resizes the table. The reader must always find the even keys.
+			Future<?> writer = executor.submit(() -> {
+				for (int round = 0; round < 20; round++)
+				{
+					for (int i = 1; i < keys; i += 2)
+						map.put(i, holder("v" + i));
+					for (int i = 1; i < keys; i += 2)
+						map.remove(i);
+				}
+			});
+			Future<Integer> reader = executor.submit(() -> {
+				int misses = 0;
+				while (!writer.isDone())
+				{
+					for (int i = 0; i < keys; i += 2)
+					{
+						if (map.get(i) == null)
+							misses++;
+					}
+				}
+				return misses;
+			});
+
+			writer.get(60, TimeUnit.SECONDS);
+			assertEquals(Integer.valueOf(0), reader.get(60, TimeUnit.SECONDS));
+			assertEquals(keys / 2, map.size());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static AccessTimeObjectHolder<String> holder(String value)
+	{
+		return new InlineObjectHolder<String>(value, CacheWriteMode.Identity, null);
+	}
+}
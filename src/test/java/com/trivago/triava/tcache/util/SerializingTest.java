@@ -0,0 +1,128 @@
+/*********************************************************************************
+ * Copyright 2018-present trivago GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **********************************************************************************/
+
+
+package com.trivago.triava.tcache.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for the built-in codecs of {@link Serializing}.
+ * 
+ * @author cesken
+ */
+public class SerializingTest
+{
+	@Test
+	public void codecRoundTrip() throws Exception
+	{
+		Object[] values = { "", "triava", "ünicöde €", 42, -1L, (short)7, (byte)-3, 'x', true, false, 1.5F, Math.PI,
+				Integer.MIN_VALUE, Long.MAX_VALUE };
+		for (Object value : values)
+		{
+			byte[] bytes = Serializing.toBytearray(value);
+			assertTrue("Codec must not use Java serialization for " + value.getClass(), bytes[0] != Serializing.TAG_JAVA_SERIALIZATION);
+			assertEquals(value, Serializing.fromBytearray(bytes));
+		}
+
+		byte[] byteArray = { 1, 2, 3 };
+		assertArrayEquals(byteArray, (byte[])Serializing.fromBytearray(Serializing.toBytearray(byteArray)));
+	}
+
+	@Test
+	public void compactEncoding() throws Exception
+	{
+		assertEquals(5, Serializing.toBytearray(42).length);
+		assertEquals(7, Serializing.toBytearray("triava").length);
+	}
+
+	@Test
+	public void externalizable() throws Exception
+	{
+		ExternalizableValue value = new ExternalizableValue(4711, "inner");
+		byte[] bytes = Serializing.toBytearray(value);
+		assertEquals(Serializing.TAG_EXTERNALIZABLE, bytes[0]);
+		ExternalizableValue copy = (ExternalizableValue)Serializing.fromBytearray(bytes);
+		assertEquals(4711, copy.id);
+		assertEquals("inner", copy.name);
+	}
+
+	@Test
+	public void javaSerializationFallback() throws Exception
+	{
+		ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+		byte[] bytes = Serializing.toBytearray(list);
+		assertEquals(Serializing.TAG_JAVA_SERIALIZATION, bytes[0]);
+		assertEquals(list, Serializing.fromBytearray(bytes));
+
+		// The pooled buffer must not leak data from the previous call
+		assertEquals("x", Serializing.fromBytearray(Serializing.toBytearray("x")));
+		assertEquals(list, Serializing.fromBytearray(Serializing.toBytearray(list)));
+	}
+
+	@Test
+	public void deterministicKeys() throws Exception
+	{
+		assertArrayEquals(Serializing.toBytearray(new ArrayList<>(Arrays.asList(1, 2))), Serializing.toBytearray(new ArrayList<>(Arrays.asList(1, 2))));
+		assertArrayEquals(Serializing.toBytearray(new ExternalizableValue(1, "a")), Serializing.toBytearray(new ExternalizableValue(1, "a")));
+	}
+
+	public static class ExternalizableValue implements Externalizable
+	{
+		int id;
+		String name;
+
+		public ExternalizableValue()
+		{
+		}
+
+		ExternalizableValue(int id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+
+		@Override
+		public void writeExternal(ObjectOutput out) throws IOException
+		{
+			out.writeInt(id);
+			// Nested serialization must not use the same pooled buffer
+			byte[] nameBytes = Serializing.toBytearray(name);
+			out.writeInt(nameBytes.length);
+			out.write(nameBytes);
+		}
+
+		@Override
+		public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+		{
+			id = in.readInt();
+			byte[] nameBytes = new byte[in.readInt()];
+			in.readFully(nameBytes);
+			name = (String)Serializing.fromBytearray(nameBytes);
+		}
+	}
+}